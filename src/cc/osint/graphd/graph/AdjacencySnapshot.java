@@ -0,0 +1,170 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import cc.osint.graphd.graph.VersionedAdjacency.*;
+
+/*
+ * an immutable version of a graph's adjacency, pinned by
+ *  VersionedAdjacency.snapshot() until release()
+ *
+ * vertices & edges are addressed by int id; ids below
+ *  getVertexCapacity() / getEdgeCapacity() may be unused (null object)
+*/
+public class AdjacencySnapshot {
+    final private VersionedAdjacency adjacency;
+    final private long epoch;
+    final private long edgeEpoch;
+    private VertexPage[] vertexPages;
+    final private int vertexCapacity;
+    final private int vertexCount;
+    private EdgePage[] edgePages;
+    final private int edgeCapacity;
+    final private int edgeCount;
+    private boolean released = false;
+    private SnapshotGraph graph = null;
+
+    AdjacencySnapshot(VersionedAdjacency adjacency, long epoch, long edgeEpoch,
+                      VertexPage[] vertexPages, int vertexCapacity, int vertexCount,
+                      EdgePage[] edgePages, int edgeCapacity, int edgeCount) {
+        this.adjacency = adjacency;
+        this.epoch = epoch;
+        this.edgeEpoch = edgeEpoch;
+        this.vertexPages = vertexPages;
+        this.vertexCapacity = vertexCapacity;
+        this.vertexCount = vertexCount;
+        this.edgePages = edgePages;
+        this.edgeCapacity = edgeCapacity;
+        this.edgeCount = edgeCount;
+    }
+
+    /*
+     * unpin: the pages this snapshot alone was holding can be collected
+    */
+    public synchronized void release() {
+        if (released) return;
+        released = true;
+        vertexPages = null;
+        edgePages = null;
+        graph = null;
+        adjacency.released();
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /*
+     * changes only when an edge is added, removed or reweighted
+    */
+    public long getEdgeEpoch() {
+        return edgeEpoch;
+    }
+
+    /*
+     * a read-only jgrapht view of this snapshot
+    */
+    public synchronized SnapshotGraph asGraph() {
+        if (released) {
+            throw new IllegalStateException("snapshot " + epoch + " has been released");
+        }
+        if (null == graph) {
+            graph = new SnapshotGraph(this);
+        }
+        return graph;
+    }
+
+    /*
+     * vertices
+    */
+
+    public int numVertices() {
+        return vertexCount;
+    }
+
+    public int getVertexCapacity() {
+        return vertexCapacity;
+    }
+
+    public JSONVertex getVertex(int vid) {
+        VertexRecord record = VersionedAdjacency.getRecord(vertexPages, vid);
+        return null == record ? null : record.vertex;
+    }
+
+    /*
+     * -1 if the vertex is not in this snapshot
+    */
+    public int getVertexId(JSONVertex jv) {
+        VertexRecord record = VersionedAdjacency.getRecord(vertexPages, jv.vid);
+        return (null != record && record.vertex == jv) ? jv.vid : -1;
+    }
+
+    public int outDegree(int vid) {
+        return record(vid).outCount;
+    }
+
+    public int outEdge(int vid, int i) {
+        return record(vid).out[i];
+    }
+
+    public int inDegree(int vid) {
+        return record(vid).inCount;
+    }
+
+    public int inEdge(int vid, int i) {
+        return record(vid).in[i];
+    }
+
+    /*
+     * edges
+    */
+
+    public int numEdges() {
+        return edgeCount;
+    }
+
+    public int getEdgeCapacity() {
+        return edgeCapacity;
+    }
+
+    public JSONEdge getEdge(int eid) {
+        return VersionedAdjacency.getEdgeObject(edgePages, eid);
+    }
+
+    /*
+     * -1 if the edge is not in this snapshot
+    */
+    public int getEdgeId(JSONEdge je) {
+        return getEdge(je.eid) == je ? je.eid : -1;
+    }
+
+    public int edgeSource(int eid) {
+        return edgePages[eid >>> VersionedAdjacency.PAGE_BITS].source[eid & VersionedAdjacency.PAGE_MASK];
+    }
+
+    public int edgeTarget(int eid) {
+        return edgePages[eid >>> VersionedAdjacency.PAGE_BITS].target[eid & VersionedAdjacency.PAGE_MASK];
+    }
+
+    public double edgeWeight(int eid) {
+        return edgePages[eid >>> VersionedAdjacency.PAGE_BITS].weight[eid & VersionedAdjacency.PAGE_MASK];
+    }
+
+    private VertexRecord record(int vid) {
+        return vertexPages[vid >>> VersionedAdjacency.PAGE_BITS].records[vid & VersionedAdjacency.PAGE_MASK];
+    }
+}
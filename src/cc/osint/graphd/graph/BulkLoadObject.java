@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import org.apache.lucene.document.Document;
+import org.json.JSONObject;
+
+/*
+ * a parsed vertex or edge waiting to be inserted by Graph.bulkLoad;
+ *  the index document is built up front so that it can be done by
+ *  the (parallel) parser instead of the graph's command thread
+*/
+public class BulkLoadObject {
+    final protected String type;
+    final protected String key;
+    final protected JSONObject data;
+    final protected String vKeyFrom;
+    final protected String vKeyTo;
+    final protected String rel;
+    final protected double weight;
+    final protected Document doc;
+    protected boolean applied = false;      // set by Graph.bulkLoad if inserted
+    
+    private BulkLoadObject(String type, String key, JSONObject data,
+                           String vKeyFrom, String vKeyTo, 
+                           String rel, double weight) throws Exception {
+        this.type = type;
+        this.key = key;
+        this.data = data;
+        this.vKeyFrom = vKeyFrom;
+        this.vKeyTo = vKeyTo;
+        this.rel = rel;
+        this.weight = weight;
+        doc = Graph.createIndexDocument(key, type, data);
+    }
+    
+    public static BulkLoadObject vertex(String key, JSONObject jo) 
+        throws Exception {
+        return new BulkLoadObject(Graph.VERTEX_TYPE, key, jo, 
+                                  null, null, null, 0.0);
+    }
+    
+    public static BulkLoadObject edge(String key, JSONObject jo,
+        String vKeyFrom, String vKeyTo, String rel, double weight) throws Exception {
+        return new BulkLoadObject(Graph.EDGE_TYPE, key, jo, 
+                                  vKeyFrom, vKeyTo, rel, weight);
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    public String getKey() {
+        return key;
+    }
+    
+    public boolean isApplied() {
+        return applied;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * betweenness & closeness centrality over a CompactGraph, from one
+ *  shortest path search per source vertex: breadth first (hops), or
+ *  dijkstra over positive edge weights (weighted).
+ *
+ *   betweenness  brandes' algorithm: the dependencies of each source on
+ *                 the vertices of its shortest path dag, accumulated
+ *                 over all sources & normalized by (n-1)(n-2)
+ *   closeness    the inverse of the mean distance from a vertex to the
+ *                 vertices it reaches
+ *
+ * exact centrality searches from every vertex.  given a number of
+ *  pivots k, it is approximated from k random sources instead: brandes
+ *  dependencies scaled by n/k; closeness from the mean distance to the
+ *  pivots, by searching backward from each.  pivots are drawn with the
+ *  graph's epoch as seed, so the same version gets the same estimate.
+ *
+ * each source is a fork/join task on MatrixIteration's pool.  searches
+ *  reuse a workspace per worker thread, which also holds that
+ *  worker's accumulators; they are merged once all sources are done.
+*/
+public class Centrality {
+    final public static String BETWEENNESS = "betweenness";
+    final public static String CLOSENESS = "closeness";
+
+    public interface ProgressListener {
+        public void progress(int sourcesDone, int sources, long elapsed) throws Exception;
+    }
+
+    final private CompactGraph cg;
+    final private String measure;
+    final private boolean weighted;
+    final private int[] sources;
+    final private boolean sampled;
+    final private double[] score;
+    final private AtomicInteger sourcesDone = new AtomicInteger(0);
+    final private List<Workspace> workspaces = new ArrayList<Workspace>();
+    final private ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+        protected Workspace initialValue() {
+            Workspace ws = new Workspace(cg.getVertexCapacity(), !sampled && measure == CLOSENESS);
+            synchronized(workspaces) {
+                workspaces.add(ws);
+            }
+            return ws;
+        }
+    };
+    private long elapsed = 0;
+
+    /*
+     * pivots <= 0: exact
+    */
+    public Centrality(CompactGraph cg, String measure, boolean weighted,
+                      int pivots) throws Exception {
+        if (!measure.equals(BETWEENNESS) && !measure.equals(CLOSENESS)) {
+            throw new Exception("unknown centrality measure: " + measure);
+        }
+        this.cg = cg;
+        this.measure = measure.equals(BETWEENNESS) ? BETWEENNESS : CLOSENESS;
+        this.weighted = weighted;
+        if (weighted) {
+            for(int e=0; e<cg.numEdges(); e++) {
+                if (cg.edgeWeight[e] <= 0) {
+                    throw new Exception("weighted centrality requires positive weights: " +
+                        cg.getEdge(e).getKey());
+                }
+            }
+        }
+        int n = cg.getVertexCapacity();
+        int[] vertices = new int[cg.numVertices()];
+        int count = 0;
+        for(int v=0; v<n; v++) {
+            if (null != cg.getVertex(v)) vertices[count++] = v;
+        }
+        sampled = pivots > 0 && pivots < count;
+        if (sampled) {
+            // partial fisher-yates
+            Random random = new Random(cg.getEpoch());
+            for(int i=0; i<pivots; i++) {
+                int j = i + random.nextInt(count - i);
+                int swap = vertices[i]; vertices[i] = vertices[j]; vertices[j] = swap;
+            }
+            sources = Arrays.copyOf(vertices, pivots);
+        } else {
+            sources = vertices;
+        }
+        score = new double[n];
+    }
+
+    /*
+     * reports progress to <listener> (if not null) every <interval> ms
+     *  from the calling thread while the sources are searched
+    */
+    public Centrality run(ProgressListener listener, long interval) throws Exception {
+        long t0 = System.currentTimeMillis();
+        ForkJoinTask<Void> task = MatrixIteration.pool.submit(new Sources(this, 0, sources.length));
+        while (true) {
+            try {
+                task.get(interval, TimeUnit.MILLISECONDS);
+                break;
+            } catch (TimeoutException ex) {
+                if (null != listener) {
+                    listener.progress(sourcesDone.get(), sources.length,
+                        System.currentTimeMillis() - t0);
+                }
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof Exception) {
+                    throw (Exception) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+        merge();
+        elapsed = System.currentTimeMillis() - t0;
+        return this;
+    }
+
+    private static class Sources extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private Centrality centrality;
+        final private int lo;
+        final private int hi;
+
+        Sources(Centrality centrality, int lo, int hi) {
+            this.centrality = centrality;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= 1) {
+                for(int i=lo; i<hi; i++) {
+                    centrality.search(centrality.sources[i]);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Sources(centrality, lo, mid),
+                      new Sources(centrality, mid, hi));
+        }
+    }
+
+    /*
+     * per worker: search state, reset per source, & accumulators
+    */
+    private static class Workspace {
+        final SearchSpace space = new SearchSpace();
+        final int[] order;                      // reached vertices, by distance
+        final double[] hops;                    // breadth first distances; -1 unreached
+        final double[] sigma;                   // number of shortest paths
+        final double[] delta;                   // brandes dependency
+        final double[] sum;                     // betweenness, or sampled closeness: distances
+        final int[] count;                      // sampled closeness: pivots reached
+
+        Workspace(int n, boolean exactCloseness) {
+            order = new int[n];
+            hops = new double[n];
+            Arrays.fill(hops, -1);
+            sigma = new double[n];
+            delta = new double[n];
+            sum = exactCloseness ? null : new double[n];
+            count = exactCloseness ? null : new int[n];
+        }
+    }
+
+    private void search(int source) {
+        Workspace ws = workspace.get();
+        boolean forward = (measure == BETWEENNESS || !sampled);
+        int reached = weighted ? dijkstra(ws, source, forward) : breadthFirst(ws, source, forward);
+
+        if (measure == BETWEENNESS) {
+            int[] order = ws.order;
+            double[] sigma = ws.sigma;
+            double[] delta = ws.delta;
+            for(int i=reached-1; i>0; i--) {
+                int w = order[i];
+                double dw = distance(ws, w);
+                double coefficient = (1 + delta[w]) / sigma[w];
+                for(int j=cg.inOffset[w]; j<cg.inOffset[w + 1]; j++) {
+                    int e = cg.inEdges[j];
+                    int u = cg.edgeSource[e];
+                    if (isPredecessor(ws, u, e, dw)) {
+                        delta[u] += sigma[u] * coefficient;
+                    }
+                }
+                ws.sum[w] += delta[w];
+            }
+        } else if (!sampled) {
+            double total = 0;
+            for(int i=1; i<reached; i++) {
+                total += distance(ws, ws.order[i]);
+            }
+            score[source] = (reached > 1) ? (reached - 1) / total : 0;
+        } else {
+            for(int i=1; i<reached; i++) {
+                int v = ws.order[i];
+                ws.sum[v] += distance(ws, v);
+                ws.count[v]++;
+            }
+        }
+        if (!weighted) {
+            for(int i=0; i<reached; i++) {
+                ws.hops[ws.order[i]] = -1;
+            }
+        }
+        sourcesDone.incrementAndGet();
+    }
+
+    /*
+     * fills ws.order, ws.sigma & ws.hops; zeroes ws.delta of the reached;
+     *  returns the number reached
+    */
+    private int breadthFirst(Workspace ws, int source, boolean forward) {
+        int[] order = ws.order;
+        double[] hops = ws.hops;
+        double[] sigma = ws.sigma;
+        int head = 0, tail = 0;
+        order[tail++] = source;
+        hops[source] = 0;
+        sigma[source] = 1;
+        ws.delta[source] = 0;
+        while (head < tail) {
+            int u = order[head++];
+            double next = hops[u] + 1;
+            int degree = forward ? cg.outDegree(u) : cg.inDegree(u);
+            for(int i=0; i<degree; i++) {
+                int e = forward ? cg.outEdge(u, i) : cg.inEdge(u, i);
+                int v = forward ? cg.edgeTarget[e] : cg.edgeSource[e];
+                if (hops[v] < 0) {
+                    hops[v] = next;
+                    sigma[v] = 0;
+                    ws.delta[v] = 0;
+                    order[tail++] = v;
+                }
+                if (hops[v] == next) {
+                    sigma[v] += sigma[u];
+                }
+            }
+        }
+        return tail;
+    }
+
+    private int dijkstra(Workspace ws, int source, boolean forward) {
+        SearchSpace space = ws.space;
+        double[] sigma = ws.sigma;
+        space.reset(cg.getVertexCapacity());
+        space.label(source, 0, -1, 0);
+        sigma[source] = 1;
+        int reached = 0;
+        while (!space.isEmpty()) {
+            int u = space.pop();
+            ws.order[reached++] = u;
+            ws.delta[u] = 0;
+            double du = space.dist(u);
+            int degree = forward ? cg.outDegree(u) : cg.inDegree(u);
+            for(int i=0; i<degree; i++) {
+                int e = forward ? cg.outEdge(u, i) : cg.inEdge(u, i);
+                int v = forward ? cg.edgeTarget[e] : cg.edgeSource[e];
+                if (space.isSettled(v)) continue;      // weights are positive
+                double dv = du + cg.edgeWeight[e];
+                double current = space.dist(v);
+                if (dv < current) {
+                    space.label(v, dv, e, dv);
+                    sigma[v] = sigma[u];
+                } else if (dv == current) {
+                    sigma[v] += sigma[u];
+                }
+            }
+        }
+        return reached;
+    }
+
+    private double distance(Workspace ws, int v) {
+        return weighted ? ws.space.dist(v) : ws.hops[v];
+    }
+
+    /*
+     * is edge e, from u, on a shortest path to a vertex at distance <dw>?
+    */
+    private boolean isPredecessor(Workspace ws, int u, int e, double dw) {
+        if (weighted) {
+            return ws.space.isSettled(u) && ws.space.dist(u) + cg.edgeWeight[e] == dw;
+        }
+        return ws.hops[u] >= 0 && ws.hops[u] + 1 == dw;
+    }
+
+    private void merge() {
+        int n = cg.getVertexCapacity();
+        if (measure == BETWEENNESS) {
+            int vertices = cg.numVertices();
+            double scale = (vertices > 2) ? 1.0 / ((double) (vertices - 1) * (vertices - 2)) : 0;
+            if (sampled) scale *= (double) vertices / sources.length;
+            for(Workspace ws: workspaces) {
+                for(int v=0; v<n; v++) score[v] += ws.sum[v];
+            }
+            for(int v=0; v<n; v++) score[v] *= scale;
+        } else if (sampled) {
+            double[] sum = new double[n];
+            int[] count = new int[n];
+            for(Workspace ws: workspaces) {
+                for(int v=0; v<n; v++) {
+                    sum[v] += ws.sum[v];
+                    count[v] += ws.count[v];
+                }
+            }
+            for(int v=0; v<n; v++) {
+                score[v] = (count[v] > 0) ? count[v] / sum[v] : 0;
+            }
+        }
+        workspaces.clear();
+    }
+
+    public String getMeasure() {
+        return measure;
+    }
+
+    /*
+     * by vertex id
+    */
+    public double[] getScores() {
+        return score;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    public int getSourceCount() {
+        return sources.length;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+}
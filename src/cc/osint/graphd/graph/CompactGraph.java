@@ -0,0 +1,272 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * immutable compressed-sparse-row copy of one version (epoch) of a graph,
+ *  for the analytics in Graph; built from an AdjacencySnapshot & cached
+ *  by Graph until the epoch moves on.
+ *
+ * vertex ids are the snapshot's (stable across versions; ids below
+ *  getVertexCapacity() may be unused: null vertex, no edges).  edges are
+ *  numbered 0..numEdges()-1 in order of source, so the outgoing edges of
+ *  v are the ids outOffset[v] .. outOffset[v+1]-1; the incoming edges of
+ *  v are inEdges[inOffset[v] .. inOffset[v+1]-1].  relationships (_rel)
+ *  are interned to int ids.
+ *
+ * only adding & removing edges (or reweighting them) changes the edge
+ *  arrays: while the edge epoch stays the same, so do the edge ids, and
+ *  update() shares the edge arrays of the previous version.
+*/
+public class CompactGraph {
+    final private long epoch;
+    final private long edgeEpoch;
+    final private int vertexCapacity;
+    final private int vertexCount;
+    final private JSONVertex[] vertices;
+
+    final int[] outOffset;
+    final int[] edgeSource;
+    final int[] edgeTarget;
+    final double[] edgeWeight;
+    final int[] edgeRel;
+    final private JSONEdge[] edges;
+
+    final int[] inOffset;
+    final int[] inEdges;
+
+    final private String[] relNames;
+    final private Map<String, Integer> relIds;
+
+    private CompactGraph(AdjacencySnapshot snapshot) {
+        epoch = snapshot.getEpoch();
+        edgeEpoch = snapshot.getEdgeEpoch();
+        vertexCapacity = snapshot.getVertexCapacity();
+        vertexCount = snapshot.numVertices();
+        int n = vertexCapacity;
+        int m = snapshot.numEdges();
+
+        vertices = new JSONVertex[n];
+        outOffset = new int[n + 1];
+        inOffset = new int[n + 1];
+        for(int v=0; v<n; v++) {
+            vertices[v] = snapshot.getVertex(v);
+            if (null == vertices[v]) continue;
+            outOffset[v + 1] = snapshot.outDegree(v);
+            inOffset[v + 1] = snapshot.inDegree(v);
+        }
+        for(int v=0; v<n; v++) {
+            outOffset[v + 1] += outOffset[v];
+            inOffset[v + 1] += inOffset[v];
+        }
+
+        edgeSource = new int[m];
+        edgeTarget = new int[m];
+        edgeWeight = new double[m];
+        edgeRel = new int[m];
+        edges = new JSONEdge[m];
+        inEdges = new int[m];
+        relIds = new HashMap<String, Integer>();
+        List<String> rels = new ArrayList<String>();
+        int[] csrId = new int[snapshot.getEdgeCapacity()];   // snapshot eid -> edge id
+        for(int v=0; v<n; v++) {
+            if (null == vertices[v]) continue;
+            for(int i=0; i<snapshot.outDegree(v); i++) {
+                int eid = snapshot.outEdge(v, i);
+                int e = outOffset[v] + i;
+                csrId[eid] = e;
+                edgeSource[e] = v;
+                edgeTarget[e] = snapshot.edgeTarget(eid);
+                edgeWeight[e] = snapshot.edgeWeight(eid);
+                edges[e] = snapshot.getEdge(eid);
+                String rel = edges[e].toString();
+                Integer relId = relIds.get(rel);
+                if (null == relId) {
+                    relId = rels.size();
+                    relIds.put(rel, relId);
+                    rels.add(rel);
+                }
+                edgeRel[e] = relId;
+            }
+        }
+        for(int v=0; v<n; v++) {
+            if (null == vertices[v]) continue;
+            for(int i=0; i<snapshot.inDegree(v); i++) {
+                inEdges[inOffset[v] + i] = csrId[snapshot.inEdge(v, i)];
+            }
+        }
+        relNames = rels.toArray(new String[rels.size()]);
+    }
+
+    /*
+     * a later version with the same edges: new vertex table, edge arrays
+     *  shared with <previous>
+    */
+    private CompactGraph(CompactGraph previous, AdjacencySnapshot snapshot) {
+        epoch = snapshot.getEpoch();
+        edgeEpoch = previous.edgeEpoch;
+        vertexCapacity = snapshot.getVertexCapacity();
+        vertexCount = snapshot.numVertices();
+        int n = vertexCapacity;
+        vertices = new JSONVertex[n];
+        for(int v=0; v<n; v++) {
+            vertices[v] = snapshot.getVertex(v);
+        }
+        // vertices added or removed since have no edges: their offsets
+        //  are all numEdges()
+        outOffset = padOffsets(previous.outOffset, n);
+        inOffset = padOffsets(previous.inOffset, n);
+        edgeSource = previous.edgeSource;
+        edgeTarget = previous.edgeTarget;
+        edgeWeight = previous.edgeWeight;
+        edgeRel = previous.edgeRel;
+        edges = previous.edges;
+        inEdges = previous.inEdges;
+        relNames = previous.relNames;
+        relIds = previous.relIds;
+    }
+
+    private static int[] padOffsets(int[] offsets, int n) {
+        if (offsets.length == n + 1) return offsets;
+        int[] padded = Arrays.copyOf(offsets, n + 1);
+        for(int v=offsets.length; v<=n; v++) {
+            padded[v] = offsets[offsets.length - 1];
+        }
+        return padded;
+    }
+
+    public static CompactGraph build(AdjacencySnapshot snapshot) {
+        return new CompactGraph(snapshot);
+    }
+
+    /*
+     * <previous> if it is of the same version as <snapshot>; a copy
+     *  sharing its edge arrays if only vertices were added or removed;
+     *  built from scratch otherwise
+    */
+    public static CompactGraph update(CompactGraph previous, AdjacencySnapshot snapshot) {
+        if (null == previous) {
+            return build(snapshot);
+        } else if (previous.epoch == snapshot.getEpoch()) {
+            return previous;
+        } else if (previous.edgeEpoch == snapshot.getEdgeEpoch()) {
+            return new CompactGraph(previous, snapshot);
+        }
+        return build(snapshot);
+    }
+
+    /*
+     * the version this was built from (see VersionedAdjacency)
+    */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getEdgeEpoch() {
+        return edgeEpoch;
+    }
+
+    /*
+     * vertices
+    */
+
+    public int numVertices() {
+        return vertexCount;
+    }
+
+    public int getVertexCapacity() {
+        return vertexCapacity;
+    }
+
+    public JSONVertex getVertex(int v) {
+        return vertices[v];
+    }
+
+    /*
+     * -1 if the vertex is not in this version
+    */
+    public int getVertexId(JSONVertex jv) {
+        int v = jv.vid;
+        return (v >= 0 && v < vertexCapacity && vertices[v] == jv) ? v : -1;
+    }
+
+    public int outDegree(int v) {
+        return outOffset[v + 1] - outOffset[v];
+    }
+
+    public int outEdge(int v, int i) {
+        return outOffset[v] + i;
+    }
+
+    public int inDegree(int v) {
+        return inOffset[v + 1] - inOffset[v];
+    }
+
+    public int inEdge(int v, int i) {
+        return inEdges[inOffset[v] + i];
+    }
+
+    /*
+     * edges
+    */
+
+    public int numEdges() {
+        return edges.length;
+    }
+
+    public JSONEdge getEdge(int e) {
+        return edges[e];
+    }
+
+    public int edgeSource(int e) {
+        return edgeSource[e];
+    }
+
+    public int edgeTarget(int e) {
+        return edgeTarget[e];
+    }
+
+    public double edgeWeight(int e) {
+        return edgeWeight[e];
+    }
+
+    public int edgeRel(int e) {
+        return edgeRel[e];
+    }
+
+    /*
+     * relationships
+    */
+
+    public int numRels() {
+        return relNames.length;
+    }
+
+    public String getRelName(int rel) {
+        return relNames[rel];
+    }
+
+    /*
+     * -1 if no edge has relationship <rel>
+    */
+    public int getRelId(String rel) {
+        Integer relId = relIds.get(rel);
+        return null == relId ? -1 : relId;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * the spanning tree, coloring, vertex cover & eulerian circuit analytics
+ *  of Graph, over the int ids of a view of a CompactGraph (see
+ *  GraphView); each follows the jgrapht implementation it replaces (see
+ *  the method comments).  also: top-k selection for the vertex scores of
+ *  the ranking analytics
+*/
+public class CompactGraphAlgorithms {
+    final private static double EPSILON = 1e-9;
+
+    /*
+     * kruskal: minimum spanning forest, edges taken as undirected;
+     *  returns edge ids
+    */
+    public static int[] minimumSpanningForest(GraphView view) {
+        CompactGraph cg = view.getCompactGraph();
+        Integer[] order = new Integer[view.numEdges()];
+        int m = 0;
+        for(int e=0; e<cg.numEdges(); e++) {
+            if (view.containsEdge(e)) order[m++] = e;
+        }
+        final double[] weight = cg.edgeWeight;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(weight[a], weight[b]);
+            }
+        });
+        int[] parent = new int[cg.getVertexCapacity()];
+        for(int v=0; v<parent.length; v++) parent[v] = v;
+        int[] forest = new int[Math.max(0, view.numVertices() - 1)];
+        int count = 0;
+        for(int i=0; i<m && count<forest.length; i++) {
+            int e = order[i];
+            int a = find(parent, cg.edgeSource[e]);
+            int b = find(parent, cg.edgeTarget[e]);
+            if (a == b) continue;
+            parent[a] = b;
+            forest[count++] = e;
+        }
+        return Arrays.copyOf(forest, count);
+    }
+
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];      // path halving
+            v = parent[v];
+        }
+        return v;
+    }
+
+    /*
+     * neighbours of each vertex of <view>, edges taken as undirected,
+     *  without self-loops or repeats; offsets as in CompactGraph
+    */
+    static int[][] undirectedNeighbours(GraphView view) {
+        view = view.asDirected(false);
+        int n = view.getCompactGraph().getVertexCapacity();
+        int[] offset = new int[n + 1];
+        int[] neighbours = new int[2 * view.numEdges()];
+        int[] seen = new int[n];
+        Arrays.fill(seen, -1);
+        int count = 0;
+        for(int v=0; v<n; v++) {
+            offset[v] = count;
+            seen[v] = v;
+            if (!view.containsVertex(v)) continue;
+            for(int i=0; i<view.arcCount(v); i++) {
+                int e = view.arc(v, i);
+                if (e == -1) continue;
+                int w = view.opposite(e, v);
+                if (seen[w] != v) {
+                    seen[w] = v;
+                    neighbours[count++] = w;
+                }
+            }
+        }
+        offset[n] = count;
+        return new int[][] { offset, neighbours };
+    }
+
+    /*
+     * greedy coloring of the undirected simple graph: vertices in order
+     *  of decreasing degree, each given the least color none of its
+     *  neighbours has.  returns color[vertex id] (-1 for unused ids);
+     *  self-loops are ignored.
+    */
+    public static int[] greedyColoring(GraphView view) {
+        int n = view.getCompactGraph().getVertexCapacity();
+        int[][] adjacency = undirectedNeighbours(view);
+        final int[] offset = adjacency[0];
+        int[] neighbours = adjacency[1];
+        Integer[] order = new Integer[view.numVertices()];
+        int k = 0;
+        for(int v=0; v<n; v++) {
+            if (view.containsVertex(v)) order[k++] = v;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return (offset[b + 1] - offset[b]) - (offset[a + 1] - offset[a]);
+            }
+        });
+        int[] color = new int[n];
+        Arrays.fill(color, -1);
+        int[] taken = new int[n + 1];           // taken[c] == v + 1: c is a neighbour's of v
+        for(int v: order) {
+            for(int i=offset[v]; i<offset[v + 1]; i++) {
+                int c = color[neighbours[i]];
+                if (c >= 0) taken[c] = v + 1;
+            }
+            int c = 0;
+            while (taken[c] == v + 1) c++;
+            color[v] = c;
+        }
+        return color;
+    }
+
+    /*
+     * greedy vertex cover, edges taken as undirected (loops & parallel
+     *  edges count toward degree, as in jgrapht): repeatedly take the
+     *  vertex of highest degree & remove its edges.  vertices are kept in
+     *  degree buckets, so this is linear in the size of the graph.
+    */
+    public static boolean[] greedyVertexCover(GraphView view) {
+        CompactGraph cg = view.getCompactGraph();
+        int n = cg.getVertexCapacity();
+        int[] degree = new int[n];
+        int maxDegree = 0;
+        for(int e=0; e<cg.numEdges(); e++) {
+            if (!view.containsEdge(e)) continue;
+            degree[cg.edgeSource[e]]++;
+            degree[cg.edgeTarget[e]]++;
+        }
+        for(int v=0; v<n; v++) {
+            maxDegree = Math.max(maxDegree, degree[v]);
+        }
+        // doubly linked list of the vertices of each degree
+        int[] bucket = new int[maxDegree + 1];
+        int[] next = new int[n];
+        int[] prev = new int[n];
+        Arrays.fill(bucket, -1);
+        for(int v=0; v<n; v++) {
+            if (!view.containsVertex(v)) continue;
+            link(bucket, next, prev, v, degree[v]);
+        }
+        boolean[] cover = new boolean[n];
+        boolean[] removed = new boolean[n];
+        int edgesLeft = view.numEdges();
+        int top = maxDegree;
+        while (edgesLeft > 0) {
+            while (bucket[top] == -1) top--;
+            int v = bucket[top];
+            unlink(bucket, next, prev, v, degree[v]);
+            cover[v] = true;
+            removed[v] = true;
+            for(int e=cg.outOffset[v]; e<cg.outOffset[v + 1]; e++) {
+                if (!view.containsEdge(e)) continue;
+                int w = cg.edgeTarget[e];
+                if (w == v) {
+                    edgesLeft--;
+                } else if (!removed[w]) {
+                    edgesLeft--;
+                    unlink(bucket, next, prev, w, degree[w]);
+                    link(bucket, next, prev, w, --degree[w]);
+                }
+            }
+            for(int i=cg.inOffset[v]; i<cg.inOffset[v + 1]; i++) {
+                if (!view.containsEdge(cg.inEdges[i])) continue;
+                int w = cg.edgeSource[cg.inEdges[i]];
+                if (w != v && !removed[w]) {
+                    edgesLeft--;
+                    unlink(bucket, next, prev, w, degree[w]);
+                    link(bucket, next, prev, w, --degree[w]);
+                }
+            }
+        }
+        return cover;
+    }
+
+    private static void link(int[] bucket, int[] next, int[] prev, int v, int d) {
+        next[v] = bucket[d];
+        prev[v] = -1;
+        if (bucket[d] != -1) prev[bucket[d]] = v;
+        bucket[d] = v;
+    }
+
+    private static void unlink(int[] bucket, int[] next, int[] prev, int v, int d) {
+        if (prev[v] != -1) {
+            next[prev[v]] = next[v];
+        } else {
+            bucket[d] = next[v];
+        }
+        if (next[v] != -1) prev[next[v]] = prev[v];
+    }
+
+    /*
+     * 2-approximate vertex cover: both ends of each edge neither of whose
+     *  ends is yet covered
+    */
+    public static boolean[] twoApproximationVertexCover(GraphView view) {
+        CompactGraph cg = view.getCompactGraph();
+        boolean[] cover = new boolean[cg.getVertexCapacity()];
+        for(int e=0; e<cg.numEdges(); e++) {
+            if (!view.containsEdge(e)) continue;
+            int u = cg.edgeSource[e];
+            int v = cg.edgeTarget[e];
+            if (!cover[u] && !cover[v]) {
+                cover[u] = true;
+                cover[v] = true;
+            }
+        }
+        return cover;
+    }
+
+    /*
+     * hierholzer: an eulerian circuit of <view>, directed or not, parallel
+     *  edges & self-loops included; returns edge ids in circuit order,
+     *  from & back to the source of the view's first edge (returned in
+     *  startVertex[0]), or null if there is none (no edges, a vertex out
+     *  of balance, or edges in more than one component).  unlike
+     *  jgrapht's EulerianCircuit, which needs a simple undirected graph,
+     *  this walks the arcs of the view in place, marking the edges used
+     *  in a bitset: linear in the size of the view.
+    */
+    public static int[] eulerianCircuit(GraphView view, int[] startVertex) {
+        CompactGraph cg = view.getCompactGraph();
+        int n = cg.getVertexCapacity();
+        int m = view.numEdges();
+        if (m == 0) return null;
+        boolean directed = view.isDirected();
+        // balance: out - in if directed, else degree (parity is what counts)
+        int[] balance = new int[n];
+        int start = -1;
+        for(int e=0; e<cg.numEdges(); e++) {
+            if (!view.containsEdge(e)) continue;
+            balance[cg.edgeSource[e]]++;
+            if (directed) {
+                balance[cg.edgeTarget[e]]--;
+            } else {
+                balance[cg.edgeTarget[e]]++;
+            }
+            if (start == -1) start = cg.edgeSource[e];
+        }
+        for(int v=0; v<n; v++) {
+            if (directed ? balance[v] != 0 : (balance[v] & 1) != 0) return null;
+        }
+        long[] used = new long[(cg.numEdges() + 63) >>> 6];
+        int[] next = new int[n];                // next arc to try, by vertex
+        int[] stackVertex = new int[m + 1];
+        int[] stackEdge = new int[m + 1];       // the edge each was reached by
+        int[] circuit = new int[m];
+        int depth = 0;
+        int count = m;                          // filled from the end
+        stackVertex[depth] = start;
+        stackEdge[depth++] = -1;
+        while (depth > 0) {
+            int v = stackVertex[depth - 1];
+            int e = -1;
+            while (next[v] < view.arcCount(v)) {
+                int a = view.arc(v, next[v]++);
+                if (a != -1 && (used[a >>> 6] & (1L << a)) == 0) {
+                    e = a;
+                    break;
+                }
+            }
+            if (e != -1) {
+                used[e >>> 6] |= 1L << e;
+                stackVertex[depth] = view.opposite(e, v);
+                stackEdge[depth++] = e;
+            } else {
+                depth--;
+                if (stackEdge[depth] != -1) circuit[--count] = stackEdge[depth];
+            }
+        }
+        // edges left over lie in another component
+        if (count != 0) return null;
+        startVertex[0] = start;
+        return circuit;
+    }
+
+    /*
+     * ids of the (at most) <k> vertices of highest score, highest first
+    */
+    public static int[] top(CompactGraph cg, final double[] score, int k) {
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max(1, k),
+            new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(score[a], score[b]);
+                }
+            });
+        for(int v=0; v<cg.getVertexCapacity() && k>0; v++) {
+            if (null == cg.getVertex(v)) continue;
+            if (heap.size() < k) {
+                heap.add(v);
+            } else if (score[v] > score[heap.peek()]) {
+                heap.poll();
+                heap.add(v);
+            }
+        }
+        int[] top = new int[heap.size()];
+        for(int i=top.length-1; i>=0; i--) {
+            top[i] = heap.poll();
+        }
+        return top;
+    }
+}
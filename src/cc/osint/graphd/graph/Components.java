@@ -0,0 +1,44 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import org.json.*;
+
+/*
+ * a partition of the vertex ids of a CompactGraph into components
+ *  numbered 0..getComponentCount()-1 (see WeakComponents &
+ *  StronglyConnectedComponents)
+*/
+public interface Components {
+
+    /*
+     * receives the components listed by Graph.getConnectedSets &
+     *  Graph.getStronglyConnectedSets, one at a time
+    */
+    public interface Listener {
+        public void component(JSONObject component) throws Exception;
+    }
+
+    public int getComponentCount();
+
+    /*
+     * -1 for an unused vertex id
+    */
+    public int getComponent(int v);
+
+    public int getComponentSize(int c);
+}
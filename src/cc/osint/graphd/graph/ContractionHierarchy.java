@@ -0,0 +1,430 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import org.json.*;
+
+/*
+ * contraction hierarchy over a CompactGraph (non-negative weights)
+ *
+ * vertices are contracted one at a time, least important first (edge
+ *  difference + contracted neighbors, re-evaluated lazily); contracting v
+ *  adds a shortcut u -> x for each u -> v -> x that a local witness search
+ *  around v cannot match.  contraction stops when the remaining vertices
+ *  average more than -Dgraphd.ch.core.degree arcs; those form a core,
+ *  searched as an ordinary graph.  graphs without hierarchy (e.g. random
+ *  graphs) leave a large core, which searches more slowly than plain
+ *  bidirectional dijkstra: see isEffective.
+ *
+ * a query is a bidirectional dijkstra over upward arcs (towards later
+ *  contracted vertices, or within the core); each direction stops on its
+ *  own once its least label reaches the best path found.  shortcuts are
+ *  unpacked to the original edges.
+ *
+ * the hierarchy holds only while no edge has been added, removed or
+ *  reweighted since it was built (see CompactGraph.getEdgeEpoch).
+*/
+public class ContractionHierarchy {
+    final private static double INF = Double.POSITIVE_INFINITY;
+    final private static int CORE = Integer.MAX_VALUE;
+
+    final private static double CORE_DEGREE = Double.parseDouble(
+        System.getProperty("graphd.ch.core.degree", "16"));
+
+    /* vertices a witness search may settle: when contracting, & when
+       estimating the shortcuts contraction would add */
+    final private static int WITNESS_SETTLE_LIMIT = 256;
+    final private static int ESTIMATE_SETTLE_LIMIT = 32;
+
+    final private static ThreadLocal<SearchSpace[]> searchSpaces =
+        new ThreadLocal<SearchSpace[]>() {
+            protected SearchSpace[] initialValue() {
+                return new SearchSpace[] { new SearchSpace(), new SearchSpace() };
+            }
+        };
+
+    final private long edgeEpoch;
+    final private int n;
+    final private int[] rank;
+
+    /* arcs: original edges (edge id) & shortcuts (the two arcs they span) */
+    private int arcCount = 0;
+    private int[] arcFrom = new int[16];
+    private int[] arcTo = new int[16];
+    private double[] arcWeight = new double[16];
+    private int[] arcEdge = new int[16];
+    private int[] arcFirst = new int[16];
+    private int[] arcSecond = new int[16];
+    private int shortcutCount = 0;
+
+    /* query graph: upward arcs out of (forward) & into (backward) each vertex */
+    private int[] forwardOffset;
+    private int[] forwardArcs;
+    private int[] backwardOffset;
+    private int[] backwardArcs;
+
+    private int coreCount = 0;
+    private int vertexCount = 0;
+    private long elapsed;
+
+    /* contraction state, dropped once built */
+    private IntList[] outArcs;
+    private IntList[] inArcs;
+    private boolean[] contracted;
+    private int[] contractedNeighbors;
+    private SearchSpace witnessSpace;
+
+    private ContractionHierarchy(long edgeEpoch, int n) {
+        this.edgeEpoch = edgeEpoch;
+        this.n = n;
+        rank = new int[n];
+    }
+
+    public static ContractionHierarchy build(CompactGraph cg) throws Exception {
+        long t0 = System.currentTimeMillis();
+        ContractionHierarchy ch = new ContractionHierarchy(
+            cg.getEdgeEpoch(), cg.getVertexCapacity());
+        ch.contract(cg);
+        ch.buildQueryGraph();
+        ch.elapsed = System.currentTimeMillis() - t0;
+        return ch;
+    }
+
+    /*
+     * is this worth querying: less than a tenth of the graph left in the core?
+    */
+    public boolean isEffective() {
+        return coreCount * 10 < vertexCount;
+    }
+
+    /*
+     * do these shortcuts hold for <cg>?
+    */
+    public boolean isCurrent(CompactGraph cg) {
+        return cg.getEdgeEpoch() == edgeEpoch;
+    }
+
+    public JSONObject getStatus(CompactGraph cg) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("current", isCurrent(cg));
+        result.put("edge_epoch", edgeEpoch);
+        result.put("arcs", arcCount);
+        result.put("shortcuts", shortcutCount);
+        result.put("core_vertices", coreCount);
+        result.put("effective", isEffective());
+        result.put("elapsed_ms", elapsed);
+        return result;
+    }
+
+    /*
+     * null if there is no path (within radius)
+    */
+    public PointToPointShortestPath query(int source, int target, double radius) {
+        if (source >= n || target >= n) return null;
+        SearchSpace forward = searchSpaces.get()[0];
+        SearchSpace backward = searchSpaces.get()[1];
+        forward.reset(n);
+        backward.reset(n);
+        forward.label(source, 0, -1, 0);
+        backward.label(target, 0, -1, 0);
+        double best = INF;
+        int meet = -1;
+        while (true) {
+            double forwardKey = forward.minKey() < best ? forward.minKey() : INF;
+            double backwardKey = backward.minKey() < best ? backward.minKey() : INF;
+            if (forwardKey == INF && backwardKey == INF) break;
+            boolean isForward = forwardKey <= backwardKey;
+            SearchSpace space = isForward ? forward : backward;
+            SearchSpace other = isForward ? backward : forward;
+            int[] offset = isForward ? forwardOffset : backwardOffset;
+            int[] arcs = isForward ? forwardArcs : backwardArcs;
+            int u = space.pop();
+            double du = space.dist(u);
+            if (du + other.dist(u) < best) {
+                best = du + other.dist(u);
+                meet = u;
+            }
+            for(int i=offset[u]; i<offset[u+1]; i++) {
+                int a = arcs[i];
+                int v = isForward ? arcTo[a] : arcFrom[a];
+                double dv = du + arcWeight[a];
+                if (dv > radius || space.isSettled(v) || dv >= space.dist(v)) continue;
+                space.label(v, dv, a, dv);
+                if (dv + other.dist(v) < best) {
+                    best = dv + other.dist(v);
+                    meet = v;
+                }
+            }
+        }
+        if (meet == -1 || best > radius) return null;
+
+        IntList path = new IntList();
+        IntList up = new IntList();
+        for(int v=meet; forward.pred(v) != -1; v=arcFrom[forward.pred(v)]) {
+            up.add(forward.pred(v));
+        }
+        for(int i=up.size-1; i>=0; i--) {
+            unpack(up.values[i], path);
+        }
+        for(int v=meet; backward.pred(v) != -1; v=arcTo[backward.pred(v)]) {
+            unpack(backward.pred(v), path);
+        }
+        return new PointToPointShortestPath(Arrays.copyOf(path.values, path.size), best,
+            forward.getSettledCount() + backward.getSettledCount());
+    }
+
+    /*
+     * append the edge ids an arc stands for
+    */
+    private void unpack(int arc, IntList path) {
+        IntList stack = new IntList();
+        stack.add(arc);
+        while (stack.size > 0) {
+            int a = stack.values[--stack.size];
+            if (arcEdge[a] != -1) {
+                path.add(arcEdge[a]);
+            } else {
+                stack.add(arcSecond[a]);
+                stack.add(arcFirst[a]);
+            }
+        }
+    }
+
+    /*
+     * contraction
+    */
+
+    private static class Candidate implements Comparable<Candidate> {
+        final int priority;
+        final int vertex;
+
+        Candidate(int priority, int vertex) {
+            this.priority = priority;
+            this.vertex = vertex;
+        }
+
+        public int compareTo(Candidate c) {
+            return priority != c.priority ? (priority < c.priority ? -1 : 1) :
+                   (vertex < c.vertex ? -1 : (vertex == c.vertex ? 0 : 1));
+        }
+    }
+
+    private void contract(CompactGraph cg) throws Exception {
+        outArcs = new IntList[n];
+        inArcs = new IntList[n];
+        contracted = new boolean[n];
+        contractedNeighbors = new int[n];
+        witnessSpace = new SearchSpace();
+        Arrays.fill(rank, -1);
+        int remaining = 0;
+        for(int v=0; v<n; v++) {
+            if (null == cg.getVertex(v)) continue;
+            outArcs[v] = new IntList();
+            inArcs[v] = new IntList();
+            remaining++;
+            vertexCount++;
+        }
+        long liveArcs = 0;
+        for(int eid=0; eid<cg.numEdges(); eid++) {
+            double w = cg.edgeWeight(eid);
+            if (w < 0) {
+                throw new Exception("contraction hierarchy requires non-negative weights: " +
+                    cg.getEdge(eid).getKey());
+            }
+            int u = cg.edgeSource(eid);
+            int v = cg.edgeTarget(eid);
+            if (u == v) continue;               // never on a shortest path
+            addArc(u, v, w, eid, -1, -1);
+            liveArcs++;
+        }
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+        for(int v=0; v<n; v++) {
+            if (null != outArcs[v]) {
+                queue.add(new Candidate(priority(v), v));
+            }
+        }
+        int order = 0;
+        while (!queue.isEmpty()) {
+            if ((double) liveArcs / remaining > CORE_DEGREE) break;
+            Candidate c = queue.poll();
+            int v = c.vertex;
+            int priority = priority(v);
+            if (!queue.isEmpty() && priority > queue.peek().priority) {
+                queue.add(new Candidate(priority, v));
+                continue;
+            }
+            liveArcs -= liveDegree(v);
+            liveArcs += shortcuts(v, true);
+            contracted[v] = true;
+            rank[v] = order++;
+            remaining--;
+            for(int i=0; i<outArcs[v].size; i++) {
+                contractedNeighbors[arcTo[outArcs[v].values[i]]]++;
+            }
+            for(int i=0; i<inArcs[v].size; i++) {
+                contractedNeighbors[arcFrom[inArcs[v].values[i]]]++;
+            }
+        }
+        for(Candidate c: queue) {
+            rank[c.vertex] = CORE;
+            coreCount++;
+        }
+        outArcs = null;
+        inArcs = null;
+        contracted = null;
+        contractedNeighbors = null;
+        witnessSpace = null;
+    }
+
+    /*
+     * edge difference + contracted neighbors
+    */
+    private int priority(int v) {
+        return shortcuts(v, false) - liveDegree(v) + contractedNeighbors[v];
+    }
+
+    private int liveDegree(int v) {
+        int degree = 0;
+        for(int i=0; i<outArcs[v].size; i++) {
+            if (!contracted[arcTo[outArcs[v].values[i]]]) degree++;
+        }
+        for(int i=0; i<inArcs[v].size; i++) {
+            if (!contracted[arcFrom[inArcs[v].values[i]]]) degree++;
+        }
+        return degree;
+    }
+
+    /*
+     * the shortcuts contracting <v> requires: counted, or (add) added
+    */
+    private int shortcuts(int v, boolean add) {
+        int count = 0;
+        IntList in = inArcs[v];
+        IntList out = outArcs[v];
+        for(int i=0; i<in.size; i++) {
+            int a1 = in.values[i];
+            int u = arcFrom[a1];
+            if (contracted[u]) continue;
+            double maxDist = -1;
+            for(int j=0; j<out.size; j++) {
+                int x = arcTo[out.values[j]];
+                if (contracted[x] || x == u) continue;
+                maxDist = Math.max(maxDist, arcWeight[a1] + arcWeight[out.values[j]]);
+            }
+            if (maxDist < 0) continue;
+            witnessSearch(u, v, maxDist, add ? WITNESS_SETTLE_LIMIT : ESTIMATE_SETTLE_LIMIT);
+            for(int j=0; j<out.size; j++) {
+                int a2 = out.values[j];
+                int x = arcTo[a2];
+                if (contracted[x] || x == u) continue;
+                double w = arcWeight[a1] + arcWeight[a2];
+                if (witnessSpace.dist(x) <= w) continue;
+                count++;
+                if (add) {
+                    addArc(u, x, w, -1, a1, a2);
+                    shortcutCount++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /*
+     * bounded dijkstra from <u> among the uncontracted vertices, avoiding <v>
+    */
+    private void witnessSearch(int u, int v, double maxDist, int settleLimit) {
+        witnessSpace.reset(n);
+        witnessSpace.label(u, 0, -1, 0);
+        while (!witnessSpace.isEmpty() && witnessSpace.minKey() <= maxDist &&
+               witnessSpace.getSettledCount() < settleLimit) {
+            int x = witnessSpace.pop();
+            double dx = witnessSpace.dist(x);
+            IntList out = outArcs[x];
+            for(int i=0; i<out.size; i++) {
+                int a = out.values[i];
+                int y = arcTo[a];
+                if (y == v || contracted[y]) continue;
+                double dy = dx + arcWeight[a];
+                if (dy > maxDist || witnessSpace.isSettled(y) || dy >= witnessSpace.dist(y)) continue;
+                witnessSpace.label(y, dy, a, dy);
+            }
+        }
+    }
+
+    private void addArc(int from, int to, double weight, int eid, int first, int second) {
+        if (arcCount == arcFrom.length) {
+            int length = arcCount * 2;
+            arcFrom = Arrays.copyOf(arcFrom, length);
+            arcTo = Arrays.copyOf(arcTo, length);
+            arcWeight = Arrays.copyOf(arcWeight, length);
+            arcEdge = Arrays.copyOf(arcEdge, length);
+            arcFirst = Arrays.copyOf(arcFirst, length);
+            arcSecond = Arrays.copyOf(arcSecond, length);
+        }
+        arcFrom[arcCount] = from;
+        arcTo[arcCount] = to;
+        arcWeight[arcCount] = weight;
+        arcEdge[arcCount] = eid;
+        arcFirst[arcCount] = first;
+        arcSecond[arcCount] = second;
+        outArcs[from].add(arcCount);
+        inArcs[to].add(arcCount);
+        arcCount++;
+    }
+
+    /*
+     * is a -> b upward?
+    */
+    private boolean upward(int a, int b) {
+        return rank[a] < rank[b] || (rank[a] == CORE && rank[b] == CORE);
+    }
+
+    private void buildQueryGraph() {
+        forwardOffset = new int[n + 1];
+        backwardOffset = new int[n + 1];
+        for(int a=0; a<arcCount; a++) {
+            if (upward(arcFrom[a], arcTo[a])) forwardOffset[arcFrom[a] + 1]++;
+            if (upward(arcTo[a], arcFrom[a])) backwardOffset[arcTo[a] + 1]++;
+        }
+        for(int v=0; v<n; v++) {
+            forwardOffset[v + 1] += forwardOffset[v];
+            backwardOffset[v + 1] += backwardOffset[v];
+        }
+        forwardArcs = new int[forwardOffset[n]];
+        backwardArcs = new int[backwardOffset[n]];
+        int[] forwardNext = Arrays.copyOf(forwardOffset, n);
+        int[] backwardNext = Arrays.copyOf(backwardOffset, n);
+        for(int a=0; a<arcCount; a++) {
+            if (upward(arcFrom[a], arcTo[a])) forwardArcs[forwardNext[arcFrom[a]]++] = a;
+            if (upward(arcTo[a], arcFrom[a])) backwardArcs[backwardNext[arcTo[a]]++] = a;
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
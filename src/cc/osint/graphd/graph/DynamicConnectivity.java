@@ -0,0 +1,183 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import org.json.*;
+
+/*
+ * weak connectivity of the live graph, kept current as it is mutated so
+ *  that iscon, upathex & csetv need not look at the edges: union-find
+ *  (by size, with path halving) over the vertex ids of
+ *  VersionedAdjacency, uniting the ends of each edge as it is added.
+ *
+ * union-find cannot split a component, so a deletion that might (an edge
+ *  whose reverse is not also in the graph, a vertex that had edges)
+ *  only marks the structure stale; the next query rebuilds it from the
+ *  CompactGraph of the version it sees (see WeakComponents).  a burst
+ *  of deletions costs one rebuild, & inserts never cost more than a
+ *  union.
+ *
+ * mutations come from the graph's writer; the monitor serializes them
+ *  with queries (which also compress paths) from concurrent readers.
+*/
+public class DynamicConnectivity {
+    private int[] parent = new int[16];
+    private int[] size = new int[16];          // of the component, at its root
+    private JSONVertex[] vertices = new JSONVertex[16];
+    private int components = 0;
+    private boolean stale = false;
+    private long unions = 0;
+    private long rebuilds = 0;
+
+    /*
+     * mutations (vertex ids as assigned by VersionedAdjacency)
+    */
+
+    public synchronized void addVertex(JSONVertex jv) {
+        int v = jv.vid;
+        ensureCapacity(v + 1);
+        if (vertices[v] == jv) return;
+        vertices[v] = jv;
+        parent[v] = v;
+        size[v] = 1;
+        components++;
+    }
+
+    public synchronized void addEdge(JSONEdge je) {
+        if (stale) return;
+        int a = find(je.getSource().vid);
+        int b = find(je.getTarget().vid);
+        if (a == b) return;
+        if (size[a] < size[b]) {
+            int swap = a; a = b; b = swap;
+        }
+        parent[b] = a;
+        size[a] += size[b];
+        components--;
+        unions++;
+    }
+
+    /*
+     * reverseRemains: the graph still has an edge from the target of
+     *  <je> to its source, so the removal cannot disconnect anything
+    */
+    public synchronized void removeEdge(JSONEdge je, boolean reverseRemains) {
+        if (!reverseRemains &&
+            je.getSource() != je.getTarget()) {
+            stale = true;
+        }
+    }
+
+    /*
+     * isolated: the vertex had no edges when it was removed
+    */
+    public synchronized void removeVertex(JSONVertex jv, boolean isolated) {
+        int v = jv.vid;
+        if (v >= vertices.length || vertices[v] != jv) return;
+        vertices[v] = null;
+        if (!stale && isolated && parent[v] == v && size[v] == 1) {
+            components--;
+        } else {
+            stale = true;
+        }
+    }
+
+    /*
+     * queries
+    */
+
+    public synchronized boolean isStale() {
+        return stale;
+    }
+
+    /*
+     * reset to the components of <cg>, a version of the graph that
+     *  includes every mutation made so far
+    */
+    public synchronized void rebuild(CompactGraph cg) {
+        WeakComponents wc = new WeakComponents(cg);
+        int n = cg.getVertexCapacity();
+        parent = new int[Math.max(16, n)];
+        size = new int[parent.length];
+        vertices = new JSONVertex[parent.length];
+        int[] root = new int[wc.getComponentCount()];
+        Arrays.fill(root, -1);
+        for(int v=0; v<n; v++) {
+            int c = wc.getComponent(v);
+            if (c == -1) continue;
+            vertices[v] = cg.getVertex(v);
+            if (root[c] == -1) root[c] = v;
+            parent[v] = root[c];
+            size[root[c]]++;
+        }
+        components = wc.getComponentCount();
+        stale = false;
+        rebuilds++;
+    }
+
+    public synchronized int getComponentCount() {
+        return components;
+    }
+
+    public synchronized boolean isConnected(JSONVertex from, JSONVertex to) {
+        return contains(from) && contains(to) && find(from.vid) == find(to.vid);
+    }
+
+    /*
+     * the vertices of the component of <jv>; null if <jv> is not in the
+     *  graph
+    */
+    public synchronized List<JSONVertex> getComponent(JSONVertex jv) {
+        if (!contains(jv)) return null;
+        int root = find(jv.vid);
+        List<JSONVertex> component = new ArrayList<JSONVertex>(size[root]);
+        for(int v=0; v<vertices.length; v++) {
+            if (null != vertices[v] && find(v) == root) component.add(vertices[v]);
+        }
+        return component;
+    }
+
+    public synchronized JSONObject getStatus() throws Exception {
+        JSONObject status = new JSONObject();
+        status.put("components", components);
+        status.put("stale", stale);
+        status.put("unions", unions);
+        status.put("rebuilds", rebuilds);
+        return status;
+    }
+
+    private boolean contains(JSONVertex jv) {
+        return jv.vid >= 0 && jv.vid < vertices.length && vertices[jv.vid] == jv;
+    }
+
+    private int find(int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];      // path halving
+            v = parent[v];
+        }
+        return v;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= parent.length) return;
+        int length = Math.max(n, parent.length * 2);
+        parent = Arrays.copyOf(parent, length);
+        size = Arrays.copyOf(size, length);
+        vertices = Arrays.copyOf(vertices, length);
+    }
+}
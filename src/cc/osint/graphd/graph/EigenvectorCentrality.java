@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * eigenvector centrality over a CompactGraph: the principal eigenvector
+ *  of the weighted adjacency, each vertex scored by the weighted sum of
+ *  the scores of the vertices with edges to it.
+ *
+ * power iteration of x = x + A^T x (the shift by the identity keeps the
+ *  iteration from oscillating on periodic graphs & leaves the
+ *  eigenvectors unchanged), normalized to euclidean length 1, until the
+ *  L1 change is within <tolerance>.
+*/
+public class EigenvectorCentrality extends MatrixIteration {
+    final private static int MULTIPLY = 0;      // sweeps
+    final private static int NORMALIZE = 1;
+
+    private double[] score;
+    private double[] next;
+    private double scale;
+
+    public EigenvectorCentrality(CompactGraph cg) throws Exception {
+        super(cg);
+        checkWeights("eigenvector centrality");
+        score = prior(null);
+        next = new double[score.length];
+    }
+
+    protected double iterate() {
+        double norm = Math.sqrt(sweep(MULTIPLY)[0]);
+        scale = (norm > 0) ? 1 / norm : 0;
+        double change = sweep(NORMALIZE)[0];
+        double[] swap = score; score = next; next = swap;
+        return change;
+    }
+
+    /*
+     * MULTIPLY: partial sum: squared length; NORMALIZE: L1 change
+    */
+    protected void kernel(int pass, int lo, int hi, double[] partial, int slot) {
+        double sum = 0;
+        if (pass == MULTIPLY) {
+            double[] weight = cg.edgeWeight;
+            for(int v=lo; v<hi; v++) {
+                double x = score[v] + pullIn(v, score, weight);
+                next[v] = x;
+                sum += x * x;
+            }
+        } else {
+            for(int v=lo; v<hi; v++) {
+                double x = next[v] * scale;
+                next[v] = x;
+                sum += Math.abs(x - score[v]);
+            }
+        }
+        partial[slot] = sum;
+    }
+
+    /*
+     * by vertex id
+    */
+    public double[] getScores() {
+        return score;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.json.*;
+
+/*
+ * elementary cycles of a CompactGraph: johnson's algorithm, over its
+ *  strongly connected components.
+ *
+ * every cycle lies within one component, & is found from its lowest
+ *  vertex id s by a search of the vertices of s's component above s.
+ *  the search is first bounded by a breadth-first search back from s:
+ *  only the vertices that reach s can be on its cycles (those s reaches
+ *  too are johnson's component of s), & their distance to s cuts any
+ *  path that could not close within <maxLength> edges.  a vertex from
+ *  which the search found no cycle stays blocked until one of the
+ *  vertices it leads to is unblocked, so no dead end is searched twice;
+ *  one cut by the length bound may yet close by a shorter path, so it
+ *  is not blocked.
+ *
+ * components of one vertex are not searched; their self-loops are cycles
+ *  of length one.  the searches from each s are independent: they are
+ *  split between the threads of MatrixIteration's pool, with an explicit
+ *  stack, so long cycles cannot overflow the call stack.  the cycles
+ *  through one vertex v are found from v alone, over its whole component,
+ *  one search per edge out of v.
+ *
+ * cycles are passed to the listener as they are found (one thread at a
+ *  time), until <limit> have been or <timeout> ms have passed.
+*/
+public class ElementaryCycles {
+    final private static int GRAIN = 4;         // searches per fork/join leaf
+    final private static int CLOCK_INTERVAL = 1024;     // steps between looks at the clock
+    final private static int FOUND = 1;        // a cycle was closed below a vertex
+    final private static int CUT = 2;          // a path was cut by the length bound
+
+    /*
+     * receives each cycle: {"length": n, "cycle": [keys]}, from its first
+     *  vertex; the edge back to it is implied
+    */
+    public interface Listener {
+        public void cycle(JSONObject cycle) throws Exception;
+    }
+
+    final private CompactGraph cg;
+    final private StronglyConnectedComponents scc;
+    final private int through;                  // vertex every cycle must pass, or -1
+    final private int maxLength;
+    final private long limit;
+    final private long deadline;
+    final private Listener listener;
+    private volatile boolean stopped = false;
+    private volatile boolean timedOut = false;
+    private long found = 0;
+    private int longest = 0;
+    private int components = 0;
+    private Exception failure = null;
+
+    /* the searches: from start[i], over the out edges first..last - 1 */
+    private int[] start;
+    private int[] first;
+    private int[] last;
+    private int searches = 0;
+
+    final private ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>();
+
+    /*
+     * through: the id of the vertex every cycle must pass, or -1 for all
+     *  cycles; maxLength, limit, timeout: <= 0 for none
+    */
+    public ElementaryCycles(CompactGraph cg, int through, int maxLength,
+                            long limit, long timeout, Listener listener) {
+        this.cg = cg;
+        this.through = through;
+        this.maxLength = (maxLength > 0) ? maxLength : Integer.MAX_VALUE;
+        this.limit = limit;
+        this.deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        this.listener = listener;
+        scc = new StronglyConnectedComponents(cg);
+        int n = cg.getVertexCapacity();
+        start = new int[16];
+        first = new int[16];
+        last = new int[16];
+        if (through != -1) {
+            if (!scc.isOnCycle(through)) return;
+            components = 1;
+            for(int e=cg.outOffset[through]; e<cg.outOffset[through + 1]; e++) {
+                addSearch(through, e, e + 1);
+            }
+            return;
+        }
+        for(int v=0; v<n; v++) {
+            if (null == cg.getVertex(v) || !scc.isOnCycle(v)) continue;
+            if (scc.getComponentSize(scc.getComponent(v)) == 1) {
+                // a self-loop: the only cycle of its component
+                for(int e=cg.outOffset[v]; e<cg.outOffset[v + 1]; e++) {
+                    if (cg.edgeTarget[e] == v) addSearch(v, e, e + 1);
+                }
+                continue;
+            }
+            addSearch(v, cg.outOffset[v], cg.outOffset[v + 1]);
+        }
+        for(int c=0; c<scc.getComponentCount(); c++) {
+            if (scc.getComponentSize(c) > 1) components++;
+        }
+    }
+
+    private void addSearch(int s, int from, int to) {
+        if (searches == start.length) {
+            start = Arrays.copyOf(start, searches * 2);
+            first = Arrays.copyOf(first, searches * 2);
+            last = Arrays.copyOf(last, searches * 2);
+        }
+        start[searches] = s;
+        first[searches] = from;
+        last[searches] = to;
+        searches++;
+    }
+
+    public ElementaryCycles run() throws Exception {
+        if (searches > 0) {
+            MatrixIteration.pool.invoke(new Solve(0, searches));
+        }
+        if (null != failure) throw failure;
+        return this;
+    }
+
+    private class Solve extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private int lo;
+        final private int hi;
+
+        Solve(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= GRAIN) {
+                for(int i=lo; i<hi && !stopped; i++) {
+                    if (System.currentTimeMillis() > deadline) {
+                        timedOut = true;
+                        stopped = true;
+                        break;
+                    }
+                    search(i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Solve(lo, mid), new Solve(mid, hi));
+        }
+    }
+
+    /*
+     * per thread, by vertex id; each search leaves them as it found them
+    */
+    private class Workspace {
+        final int[] distance;                   // to s; -1 off the search
+        final boolean[] blocked;
+        final int[][] blocks;                   // johnson's B: unblock these with v
+        final int[] blockCount;
+        final int[] path;
+        final int[] next;                       // next out edge, by depth
+        final int[] state;                      // FOUND | CUT, by depth
+        final int[] queue;
+        final int[] touched;
+        int touchedCount = 0;
+
+        Workspace(int n) {
+            distance = new int[n];
+            Arrays.fill(distance, -1);
+            blocked = new boolean[n];
+            blocks = new int[n][];
+            blockCount = new int[n];
+            path = new int[n];
+            next = new int[n];
+            state = new int[n];
+            queue = new int[n];
+            touched = new int[n];
+        }
+
+        void reset() {
+            for(int i=0; i<touchedCount; i++) {
+                int v = touched[i];
+                distance[v] = -1;
+                blocked[v] = false;
+                blockCount[v] = 0;
+            }
+            touchedCount = 0;
+        }
+    }
+
+    /*
+     * johnson's circuit search from start[i]
+    */
+    private void search(int i) {
+        int s = start[i];
+        Workspace ws = workspaces.get();
+        if (null == ws) {
+            ws = new Workspace(cg.getVertexCapacity());
+            workspaces.set(ws);
+        }
+        try {
+            bound(ws, s);
+            int[] path = ws.path;
+            int[] next = ws.next;
+            int[] state = ws.state;
+            int[] distance = ws.distance;
+            boolean[] blocked = ws.blocked;
+            int depth = 1;                      // vertices on the path
+            path[0] = s;
+            next[0] = first[i];
+            state[0] = 0;
+            blocked[s] = true;
+            int steps = 0;
+            while (depth > 0) {
+                if (stopped) return;
+                if (++steps % CLOCK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
+                    timedOut = true;
+                    stopped = true;
+                    return;
+                }
+                int v = path[depth - 1];
+                int end = (depth == 1) ? last[i] : cg.outOffset[v + 1];
+                if (next[depth - 1] < end) {
+                    int w = cg.edgeTarget[next[depth - 1]++];
+                    if (w == s) {
+                        if (depth <= maxLength) {
+                            report(path, depth);
+                            state[depth - 1] |= FOUND;
+                        } else {
+                            state[depth - 1] |= CUT;
+                        }
+                        continue;
+                    }
+                    if (distance[w] == -1 || blocked[w]) continue;
+                    if ((long) depth + distance[w] > maxLength) {
+                        state[depth - 1] |= CUT;
+                        continue;
+                    }
+                    blocked[w] = true;
+                    path[depth] = w;
+                    next[depth] = cg.outOffset[w];
+                    state[depth] = 0;
+                    depth++;
+                    continue;
+                }
+                // v is done: unblock it, or leave it to be unblocked with
+                //  the vertices it leads to
+                depth--;
+                if (state[depth] != 0) {
+                    unblock(ws, v);
+                    if (depth > 0) state[depth - 1] |= state[depth];
+                } else {
+                    for(int e=cg.outOffset[v]; e<cg.outOffset[v + 1]; e++) {
+                        int w = cg.edgeTarget[e];
+                        if (distance[w] != -1) addBlock(ws, w, v);
+                    }
+                }
+            }
+        } finally {
+            ws.reset();
+        }
+    }
+
+    /*
+     * breadth-first back from <s>, over the vertices its search may use:
+     *  its component, above s unless every cycle is to pass s
+    */
+    private void bound(Workspace ws, int s) {
+        int component = scc.getComponent(s);
+        int[] distance = ws.distance;
+        int[] queue = ws.queue;
+        int head = 0, tail = 0;
+        distance[s] = 0;
+        ws.touched[ws.touchedCount++] = s;
+        queue[tail++] = s;
+        while (head < tail) {
+            int x = queue[head++];
+            if (distance[x] + 1 >= maxLength) continue;
+            for(int j=0; j<cg.inDegree(x); j++) {
+                int w = cg.edgeSource[cg.inEdge(x, j)];
+                if (distance[w] != -1 || scc.getComponent(w) != component) continue;
+                if (through == -1 && w < s) continue;
+                distance[w] = distance[x] + 1;
+                ws.touched[ws.touchedCount++] = w;
+                queue[tail++] = w;
+            }
+        }
+    }
+
+    private void addBlock(Workspace ws, int w, int v) {
+        int[] list = ws.blocks[w];
+        int count = ws.blockCount[w];
+        for(int j=0; j<count; j++) {
+            if (list[j] == v) return;
+        }
+        if (null == list) {
+            list = ws.blocks[w] = new int[4];
+        } else if (count == list.length) {
+            list = ws.blocks[w] = Arrays.copyOf(list, count * 2);
+        }
+        list[count] = v;
+        ws.blockCount[w] = count + 1;
+    }
+
+    private void unblock(Workspace ws, int v) {
+        int[] queue = ws.queue;
+        int tail = 0;
+        ws.blocked[v] = false;
+        queue[tail++] = v;
+        while (tail > 0) {
+            int u = queue[--tail];
+            int count = ws.blockCount[u];
+            ws.blockCount[u] = 0;
+            for(int j=0; j<count; j++) {
+                int w = ws.blocks[u][j];
+                if (ws.blocked[w]) {
+                    ws.blocked[w] = false;
+                    queue[tail++] = w;
+                }
+            }
+        }
+    }
+
+    private synchronized void report(int[] path, int length) {
+        if (stopped) return;
+        longest = Math.max(longest, length);
+        try {
+            listener.cycle(toJSON(path, length));
+        } catch (Exception ex) {
+            failure = ex;
+            stopped = true;
+            return;
+        }
+        if (++found == limit) stopped = true;
+    }
+
+    private JSONObject toJSON(int[] path, int length) throws Exception {
+        JSONArray keys = new JSONArray();
+        for(int j=0; j<length; j++) {
+            keys.put(cg.getVertex(path[j]).getKey());
+        }
+        JSONObject result = new JSONObject();
+        result.put("length", length);
+        result.put("cycle", keys);
+        return result;
+    }
+
+    /*
+     * results
+    */
+
+    public synchronized long getCount() {
+        return found;
+    }
+
+    public synchronized int getLongest() {
+        return longest;
+    }
+
+    /*
+     * strongly connected components of more than one vertex searched
+    */
+    public int getComponentCount() {
+        return components;
+    }
+
+    public boolean isComplete() {
+        return !stopped;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
@@ -18,8 +18,11 @@ package cc.osint.graphd.graph;
 
 import java.lang.*;
 import java.lang.ref.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jgrapht.*;
@@ -66,8 +69,33 @@ public class Graph
     
     final private String graphName;
     private ListenableDirectedWeightedGraph<JSONVertex, JSONEdge> gr;
-    private ConnectivityInspector<JSONVertex, JSONEdge> connectivityInspector;
+    
+    /* copy-on-write adjacency for analytics against a pinned version of
+       the graph (see pinSnapshot & runAgainstSnapshot) */
+    final private VersionedAdjacency adjacency = new VersionedAdjacency();
+    final private DynamicConnectivity connectivity = new DynamicConnectivity();
+    final private ReachabilityIndex reachability = new ReachabilityIndex();
+    final private ThreadLocal<AdjacencySnapshot> analyticSnapshot = 
+        new ThreadLocal<AdjacencySnapshot>();
+    
+    /* compressed-sparse-row copy of the current version for the analytics,
+       refreshed on first use after a mutation (see compactGraph) */
+    private volatile CompactGraph compactGraph = null;
+    final private Object compactGraphLock = new Object();
+    private volatile Landmarks landmarks = null;
+    private volatile ContractionHierarchy contractionHierarchy = null;
+    private volatile WeakComponents weakComponents = null;
+    private volatile ReachabilityIndex snapshotReachability = null;   // for jobs
+    
+    /* materialized transitive closures, by relationship (see closure_build) */
+    final private ConcurrentHashMap<String, TransitiveClosure> closures =
+        new ConcurrentHashMap<String, TransitiveClosure>();
+    final private AtomicBoolean contractionHierarchyRebuilding = new AtomicBoolean(false);
     final private ConcurrentHashMap<String, JSONVertex> vertices;
+    final private ConcurrentHashMap<String, JSONEdge> edges;
+    
+    /* told of the analytics' write-backs (see writeVertexProperty) */
+    private volatile VertexPropertyListener vertexPropertyListener = null;
     
     /* indexing */
     
@@ -77,6 +105,21 @@ public class Graph
     final private RAMDirectory luceneDirectory;
     final private Analyzer analyzer = new WhitespaceAnalyzer(Version.LUCENE_31);
     
+    /* index refresh policy: mutations since the last commit/reopen share
+       the next one; see setIndexRefreshPolicy */
+    
+    private String indexRefreshMode;
+    private long indexRefreshParam;
+    private int pendingIndexMutations = 0;
+    private long oldestPendingIndexMutation = 0;
+    private long lastIndexRefreshTime = 0;
+    private long indexRefreshCount = 0;
+    
+    /* last journal sequence applied to this graph (see GraphJournal);
+       recorded in snapshots so that replay can skip what they contain */
+    
+    private volatile long journalSequence = 0;
+    
     /* simulation: process management */
 
     final private ExecutorService executorService;
@@ -110,23 +153,56 @@ public class Graph
     final public static String PROCESS_TYPE = "p";
     final public static String CHANNEL_TYPE = "c";
     
+    /* spath modes (see also PointToPointShortestPath) */
+    
+    final public static String SPATH_DIJKSTRA = "dijkstra";
+    
+    /* vertex properties written by the ranking analytics (see getPageRank; 
+       betweenness & closeness are written to properties of those names) */
+    
+    final public static String PAGERANK_FIELD = "pagerank";
+    final public static String PPR_FIELD = "ppr";
+    final public static String AUTHORITY_FIELD = "authority";
+    final public static String HUB_FIELD = "hub";
+    final public static String AUTHORITY_PRIOR_FIELD = "authority_prior";
+    final public static String HUB_PRIOR_FIELD = "hub_prior";
+    final public static String EIGENVECTOR_FIELD = "eigenvector";
+    final public static String KSTEP_FIELD = "kstep";
+    final public static String COLOR_FIELD = "color";
+    final private static int SCORE_SCALE = 12;
+    
     /* UDF/process statics */
     
     final public static String UDF_TYPE_JS = "js";
     
+    /* index refresh statics */
+    
+    final public static String REFRESH_SYNC = "sync";       // commit & reopen after every mutation
+    final public static String REFRESH_COUNT = "count";     // count:<n> - after every n mutations, or on a query
+    final public static String REFRESH_TIME = "time";       // time:<ms> - once the oldest pending mutation is <ms> old
+    final public static String REFRESH_READ = "read";       // on the first query after a mutation
+    final public static String DEFAULT_REFRESH_POLICY = 
+        System.getProperty("graphd.index.refresh", REFRESH_SYNC);
+    
     /* graph management */
 
     public Graph(String graphName) throws Exception {
+        this(graphName, new RAMDirectory());
+    }
+    
+    /*
+     * luceneDirectory: an empty directory, or the contents of a
+     *  previously committed graph index (see GraphSnapshotFile)
+    */
+    protected Graph(String graphName, RAMDirectory luceneDirectory) throws Exception {
         this.graphName = graphName;
         gr = new ListenableDirectedWeightedGraph<JSONVertex, JSONEdge>(JSONEdge.class);
-        connectivityInspector = new ConnectivityInspector<JSONVertex, JSONEdge>(gr);
         vertices = new ConcurrentHashMap<String, JSONVertex>();
+        edges = new ConcurrentHashMap<String, JSONEdge>();
         
         // event handlers
         gr.addVertexSetListener(this);
         gr.addGraphListener(this);
-        gr.addVertexSetListener(connectivityInspector);
-        gr.addGraphListener(connectivityInspector);
         
         // simulation components
         executorService = Executors.newCachedThreadPool();
@@ -153,7 +229,7 @@ public class Graph
                                                  fiberFactory);
         
         // graph index
-        luceneDirectory = new RAMDirectory();
+        this.luceneDirectory = luceneDirectory;
         indexWriter = new IndexWriter(
             luceneDirectory,
             analyzer,
@@ -169,7 +245,8 @@ public class Graph
             IndexWriter.MaxFieldLength.LIMITED);
         simIndexReader = simIndexWriter.getReader();
         simSearcher = new IndexSearcher(simIndexReader);
-
+        
+        setIndexRefreshPolicy(DEFAULT_REFRESH_POLICY);
     }
     
     private static String generateKey() throws Exception {
@@ -201,13 +278,12 @@ public class Graph
     public String startProcess(String key, 
                              String udfKey,
                              String processName) throws Exception {
-        JSONObject obj = getGraphObject(key);
-        if (obj == null || !obj.has(TYPE_FIELD)) {
+        String _type = getGraphObjectType(key);
+        if (_type == null) {
             throw new Exception("startProcess: unknown or nonexistent graph object at " +
                                 KEY_FIELD + ":" + key);
         }
         String pid = generateKey();
-        String _type = obj.getString(TYPE_FIELD);
         JSONObject udfDef = getUDFDef(udfKey);
         String udfType = udfDef.getString("udf_type");
         String udfFn = udfDef.getString("udf_fn");
@@ -404,11 +480,22 @@ public class Graph
     }
     
     public String addVertex(String key, JSONObject jo) throws Exception {
+        addVertexObject(key, jo);
+        indexObject(key, VERTEX_TYPE, jo);
+        return key;
+    }
+    
+    private JSONVertex addVertexObject(String key, JSONObject jo) throws Exception {
         JSONVertex jv = new JSONVertex(key, jo);
         gr.addVertex(jv);
+        adjacency.addVertex(jv);
+        connectivity.addVertex(jv);
+        reachability.addVertex(jv);
+        for(TransitiveClosure tc: closures.values()) {
+            tc.addVertex(jv);
+        }
         vertices.put(key, jv);
-        indexObject(key, VERTEX_TYPE, jo);
-        return key;
+        return jv;
     }
     
     public String addEdge(JSONObject jo, 
@@ -417,20 +504,214 @@ public class Graph
     }
     
     public String addEdge(String key, JSONObject jo, 
+        String vKeyFrom, String vKeyTo, String rel, double weight) throws Exception {
+        if (null == addEdgeObject(key, jo, vKeyFrom, vKeyTo, rel, weight)) {
+            throw new Exception("EDGE_EXISTS " + vKeyFrom + " " + vKeyTo);
+        }
+        indexObject(key, EDGE_TYPE, jo);
+        return key;
+    }
+    
+    /*
+     * returns null, adding nothing, if there is already an edge from
+     *  <vKeyFrom> to <vKeyTo> (jgrapht keeps one per pair)
+    */
+    private JSONEdge addEdgeObject(String key, JSONObject jo, 
         String vKeyFrom, String vKeyTo, String rel, double weight) throws Exception {
         JSONVertex fromVertex = getVertex(vKeyFrom);
         JSONVertex toVertex   = getVertex(vKeyTo);
         JSONEdge<JSONVertex> je = 
-            new JSONEdge<JSONVertex>(fromVertex, toVertex, rel);
-        je.put(KEY_FIELD, key);
+            new JSONEdge<JSONVertex>(fromVertex, toVertex, rel, key);
         je.inherit(jo);
-        gr.addEdge(fromVertex, toVertex, je);
+        if (!gr.addEdge(fromVertex, toVertex, je)) {
+            return null;
+        }
         gr.setEdgeWeight(je, weight);
-        indexObject(key, EDGE_TYPE, jo);
-        return key;
+        adjacency.addEdge(je, weight);
+        connectivity.addEdge(je);
+        reachability.addEdge(je);
+        TransitiveClosure tc = closures.get(je.toString());
+        if (null != tc) tc.addEdge(je);
+        edges.put(key, je);
+        return je;
+    }
+    
+    /*
+     * bulk loading: objects are inserted with graph listeners detached,
+     *  their (pre-built) index documents are written in one pass and
+     *  committed once (by the last batch of a load, commit == true),
+     *  regardless of the index refresh policy.  objects that were
+     *  inserted are marked applied; the rest are reported in "errors"
+    */
+    public JSONObject bulkLoad(List<BulkLoadObject> objects, 
+                               boolean commit) throws Exception {
+        int vertexCount = 0;
+        int edgeCount = 0;
+        JSONArray errors = new JSONArray();
+        List<BulkLoadObject> indexed = new ArrayList<BulkLoadObject>(objects.size());
+        Set<String> updatedKeys = new HashSet<String>();
+        
+        detachGraphListeners();
+        try {
+            for(BulkLoadObject obj: objects) {
+                if (exists(obj.key)) {
+                    updatedKeys.add(obj.key);
+                }
+                if (obj.type.equals(VERTEX_TYPE)) {
+                    addVertexObject(obj.key, obj.data);
+                    obj.applied = true;
+                    indexed.add(obj);
+                    vertexCount++;
+                } else {
+                    if (null == getVertex(obj.vKeyFrom) ||
+                        null == getVertex(obj.vKeyTo)) {
+                        errors.put(obj.key + ": vertex " + 
+                            (null == getVertex(obj.vKeyFrom) ? obj.vKeyFrom : obj.vKeyTo) +
+                            " does not exist");
+                        continue;
+                    }
+                    if (null == addEdgeObject(obj.key, obj.data, 
+                                              obj.vKeyFrom, obj.vKeyTo, 
+                                              obj.rel, obj.weight)) {
+                        errors.put(obj.key + ": edge " + obj.vKeyFrom + " -> " +
+                            obj.vKeyTo + " already exists");
+                        continue;
+                    }
+                    obj.applied = true;
+                    indexed.add(obj);
+                    edgeCount++;
+                }
+            }
+        } finally {
+            attachGraphListeners();
+        }
+        
+        synchronized(this) {
+            for(BulkLoadObject obj: indexed) {
+                if (updatedKeys.contains(obj.key)) {
+                    indexWriter.updateDocument(new Term(KEY_FIELD, obj.key), obj.doc);
+                } else {
+                    indexWriter.addDocument(obj.doc);
+                }
+                // keys repeated within the batch replace each other
+                updatedKeys.add(obj.key);
+            }
+            if (indexed.size() > 0) {
+                if (pendingIndexMutations == 0) {
+                    oldestPendingIndexMutation = System.currentTimeMillis();
+                }
+                pendingIndexMutations += indexed.size();
+            }
+            if (commit) {
+                flushGraphIndex();
+            }
+        }
+        
+        JSONObject result = new JSONObject();
+        result.put("vertices", vertexCount);
+        result.put("edges", edgeCount);
+        result.put("errors", errors);
+        return result;
+    }
+    
+    private void detachGraphListeners() {
+        gr.removeVertexSetListener(this);
+        gr.removeGraphListener(this);
+    }
+    
+    private void attachGraphListeners() {
+        gr.addVertexSetListener(this);
+        gr.addGraphListener(this);
+    }
+    
+    /*
+     * snapshots
+    */
+    
+    public JSONObject save(String fn) throws Exception {
+        return GraphSnapshotFile.write(this, fn);
+    }
+    
+    public static Graph restore(String graphName, String fn) throws Exception {
+        return GraphSnapshotFile.read(graphName, fn);
+    }
+    
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+    
+    public void setJournalSequence(long journalSequence) {
+        this.journalSequence = journalSequence;
+    }
+    
+    // called by GraphSnapshotFile.read: the index is restored as-is
+    
+    protected void restoreVertex(String key, JSONObject jo) throws Exception {
+        addVertexObject(key, jo);
+    }
+    
+    protected void restoreEdge(String key, JSONObject jo, String vKeyFrom, 
+                               String vKeyTo, String rel, double weight) throws Exception {
+        addEdgeObject(key, jo, vKeyFrom, vKeyTo, rel, weight);
+    }
+    
+    protected void beginRestore() {
+        detachGraphListeners();
+    }
+    
+    protected void endRestore() {
+        attachGraphListeners();
+    }
+    
+    // called by GraphSnapshotFile.write
+    
+    protected Collection<JSONVertex> getVertexObjects() {
+        return vertices.values();
+    }
+    
+    protected Collection<JSONEdge> getEdgeObjects() {
+        return edges.values();
+    }
+    
+    /*
+     * the files of the last commit; the caller must hold this Graph's
+     *  monitor (refreshGraphIndex) while reading them so that no newer
+     *  commit can make them obsolete
+    */
+    protected Collection<String> getCommittedIndexFiles() throws Exception {
+        flushGraphIndex();
+        indexWriter.commit();
+        Collection<IndexCommit> commits = IndexReader.listCommits(luceneDirectory);
+        IndexCommit lastCommit = null;
+        for(IndexCommit commit: commits) {
+            if (null == lastCommit || commit.getGeneration() > lastCommit.getGeneration()) {
+                lastCommit = commit;
+            }
+        }
+        List<String> files = new ArrayList<String>(lastCommit.getFileNames());
+        if (luceneDirectory.fileExists("segments.gen") &&
+            !files.contains("segments.gen")) {
+            files.add("segments.gen");
+        }
+        return files;
+    }
+    
+    protected RAMDirectory getLuceneDirectory() {
+        return luceneDirectory;
+    }
+    
+    public String getName() {
+        return graphName;
     }
     
     public void indexObject(String key, String type, JSONObject jo) throws Exception {
+        indexWriter.updateDocument(new Term(KEY_FIELD, key), 
+                                   createIndexDocument(key, type, jo));
+        graphIndexChanged();
+    }
+    
+    public static Document createIndexDocument(String key, String type, JSONObject jo) 
+        throws Exception {
         Document doc = new Document();
         doc.add(new Field(TYPE_FIELD, type,
             Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
@@ -444,9 +725,7 @@ public class Graph
                         Field.Store.YES, Field.Index.ANALYZED_NO_NORMS));
             }
         }
-        
-        indexWriter.updateDocument(new Term(KEY_FIELD, key), doc);
-        refreshGraphIndex();
+        return doc;
     }
 
     public void indexSimObject(String key, String type, JSONObject jo) throws Exception {
@@ -481,19 +760,121 @@ public class Graph
         refreshSimIndex();
     }
     
-    private void refreshGraphIndex() throws Exception {
+    private synchronized void refreshGraphIndex() throws Exception {
         long t0 = System.currentTimeMillis();
         indexWriter.commit();
         IndexReader newReader = indexReader.reopen();
         if (newReader != indexReader) {
+            // searches in flight hold their own reference (see queryGraphIndex)
             searcher.close();
             indexReader.close();
             indexReader = newReader;
             searcher = new IndexSearcher(indexReader);
         }
-        long elapsed = System.currentTimeMillis() - t0;
+        pendingIndexMutations = 0;
+        oldestPendingIndexMutation = 0;
+        lastIndexRefreshTime = System.currentTimeMillis();
+        indexRefreshCount++;
+        long elapsed = lastIndexRefreshTime - t0;
         //log.info("refreshGraphIndex: " + elapsed + "ms");
     }
+    
+    /*
+     * called after every graph index mutation; commits & reopens
+     *  according to the current refresh policy
+    */
+    private synchronized void graphIndexChanged() throws Exception {
+        long now = System.currentTimeMillis();
+        if (pendingIndexMutations == 0) {
+            oldestPendingIndexMutation = now;
+        }
+        pendingIndexMutations++;
+        if (indexRefreshMode.equals(REFRESH_SYNC) ||
+            (indexRefreshMode.equals(REFRESH_COUNT) &&
+                pendingIndexMutations >= indexRefreshParam) ||
+            (indexRefreshMode.equals(REFRESH_TIME) &&
+                now - oldestPendingIndexMutation >= indexRefreshParam)) {
+            refreshGraphIndex();
+        }
+    }
+    
+    /*
+     * called before every graph index query; bounds the staleness
+     *  a reader can observe under the count, time & read policies.
+     *  count batches the commits of a run of mutations, not what a
+     *  query sees: one that finds mutations pending commits them, so a
+     *  run that stops short of <n> is not left invisible.
+    */
+    private synchronized void graphIndexRead() throws Exception {
+        if (pendingIndexMutations == 0) return;
+        if (indexRefreshMode.equals(REFRESH_READ) ||
+            indexRefreshMode.equals(REFRESH_COUNT) ||
+            (indexRefreshMode.equals(REFRESH_TIME) &&
+                System.currentTimeMillis() - oldestPendingIndexMutation >= indexRefreshParam)) {
+            refreshGraphIndex();
+        }
+    }
+    
+    /*
+     * commit & reopen now if anything is pending, regardless of policy
+    */
+    public synchronized void flushGraphIndex() throws Exception {
+        if (pendingIndexMutations > 0) {
+            refreshGraphIndex();
+        }
+    }
+    
+    /*
+     * policy: sync | count:<n> | time:<ms> | read
+    */
+    public synchronized void setIndexRefreshPolicy(String policy) throws Exception {
+        String mode = policy;
+        long param = 0;
+        if (policy.indexOf(":") != -1) {
+            mode = policy.substring(0, policy.indexOf(":"));
+            try {
+                param = Long.parseLong(policy.substring(policy.indexOf(":")+1));
+            } catch (NumberFormatException ex) {
+                param = -1;
+            }
+        }
+        if (mode.equals(REFRESH_COUNT) || mode.equals(REFRESH_TIME)) {
+            if (param <= 0) {
+                throw new Exception("index refresh policy '" + policy + 
+                    "' requires a positive parameter, e.g., " + mode + ":100");
+            }
+        } else if (!mode.equals(REFRESH_SYNC) && !mode.equals(REFRESH_READ)) {
+            throw new Exception("unknown index refresh policy '" + policy + 
+                "' (try sync, count:<n>, time:<ms>, read)");
+        }
+        indexRefreshMode = mode;
+        indexRefreshParam = param;
+        
+        // anything pending under the old policy becomes visible now
+        flushGraphIndex();
+    }
+    
+    public synchronized String getIndexRefreshPolicy() {
+        if (indexRefreshMode.equals(REFRESH_COUNT) ||
+            indexRefreshMode.equals(REFRESH_TIME)) {
+            return indexRefreshMode + ":" + indexRefreshParam;
+        }
+        return indexRefreshMode;
+    }
+    
+    public synchronized JSONObject getIndexRefreshStatus() throws Exception {
+        long now = System.currentTimeMillis();
+        JSONObject result = new JSONObject();
+        result.put("index_refresh_policy", getIndexRefreshPolicy());
+        result.put("pending_index_mutations", pendingIndexMutations);
+        result.put("index_refresh_lag_ms", 
+            pendingIndexMutations == 0 ? 0 : now - oldestPendingIndexMutation);
+        result.put("index_refresh_count", indexRefreshCount);
+        if (lastIndexRefreshTime > 0) {
+            result.put("last_index_refresh_ms_ago", now - lastIndexRefreshTime);
+        }
+        return result;
+    }
 
     private void refreshSimIndex() throws Exception {
         long t0 = System.currentTimeMillis();
@@ -510,7 +891,17 @@ public class Graph
     }
     
     public List<JSONObject> queryGraphIndex(String queryStr) throws Exception {
-        return query(searcher, queryStr);
+        graphIndexRead();
+        IndexSearcher indexSearcher;
+        synchronized(this) {
+            indexSearcher = searcher;
+            indexSearcher.getIndexReader().incRef();
+        }
+        try {
+            return query(indexSearcher, queryStr);
+        } finally {
+            indexSearcher.getIndexReader().decRef();
+        }
     }
     
     public List<JSONObject> querySimIndex(String queryStr) throws Exception {
@@ -565,11 +956,70 @@ public class Graph
         return results;
     }
     
-    public JSONObject getShortestPath(String vFromKey, String vToKey, double radius) throws Exception {
+    /*
+     * mode: dijkstra (jgrapht), bidir, alt, ch, or null: ch if the 
+     *  contraction hierarchy is current, alt if the landmarks are, bidir
+     *  otherwise (see PointToPointShortestPath)
+    */
+    public JSONObject getShortestPath(String vFromKey, String vToKey, double radius,
+                                      String mode) throws Exception {
+        if (null != mode && mode.equals(SPATH_DIJKSTRA)) {
+            return getDijkstraShortestPath(vFromKey, vToKey, radius);
+        }
         JSONVertex vFrom = getVertex(vFromKey);
         JSONVertex vTo = getVertex(vToKey);
-        List<JSONObject> results = new ArrayList<JSONObject>();
-        DijkstraShortestPath dsp = new DijkstraShortestPath(gr, vFrom, vTo, radius);
+        if (null == vFrom || null == vTo || vFrom == vTo) return null;
+        CompactGraph cg = analyticCompactGraph();
+        int source = cg.getVertexId(vFrom);
+        int target = cg.getVertexId(vTo);
+        if (source == -1 || target == -1) return null;
+        ContractionHierarchy ch = contractionHierarchy;
+        Landmarks lm = landmarks;
+        boolean chCurrent = (null != ch && ch.isCurrent(cg));
+        boolean lmCurrent = (null != lm && lm.isCurrent(cg));
+        if (null != ch && !chCurrent) {
+            rebuildContractionHierarchy();
+        }
+        if (null == mode) {
+            mode = (chCurrent && ch.isEffective()) ? PointToPointShortestPath.CONTRACTION_HIERARCHY :
+                   lmCurrent ? PointToPointShortestPath.ALT : 
+                               PointToPointShortestPath.BIDIRECTIONAL;
+        } else if (mode.equals(PointToPointShortestPath.CONTRACTION_HIERARCHY) && !chCurrent) {
+            throw new Exception("no current contraction hierarchy: see chbuild");
+        } else if (mode.equals(PointToPointShortestPath.ALT) && !lmCurrent) {
+            throw new Exception("no current landmarks: see landmarks <n>");
+        }
+        PointToPointShortestPath path;
+        if (mode.equals(PointToPointShortestPath.CONTRACTION_HIERARCHY)) {
+            path = ch.query(source, target, radius);
+        } else if (mode.equals(PointToPointShortestPath.ALT)) {
+            path = PointToPointShortestPath.alt(cg, source, target, radius, lm);
+        } else {
+            path = PointToPointShortestPath.bidirectional(cg, source, target, radius);
+        }
+        if (null == path) return null;
+        JSONObject result = new JSONObject();
+        List<String> edges = new ArrayList<String>();
+        for(int eid: path.getEdges()) {
+            edges.add(cg.getEdge(eid).getKey());
+        }
+        result.put("weight", path.getWeight());
+        result.put("edges", edges);
+        result.put("start_vertex", vFromKey);
+        result.put("end_vertex", vToKey);
+        if (radius != Double.POSITIVE_INFINITY) {
+            result.put("radius", radius);
+        }
+        result.put("mode", mode);
+        result.put("settled", path.getSettledCount());
+        return result;
+    }
+    
+    private JSONObject getDijkstraShortestPath(String vFromKey, String vToKey, double radius) throws Exception {
+        JSONVertex vFrom = getVertex(vFromKey);
+        JSONVertex vTo = getVertex(vToKey);
+        if (null == vFrom || null == vTo) return null;
+        DijkstraShortestPath dsp = new DijkstraShortestPath(analyticGraph(), vFrom, vTo, radius);
         GraphPath<JSONVertex, JSONEdge> path = dsp.getPath();
         if (null == path) {
             return null;
@@ -578,28 +1028,121 @@ public class Graph
             JSONObject result = new JSONObject();
             List<String> edges = new ArrayList<String>();
             for(JSONEdge edge: path.getEdgeList()) {
-                edges.add(edge.get(KEY_FIELD));
+                edges.add(edge.getKey());
             }
             result.put("weight", path.getWeight());
             result.put("edges", edges);
-            result.put("start_vertex", path.getStartVertex().getString(KEY_FIELD));
-            result.put("end_vertex", path.getEndVertex().getString(KEY_FIELD));
+            result.put("start_vertex", path.getStartVertex().getKey());
+            result.put("end_vertex", path.getEndVertex().getKey());
             if (radius != Double.POSITIVE_INFINITY) {
                 result.put("radius", radius);
             }
+            result.put("mode", SPATH_DIJKSTRA);
             return result;
         }
     }
     
+    /*
+     * ALT landmarks for spath; they lapse (spath falls back to bidir) as
+     *  soon as an edge is added, removed or reweighted
+    */
+    public JSONObject buildLandmarks(int count) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        Landmarks lm = Landmarks.build(cg, count);
+        landmarks = lm;
+        return lm.getStatus(cg);
+    }
+    
+    /*
+     * contraction hierarchy for spath; once an edge is added, removed or
+     *  reweighted it is stale: spath falls back to alt/bidir & the next
+     *  spath starts a rebuild in the background
+    */
+    public JSONObject buildContractionHierarchy() throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        ContractionHierarchy ch = ContractionHierarchy.build(cg);
+        contractionHierarchy = ch;
+        return ch.getStatus(cg);
+    }
+    
+    public void dropContractionHierarchy() {
+        contractionHierarchy = null;
+    }
+    
+    public JSONObject getContractionHierarchyStatus() throws Exception {
+        ContractionHierarchy ch = contractionHierarchy;
+        if (null == ch) return null;
+        JSONObject result = ch.getStatus(analyticCompactGraph());
+        result.put("rebuilding", contractionHierarchyRebuilding.get());
+        return result;
+    }
+    
+    private void rebuildContractionHierarchy() {
+        if (!contractionHierarchyRebuilding.compareAndSet(false, true)) return;
+        executorService.execute(new Runnable() {
+            public void run() {
+                try {
+                    CompactGraph cg = compactGraph();
+                    ContractionHierarchy ch = ContractionHierarchy.build(cg);
+                    // unless dropped meanwhile
+                    if (null != contractionHierarchy) {
+                        contractionHierarchy = ch;
+                    }
+                    log.info(graphName + ": contraction hierarchy rebuilt at edge epoch " +
+                        cg.getEdgeEpoch() + " (" + ch.getStatus(cg) + ")");
+                } catch (Exception ex) {
+                    log.log(Level.SEVERE, graphName + ": contraction hierarchy rebuild failed", ex);
+                } finally {
+                    contractionHierarchyRebuilding.set(false);
+                }
+            }
+        });
+    }
+    
+    public JSONObject getLandmarkStatus() throws Exception {
+        Landmarks lm = landmarks;
+        if (null == lm) return null;
+        return lm.getStatus(analyticCompactGraph());
+    }
+    
+    /*
+     * key lookups are answered from the vertex & edge registries;
+     *  the index is only used for property queries
+    */
+    
     public boolean exists(String key) throws Exception {
-        List<JSONObject> ar = queryGraphIndex(KEY_FIELD + ":\"" + key + "\"");
-        return ar.size()>0;
+        return vertices.containsKey(key) || edges.containsKey(key);
     }
     
+    public String getGraphObjectType(String key) throws Exception {
+        if (vertices.containsKey(key)) return VERTEX_TYPE;
+        if (edges.containsKey(key)) return EDGE_TYPE;
+        return null;
+    }
+    
+    // same shape as a graph index query result (see indexObject)
+    
     public JSONObject getGraphObject(String key) throws Exception {
-        List<JSONObject> ar = queryGraphIndex(KEY_FIELD + ":\"" + key + "\"");
-        if (ar.size() == 0) return null;
-        return ar.get(0);
+        JSONVertex jv = vertices.get(key);
+        if (null != jv) {
+            return asGraphObject(VERTEX_TYPE, jv);
+        }
+        JSONEdge je = edges.get(key);
+        if (null != je) {
+            return asGraphObject(EDGE_TYPE, je.getData());
+        }
+        return null;
+    }
+    
+    private JSONObject asGraphObject(String type, JSONObject jo) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put(TYPE_FIELD, type);
+        if (null != JSONObject.getNames(jo)) {
+            for (String k: JSONObject.getNames(jo)) {
+                result.put(k, jo.getString(k));
+            }
+        }
+        return result;
     }
     
     public JSONVertex getVertex(String key) throws Exception {
@@ -681,24 +1224,33 @@ public class Graph
     }
     
     public JSONEdge getEdge(String key) throws Exception {
-        JSONObject jsonEdge = getGraphObject(key);
-        JSONVertex fromVertex = getVertex(jsonEdge.getString(EDGE_SOURCE_FIELD));
-        JSONVertex toVertex = getVertex(jsonEdge.getString(EDGE_TARGET_FIELD));
-        return gr.getEdge(fromVertex, toVertex);
+        return edges.get(key);
     }
     
     public boolean removeEdge(JSONEdge je) throws Exception {
         if (gr.removeEdge(je)) {
+            adjacency.removeEdge(je);
+            connectivity.removeEdge(je, gr.containsEdge(je.getTarget(), je.getSource()));
+            reachability.removeEdge(je);
+            TransitiveClosure tc = closures.get(je.toString());
+            if (null != tc) tc.removeEdge(gr, je);
             return true;
         }
         return false;
     }
     
     public boolean removeVertex(JSONVertex jv) throws Exception {
+        boolean isolated = gr.containsVertex(jv) && gr.edgesOf(jv).isEmpty();
         if (gr.removeVertex(jv)) {
+            adjacency.removeVertex(jv);
+            connectivity.removeVertex(jv, isolated);
+            reachability.removeVertex(jv, isolated);
+            for(TransitiveClosure tc: closures.values()) {
+                tc.removeVertex(gr, jv);
+            }
             vertices.remove(jv.getString(KEY_FIELD));
             indexWriter.deleteDocuments(new Term(KEY_FIELD, jv.getString(KEY_FIELD)));
-            refreshGraphIndex();
+            graphIndexChanged();
             jv = null;
             return true;
         }
@@ -707,6 +1259,76 @@ public class Graph
     
     public void setEdgeWeight(JSONEdge je, double weight) throws Exception {
         gr.setEdgeWeight(je, weight);
+        adjacency.setEdgeWeight(je, weight);
+    }
+    
+    /*
+     * snapshot isolation: an analytic run through runAgainstSnapshot sees
+     *  the graph as of pinSnapshot, regardless of mutations made since
+    */
+    
+    public AdjacencySnapshot pinSnapshot() {
+        return adjacency.snapshot();
+    }
+    
+    public <T> T runAgainstSnapshot(AdjacencySnapshot snapshot, 
+                                    Callable<T> analytic) throws Exception {
+        analyticSnapshot.set(snapshot);
+        try {
+            return analytic.call();
+        } finally {
+            analyticSnapshot.remove();
+        }
+    }
+    
+    public JSONObject getSnapshotStatus() throws Exception {
+        return adjacency.getStatus();
+    }
+    
+    /*
+     * the graph analytics run against: the live graph, or the snapshot
+     *  pinned for this thread
+    */
+    private DirectedGraph<JSONVertex, JSONEdge> analyticGraph() {
+        AdjacencySnapshot snapshot = analyticSnapshot.get();
+        if (null == snapshot) {
+            return gr;
+        }
+        return snapshot.asGraph();
+    }
+    
+    /*
+     * the CompactGraph analytics run against: of the snapshot pinned for
+     *  this thread, or of the current version
+    */
+    private CompactGraph analyticCompactGraph() {
+        AdjacencySnapshot snapshot = analyticSnapshot.get();
+        if (null == snapshot) {
+            return compactGraph();
+        }
+        // an older version (a job) is built without replacing the cache
+        return CompactGraph.update(compactGraph, snapshot);
+    }
+    
+    /*
+     * the CompactGraph of the current version; rebuilt lazily, at most
+     *  once per version (see CompactGraph.update)
+    */
+    private CompactGraph compactGraph() {
+        CompactGraph cg = compactGraph;
+        if (null != cg && cg.getEpoch() == adjacency.getEpoch()) {
+            return cg;
+        }
+        synchronized(compactGraphLock) {
+            AdjacencySnapshot snapshot = pinSnapshot();
+            try {
+                cg = CompactGraph.update(compactGraph, snapshot);
+                compactGraph = cg;
+                return cg;
+            } finally {
+                snapshot.release();
+            }
+        }
     }
     
     public double getEdgeWeight(JSONEdge je) throws Exception {
@@ -718,10 +1340,10 @@ public class Graph
         result.put("k", k);
         KShortestPaths ksp;
         if (maxHops > 0) {
-            ksp = new KShortestPaths(gr, getVertex(vFromKey), k, maxHops);
+            ksp = new KShortestPaths(analyticGraph(), getVertex(vFromKey), k, maxHops);
             result.put("max_hops", maxHops);
         } else {
-            ksp = new KShortestPaths(gr, getVertex(vFromKey), k);
+            ksp = new KShortestPaths(analyticGraph(), getVertex(vFromKey), k);
         }
         List<JSONObject> results = new ArrayList<JSONObject>();
         List<GraphPath<JSONVertex, JSONEdge>> paths = ksp.getPaths(getVertex(vToKey));
@@ -732,7 +1354,7 @@ public class Graph
             resultObj.put("weight", pathWeight);
             List<JSONEdge> path = gp.getEdgeList();
             for(JSONEdge edge: path) {
-                resultPath.put(edge.get(KEY_FIELD));
+                resultPath.put(edge.getKey());
             }
             resultObj.put("path", resultPath);
             results.add(resultObj);
@@ -743,235 +1365,850 @@ public class Graph
         return result;
     }
     
-    // TODO: efficiency.  right now this copies the entire graph into a new one.
-    //       which sucks and is not realistic.  i'd hate to punt on hc/ec though.
-    //
-    private SimpleWeightedGraph<JSONVertex, JSONEdge> getSimpleWeightedGraph() throws Exception {
-        SimpleWeightedGraph<JSONVertex, JSONEdge> swgr = 
-            new SimpleWeightedGraph<JSONVertex, JSONEdge>(JSONEdge.class);
-        for(String vKey: vertices.keySet()) {
-            swgr.addVertex(getVertex(vKey));
+    /*
+     * the view of the version analytics run against that the undirected
+     *  analytics take: the edges of relationship <rel> (null: all),
+     *  between the vertices matching <query> (null: all).  see GraphView.
+    */
+    public GraphView getView(String rel, String query, boolean directed) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        if (null == query) {
+            return new GraphView(cg, directed, rel, null, null);
         }
-        for(JSONEdge je: gr.edgeSet()) {
-            double weight = gr.getEdgeWeight(je);
-            swgr.addEdge((JSONVertex) je.getSource(), (JSONVertex) je.getTarget(), je);
-            swgr.setEdgeWeight(je, weight);
+        boolean[] mask = new boolean[cg.getVertexCapacity()];
+        for(JSONObject jo: queryGraphIndex(query)) {
+            JSONVertex jv = vertices.get(jo.getString(KEY_FIELD));
+            if (null == jv) continue;
+            int v = cg.getVertexId(jv);
+            if (v != -1) mask[v] = true;
         }
-        return swgr;
+        return new GraphView(cg, directed, rel, query, mask);
     }
     
-    public List<JSONVertex> getHamiltonianCycle() throws Exception {
-        return HamiltonianCycle.getApproximateOptimalForCompleteGraph(getSimpleWeightedGraph());
+    /*
+     * a short closed tour through <stops> (null or empty: every vertex)
+     *  over the edges of relationship <rel> (null: all) taken as
+     *  undirected, passing other vertices as need be: see
+     *  TravelingSalesman.  each leg is the shortest path from a stop to
+     *  the next.  null if not every stop reaches every other.
+    */
+    public JSONObject getTour(String rel, List<JSONVertex> stops, int restarts,
+                              long timeout) throws Exception {
+        long t0 = System.currentTimeMillis();
+        GraphView view = getView(rel, null, false);
+        CompactGraph cg = view.getCompactGraph();
+        int[] ids;
+        if (null == stops || stops.size() == 0) {
+            ids = new int[view.numVertices()];
+            int k = 0;
+            for(int v=0; v<cg.getVertexCapacity(); v++) {
+                if (view.containsVertex(v)) ids[k++] = v;
+            }
+        } else {
+            Set<Integer> seen = new LinkedHashSet<Integer>();
+            for(JSONVertex jv: stops) {
+                int v = cg.getVertexId(jv);
+                if (v == -1) return null;
+                seen.add(v);
+            }
+            ids = new int[seen.size()];
+            int k = 0;
+            for(int v: seen) ids[k++] = v;
+        }
+        if (ids.length == 0) return null;
+        TravelingSalesman ts = new TravelingSalesman(view, ids, restarts, timeout);
+        if (!ts.isConnected()) return null;
+        ts.run();
+        JSONArray tour = new JSONArray();
+        int[] order = ts.getTour();
+        for(int v: order) {
+            tour.put(cg.getVertex(v).getKey());
+        }
+        JSONArray legs = new JSONArray();
+        for(int i=0; i<ts.getLegCount(); i++) {
+            JSONArray edgeKeys = new JSONArray();
+            for(int e: ts.getLegEdges(i)) {
+                edgeKeys.put(cg.getEdge(e).getKey());
+            }
+            JSONObject leg = new JSONObject();
+            leg.put("from", cg.getVertex(order[i]).getKey());
+            leg.put("to", cg.getVertex(order[(i + 1) % order.length]).getKey());
+            leg.put("distance", ts.getLegDistance(i));
+            leg.put("edges", edgeKeys);
+            legs.put(leg);
+        }
+        JSONObject result = new JSONObject();
+        if (null != rel) result.put("relationship", rel);
+        result.put("stops", ts.getStopCount());
+        result.put("cost", ts.getCost());
+        result.put("initial_cost", ts.getInitialCost());
+        result.put("tour", tour);
+        result.put("legs", legs);
+        result.put("restarts", ts.getRestartsCompleted());
+        result.put("timed_out", ts.isTimedOut());
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
     }
     
-    public List<JSONVertex> getEulerianCircuit() throws Exception {
-        return EulerianCircuit.getEulerianCircuitVertices(getSimpleWeightedGraph());
+    /*
+     * an eulerian circuit of <view> (see
+     *  CompactGraphAlgorithms.eulerianCircuit): its edges, in order, & the
+     *  vertex it starts & ends at; null if there is none
+    */
+    public JSONObject getEulerianCircuit(GraphView view) throws Exception {
+        int[] start = new int[1];
+        int[] circuit = CompactGraphAlgorithms.eulerianCircuit(view, start);
+        if (null == circuit) return null;
+        CompactGraph cg = view.getCompactGraph();
+        JSONArray edgeKeys = new JSONArray();
+        for(int e: circuit) {
+            edgeKeys.put(cg.getEdge(e).getKey());
+        }
+        JSONObject result = view.getStatus();
+        result.put("start", cg.getVertex(start[0]).getKey());
+        result.put("circuit", edgeKeys);
+        return result;
     }
     
-    public JSONObject getEKMF(String vSourceKey, String vSinkKey) throws Exception {
-        JSONVertex source = getVertex(vSourceKey);
-        JSONVertex sink = getVertex(vSinkKey);
-        EdmondsKarpMaximumFlow<JSONVertex, JSONEdge> ekmf =
-            new EdmondsKarpMaximumFlow<JSONVertex, JSONEdge>(gr);
-        ekmf.calculateMaximumFlow(source, sink);
-        
+    /*
+     * maximum flow from <vSourceKey> to <vSinkKey>, edge weights as
+     *  capacities: the edges that carry flow, & its value; null if either
+     *  vertex is not in the version analytics run against
+    */
+    public JSONObject getMaximumFlow(String vSourceKey, String vSinkKey) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        MaximumFlow mf = getMaximumFlow(cg, vSourceKey, vSinkKey);
+        if (null == mf) return null;
+        double[] flow = mf.getFlows();
         JSONObject result = new JSONObject();
         JSONObject flowResult = new JSONObject();
-        Map<JSONEdge, Double> flowMap = ekmf.getMaximumFlow();
-        for(JSONEdge edge: flowMap.keySet()) {
-            double flowValue = (double) flowMap.get(edge);
-            if (flowValue == 0) continue;
-            String edgeKey = edge.get(KEY_FIELD);
-            flowResult.put(edgeKey, flowValue);
+        for(int e=0; e<flow.length; e++) {
+            if (flow[e] == 0) continue;
+            flowResult.put(cg.getEdge(e).getKey(), flow[e]);
         }
         result.put("flow", flowResult);
-        result.put("maximum_flow_value", ekmf.getMaximumFlowValue());
+        result.put("maximum_flow_value", mf.getValue());
         return result;
     }
     
-    public int getChromaticNumber() throws Exception {
-        return ChromaticNumber.findGreedyChromaticNumber(getSimpleWeightedGraph());
+    /*
+     * a minimum cut between <vSourceKey> & <vSinkKey>: the vertices on
+     *  the source side, the edges across it & their total capacity
+    */
+    public JSONObject getMinimumCut(String vSourceKey, String vSinkKey) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        MaximumFlow mf = getMaximumFlow(cg, vSourceKey, vSinkKey);
+        if (null == mf) return null;
+        boolean[] side = mf.getSourceSide();
+        JSONArray sourceSet = new JSONArray();
+        for(int v=0; v<side.length; v++) {
+            if (side[v]) sourceSet.put(cg.getVertex(v).getKey());
+        }
+        JSONArray cutEdges = new JSONArray();
+        for(int e: mf.getCutEdges(side)) {
+            cutEdges.put(cg.getEdge(e).getKey());
+        }
+        JSONObject result = new JSONObject();
+        result.put("source_set", sourceSet);
+        result.put("cut_edges", cutEdges);
+        result.put("minimum_cut_value", mf.getValue());
+        return result;
     }
     
-    public JSONObject getKMST() throws Exception {
-        JSONObject result = new JSONObject();
-        KruskalMinimumSpanningTree<JSONVertex, JSONEdge> kmst = 
-            new KruskalMinimumSpanningTree<JSONVertex, JSONEdge>(gr);
-        if (null == kmst.getEdgeSet()) {
-            return null;
-        } else {
-            List<String> edges = new ArrayList<String>();
-            for(JSONEdge edge: kmst.getEdgeSet()) {
-                edges.add(edge.get(KEY_FIELD));
-            }
-            result.put("edge_set", edges);
-            result.put("spanning_tree_cost", kmst.getSpanningTreeCost());
-            return result;
-        }
+    private MaximumFlow getMaximumFlow(CompactGraph cg, String vSourceKey, 
+                                       String vSinkKey) throws Exception {
+        JSONVertex vSource = getVertex(vSourceKey);
+        JSONVertex vSink = getVertex(vSinkKey);
+        int source = (null == vSource) ? -1 : cg.getVertexId(vSource);
+        int sink = (null == vSink) ? -1 : cg.getVertexId(vSink);
+        if (source == -1 || sink == -1) return null;
+        return new MaximumFlow(cg, source, sink);
     }
     
-    public JSONObject getGreedyVertexCover() throws Exception {
-        JSONObject result = new JSONObject();
-        Set<JSONVertex> verts = VertexCovers.findGreedyCover(Graphs.undirectedGraph(gr));
-        if (null == verts) {
-            return null;
-        } else {
-            JSONArray vertKeys = new JSONArray();
-            for(JSONVertex v: verts) {
-                vertKeys.put(v.getKey());
-            }
-            result.put("cover_set", vertKeys);
-            return result;
+    public int getChromaticNumber(GraphView view) throws Exception {
+        int colors = 0;
+        for(int c: CompactGraphAlgorithms.greedyColoring(view)) {
+            colors = Math.max(colors, c + 1);
         }
+        return colors;
     }
     
-    public JSONObject get2ApproximationVertexCover() throws Exception {
-        JSONObject result = new JSONObject();
-        Set<JSONVertex> verts = VertexCovers.find2ApproximationCover(gr);
-        if (null == verts) {
-            return null;
-        } else {
-            JSONArray vertKeys = new JSONArray();
-            for(JSONVertex v: verts) {
-                vertKeys.put(v.getKey());
-            }
-            result.put("cover_set", vertKeys);
-            return result;
+    public JSONObject getKMST(GraphView view) throws Exception {
+        CompactGraph cg = view.getCompactGraph();
+        List<String> edges = new ArrayList<String>();
+        double cost = 0;
+        for(int e: CompactGraphAlgorithms.minimumSpanningForest(view)) {
+            edges.add(cg.getEdge(e).getKey());
+            cost += cg.edgeWeight(e);
         }
+        JSONObject result = new JSONObject();
+        result.put("edge_set", edges);
+        result.put("spanning_tree_cost", cost);
+        return result;
     }
     
-    public JSONObject getConnectedSetByVertex(JSONVertex v) throws Exception {
-        Set<JSONVertex> cset = connectivityInspector.connectedSetOf(v);
-        if (null == cset) return null;
-        JSONObject result = new JSONObject();
-        List<String> csetKeys = new ArrayList<String>();
-        for(JSONVertex vert: cset) {
-            csetKeys.add(vert.getKey());
+    public JSONObject getGreedyVertexCover(GraphView view) throws Exception {
+        return getCoverSet(view.getCompactGraph(), 
+            CompactGraphAlgorithms.greedyVertexCover(view));
+    }
+    
+    public JSONObject get2ApproximationVertexCover(GraphView view) throws Exception {
+        return getCoverSet(view.getCompactGraph(), 
+            CompactGraphAlgorithms.twoApproximationVertexCover(view));
+    }
+    
+    private JSONObject getCoverSet(CompactGraph cg, boolean[] cover) throws Exception {
+        JSONArray vertKeys = new JSONArray();
+        for(int v=0; v<cover.length; v++) {
+            if (cover[v]) vertKeys.put(cg.getVertex(v).getKey());
         }
-        result.put("connected_set", csetKeys);
+        JSONObject result = new JSONObject();
+        result.put("cover_set", vertKeys);
         return result;
     }
     
-    public JSONObject getConnectedSets() throws Exception {
-        List<Set<JSONVertex>> csets = connectivityInspector.connectedSets();
-        if (null == csets) return null;
-        List<Set<String>> csetsKeys = new ArrayList<Set<String>>();
-        for(Set<JSONVertex> cset: csets) {
-            Set<String> csetKeys = new HashSet<String>();
-            for(JSONVertex vert: cset) {
-                csetKeys.add(vert.getKey());
-            }
-            csetsKeys.add(csetKeys);
+    /*
+     * the weakly connected component of <v>, or null if <v> is not in
+     *  the version analytics run against
+    */
+    public JSONObject getConnectedSetByVertex(JSONVertex v) throws Exception {
+        if (null != analyticSnapshot.get()) {
+            CompactGraph cg = analyticCompactGraph();
+            return getComponentSet(cg, connectedComponents(cg), cg.getVertexId(v),
+                "connected_set");
+        }
+        List<JSONVertex> component = liveConnectivity().getComponent(v);
+        if (null == component) return null;
+        JSONArray keys = new JSONArray();
+        for(JSONVertex jv: component) {
+            keys.put(jv.getKey());
         }
         JSONObject result = new JSONObject();
-        result.put("connected_sets", csetsKeys);
+        result.put("connected_set", keys);
+        result.put("size", keys.length());
         return result;
     }
     
+    /*
+     * weakly connected components, largest first: one per line to
+     *  <listener> with its members if <members>, otherwise the number of
+     *  components of each size; only those of at least <minSize>
+     *  vertices.  returns a summary.
+    */
+    public JSONObject getConnectedSets(int minSize, boolean members, 
+                                       Components.Listener listener) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        return listComponents(cg, connectedComponents(cg), minSize, members, listener);
+    }
+    
     public boolean isConnected() throws Exception {
-        return connectivityInspector.isGraphConnected();
+        if (null != analyticSnapshot.get()) {
+            return connectedComponents(analyticCompactGraph()).getComponentCount() == 1;
+        }
+        return liveConnectivity().getComponentCount() == 1;
     }
     
     public boolean pathExists(JSONVertex vFrom, JSONVertex vTo) throws Exception {
-        return connectivityInspector.pathExists(vFrom, vTo);
+        if (null != analyticSnapshot.get()) {
+            CompactGraph cg = analyticCompactGraph();
+            int from = cg.getVertexId(vFrom);
+            int to = cg.getVertexId(vTo);
+            return from != -1 && to != -1 &&
+                connectedComponents(cg).isConnected(from, to);
+        }
+        return liveConnectivity().isConnected(vFrom, vTo);
+    }
+    
+    public JSONObject getConnectivityStatus() throws Exception {
+        return connectivity.getStatus();
     }
     
-    public JSONObject getAllMaximalCliques() throws Exception {
-        BronKerboschCliqueFinder<JSONVertex, JSONEdge> cf = 
-            new BronKerboschCliqueFinder<JSONVertex, JSONEdge>(gr);
-        Collection<Set<JSONVertex>> cliques = cf.getAllMaximalCliques();
+    /*
+     * is there a directed path from <vFrom> to <vTo>?
+    */
+    public boolean reaches(JSONVertex vFrom, JSONVertex vTo) throws Exception {
+        if (null != analyticSnapshot.get()) {
+            CompactGraph cg = analyticCompactGraph();
+            ReachabilityIndex ri = snapshotReachability;
+            if (null == ri || ri.getBuildEpoch() != cg.getEpoch()) {
+                ri = new ReachabilityIndex();
+                ri.rebuild(cg);
+                snapshotReachability = ri;
+            }
+            return ri.reaches(vFrom, vTo);
+        }
+        if (reachability.isStale()) {
+            synchronized(reachability) {
+                if (reachability.isStale()) {
+                    reachability.rebuild(compactGraph());
+                }
+            }
+        }
+        return reachability.reaches(vFrom, vTo);
+    }
+    
+    public JSONObject getReachabilityStatus() throws Exception {
+        return reachability.getStatus();
+    }
+    
+    /*
+     * materialize the transitive closure of <rel>, replacing any there is;
+     *  kept current by every later mutation of the graph
+    */
+    public JSONObject buildClosure(String rel) throws Exception {
+        long t0 = System.currentTimeMillis();
+        TransitiveClosure tc = new TransitiveClosure(compactGraph(), rel);
+        closures.put(rel, tc);
+        JSONObject result = tc.getStatus();
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
+    }
+    
+    public boolean dropClosure(String rel) {
+        return null != closures.remove(rel);
+    }
+    
+    public JSONObject getClosureStatus(String rel) throws Exception {
+        TransitiveClosure tc = closures.get(rel);
+        return (null == tc) ? null : tc.getStatus();
+    }
+    
+    /*
+     * the ancestors (or descendants) of <jv> by the closure of <rel> (by
+     *  the only closure if <rel> is null), restricted to the vertices that
+     *  match <query> if not null; null without such a closure
+    */
+    public JSONObject getClosureSet(JSONVertex jv, String rel, boolean ancestors,
+                                    String query) throws Exception {
+        TransitiveClosure tc = null;
+        if (null != rel) {
+            tc = closures.get(rel);
+        } else if (closures.size() == 1) {
+            tc = closures.values().iterator().next();
+        }
+        if (null == tc) return null;
+        int[] set = ancestors ? tc.getAncestors(jv) : tc.getDescendants(jv);
+        if (null == set) return null;
+        JSONArray keys = new JSONArray();
+        if (null == query) {
+            for(int v: set) {
+                JSONVertex member = tc.getVertex(v);
+                if (null != member) keys.put(member.getKey());
+            }
+        } else {
+            for(JSONObject jo: queryGraphIndex(query)) {
+                JSONVertex member = vertices.get(jo.getString(KEY_FIELD));
+                if (null != member && 
+                    Arrays.binarySearch(set, member.vid) >= 0 &&
+                    tc.getVertex(member.vid) == member) {
+                    keys.put(member.getKey());
+                }
+            }
+        }
         JSONObject result = new JSONObject();
-        JSONArray cliqueList = new JSONArray();
-        for(Set<JSONVertex> cliqueListSet: cliques) {
-            JSONArray cliqueSet = new JSONArray();
-            for(JSONVertex v: cliqueListSet) {
-                cliqueSet.put(v.get(KEY_FIELD));
+        result.put("relationship", tc.getRelationship());
+        result.put("size", keys.length());
+        result.put(ancestors ? "ancestors" : "descendants", keys);
+        return result;
+    }
+    
+    /*
+     * the incrementally maintained connectivity of the current version,
+     *  repaired first if deletions have made it stale
+    */
+    private DynamicConnectivity liveConnectivity() {
+        if (connectivity.isStale()) {
+            synchronized(connectivity) {
+                if (connectivity.isStale()) {
+                    connectivity.rebuild(compactGraph());
+                }
             }
-            cliqueList.put(cliqueSet);
         }
-        result.put("cliques", cliqueList);
+        return connectivity;
+    }
+    
+    /*
+     * the weak components of <cg>: cached for the latest version asked for
+    */
+    private WeakComponents connectedComponents(CompactGraph cg) {
+        WeakComponents wc = weakComponents;
+        if (null == wc || wc.getEpoch() != cg.getEpoch()) {
+            wc = new WeakComponents(cg);
+            weakComponents = wc;
+        }
+        return wc;
+    }
+    
+    /*
+     * as getConnectedSetByVertex & getConnectedSets, for the strongly
+     *  connected components
+    */
+    public JSONObject getStronglyConnectedSetByVertex(JSONVertex v) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        return getComponentSet(cg, new StronglyConnectedComponents(cg), cg.getVertexId(v),
+            "strongly_connected_set");
+    }
+    
+    public JSONObject getStronglyConnectedSets(int minSize, boolean members,
+                                               Components.Listener listener) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        return listComponents(cg, new StronglyConnectedComponents(cg), minSize, members,
+            listener);
+    }
+    
+    private JSONObject getComponentSet(CompactGraph cg, Components components, int v,
+                                       String field) throws Exception {
+        if (v == -1) return null;
+        int c = components.getComponent(v);
+        JSONArray keys = new JSONArray();
+        for(int w=0; w<cg.getVertexCapacity(); w++) {
+            if (components.getComponent(w) == c) keys.put(cg.getVertex(w).getKey());
+        }
+        JSONObject result = new JSONObject();
+        result.put(field, keys);
+        result.put("size", keys.length());
         return result;
     }
-
-    public JSONObject getBiggestMaximalCliques() throws Exception {
-        BronKerboschCliqueFinder<JSONVertex, JSONEdge> cf = 
-            new BronKerboschCliqueFinder<JSONVertex, JSONEdge>(gr);
-        Collection<Set<JSONVertex>> cliques = cf.getBiggestMaximalCliques();
-                JSONObject result = new JSONObject();
-        JSONArray cliqueList = new JSONArray();
-        for(Set<JSONVertex> cliqueListSet: cliques) {
-            JSONArray cliqueSet = new JSONArray();
-            for(JSONVertex v: cliqueListSet) {
-                cliqueSet.put(v.get(KEY_FIELD));
+    
+    private JSONObject listComponents(CompactGraph cg, final Components components, 
+                                      int minSize, boolean members,
+                                      Components.Listener listener) throws Exception {
+        int count = components.getComponentCount();
+        Integer[] order = new Integer[count];
+        for(int c=0; c<count; c++) order[c] = c;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return components.getComponentSize(b) - components.getComponentSize(a);
+            }
+        });
+        int[] offset = null;
+        int[] member = null;
+        if (members) {
+            // vertex ids grouped by component
+            offset = new int[count + 1];
+            for(int v=0; v<cg.getVertexCapacity(); v++) {
+                int c = components.getComponent(v);
+                if (c != -1) offset[c + 1]++;
+            }
+            for(int c=0; c<count; c++) offset[c + 1] += offset[c];
+            member = new int[offset[count]];
+            int[] next = Arrays.copyOf(offset, count);
+            for(int v=0; v<cg.getVertexCapacity(); v++) {
+                int c = components.getComponent(v);
+                if (c != -1) member[next[c]++] = v;
+            }
+        }
+        int listed = 0;
+        for(int i=0; i<count; ) {
+            int size = components.getComponentSize(order[i]);
+            if (size < minSize) break;
+            if (members) {
+                int c = order[i++];
+                JSONArray keys = new JSONArray();
+                for(int j=offset[c]; j<offset[c + 1]; j++) {
+                    keys.put(cg.getVertex(member[j]).getKey());
+                }
+                JSONObject jo = new JSONObject();
+                jo.put("size", size);
+                jo.put("members", keys);
+                listener.component(jo);
+                listed++;
+            } else {
+                int same = 0;
+                while (i < count && components.getComponentSize(order[i]) == size) {
+                    i++;
+                    same++;
+                }
+                JSONObject jo = new JSONObject();
+                jo.put("size", size);
+                jo.put("count", same);
+                listener.component(jo);
+                listed += same;
             }
-            cliqueList.put(cliqueSet);
         }
-        result.put("cliques", cliqueList);
+        JSONObject result = new JSONObject();
+        result.put("components", count);
+        result.put("listed", listed);
+        result.put("largest", (count > 0) ? components.getComponentSize(order[0]) : 0);
+        result.put("vertices", cg.numVertices());
         return result;
     }
     
-    public JSONObject getAllShortestPathsFrom(JSONVertex vFrom) throws Exception {
-        FloydWarshallShortestPaths<JSONVertex, JSONEdge> fwsp = 
-            new FloydWarshallShortestPaths<JSONVertex, JSONEdge>(gr);
-        
+    /*
+     * maximal cliques of <view>, edges taken as undirected: each passed to
+     *  <listener> as it is found (the biggest only, at the end, if
+     *  <biggest>); see MaximalCliques.  returns a summary.
+    */
+    public JSONObject getMaximalCliques(GraphView view, boolean biggest, int minSize, 
+        long limit, long timeout, MaximalCliques.Listener listener) throws Exception {
+        long t0 = System.currentTimeMillis();
+        MaximalCliques mc = new MaximalCliques(view, biggest, minSize, limit,
+            timeout, listener).run();
         JSONObject result = new JSONObject();
-        result.put("diameter", fwsp.getDiameter());
-        result.put("shortest_path_count", fwsp.getShortestPathsCount());
-        
-        if (vFrom == null) return result;
-        
-        result.put("source_vertex", vFrom.getKey());
-        List<JSONObject> resultPaths = new ArrayList<JSONObject>();
-        List<GraphPath<JSONVertex, JSONEdge>> paths = fwsp.getShortestPaths(vFrom);
-        for(GraphPath<JSONVertex, JSONEdge> path: paths) {
+        result.put("cliques", mc.getCount());
+        result.put("largest", mc.getLargest());
+        result.put("degeneracy", mc.getDegeneracy());
+        result.put("complete", mc.isComplete());
+        result.put("timed_out", mc.isTimedOut());
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
+    }
+    
+    /*
+     * shortest paths from vFrom to every vertex it reaches (nearest first),
+     *  each passed to <listener> as it is produced; targets further than
+     *  <radius> are not reached, nor (maxHops >= 0) targets that cannot be
+     *  reached in <maxHops> edges.  see SingleSourceShortestPaths.
+    */
+    public JSONObject getAllShortestPathsFrom(JSONVertex vFrom, double radius, int maxHops,
+        SingleSourceShortestPaths.PathListener listener) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        int source = cg.getVertexId(vFrom);
+        if (source == -1) return null;
+        SingleSourceShortestPaths sssp = 
+            new SingleSourceShortestPaths(cg, source, radius, maxHops).run();
+        for(int i=1; i<sssp.getReachedCount(); i++) {
+            int target = sssp.getReached(i);
             JSONObject resultPath = new JSONObject();
             List<String> edges = new ArrayList<String>();
-            for(JSONEdge edge: path.getEdgeList()) {
-                edges.add(edge.get(KEY_FIELD));
+            for(int eid: sssp.getPathEdges(target)) {
+                edges.add(cg.getEdge(eid).getKey());
             }
-            resultPath.put("weight", path.getWeight());
+            resultPath.put("weight", sssp.getDistance(target));
             resultPath.put("edges", edges);
-            resultPath.put("start_vertex", path.getStartVertex().getString(KEY_FIELD));
-            resultPath.put("end_vertex", path.getEndVertex().getString(KEY_FIELD));
-            resultPaths.add(resultPath);
+            resultPath.put("start_vertex", vFrom.getKey());
+            resultPath.put("end_vertex", cg.getVertex(target).getKey());
+            listener.path(resultPath);
         }
-        result.put("paths", resultPaths);
+        JSONObject result = new JSONObject();
+        result.put("source_vertex", vFrom.getKey());
+        result.put("path_count", sssp.getReachedCount() - 1);
+        result.put("algorithm", sssp.getAlgorithm());
+        result.put("epoch", cg.getEpoch());
         return result;
     }
     
-    public JSONObject getGraphCycles() throws Exception {
-        CycleDetector<JSONVertex, JSONEdge> cd = 
-            new CycleDetector<JSONVertex, JSONEdge>(gr);
-        Set<JSONVertex> cycles = cd.findCycles();
-        if (null == cycles) {
-            return null;
-        } else {
-            JSONObject result = new JSONObject();
-            List<String> resultCycles = new ArrayList<String>();
-            for(JSONVertex v: cycles) {
-                resultCycles.add(v.getKey());
+    /*
+     * pagerank (seeds == null) or personalized pagerank from <seeds>; see
+     *  PageRank.  each vertex's rank is written to its <property> (see
+     *  writeVertexScores); the <topK> vertices of highest rank are added
+     *  to <top>, highest first.
+    */
+    public JSONObject getPageRank(String property, List<JSONVertex> seeds,
+                                  int maxIterations, double damping, double tolerance,
+                                  int topK, List<JSONObject> top) throws Exception {
+        long t0 = System.currentTimeMillis();
+        CompactGraph cg = analyticCompactGraph();
+        int[] seedIds = getVertexIds(cg, seeds);
+        PageRank pr = new PageRank(cg, damping, seedIds);
+        pr.run(maxIterations, tolerance);
+        
+        int updated = writeVertexScores(cg, property, pr.getScores());
+        addTopVertices(cg, property, pr.getScores(), topK, top);
+        JSONObject result = getIterationResult(cg, property, seedIds, updated, pr, tolerance);
+        result.put("damping", damping);
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
+    }
+    
+    /*
+     * hubs & authorities (seeds == null), or hubs & authorities with
+     *  priors <seeds> mixed in by <alpha>; see HITS.  written to the
+     *  AUTHORITY_FIELD & HUB_FIELD properties (or the *_PRIOR_FIELDs) as
+     *  by getPageRank; the <topK> authorities, then the <topK> hubs, are
+     *  added to <top>.
+    */
+    public JSONObject getHITS(List<JSONVertex> seeds, double alpha,
+                              int maxIterations, double tolerance,
+                              int topK, List<JSONObject> top) throws Exception {
+        long t0 = System.currentTimeMillis();
+        CompactGraph cg = analyticCompactGraph();
+        int[] seedIds = getVertexIds(cg, seeds);
+        HITS hits = new HITS(cg, alpha, seedIds);
+        hits.run(maxIterations, tolerance);
+        
+        String authorityProperty = (null == seeds) ? AUTHORITY_FIELD : AUTHORITY_PRIOR_FIELD;
+        String hubProperty = (null == seeds) ? HUB_FIELD : HUB_PRIOR_FIELD;
+        int updated = writeVertexScores(cg, authorityProperty, hits.getScores());
+        updated += writeVertexScores(cg, hubProperty, hits.getHubs());
+        addTopVertices(cg, authorityProperty, hits.getScores(), topK, top);
+        addTopVertices(cg, hubProperty, hits.getHubs(), topK, top);
+        JSONObject result = getIterationResult(cg, authorityProperty, seedIds, updated, 
+            hits, tolerance);
+        result.put("hub_property", hubProperty);
+        if (null != seeds) {
+            result.put("alpha", alpha);
+        }
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
+    }
+    
+    /*
+     * eigenvector centrality (see EigenvectorCentrality), written to the
+     *  EIGENVECTOR_FIELD property as by getPageRank
+    */
+    public JSONObject getEigenvectorCentrality(int maxIterations, double tolerance,
+                                               int topK, List<JSONObject> top) throws Exception {
+        long t0 = System.currentTimeMillis();
+        CompactGraph cg = analyticCompactGraph();
+        EigenvectorCentrality ec = new EigenvectorCentrality(cg);
+        ec.run(maxIterations, tolerance);
+        
+        int updated = writeVertexScores(cg, EIGENVECTOR_FIELD, ec.getScores());
+        addTopVertices(cg, EIGENVECTOR_FIELD, ec.getScores(), topK, top);
+        JSONObject result = getIterationResult(cg, EIGENVECTOR_FIELD, null, updated, 
+            ec, tolerance);
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
+    }
+    
+    /*
+     * k-step markov scores of random walks of <steps> steps from <seeds>
+     *  (see KStepMarkov), written to the KSTEP_FIELD property as by
+     *  getPageRank
+    */
+    public JSONObject getKStepMarkov(List<JSONVertex> seeds, int steps,
+                                     int topK, List<JSONObject> top) throws Exception {
+        long t0 = System.currentTimeMillis();
+        CompactGraph cg = analyticCompactGraph();
+        int[] seedIds = getVertexIds(cg, seeds);
+        KStepMarkov markov = new KStepMarkov(cg, seedIds);
+        markov.run(steps, -1);
+        
+        int updated = writeVertexScores(cg, KSTEP_FIELD, markov.getScores());
+        addTopVertices(cg, KSTEP_FIELD, markov.getScores(), topK, top);
+        JSONObject result = new JSONObject();
+        result.put("property", KSTEP_FIELD);
+        result.put("seeds", seedIds.length);
+        result.put("vertices", cg.numVertices());
+        result.put("updated", updated);
+        result.put("steps", markov.getIterations());
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
+    }
+    
+    /*
+     * ids in <cg> of <vertices> (those in it), or null for null
+    */
+    private int[] getVertexIds(CompactGraph cg, List<JSONVertex> vertices) {
+        if (null == vertices) return null;
+        int[] ids = new int[vertices.size()];
+        int count = 0;
+        for(JSONVertex jv: vertices) {
+            int v = cg.getVertexId(jv);
+            if (v != -1) ids[count++] = v;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+    
+    private JSONObject getIterationResult(CompactGraph cg, String property, int[] seedIds,
+                                          int updated, MatrixIteration iteration,
+                                          double tolerance) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("property", property);
+        if (null != seedIds) {
+            result.put("seeds", seedIds.length);
+        }
+        result.put("vertices", cg.numVertices());
+        result.put("updated", updated);
+        result.put("iterations", iteration.getIterations());
+        result.put("delta", iteration.getDelta());
+        result.put("converged", iteration.getDelta() <= tolerance);
+        return result;
+    }
+    
+    /*
+     * betweenness or closeness centrality (see Centrality), exact or from
+     *  <pivots> sampled sources, written to the vertex property of the
+     *  same name as by getPageRank.  progress is reported to <listener>
+     *  (if not null) every <interval> ms.
+    */
+    public JSONObject getCentrality(String measure, boolean weighted, int pivots,
+                                    int topK, List<JSONObject> top,
+                                    Centrality.ProgressListener listener,
+                                    long interval) throws Exception {
+        CompactGraph cg = analyticCompactGraph();
+        Centrality centrality = new Centrality(cg, measure, weighted, pivots).run(listener, interval);
+        String property = centrality.getMeasure();
+        int updated = writeVertexScores(cg, property, centrality.getScores());
+        addTopVertices(cg, property, centrality.getScores(), topK, top);
+        JSONObject result = new JSONObject();
+        result.put("property", property);
+        result.put("vertices", cg.numVertices());
+        result.put("sources", centrality.getSourceCount());
+        result.put("sampled", centrality.isSampled());
+        result.put("weighted", weighted);
+        result.put("updated", updated);
+        result.put("elapsed_ms", centrality.getElapsed());
+        return result;
+    }
+    
+    /*
+     * a proper coloring of <view> by <method> (see VertexColoring): the
+     *  color of each of its vertices is written to its COLOR_FIELD
+     *  property (e.g. "q color:0"); vertices outside the view keep
+     *  theirs.  reports the number of vertices of each color.
+    */
+    public JSONObject getColoring(GraphView view, String method) throws Exception {
+        VertexColoring coloring = new VertexColoring(view, method).run();
+        CompactGraph cg = view.getCompactGraph();
+        int[] color = coloring.getColors();
+        JSONVertex[] vertex = new JSONVertex[color.length];
+        String[] value = new String[color.length];
+        for(int v=0; v<color.length; v++) {
+            if (color[v] == -1) continue;
+            vertex[v] = cg.getVertex(v);
+            value[v] = Integer.toString(color[v]);
+        }
+        int updated = writeVertexProperty(COLOR_FIELD, vertex, value, true);
+        JSONArray classSizes = new JSONArray();
+        for(int size: coloring.getClassSizes()) {
+            classSizes.put(size);
+        }
+        JSONObject result = view.getStatus();
+        result.put("method", coloring.getMethod());
+        result.put("property", COLOR_FIELD);
+        result.put("colors", coloring.getColorCount());
+        result.put("class_sizes", classSizes);
+        if (coloring.getMethod() == VertexColoring.JONES_PLASSMANN) {
+            result.put("rounds", coloring.getRounds());
+        }
+        result.put("updated", updated);
+        result.put("elapsed_ms", coloring.getElapsed());
+        return result;
+    }
+    
+    /*
+     * score[vertex id] is written to <property> of each vertex as a
+     *  fixed-point decimal (so that the index orders it: e.g.
+     *  "q pagerank:[0.01 TO 1]"), or the property removed if it is 0
+     *  (see writeVertexProperty).  returns the number of vertices
+     *  updated.
+    */
+    private int writeVertexScores(CompactGraph cg, String property, double[] score) 
+        throws Exception {
+        JSONVertex[] vertex = new JSONVertex[cg.getVertexCapacity()];
+        String[] value = new String[vertex.length];
+        for(int v=0; v<vertex.length; v++) {
+            vertex[v] = cg.getVertex(v);
+            if (null == vertex[v]) continue;
+            BigDecimal decimal = new BigDecimal(score[v]).setScale(SCORE_SCALE,
+                RoundingMode.HALF_EVEN);
+            if (decimal.signum() != 0) value[v] = decimal.toPlainString();
+        }
+        return writeVertexProperty(property, vertex, value, true);
+    }
+    
+    /*
+     * receives the values an analytics write-back changed, {key: value,
+     *  or null if removed}, e.g. to journal them (as a vset) in place of
+     *  the command that computed them
+    */
+    public interface VertexPropertyListener {
+        public void vertexPropertyWritten(String property, JSONObject values) throws Exception;
+    }
+    
+    public void setVertexPropertyListener(VertexPropertyListener listener) {
+        vertexPropertyListener = listener;
+    }
+    
+    /*
+     * vset: <values> ({key: value, or null to remove}) written to
+     *  <property> of the vertices they name, as by an analytics
+     *  write-back; keys of no vertex are ignored.  returns the number of
+     *  vertices updated.
+    */
+    public int setVertexProperty(String property, JSONObject values) throws Exception {
+        String[] keys = JSONObject.getNames(values);
+        if (null == keys) return 0;
+        JSONVertex[] vertex = new JSONVertex[keys.length];
+        String[] value = new String[keys.length];
+        for(int i=0; i<keys.length; i++) {
+            vertex[i] = vertices.get(keys[i]);
+            value[i] = values.isNull(keys[i]) ? null : values.getString(keys[i]);
+        }
+        return writeVertexProperty(property, vertex, value, false);
+    }
+    
+    /*
+     * the write-back of the analytics: value[i] (null: none) becomes
+     *  <property> of vertex[i] (null: skipped).  only vertices whose
+     *  value changed are reindexed & the index is committed once,
+     *  regardless of its refresh policy, as in bulkLoad.  the changes
+     *  are reported to the VertexPropertyListener if <report>.  returns
+     *  the number of vertices updated.
+    */
+    private int writeVertexProperty(String property, JSONVertex[] vertex, String[] value,
+                                    boolean report) throws Exception {
+        VertexPropertyListener listener = report ? vertexPropertyListener : null;
+        JSONObject changes = (null == listener) ? null : new JSONObject();
+        int updated = 0;
+        synchronized(this) {
+            for(int i=0; i<vertex.length; i++) {
+                JSONVertex jv = vertex[i];
+                if (null == jv) continue;
+                if (null == value[i]) {
+                    if (null == jv.remove(property)) continue;
+                } else {
+                    if (value[i].equals(jv.opt(property))) continue;
+                    jv.put(property, value[i]);
+                }
+                indexWriter.updateDocument(new Term(KEY_FIELD, jv.getKey()),
+                    createIndexDocument(jv.getKey(), VERTEX_TYPE, jv));
+                if (null != changes) {
+                    changes.put(jv.getKey(), (null == value[i]) ? JSONObject.NULL : value[i]);
+                }
+                updated++;
             }
-            result.put("cycles", resultCycles);
-            return result;
+            if (updated > 0) {
+                if (pendingIndexMutations == 0) {
+                    oldestPendingIndexMutation = System.currentTimeMillis();
+                }
+                pendingIndexMutations += updated;
+                flushGraphIndex();
+            }
+        }
+        if (updated > 0 && null != listener) {
+            listener.vertexPropertyWritten(property, changes);
         }
+        return updated;
     }
-
-    public JSONObject getGraphCyclesContainingVertex(JSONVertex v) throws Exception {
-        CycleDetector<JSONVertex, JSONEdge> cd = 
-            new CycleDetector<JSONVertex, JSONEdge>(gr);
-        Set<JSONVertex> cycles = cd.findCyclesContainingVertex(v);
-        if (null == cycles) {
-            return null;
-        } else {
+    
+    private void addTopVertices(CompactGraph cg, String property, double[] score,
+                                int topK, List<JSONObject> top) throws Exception {
+        for(int v: CompactGraphAlgorithms.top(cg, score, topK)) {
             JSONObject result = new JSONObject();
-            result.put("vertex", v.getKey());
-            List<String> resultCycles = new ArrayList<String>();
-            for(JSONVertex vert: cycles) {
-                resultCycles.add(vert.getKey());
-            }
-            result.put("cycles", resultCycles);
-            return result;
+            result.put(KEY_FIELD, cg.getVertex(v).getKey());
+            result.put(property, score[v]);
+            top.add(result);
+        }
+    }
+    
+    /*
+     * elementary cycles (vThrough null) or those through vThrough, each
+     *  passed to <listener> as it is found; none longer than <maxLength>
+     *  edges.  see ElementaryCycles.
+    */
+    public JSONObject getElementaryCycles(JSONVertex vThrough, int maxLength, long limit,
+        long timeout, ElementaryCycles.Listener listener) throws Exception {
+        long t0 = System.currentTimeMillis();
+        CompactGraph cg = analyticCompactGraph();
+        int through = -1;
+        if (null != vThrough) {
+            through = cg.getVertexId(vThrough);
+            if (through == -1) return null;
         }
+        ElementaryCycles ec = new ElementaryCycles(cg, through, maxLength,
+            limit, timeout, listener).run();
+        JSONObject result = new JSONObject();
+        if (null != vThrough) result.put("vertex", vThrough.getKey());
+        result.put("cycles", ec.getCount());
+        result.put("longest", ec.getLongest());
+        result.put("components", ec.getComponentCount());
+        result.put("complete", ec.isComplete());
+        result.put("timed_out", ec.isTimedOut());
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
     }
     
     /*
@@ -1228,7 +2465,7 @@ public class Graph
                 JSONVertex jv = e.getVertex();
                 vertices.remove(jv.getString(KEY_FIELD));
                 indexWriter.deleteDocuments(new Term(KEY_FIELD, jv.getString(KEY_FIELD)));
-                refreshGraphIndex();
+                graphIndexChanged();
                 
                 // TODO: terminate & de-index process objects for this object
                 
@@ -1266,8 +2503,9 @@ public class Graph
             // handle implicit deletions as a result of side-effects (e.g., removeVertex, etc.)
             if (e.getType() == GraphEdgeChangeEvent.EDGE_REMOVED) {
                 JSONEdge je = e.getEdge();
+                edges.remove(je.get(KEY_FIELD));
                 indexWriter.deleteDocuments(new Term(KEY_FIELD, je.get(KEY_FIELD)));
-                refreshGraphIndex();
+                graphIndexChanged();
                 
                 // TODO: terminate & de-index process objects for this object
                 
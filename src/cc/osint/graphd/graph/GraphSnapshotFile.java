@@ -0,0 +1,321 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.lucene.store.*;
+import org.json.*;
+
+/*
+ * binary graph snapshot:
+ *
+ *   magic, version, graph name, save time, journal sequence (v2)
+ *   udfs:      count, { key, udf_type, udf_fn }
+ *   index:     count, { file name, length, bytes }
+ *   vertices:  count, { key, properties }
+ *   edges:     count, { key, source key, target key, rel, weight, properties }
+ *
+ * properties are written as (name, tag, value) so that restoring them
+ *  does not require parsing JSON (nested objects & arrays excepted);
+ *  the committed graph index is written file-by-file & restored as-is.
+ *  strings are length-prefixed UTF-8.
+*/
+public class GraphSnapshotFile {
+    private static final Logger log = Logger.getLogger(
+        GraphSnapshotFile.class.getName());
+
+    final private static int MAGIC = 0x50475350;    // "PGSP"
+    final private static int VERSION = 2;
+
+    final private static byte T_STRING = 'S';
+    final private static byte T_INT = 'I';
+    final private static byte T_LONG = 'L';
+    final private static byte T_DOUBLE = 'D';
+    final private static byte T_BOOLEAN = 'B';
+    final private static byte T_NULL = 'N';
+    final private static byte T_JSON = 'J';
+
+    final private static int COPY_BUFFER_SIZE = 65536;
+
+    /*
+     * write
+    */
+
+    public static JSONObject write(Graph graph, String fn) throws Exception {
+        long t0 = System.currentTimeMillis();
+        File file = new File(fn);
+        File tmpFile = new File(fn + ".tmp");
+        int vertexCount = 0;
+        int edgeCount = 0;
+
+        FileOutputStream fos = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(fos, COPY_BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, graph.getName());
+            out.writeLong(System.currentTimeMillis());
+            out.writeLong(graph.getJournalSequence());
+
+            // udfs
+            List<JSONObject> udfs = graph.querySimIndex(Graph.TYPE_FIELD + ":udf");
+            out.writeInt(udfs.size());
+            for(JSONObject udf: udfs) {
+                writeString(out, udf.getString(Graph.KEY_FIELD));
+                writeString(out, udf.getString("udf_type"));
+                writeString(out, udf.getString("udf_fn"));
+            }
+
+            // graph index
+            synchronized(graph) {
+                RAMDirectory dir = graph.getLuceneDirectory();
+                Collection<String> indexFiles = graph.getCommittedIndexFiles();
+                out.writeInt(indexFiles.size());
+                byte[] buf = new byte[COPY_BUFFER_SIZE];
+                for(String name: indexFiles) {
+                    IndexInput in = dir.openInput(name);
+                    try {
+                        long len = in.length();
+                        writeString(out, name);
+                        out.writeLong(len);
+                        while (len > 0) {
+                            int n = (int) Math.min(len, buf.length);
+                            in.readBytes(buf, 0, n);
+                            out.write(buf, 0, n);
+                            len -= n;
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+
+            // vertices
+            Collection<JSONVertex> vertices = graph.getVertexObjects();
+            out.writeInt(vertices.size());
+            for(JSONVertex jv: vertices) {
+                writeString(out, jv.getKey());
+                writeProperties(out, jv);
+                vertexCount++;
+            }
+
+            // edges
+            Collection<JSONEdge> edges = graph.getEdgeObjects();
+            out.writeInt(edges.size());
+            for(JSONEdge je: edges) {
+                writeString(out, je.getKey());
+                writeString(out, je.getSource().getKey());
+                writeString(out, je.getTarget().getKey());
+                writeString(out, je.toString());
+                out.writeDouble(graph.getEdgeWeight(je));
+                writeProperties(out, je.getData());
+                edgeCount++;
+            }
+
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new Exception("could not rename " + tmpFile + " to " + file);
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("graph", graph.getName());
+        result.put("file", fn);
+        result.put("vertices", vertexCount);
+        result.put("edges", edgeCount);
+        result.put("bytes", file.length());
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        log.info("write: " + result.toString());
+        return result;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeProperties(DataOutputStream out, JSONObject jo) throws Exception {
+        String[] names = JSONObject.getNames(jo);
+        if (null == names) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(names.length);
+        for(String name: names) {
+            Object value = jo.get(name);
+            writeString(out, name);
+            if (value instanceof String) {
+                out.writeByte(T_STRING);
+                writeString(out, (String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(T_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(T_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(T_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(T_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value == JSONObject.NULL) {
+                out.writeByte(T_NULL);
+            } else {
+                out.writeByte(T_JSON);
+                writeString(out, value.toString());
+            }
+        }
+    }
+
+    /*
+     * read
+    */
+
+    public static Graph read(String graphName, String fn) throws Exception {
+        long t0 = System.currentTimeMillis();
+        RandomAccessFile raf = new RandomAccessFile(fn, "r");
+        try {
+            FileChannel fc = raf.getChannel();
+            if (fc.size() > Integer.MAX_VALUE) {
+                throw new Exception("snapshot " + fn + " is too large to map (" +
+                    fc.size() + " bytes)");
+            }
+            ByteBuffer in = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+
+            if (in.getInt() != MAGIC) {
+                throw new Exception(fn + " is not a graph snapshot");
+            }
+            int version = in.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new Exception(fn + ": unsupported snapshot version " + version);
+            }
+            String savedGraphName = readString(in);
+            long saveTime = in.getLong();
+            long journalSequence = version >= 2 ? in.getLong() : 0;
+
+            // udfs
+            int udfCount = in.getInt();
+            String[][] udfs = new String[udfCount][];
+            for(int i=0; i<udfCount; i++) {
+                udfs[i] = new String[] { readString(in), readString(in), readString(in) };
+            }
+
+            // graph index
+            RAMDirectory dir = new RAMDirectory();
+            int fileCount = in.getInt();
+            byte[] buf = new byte[COPY_BUFFER_SIZE];
+            for(int i=0; i<fileCount; i++) {
+                String name = readString(in);
+                long len = in.getLong();
+                IndexOutput out = dir.createOutput(name);
+                try {
+                    while (len > 0) {
+                        int n = (int) Math.min(len, buf.length);
+                        in.get(buf, 0, n);
+                        out.writeBytes(buf, 0, n);
+                        len -= n;
+                    }
+                } finally {
+                    out.close();
+                }
+            }
+
+            Graph graph = new Graph(graphName, dir);
+            graph.setJournalSequence(journalSequence);
+            for(String[] udf: udfs) {
+                graph.defineUDF(udf[0], udf[1], udf[2]);
+            }
+
+            int vertexCount = 0;
+            int edgeCount = 0;
+            graph.beginRestore();
+            try {
+                vertexCount = in.getInt();
+                for(int i=0; i<vertexCount; i++) {
+                    String key = readString(in);
+                    graph.restoreVertex(key, readProperties(in));
+                }
+                edgeCount = in.getInt();
+                for(int i=0; i<edgeCount; i++) {
+                    String key = readString(in);
+                    String vKeyFrom = readString(in);
+                    String vKeyTo = readString(in);
+                    String rel = readString(in);
+                    double weight = in.getDouble();
+                    graph.restoreEdge(key, readProperties(in), vKeyFrom, vKeyTo, rel, weight);
+                }
+            } finally {
+                graph.endRestore();
+            }
+
+            log.info("read: " + fn + ": graph " + savedGraphName + " (saved " +
+                new Date(saveTime) + ") restored as " + graphName + ": " +
+                vertexCount + " vertices, " + edgeCount + " edges, " +
+                fileCount + " index files in " +
+                (System.currentTimeMillis() - t0) + "ms");
+            return graph;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int len = in.getInt();
+        byte[] bytes = new byte[len];
+        in.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static JSONObject readProperties(ByteBuffer in) throws Exception {
+        JSONObject jo = new JSONObject();
+        int count = in.getInt();
+        for(int i=0; i<count; i++) {
+            String name = readString(in);
+            byte tag = in.get();
+            if (tag == T_STRING) {
+                jo.put(name, readString(in));
+            } else if (tag == T_INT) {
+                jo.put(name, in.getInt());
+            } else if (tag == T_LONG) {
+                jo.put(name, in.getLong());
+            } else if (tag == T_DOUBLE) {
+                jo.put(name, in.getDouble());
+            } else if (tag == T_BOOLEAN) {
+                jo.put(name, in.get() != 0);
+            } else if (tag == T_NULL) {
+                jo.put(name, JSONObject.NULL);
+            } else if (tag == T_JSON) {
+                String json = readString(in);
+                jo.put(name, json.startsWith("[") ? new JSONArray(json) : new JSONObject(json));
+            } else {
+                throw new Exception("corrupt snapshot: unknown property tag " + tag);
+            }
+        }
+        return jo;
+    }
+}
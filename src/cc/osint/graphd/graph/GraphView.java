@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import org.json.*;
+import org.jgrapht.graph.MaskFunctor;
+
+/*
+ * a view of a CompactGraph, nothing copied: the edges of one relationship
+ *  (or all), between the vertices of a mask (or all), directed or not.
+ *
+ * the arcs of a vertex are its out edges, then (undirected) its in edges
+ *  other than self-loops, by index; an algorithm walks the arcs of the
+ *  CompactGraph & skips those not in the view, so a view costs a test
+ *  per edge visited rather than a copy of the graph.  the vertex
+ *  mask is by vertex id (see Graph.getView, which fills it from a query).
+ *
+ * also a MaskFunctor, for the jgrapht algorithms: a MaskSubgraph of the
+ *  version the CompactGraph was built from shows the same vertices & edges.
+*/
+public class GraphView implements MaskFunctor<JSONVertex, JSONEdge> {
+    final private static int NO_REL = -2;       // a relationship no edge has
+
+    final private CompactGraph cg;
+    final private boolean directed;
+    final private String relName;
+    final private int rel;                      // -1: every relationship
+    final private String query;
+    final private boolean[] mask;               // by vertex id; null: every vertex
+    private int vertexCount = -1;
+    private int edgeCount = -1;
+
+    /*
+     * the whole of <cg>
+    */
+    public GraphView(CompactGraph cg, boolean directed) {
+        this(cg, directed, null, null, null);
+    }
+
+    /*
+     * relName: null for every relationship; mask: null for every vertex,
+     *  else filled by <query> (kept for getStatus)
+    */
+    public GraphView(CompactGraph cg, boolean directed, String relName,
+                     String query, boolean[] mask) {
+        this.cg = cg;
+        this.directed = directed;
+        this.relName = relName;
+        this.query = query;
+        this.mask = mask;
+        if (null == relName) {
+            rel = -1;
+        } else {
+            int r = cg.getRelId(relName);
+            rel = (r == -1) ? NO_REL : r;
+        }
+    }
+
+    /*
+     * the same vertices & edges, directed or not
+    */
+    public GraphView asDirected(boolean directed) {
+        if (directed == this.directed) return this;
+        GraphView view = new GraphView(cg, directed, relName, query, mask);
+        view.vertexCount = vertexCount;
+        view.edgeCount = edgeCount;
+        return view;
+    }
+
+    public CompactGraph getCompactGraph() {
+        return cg;
+    }
+
+    public boolean isDirected() {
+        return directed;
+    }
+
+    /*
+     * is this the whole of its CompactGraph
+    */
+    public boolean isComplete() {
+        return rel == -1 && null == mask;
+    }
+
+    /*
+     * vertices
+    */
+
+    public boolean containsVertex(int v) {
+        return null != cg.getVertex(v) && (null == mask || mask[v]);
+    }
+
+    public int numVertices() {
+        if (vertexCount == -1) {
+            if (null == mask) {
+                vertexCount = cg.numVertices();
+            } else {
+                int count = 0;
+                for(int v=0; v<cg.getVertexCapacity(); v++) {
+                    if (containsVertex(v)) count++;
+                }
+                vertexCount = count;
+            }
+        }
+        return vertexCount;
+    }
+
+    /*
+     * edges
+    */
+
+    public boolean containsEdge(int e) {
+        if (rel != -1 && cg.edgeRel[e] != rel) return false;
+        return null == mask || (mask[cg.edgeSource[e]] && mask[cg.edgeTarget[e]]);
+    }
+
+    public int numEdges() {
+        if (edgeCount == -1) {
+            if (isComplete()) {
+                edgeCount = cg.numEdges();
+            } else {
+                int count = 0;
+                for(int e=0; e<cg.numEdges(); e++) {
+                    if (containsEdge(e)) count++;
+                }
+                edgeCount = count;
+            }
+        }
+        return edgeCount;
+    }
+
+    /*
+     * arcs of <v>: arcCount(v) of them, each an edge id or -1 if not in
+     *  the view; opposite(e, v) is the vertex an edge leads to
+    */
+
+    public int arcCount(int v) {
+        int count = cg.outOffset[v + 1] - cg.outOffset[v];
+        if (!directed) count += cg.inOffset[v + 1] - cg.inOffset[v];
+        return count;
+    }
+
+    public int arc(int v, int i) {
+        int outDegree = cg.outOffset[v + 1] - cg.outOffset[v];
+        int e;
+        if (i < outDegree) {
+            e = cg.outOffset[v] + i;
+        } else {
+            e = cg.inEdges[cg.inOffset[v] + i - outDegree];
+            if (cg.edgeSource[e] == v) return -1;      // a self-loop: its out arc stands for it
+        }
+        return containsEdge(e) ? e : -1;
+    }
+
+    public int opposite(int e, int v) {
+        return (cg.edgeSource[e] == v) ? cg.edgeTarget[e] : cg.edgeSource[e];
+    }
+
+    /*
+     * MaskFunctor
+    */
+
+    public boolean isVertexMasked(JSONVertex jv) {
+        int v = cg.getVertexId(jv);
+        return v == -1 || !containsVertex(v);
+    }
+
+    public boolean isEdgeMasked(JSONEdge je) {
+        if (rel == NO_REL) return true;
+        if (rel != -1 && !relName.equals(je.toString())) return true;
+        return isVertexMasked(je.getSource()) || isVertexMasked(je.getTarget());
+    }
+
+    public JSONObject getStatus() throws Exception {
+        JSONObject status = new JSONObject();
+        status.put("directed", directed);
+        if (null != relName) status.put("relationship", relName);
+        if (null != query) status.put("query", query);
+        status.put("vertices", numVertices());
+        status.put("edges", numEdges());
+        return status;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * kleinberg's hubs & authorities (HITS) over a CompactGraph, optionally
+ *  with priors (as jung's HITSWithPriors).
+ *
+ * each iteration, the authority of a vertex becomes the weighted sum of
+ *  the hub scores of the vertices with edges to it, then the hub score
+ *  of a vertex the weighted sum of the authorities of those it has edges
+ *  to; both vectors are normalized to sum to 1.  with priors, each is
+ *  mixed with the prior distribution after normalizing:
+ *
+ *      a = (1 - alpha) * a + alpha * prior
+ *
+ * iteration stops once the L1 change of authorities + hubs is within
+ *  <tolerance>.  getScores() returns the authorities.
+*/
+public class HITS extends MatrixIteration {
+    final private static int AUTHORITY = 0;     // sweeps
+    final private static int HUB = 1;
+    final private static int NORMALIZE_AUTHORITY = 2;
+    final private static int NORMALIZE_HUB = 3;
+
+    final private double alpha;
+    final private double[] prior;
+    private double[] authority;
+    private double[] hub;
+    private double[] nextAuthority;
+    private double[] nextHub;
+    private double scale;                       // of the sweep being normalized
+
+    /*
+     * seeds: vertex ids of the prior, or null for plain HITS (alpha is
+     *  then ignored)
+    */
+    public HITS(CompactGraph cg, double alpha, int[] seeds) throws Exception {
+        super(cg);
+        if (alpha < 0 || alpha > 1) {
+            throw new Exception("alpha must be within [0, 1]");
+        }
+        checkWeights("hits");
+        this.alpha = (null == seeds) ? 0 : alpha;
+        prior = prior(seeds);
+        authority = prior.clone();
+        hub = prior.clone();
+        nextAuthority = new double[prior.length];
+        nextHub = new double[prior.length];
+    }
+
+    protected double iterate() {
+        double sum = sweep(AUTHORITY)[0];
+        scale = (sum > 0) ? 1 / sum : 0;
+        double change = sweep(NORMALIZE_AUTHORITY)[0];
+        sum = sweep(HUB)[0];
+        scale = (sum > 0) ? 1 / sum : 0;
+        change += sweep(NORMALIZE_HUB)[0];
+        double[] swap = authority; authority = nextAuthority; nextAuthority = swap;
+        swap = hub; hub = nextHub; nextHub = swap;
+        return change;
+    }
+
+    /*
+     * AUTHORITY & HUB: unnormalized scores, partial sum: their sum;
+     *  NORMALIZE_*: partial sum: L1 change
+    */
+    protected void kernel(int pass, int lo, int hi, double[] partial, int slot) {
+        double[] weight = cg.edgeWeight;
+        double sum = 0;
+        if (pass == AUTHORITY) {
+            for(int v=lo; v<hi; v++) {
+                double a = pullIn(v, hub, weight);
+                nextAuthority[v] = a;
+                sum += a;
+            }
+        } else if (pass == HUB) {
+            for(int v=lo; v<hi; v++) {
+                double h = pullOut(v, nextAuthority, weight);
+                nextHub[v] = h;
+                sum += h;
+            }
+        } else {
+            double[] x = (pass == NORMALIZE_AUTHORITY) ? nextAuthority : nextHub;
+            double[] previous = (pass == NORMALIZE_AUTHORITY) ? authority : hub;
+            for(int v=lo; v<hi; v++) {
+                double s = (1 - alpha) * x[v] * scale + alpha * prior[v];
+                x[v] = s;
+                sum += Math.abs(s - previous[v]);
+            }
+        }
+        partial[slot] = sum;
+    }
+
+    /*
+     * authorities, by vertex id
+    */
+    public double[] getScores() {
+        return authority;
+    }
+
+    /*
+     * hub scores, by vertex id
+    */
+    public double[] getHubs() {
+        return hub;
+    }
+}
@@ -29,6 +29,13 @@ public class JSONEdge<V>
     private V target;
     private String label;
     private JSONObject data;
+    
+    // id in the graph's VersionedAdjacency
+    int eid = -1;
+    
+    // the key, outside the (mutable) property map so that analytics
+    //  running against a snapshot (jobs) can read it without a lock
+    private String key = null;
 
     public JSONEdge(V source, V target, String label) {
         this.source = source;
@@ -37,6 +44,12 @@ public class JSONEdge<V>
         data = new JSONObject();
     }
 
+    public JSONEdge(V source, V target, String label, String key) throws Exception {
+        this(source, target, label);
+        this.key = key;
+        data.put(Graph.KEY_FIELD, key);
+    }
+
     // deprecated: use getSource
     public V getV1() {
         return source;
@@ -74,6 +87,7 @@ public class JSONEdge<V>
     }
     
     public String getKey() throws Exception {
+        if (null != key) return key;
         return data.getString(Graph.KEY_FIELD);
     }
     
@@ -89,6 +103,11 @@ public class JSONEdge<V>
         return data.has(k);
     }
     
+    // live view of this edge's properties; callers must not modify it
+    JSONObject getData() {
+        return data;
+    }
+    
     public JSONObject asJSONObject() throws Exception {
         JSONObject jo = new JSONObject(data.toString());
         JSONObject je = new JSONObject();
@@ -22,8 +22,16 @@ import org.json.JSONObject;
 public class JSONVertex extends JSONObject {
     static Logger log = Logger.getLogger(JSONVertex.class);
     
+    // id in the graph's VersionedAdjacency
+    int vid = -1;
+    
+    // the key, outside the (mutable) property map so that analytics
+    //  running against a snapshot (jobs) can read it without a lock
+    final private String key;
+    
     public JSONVertex(String key) {
         super();
+        this.key = key;
         try {
             super.put(Graph.KEY_FIELD, key);
         } catch (Exception ex) {
@@ -33,6 +41,7 @@ public class JSONVertex extends JSONObject {
     
     public JSONVertex(String key, JSONObject jo) {
         super();
+        this.key = key;
         try {
             if (null != jo &&
                 null != JSONObject.getNames(jo)) {
@@ -51,7 +60,7 @@ public class JSONVertex extends JSONObject {
     */
     
     public String getKey() throws Exception {
-        return getString(Graph.KEY_FIELD);
+        return key;
     }
 
     public void put(String k, String v) throws Exception {
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * k-step markov scores over a CompactGraph (as jung's KStepMarkov): the
+ *  probability of a random walker that starts at the seed vertices being
+ *  at each vertex, averaged over its first k steps.
+ *
+ * the walker follows an out edge with probability proportional to its
+ *  weight; at a vertex without out weight it jumps back to a seed.  one
+ *  iteration is one step; run(k, -1) takes exactly k.
+*/
+public class KStepMarkov extends MatrixIteration {
+    final private double[] prior;
+    final private double[] outWeight;
+    final private double[] transition;
+    private double[] walk;                      // distribution after the last step
+    private double[] next;
+    private double dangling;
+    final private double[] sum;                 // of the distributions after each step
+    final private double[] score;
+    private int steps = 0;
+
+    public KStepMarkov(CompactGraph cg, int[] seeds) throws Exception {
+        super(cg);
+        checkWeights("kstep");
+        prior = prior(seeds);
+        outWeight = outWeights();
+        transition = transitions(outWeight);
+        walk = prior.clone();
+        next = new double[prior.length];
+        sum = new double[prior.length];
+        score = new double[prior.length];
+        dangling = 0;
+        for(int v=0; v<walk.length; v++) {
+            if (outWeight[v] == 0) dangling += walk[v];
+        }
+    }
+
+    protected double iterate() {
+        double[] sums = sweep(0);
+        double[] swap = walk; walk = next; next = swap;
+        dangling = sums[1];
+        steps++;
+        return sums[0];
+    }
+
+    /*
+     * next = P^T walk + dangling * prior; partial sums: L1 change,
+     *  dangling probability
+    */
+    protected void kernel(int pass, int lo, int hi, double[] partial, int slot) {
+        double change = 0;
+        double nextDangling = 0;
+        double average = 1.0 / (steps + 1);
+        for(int v=lo; v<hi; v++) {
+            double p = pullIn(v, walk, transition) + dangling * prior[v];
+            next[v] = p;
+            sum[v] += p;
+            score[v] = sum[v] * average;
+            change += Math.abs(p - walk[v]);
+            if (outWeight[v] == 0) nextDangling += p;
+        }
+        partial[slot] = change;
+        partial[slot + 1] = nextDangling;
+    }
+
+    /*
+     * by vertex id; all 0 before the first step
+    */
+    public double[] getScores() {
+        return score;
+    }
+}
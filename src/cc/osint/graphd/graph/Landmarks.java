@@ -0,0 +1,173 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import org.json.*;
+
+/*
+ * ALT landmarks: exact distances from & to a few landmark vertices, which
+ *  bound the distance between any two vertices by the triangle inequality:
+ *
+ *    d(v,t) >= d(L,t) - d(L,v)      d(v,t) >= d(v,L) - d(t,L)
+ *
+ * landmarks are chosen farthest-first.  they are built against one
+ *  version & hold only while no edge has been added, removed or
+ *  reweighted since (see CompactGraph.getEdgeEpoch); vertices added
+ *  since get no bound.
+*/
+public class Landmarks {
+    final private static double INF = Double.POSITIVE_INFINITY;
+
+    final private long edgeEpoch;
+    final private int[] vids;
+    final private String[] keys;
+    final private double[][] from;      // from[i][v] = d(landmark i, v)
+    final private double[][] to;        // to[i][v] = d(v, landmark i)
+    final private long elapsed;
+
+    private Landmarks(long edgeEpoch, int[] vids, String[] keys,
+                      double[][] from, double[][] to, long elapsed) {
+        this.edgeEpoch = edgeEpoch;
+        this.vids = vids;
+        this.keys = keys;
+        this.from = from;
+        this.to = to;
+        this.elapsed = elapsed;
+    }
+
+    public static Landmarks build(CompactGraph cg, int count) throws Exception {
+        long t0 = System.currentTimeMillis();
+        int n = cg.getVertexCapacity();
+        count = Math.min(count, cg.numVertices());
+        int[] vids = new int[count];
+        String[] keys = new String[count];
+        double[][] from = new double[count][];
+        double[][] to = new double[count][];
+        SearchSpace space = new SearchSpace();
+
+        // farthest-first: each landmark maximizes its least distance
+        //  (there & back) to those chosen so far; a vertex out of reach
+        //  of all of them (another component) is farthest of all
+        double[] score = new double[n];
+        Arrays.fill(score, INF);
+        int next = -1;
+        for(int v=0; v<n; v++) {
+            if (null != cg.getVertex(v) &&
+                (next == -1 || degree(cg, v) > degree(cg, next))) {
+                next = v;
+            }
+        }
+        for(int i=0; i<count; i++) {
+            vids[i] = next;
+            keys[i] = cg.getVertex(next).getKey();
+            from[i] = distances(cg, space, next, true);
+            to[i] = distances(cg, space, next, false);
+            next = -1;
+            for(int v=0; v<n; v++) {
+                if (null == cg.getVertex(v)) continue;
+                double f = from[i][v], t = to[i][v];
+                double s;
+                if (f == INF && t == INF) {
+                    s = Double.MAX_VALUE;
+                } else {
+                    s = (f == INF ? 0 : f) + (t == INF ? 0 : t);
+                }
+                score[v] = Math.min(score[v], s);
+                if (score[v] > 0 && (next == -1 || score[v] > score[next])) {
+                    next = v;
+                }
+            }
+            if (next == -1) {
+                count = i + 1;
+                break;
+            }
+        }
+        return new Landmarks(cg.getEdgeEpoch(),
+            Arrays.copyOf(vids, count), Arrays.copyOf(keys, count),
+            Arrays.copyOf(from, count), Arrays.copyOf(to, count),
+            System.currentTimeMillis() - t0);
+    }
+
+    /*
+     * dijkstra from (forward) or to (!forward) <origin>
+    */
+    private static double[] distances(CompactGraph cg, SearchSpace space,
+                                      int origin, boolean forward) throws Exception {
+        int n = cg.getVertexCapacity();
+        double[] d = new double[n];
+        Arrays.fill(d, INF);
+        space.reset(n);
+        space.label(origin, 0, -1, 0);
+        while (!space.isEmpty()) {
+            int u = space.pop();
+            double du = space.dist(u);
+            d[u] = du;
+            int degree = forward ? cg.outDegree(u) : cg.inDegree(u);
+            for(int i=0; i<degree; i++) {
+                int eid = forward ? cg.outEdge(u, i) : cg.inEdge(u, i);
+                int v = forward ? cg.edgeTarget(eid) : cg.edgeSource(eid);
+                double w = cg.edgeWeight(eid);
+                if (w < 0) {
+                    throw new Exception("landmarks require non-negative weights: " +
+                        cg.getEdge(eid).getKey());
+                }
+                double dv = du + w;
+                if (!space.isSettled(v) && dv < space.dist(v)) {
+                    space.label(v, dv, eid, dv);
+                }
+            }
+        }
+        return d;
+    }
+
+    private static int degree(CompactGraph cg, int v) {
+        return cg.outDegree(v) + cg.inDegree(v);
+    }
+
+    /*
+     * do these landmarks hold for <cg>?
+    */
+    public boolean isCurrent(CompactGraph cg) {
+        return cg.getEdgeEpoch() == edgeEpoch;
+    }
+
+    /*
+     * lower bound on d(v, t); infinite if t cannot be reached from v
+    */
+    public double lowerBound(int v, int t) {
+        double bound = 0;
+        for(int i=0; i<vids.length; i++) {
+            if (v >= from[i].length || t >= from[i].length) return 0;
+            double b1 = from[i][t] - from[i][v];
+            double b2 = to[i][v] - to[i][t];
+            // INF - INF: no information
+            if (b1 > bound) bound = b1;
+            if (b2 > bound) bound = b2;
+        }
+        return bound;
+    }
+
+    public JSONObject getStatus(CompactGraph cg) throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("landmarks", new JSONArray(Arrays.asList(keys)));
+        result.put("edge_epoch", edgeEpoch);
+        result.put("current", isCurrent(cg));
+        result.put("elapsed_ms", elapsed);
+        return result;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * iterated sparse matrix-vector products over a CompactGraph, for the
+ *  scores that are the fixed point (or k-th power) of a matrix made from
+ *  the adjacency: PageRank, HITS, EigenvectorCentrality & KStepMarkov.
+ *
+ * a subclass implements iterate() as one or more sweeps; a sweep runs
+ *  the subclass' kernel over every vertex, in chunks split between the
+ *  threads of a fork/join pool shared by all graphs
+ *  (-Dgraphd.rank.threads, default: one per cpu).  chunks hold about the
+ *  same number of vertices + edges, & each kernel writes only the
+ *  vertices of its own chunk, plus SLOTS partial sums (an L1 change, a
+ *  norm, ...) which the sweep adds up.
+ *
+ * the chunks, their tasks & the partial sums are allocated once, so a
+ *  sweep allocates nothing: subclasses keep their vectors across
+ *  iterations & swap them.
+*/
+public abstract class MatrixIteration {
+    final private static int THREADS = Integer.parseInt(
+        System.getProperty("graphd.rank.threads",
+            "" + Runtime.getRuntime().availableProcessors()));
+    final static ForkJoinPool pool = new ForkJoinPool(THREADS);   // see also Centrality
+    final private static int GRAIN = 16384;     // vertices + edges per chunk, at least
+    final protected static int SLOTS = 4;       // partial sums per sweep
+
+    final protected CompactGraph cg;
+    final private int[] bound;                  // chunk c: vertices [bound[c], bound[c + 1])
+    final private Chunk[] chunks;
+    final private double[] partial;             // chunk c: partial[c * SLOTS ...]
+    final private double[] total = new double[SLOTS];
+    final private Sweep sweep = new Sweep();
+    private int pass;
+    private int iterations = 0;
+    private double delta = Double.POSITIVE_INFINITY;
+
+    protected MatrixIteration(CompactGraph cg) {
+        this.cg = cg;
+        int n = cg.getVertexCapacity();
+        long work = n + 2L * cg.numEdges();
+        long target = Math.max(GRAIN, work / (4 * THREADS) + 1);
+        int[] bounds = new int[(int) (work / target) + 2];
+        int count = 0;
+        long size = 0;
+        for(int v=0; v<n; v++) {
+            if (size >= target) {
+                bounds[++count] = v;
+                size = 0;
+            }
+            size += 1 + cg.inDegree(v) + cg.outDegree(v);
+        }
+        bounds[++count] = n;
+        bound = Arrays.copyOf(bounds, count + 1);
+        chunks = new Chunk[count];
+        for(int c=0; c<count; c++) {
+            chunks[c] = new Chunk(c);
+        }
+        partial = new double[count * SLOTS];
+    }
+
+    /*
+     * iterate until the change of an iteration is within <tolerance>, or
+     *  <maxIterations> are done
+    */
+    public void run(int maxIterations, double tolerance) {
+        while (iterations < maxIterations && delta > tolerance) {
+            delta = iterate();
+            iterations++;
+        }
+    }
+
+    /*
+     * one iteration; returns its change (L1, unless documented otherwise)
+    */
+    protected abstract double iterate();
+
+    /*
+     * compute vertices [lo, hi) of sweep <pass>; partial sums go to
+     *  partial[slot .. slot + SLOTS - 1], which start at 0
+    */
+    protected abstract void kernel(int pass, int lo, int hi, double[] partial, int slot);
+
+    /*
+     * the scores, by vertex id
+    */
+    public abstract double[] getScores();
+
+    /*
+     * run <pass> of the kernel over all vertices; returns the sums of the
+     *  partial sums (valid until the next sweep)
+    */
+    protected final double[] sweep(int pass) {
+        this.pass = pass;
+        Arrays.fill(partial, 0);
+        sweep.reinitialize();
+        pool.invoke(sweep);
+        Arrays.fill(total, 0);
+        for(int c=0; c<chunks.length; c++) {
+            for(int i=0; i<SLOTS; i++) {
+                total[i] += partial[c * SLOTS + i];
+            }
+        }
+        return total;
+    }
+
+    private class Sweep extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+
+        protected void compute() {
+            for(Chunk chunk: chunks) {
+                chunk.reinitialize();
+            }
+            invokeAll(chunks);
+        }
+    }
+
+    private class Chunk extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private int c;
+
+        Chunk(int c) {
+            this.c = c;
+        }
+
+        protected void compute() {
+            kernel(pass, bound[c], bound[c + 1], partial, c * SLOTS);
+        }
+    }
+
+    /*
+     * kernel building blocks
+    */
+
+    /*
+     * sum of x[u] * value[e] over the edges e = (u, v) into <v>
+    */
+    protected final double pullIn(int v, double[] x, double[] value) {
+        int[] inEdges = cg.inEdges;
+        int[] edgeSource = cg.edgeSource;
+        double sum = 0;
+        for(int i=cg.inOffset[v]; i<cg.inOffset[v + 1]; i++) {
+            int e = inEdges[i];
+            sum += x[edgeSource[e]] * value[e];
+        }
+        return sum;
+    }
+
+    /*
+     * sum of x[w] * value[e] over the edges e = (v, w) out of <v>
+    */
+    protected final double pullOut(int v, double[] x, double[] value) {
+        int[] edgeTarget = cg.edgeTarget;
+        double sum = 0;
+        for(int e=cg.outOffset[v]; e<cg.outOffset[v + 1]; e++) {
+            sum += x[edgeTarget[e]] * value[e];
+        }
+        return sum;
+    }
+
+    /*
+     * setup helpers
+    */
+
+    protected void checkWeights(String name) throws Exception {
+        for(int e=0; e<cg.numEdges(); e++) {
+            if (cg.edgeWeight[e] < 0) {
+                throw new Exception(name + " requires non-negative weights: " +
+                    cg.getEdge(e).getKey());
+            }
+        }
+    }
+
+    /*
+     * total weight out of each vertex
+    */
+    protected double[] outWeights() {
+        double[] outWeight = new double[cg.getVertexCapacity()];
+        for(int e=0; e<cg.numEdges(); e++) {
+            outWeight[cg.edgeSource[e]] += cg.edgeWeight[e];
+        }
+        return outWeight;
+    }
+
+    /*
+     * probability of a random walker following each edge: its weight
+     *  over the weight out of its source (0 if that is 0)
+    */
+    protected double[] transitions(double[] outWeight) {
+        double[] transition = new double[cg.numEdges()];
+        for(int e=0; e<transition.length; e++) {
+            double out = outWeight[cg.edgeSource[e]];
+            transition[e] = (out > 0) ? cg.edgeWeight[e] / out : 0;
+        }
+        return transition;
+    }
+
+    /*
+     * distribution uniform over <seeds> (vertex ids), or over all
+     *  vertices if null
+    */
+    protected double[] prior(int[] seeds) throws Exception {
+        int n = cg.getVertexCapacity();
+        double[] prior = new double[n];
+        if (null == seeds) {
+            for(int v=0; v<n; v++) {
+                if (null != cg.getVertex(v)) prior[v] = 1.0 / cg.numVertices();
+            }
+        } else {
+            if (seeds.length == 0) {
+                throw new Exception("no seed vertices");
+            }
+            for(int v: seeds) {
+                prior[v] += 1.0 / seeds.length;
+            }
+        }
+        return prior;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /*
+     * change of the last iteration
+    */
+    public double getDelta() {
+        return delta;
+    }
+}
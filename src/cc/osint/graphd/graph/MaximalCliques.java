@@ -0,0 +1,420 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.json.*;
+
+/*
+ * maximal cliques of a view of a CompactGraph, edges taken as undirected
+ *  (self-loops ignored): bron-kerbosch with tomita's pivot, over a degeneracy ordering
+ *  (eppstein, loffler & strash).
+ *
+ * the cliques whose earliest vertex in the ordering is v are those of v &
+ *  its later neighbours, excluding any that extend to an earlier one; v's
+ *  later neighbours number at most the degeneracy of the graph, however
+ *  many neighbours it has.  each such subproblem is independent: they are
+ *  split between the threads of MatrixIteration's pool, & each is solved
+ *  over bitsets of its neighbourhood (a row per later neighbour over all
+ *  of v's neighbours, a row per earlier one over the later ones only).
+ *
+ * cliques are passed to the listener as they are found (one thread at a
+ *  time), until <limit> have been or <timeout> ms have passed.  only
+ *  cliques of at least <minSize> vertices are wanted, so branches that
+ *  cannot grow that big are cut.  when looking for the biggest, that
+ *  bound rises with the biggest clique found so far, & the biggest are
+ *  passed to the listener at the end.
+*/
+public class MaximalCliques {
+    final private static int GRAIN = 8;         // subproblems per fork/join leaf
+    final private static int CLOCK_INTERVAL = 1024;     // calls between looks at the clock
+
+    /*
+     * receives each clique: {"size": n, "clique": [keys]}
+    */
+    public interface Listener {
+        public void clique(JSONObject clique) throws Exception;
+    }
+
+    final private CompactGraph cg;
+    final private int[] offset;                 // undirected neighbours, as in CompactGraph
+    final private int[] neighbours;
+    final private int[] order;                  // degeneracy ordering of the used vertex ids
+    final private int[] position;               // in order, by vertex id
+    final private int degeneracy;
+
+    final private boolean biggest;
+    final private long limit;
+    final private long deadline;
+    final private Listener listener;
+    private volatile int bound;                 // size a clique must reach to be wanted
+    private volatile boolean stopped = false;
+    private volatile boolean timedOut = false;
+    private long found = 0;
+    private int largest = 0;
+    private Exception failure = null;
+    final private List<int[]> biggestCliques = new ArrayList<int[]>();
+
+    final private ThreadLocal<int[]> localIds = new ThreadLocal<int[]>();
+
+    /*
+     * biggest: only the biggest maximal cliques; limit, timeout: <= 0 for
+     *  none
+    */
+    public MaximalCliques(GraphView view, boolean biggest, int minSize,
+                          long limit, long timeout, Listener listener) {
+        this.cg = view.getCompactGraph();
+        this.biggest = biggest;
+        this.limit = limit;
+        this.deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        this.listener = listener;
+        bound = Math.max(1, minSize);
+        int[][] adjacency = CompactGraphAlgorithms.undirectedNeighbours(view);
+        offset = adjacency[0];
+        neighbours = adjacency[1];
+        for(int v=0; v<cg.getVertexCapacity(); v++) {
+            Arrays.sort(neighbours, offset[v], offset[v + 1]);
+        }
+
+        // batagelj & zaversnik: peel vertices of least remaining degree
+        int n = cg.getVertexCapacity();
+        int[] degree = new int[n];
+        int maxDegree = 0;
+        int count = 0;
+        for(int v=0; v<n; v++) {
+            if (!view.containsVertex(v)) continue;
+            degree[v] = offset[v + 1] - offset[v];
+            maxDegree = Math.max(maxDegree, degree[v]);
+            count++;
+        }
+        int[] bin = new int[maxDegree + 1];
+        for(int v=0; v<n; v++) {
+            if (view.containsVertex(v)) bin[degree[v]]++;
+        }
+        for(int d=0, start=0; d<=maxDegree; d++) {
+            int size = bin[d];
+            bin[d] = start;
+            start += size;
+        }
+        order = new int[count];
+        position = new int[n];
+        for(int v=0; v<n; v++) {
+            if (!view.containsVertex(v)) continue;
+            position[v] = bin[degree[v]]++;
+            order[position[v]] = v;
+        }
+        for(int d=maxDegree; d>0; d--) {
+            bin[d] = bin[d - 1];
+        }
+        bin[0] = 0;
+        int core = 0;
+        for(int i=0; i<count; i++) {
+            int v = order[i];
+            core = Math.max(core, degree[v]);
+            for(int j=offset[v]; j<offset[v + 1]; j++) {
+                int w = neighbours[j];
+                if (degree[w] <= degree[v]) continue;
+                // move w to the front of its bin, then out of it
+                int dw = degree[w];
+                int pw = position[w];
+                int first = bin[dw];
+                int u = order[first];
+                if (u != w) {
+                    order[pw] = u;
+                    position[u] = pw;
+                    order[first] = w;
+                    position[w] = first;
+                }
+                bin[dw]++;
+                degree[w]--;
+            }
+        }
+        degeneracy = core;
+    }
+
+    public MaximalCliques run() throws Exception {
+        MatrixIteration.pool.invoke(new Solve(0, order.length));
+        if (null != failure) throw failure;
+        if (biggest) {
+            for(int[] clique: biggestCliques) {
+                listener.clique(toJSON(clique));
+            }
+        }
+        return this;
+    }
+
+    private class Solve extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private int lo;
+        final private int hi;
+
+        Solve(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= GRAIN) {
+                for(int i=lo; i<hi && !stopped; i++) {
+                    if (System.currentTimeMillis() > deadline) {
+                        timedOut = true;
+                        stopped = true;
+                        break;
+                    }
+                    // the biggest cliques are likeliest late in the ordering
+                    solve(biggest ? order.length - 1 - i : i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Solve(lo, mid), new Solve(mid, hi));
+        }
+    }
+
+    /*
+     * the cliques whose earliest vertex is order[i]
+    */
+    private void solve(int i) {
+        int v = order[i];
+        int p = 0, x = 0;
+        for(int j=offset[v]; j<offset[v + 1]; j++) {
+            if (position[neighbours[j]] > i) p++; else x++;
+        }
+        if (1 + p < bound) return;
+
+        // local ids: later neighbours 0..p-1, earlier p..p+x-1
+        int[] local = localIds.get();
+        if (null == local) {
+            local = new int[cg.getVertexCapacity()];
+            Arrays.fill(local, -1);
+            localIds.set(local);
+        }
+        int[] vertex = new int[p + x];
+        int pi = 0, xi = p;
+        for(int j=offset[v]; j<offset[v + 1]; j++) {
+            int w = neighbours[j];
+            int id = (position[w] > i) ? pi++ : xi++;
+            vertex[id] = w;
+            local[w] = id;
+        }
+        int words = (p + x + 63) >>> 6;
+        int laterWords = (p + 63) >>> 6;
+        long[][] row = new long[p + x][];
+        for(int id=0; id<p; id++) {
+            // scan the neighbours of a later neighbour, unless there are
+            //  far more of them than of v (a hub): then look each of v's up
+            row[id] = new long[words];
+            int w = vertex[id];
+            if (offset[w + 1] - offset[w] <= 8 * (p + x)) {
+                for(int j=offset[w]; j<offset[w + 1]; j++) {
+                    int u = local[neighbours[j]];
+                    if (u != -1) row[id][u >>> 6] |= 1L << u;
+                }
+            } else {
+                for(int u=0; u<p + x; u++) {
+                    if (Arrays.binarySearch(neighbours, offset[w], offset[w + 1], 
+                                            vertex[u]) >= 0) {
+                        row[id][u >>> 6] |= 1L << u;
+                    }
+                }
+            }
+        }
+        for(int id=p; id<p + x; id++) {
+            row[id] = new long[laterWords];
+        }
+        for(int id=0; id<p; id++) {
+            for(int w=(p >>> 6); w<words; w++) {
+                long bits = row[id][w];
+                if (w == (p >>> 6)) bits &= -1L << (p & 63);
+                while (bits != 0) {
+                    int u = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    row[u][id >>> 6] |= 1L << id;
+                }
+            }
+        }
+        for(int id=0; id<p + x; id++) {
+            local[vertex[id]] = -1;
+        }
+
+        long[] candidates = new long[words];
+        long[] excluded = new long[words];
+        for(int id=0; id<p; id++) candidates[id >>> 6] |= 1L << id;
+        for(int id=p; id<p + x; id++) excluded[id >>> 6] |= 1L << id;
+        int[] clique = new int[p + 1];
+        clique[0] = v;
+        new Search(vertex, row, clique).expand(1, candidates, excluded);
+    }
+
+    /*
+     * bron-kerbosch within one subproblem
+    */
+    private class Search {
+        final private int[] vertex;
+        final private long[][] row;
+        final private int[] clique;
+        private int calls = 0;
+
+        Search(int[] vertex, long[][] row, int[] clique) {
+            this.vertex = vertex;
+            this.row = row;
+            this.clique = clique;
+        }
+
+        void expand(int size, long[] candidates, long[] excluded) {
+            if (stopped) return;
+            if (++calls % CLOCK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
+                timedOut = true;
+                stopped = true;
+                return;
+            }
+            int remaining = count(candidates, candidates.length);
+            if (remaining == 0) {
+                if (isEmpty(excluded)) report(clique, size);
+                return;
+            }
+            if (size + remaining < bound) return;
+
+            // tomita: the pivot leaves the fewest candidates to branch on
+            int pivot = -1;
+            int most = -1;
+            for(int w=0; w<candidates.length; w++) {
+                long bits = candidates[w] | excluded[w];
+                while (bits != 0) {
+                    int u = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    int shared = countAnd(candidates, row[u]);
+                    if (shared > most) {
+                        most = shared;
+                        pivot = u;
+                    }
+                }
+            }
+            long[] branch = candidates.clone();
+            long[] pivotRow = row[pivot];
+            for(int w=0; w<pivotRow.length; w++) {
+                branch[w] &= ~pivotRow[w];
+            }
+            for(int w=0; w<branch.length; w++) {
+                long bits = branch[w];
+                while (bits != 0) {
+                    int u = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    long[] nextCandidates = and(candidates, row[u]);
+                    long[] nextExcluded = and(excluded, row[u]);
+                    clique[size] = vertex[u];
+                    expand(size + 1, nextCandidates, nextExcluded);
+                    if (stopped) return;
+                    candidates[u >>> 6] &= ~(1L << u);
+                    excluded[u >>> 6] |= 1L << u;
+                    if (size + count(candidates, candidates.length) < bound) return;
+                }
+            }
+        }
+    }
+
+    private synchronized void report(int[] clique, int size) {
+        if (stopped || size < bound) return;
+        largest = Math.max(largest, size);
+        if (biggest) {
+            if (size > bound) {
+                biggestCliques.clear();
+                bound = size;
+            }
+            if (limit <= 0 || biggestCliques.size() < limit) {
+                biggestCliques.add(Arrays.copyOf(clique, size));
+            }
+            found = biggestCliques.size();
+            return;
+        }
+        try {
+            listener.clique(toJSON(Arrays.copyOf(clique, size)));
+        } catch (Exception ex) {
+            failure = ex;
+            stopped = true;
+            return;
+        }
+        if (++found == limit) stopped = true;
+    }
+
+    private JSONObject toJSON(int[] clique) throws Exception {
+        JSONArray keys = new JSONArray();
+        for(int v: clique) {
+            keys.put(cg.getVertex(v).getKey());
+        }
+        JSONObject result = new JSONObject();
+        result.put("size", clique.length);
+        result.put("clique", keys);
+        return result;
+    }
+
+    /*
+     * bitsets
+    */
+
+    private static int count(long[] a, int words) {
+        int c = 0;
+        for(int w=0; w<words; w++) c += Long.bitCount(a[w]);
+        return c;
+    }
+
+    private static int countAnd(long[] a, long[] b) {
+        int c = 0;
+        int words = Math.min(a.length, b.length);
+        for(int w=0; w<words; w++) c += Long.bitCount(a[w] & b[w]);
+        return c;
+    }
+
+    private static long[] and(long[] a, long[] b) {
+        long[] c = new long[a.length];
+        int words = Math.min(a.length, b.length);
+        for(int w=0; w<words; w++) c[w] = a[w] & b[w];
+        return c;
+    }
+
+    private static boolean isEmpty(long[] a) {
+        for(long bits: a) {
+            if (bits != 0) return false;
+        }
+        return true;
+    }
+
+    /*
+     * results
+    */
+
+    public synchronized long getCount() {
+        return found;
+    }
+
+    public synchronized int getLargest() {
+        return largest;
+    }
+
+    public int getDegeneracy() {
+        return degeneracy;
+    }
+
+    public boolean isComplete() {
+        return !stopped;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
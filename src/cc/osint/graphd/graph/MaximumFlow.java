@@ -0,0 +1,378 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * maximum flow & minimum cut over a CompactGraph, edge weights as
+ *  capacities: highest-label push-relabel (goldberg & tarjan; cherkassky
+ *  & goldberg's heuristics).
+ *
+ * the residual network is not materialized: the arcs of a vertex are its
+ *  out edges, with capacity less flow to spare, then its in edges, with
+ *  their flow to push back.  the active vertex with the highest label is
+ *  discharged first.  labels are recomputed exactly by breadth-first
+ *  search from the sink (& from the source, for vertices that can no
+ *  longer reach it) at the start & after every n relabels, & a label
+ *  below n that no vertex holds any more lifts every vertex above it
+ *  straight to n + 1 (the gap heuristic): none of them can reach the sink.
+ *
+ * one pass leaves a flow (excess that cannot reach the sink is returned
+ *  to the source by the same discharges, above label n); the minimum cut
+ *  is then the vertices the source still reaches in the residual network.
+*/
+public class MaximumFlow {
+    final private static double EPSILON = 1e-9;
+
+    final private CompactGraph cg;
+    final private int source;
+    final private int sink;
+    final private int n;
+    final private double[] flow;
+    final private double[] excess;
+    final private int[] label;
+    final private int[] current;                // next arc to try, per vertex
+
+    /* active vertices by label (stacks), & all vertices by label below n
+       (doubly linked), for the gap heuristic */
+    final private int[] activeHead;
+    final private int[] activeNext;
+    final private int[] labelHead;
+    final private int[] labelNext;
+    final private int[] labelPrev;
+    private int highestActive;
+    private int highestLabel;                   // below n
+
+    final private int[] queue;
+    private long pushes = 0;
+    private long relabels = 0;
+    private long globalRelabels = 0;
+    private long gaps = 0;
+
+    public MaximumFlow(CompactGraph cg, int source, int sink) throws Exception {
+        if (source == sink) {
+            throw new Exception("source is equal to sink");
+        }
+        int m = cg.numEdges();
+        for(int e=0; e<m; e++) {
+            if (cg.edgeWeight[e] < -EPSILON) {
+                throw new Exception("invalid capacity (must be non-negative): " +
+                    cg.getEdge(e).getKey());
+            }
+        }
+        this.cg = cg;
+        this.source = source;
+        this.sink = sink;
+        n = cg.getVertexCapacity();
+        flow = new double[m];
+        excess = new double[n];
+        label = new int[n];
+        current = new int[n];
+        activeHead = new int[2 * n + 1];
+        activeNext = new int[n];
+        labelHead = new int[2 * n + 1];
+        labelNext = new int[n];
+        labelPrev = new int[n];
+        queue = new int[n];
+
+        for(int e=cg.outOffset[source]; e<cg.outOffset[source + 1]; e++) {
+            int w = cg.edgeTarget[e];
+            if (w == source) continue;
+            flow[e] = cg.edgeWeight[e];
+            excess[w] += flow[e];
+            excess[source] -= flow[e];
+        }
+        globalRelabel();
+        run();
+    }
+
+    /*
+     * discharge active vertices, highest label first
+    */
+    private void run() {
+        long sinceGlobal = 0;
+        while (highestActive >= 0) {
+            int v = activeHead[highestActive];
+            if (v == -1) {
+                highestActive--;
+                continue;
+            }
+            activeHead[highestActive] = activeNext[v];
+            long before = relabels;
+            discharge(v);
+            sinceGlobal += relabels - before;
+            if (sinceGlobal >= n) {
+                globalRelabel();
+                sinceGlobal = 0;
+            }
+        }
+    }
+
+    private void discharge(int v) {
+        int outDegree = cg.outOffset[v + 1] - cg.outOffset[v];
+        int degree = outDegree + cg.inOffset[v + 1] - cg.inOffset[v];
+        while (excess[v] > EPSILON) {
+            if (current[v] == degree) {
+                relabel(v, outDegree, degree);
+                if (label[v] >= 2 * n) return;
+                continue;
+            }
+            int i = current[v];
+            int e, w;
+            double residual;
+            if (i < outDegree) {
+                e = cg.outOffset[v] + i;
+                w = cg.edgeTarget[e];
+                residual = cg.edgeWeight[e] - flow[e];
+            } else {
+                e = cg.inEdges[cg.inOffset[v] + i - outDegree];
+                w = cg.edgeSource[e];
+                residual = flow[e];
+            }
+            if (residual <= EPSILON || label[v] != label[w] + 1) {
+                current[v]++;
+                continue;
+            }
+            double delta = Math.min(excess[v], residual);
+            flow[e] += (i < outDegree) ? delta : -delta;
+            if (excess[w] <= EPSILON && w != source && w != sink) {
+                activate(w);
+            }
+            excess[w] += delta;
+            excess[v] -= delta;
+            pushes++;
+        }
+    }
+
+    /*
+     * one more than the lowest label <v> has an arc to; if that empties
+     *  a label below n, the gap heuristic
+    */
+    private void relabel(int v, int outDegree, int degree) {
+        relabels++;
+        int lowest = 2 * n;
+        for(int i=0; i<degree; i++) {
+            int w;
+            double residual;
+            if (i < outDegree) {
+                int e = cg.outOffset[v] + i;
+                w = cg.edgeTarget[e];
+                residual = cg.edgeWeight[e] - flow[e];
+            } else {
+                int e = cg.inEdges[cg.inOffset[v] + i - outDegree];
+                w = cg.edgeSource[e];
+                residual = flow[e];
+            }
+            if (residual > EPSILON && label[w] < lowest) lowest = label[w];
+        }
+        int old = label[v];
+        unlink(v);
+        label[v] = Math.min(lowest + 1, 2 * n);
+        current[v] = 0;
+        if (old < n && labelHead[old] == -1) {
+            gap(old);
+            if (label[v] < n) label[v] = n + 1;     // v is above the gap too
+        }
+        if (label[v] < 2 * n) link(v);
+    }
+
+    /*
+     * no vertex is labelled <empty>: those above it (& below n) cannot
+     *  reach the sink
+    */
+    private void gap(int empty) {
+        gaps++;
+        for(int h=empty + 1; h<=highestLabel; h++) {
+            for(int v=labelHead[h]; v!=-1; ) {
+                int next = labelNext[v];
+                label[v] = n + 1;
+                current[v] = 0;
+                v = next;
+            }
+            labelHead[h] = -1;
+            // active vertices at h move to n + 1 with the rest
+            int v = activeHead[h];
+            while (v != -1) {
+                int next = activeNext[v];
+                activeNext[v] = activeHead[n + 1];
+                activeHead[n + 1] = v;
+                v = next;
+            }
+            activeHead[h] = -1;
+        }
+        highestLabel = empty - 1;
+        if (highestActive < n + 1 && activeHead[n + 1] != -1) highestActive = n + 1;
+    }
+
+    /*
+     * exact labels: distance to the sink in the residual network, or n +
+     *  distance to the source for vertices that cannot reach the sink
+    */
+    private void globalRelabel() {
+        globalRelabels++;
+        Arrays.fill(label, 2 * n);
+        Arrays.fill(activeHead, -1);
+        Arrays.fill(labelHead, -1);
+        highestActive = -1;
+        highestLabel = -1;
+        label[sink] = 0;
+        bfs(sink, 0);
+        label[source] = n;
+        bfs(source, n);
+        for(int v=0; v<n; v++) {
+            current[v] = 0;
+            if (label[v] >= 2 * n || v == source || v == sink) continue;
+            if (label[v] < n) link(v);
+            if (excess[v] > EPSILON) activate(v);
+        }
+    }
+
+    /*
+     * label the unlabelled vertices that reach <root> in the residual
+     *  network by their distance from it, plus <base>
+    */
+    private void bfs(int root, int base) {
+        int head = 0, tail = 0;
+        queue[tail++] = root;
+        while (head < tail) {
+            int x = queue[head++];
+            // w -> x forward, if w's edge has capacity to spare
+            for(int i=cg.inOffset[x]; i<cg.inOffset[x + 1]; i++) {
+                int e = cg.inEdges[i];
+                int w = cg.edgeSource[e];
+                if (label[w] == 2 * n && cg.edgeWeight[e] - flow[e] > EPSILON) {
+                    label[w] = label[x] + 1;
+                    queue[tail++] = w;
+                }
+            }
+            // w -> x backward, if x's edge to w carries flow
+            for(int e=cg.outOffset[x]; e<cg.outOffset[x + 1]; e++) {
+                int w = cg.edgeTarget[e];
+                if (label[w] == 2 * n && flow[e] > EPSILON) {
+                    label[w] = label[x] + 1;
+                    queue[tail++] = w;
+                }
+            }
+        }
+    }
+
+    private void activate(int v) {
+        int h = label[v];
+        if (h >= 2 * n) return;
+        activeNext[v] = activeHead[h];
+        activeHead[h] = v;
+        if (h > highestActive) highestActive = h;
+    }
+
+    private void link(int v) {
+        int h = label[v];
+        if (h >= n) return;
+        labelPrev[v] = -1;
+        labelNext[v] = labelHead[h];
+        if (labelHead[h] != -1) labelPrev[labelHead[h]] = v;
+        labelHead[h] = v;
+        if (h > highestLabel) highestLabel = h;
+    }
+
+    private void unlink(int v) {
+        int h = label[v];
+        if (h >= n) return;
+        if (labelPrev[v] != -1) {
+            labelNext[labelPrev[v]] = labelNext[v];
+        } else {
+            labelHead[h] = labelNext[v];
+        }
+        if (labelNext[v] != -1) labelPrev[labelNext[v]] = labelPrev[v];
+    }
+
+    /*
+     * results
+    */
+
+    public double getValue() {
+        return excess[sink];
+    }
+
+    /*
+     * by edge id
+    */
+    public double[] getFlows() {
+        return flow;
+    }
+
+    /*
+     * the source side of a minimum cut: the vertices the source reaches
+     *  in the residual network
+    */
+    public boolean[] getSourceSide() {
+        boolean[] side = new boolean[n];
+        int head = 0, tail = 0;
+        queue[tail++] = source;
+        side[source] = true;
+        while (head < tail) {
+            int u = queue[head++];
+            for(int e=cg.outOffset[u]; e<cg.outOffset[u + 1]; e++) {
+                int w = cg.edgeTarget[e];
+                if (!side[w] && cg.edgeWeight[e] - flow[e] > EPSILON) {
+                    side[w] = true;
+                    queue[tail++] = w;
+                }
+            }
+            for(int i=cg.inOffset[u]; i<cg.inOffset[u + 1]; i++) {
+                int e = cg.inEdges[i];
+                int w = cg.edgeSource[e];
+                if (!side[w] && flow[e] > EPSILON) {
+                    side[w] = true;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return side;
+    }
+
+    /*
+     * edge ids from the source side to the rest: saturated, their
+     *  capacities sum to the value of the flow
+    */
+    public int[] getCutEdges(boolean[] side) {
+        int count = 0;
+        int[] cut = new int[16];
+        for(int e=0; e<flow.length; e++) {
+            if (!side[cg.edgeSource[e]] || side[cg.edgeTarget[e]]) continue;
+            if (count == cut.length) cut = Arrays.copyOf(cut, count * 2);
+            cut[count++] = e;
+        }
+        return Arrays.copyOf(cut, count);
+    }
+
+    public long getPushes() {
+        return pushes;
+    }
+
+    public long getRelabels() {
+        return relabels;
+    }
+
+    public long getGlobalRelabels() {
+        return globalRelabels;
+    }
+
+    public long getGaps() {
+        return gaps;
+    }
+}
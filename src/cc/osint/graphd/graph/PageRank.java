@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * (personalized) pagerank over a CompactGraph by power iteration.
+ *
+ * a walker follows an out edge with probability proportional to its
+ *  weight, or with probability 1 - damping (always, at a vertex without
+ *  out weight) jumps to a vertex drawn from the teleport distribution:
+ *  uniform for pagerank, the seed vertices for personalized pagerank.
+ *
+ * each iteration pulls rank along the in edges of every vertex (one
+ *  MatrixIteration sweep), & stops once the L1 change of the rank vector
+ *  is within <tolerance>.
+*/
+public class PageRank extends MatrixIteration {
+    final private double damping;
+    final private double[] teleport;
+    final private double[] outWeight;
+    final private double[] transition;
+    private double[] rank;
+    private double[] next;
+    private double dangling;                    // rank held by vertices without out weight
+
+    /*
+     * seeds: teleport targets (vertex ids) of personalized pagerank, or
+     *  null for pagerank
+    */
+    public PageRank(CompactGraph cg, double damping, int[] seeds) throws Exception {
+        super(cg);
+        if (damping < 0 || damping > 1) {
+            throw new Exception("damping must be within [0, 1]");
+        }
+        checkWeights("pagerank");
+        this.damping = damping;
+        teleport = prior(seeds);
+        outWeight = outWeights();
+        transition = transitions(outWeight);
+        rank = teleport.clone();
+        next = new double[rank.length];
+        dangling = 0;
+        for(int v=0; v<rank.length; v++) {
+            if (outWeight[v] == 0) dangling += rank[v];
+        }
+    }
+
+    protected double iterate() {
+        double[] sums = sweep(0);
+        double[] swap = rank; rank = next; next = swap;
+        dangling = sums[1];
+        return sums[0];
+    }
+
+    /*
+     * next = (1 - d + d * dangling) * teleport + d * (P^T rank); partial
+     *  sums: L1 change, dangling rank
+    */
+    protected void kernel(int pass, int lo, int hi, double[] partial, int slot) {
+        double jump = (1 - damping) + damping * dangling;
+        double change = 0;
+        double nextDangling = 0;
+        for(int v=lo; v<hi; v++) {
+            double r = jump * teleport[v] + damping * pullIn(v, rank, transition);
+            next[v] = r;
+            change += Math.abs(r - rank[v]);
+            if (outWeight[v] == 0) nextDangling += r;
+        }
+        partial[slot] = change;
+        partial[slot + 1] = nextDangling;
+    }
+
+    /*
+     * by vertex id
+    */
+    public double[] getScores() {
+        return rank;
+    }
+}
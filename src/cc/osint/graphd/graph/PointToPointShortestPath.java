@@ -0,0 +1,174 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * shortest path between two vertices over the int ids of an
+ *  CompactGraph (non-negative weights):
+ *
+ *   bidir   bidirectional dijkstra: searches forward from the source &
+ *            backward from the target, alternating by least priority,
+ *            until their frontiers can no longer improve on the best
+ *            meeting point
+ *   alt     A* towards the target, with the landmark lower bounds of a
+ *            Landmarks as its potential
+ *   ch      see ContractionHierarchy.query
+ *
+ * the search labels are kept per thread & reused between requests.
+ *  paths longer than <radius> are not found.
+*/
+public class PointToPointShortestPath {
+    final private static double INF = Double.POSITIVE_INFINITY;
+
+    final public static String BIDIRECTIONAL = "bidir";
+    final public static String ALT = "alt";
+    final public static String CONTRACTION_HIERARCHY = "ch";
+
+    final private static ThreadLocal<SearchSpace[]> searchSpaces =
+        new ThreadLocal<SearchSpace[]>() {
+            protected SearchSpace[] initialValue() {
+                return new SearchSpace[] { new SearchSpace(), new SearchSpace() };
+            }
+        };
+
+    final private int[] edges;
+    final private double weight;
+    final private int settled;
+
+    PointToPointShortestPath(int[] edges, double weight, int settled) {
+        this.edges = edges;
+        this.weight = weight;
+        this.settled = settled;
+    }
+
+    /*
+     * edge ids, source to target
+    */
+    public int[] getEdges() {
+        return edges;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    /*
+     * vertices settled by the search
+    */
+    public int getSettledCount() {
+        return settled;
+    }
+
+    /*
+     * null if there is no path (within radius)
+    */
+    public static PointToPointShortestPath bidirectional(CompactGraph cg,
+        int source, int target, double radius) throws Exception {
+        SearchSpace forward = searchSpaces.get()[0];
+        SearchSpace backward = searchSpaces.get()[1];
+        forward.reset(cg.getVertexCapacity());
+        backward.reset(cg.getVertexCapacity());
+        forward.label(source, 0, -1, 0);
+        backward.label(target, 0, -1, 0);
+        double best = INF;
+        int meet = -1;
+        while (!forward.isEmpty() || !backward.isEmpty()) {
+            if (forward.minKey() + backward.minKey() >= best) break;
+            boolean isForward = forward.minKey() <= backward.minKey();
+            SearchSpace space = isForward ? forward : backward;
+            SearchSpace other = isForward ? backward : forward;
+            int u = space.pop();
+            double du = space.dist(u);
+            int degree = isForward ? cg.outDegree(u) : cg.inDegree(u);
+            for(int i=0; i<degree; i++) {
+                int eid = isForward ? cg.outEdge(u, i) : cg.inEdge(u, i);
+                int v = isForward ? cg.edgeTarget(eid) : cg.edgeSource(eid);
+                double dv = du + weight(cg, eid);
+                if (dv > radius) continue;
+                if (!space.isSettled(v) && dv < space.dist(v)) {
+                    space.label(v, dv, eid, dv);
+                }
+                double through = space.dist(v) + other.dist(v);
+                if (through < best) {
+                    best = through;
+                    meet = v;
+                }
+            }
+        }
+        if (meet == -1 || best > radius) return null;
+
+        int hops = 0;
+        for(int v=meet; forward.pred(v) != -1; v=cg.edgeSource(forward.pred(v))) hops++;
+        int forwardHops = hops;
+        for(int v=meet; backward.pred(v) != -1; v=cg.edgeTarget(backward.pred(v))) hops++;
+        int[] path = new int[hops];
+        int i = forwardHops;
+        for(int v=meet; forward.pred(v) != -1; v=cg.edgeSource(forward.pred(v))) {
+            path[--i] = forward.pred(v);
+        }
+        i = forwardHops;
+        for(int v=meet; backward.pred(v) != -1; v=cg.edgeTarget(backward.pred(v))) {
+            path[i++] = backward.pred(v);
+        }
+        return new PointToPointShortestPath(path, best,
+            forward.getSettledCount() + backward.getSettledCount());
+    }
+
+    /*
+     * null if there is no path (within radius)
+    */
+    public static PointToPointShortestPath alt(CompactGraph cg,
+        int source, int target, double radius, Landmarks landmarks) throws Exception {
+        SearchSpace space = searchSpaces.get()[0];
+        space.reset(cg.getVertexCapacity());
+        space.label(source, 0, -1, landmarks.lowerBound(source, target));
+        while (!space.isEmpty()) {
+            int u = space.pop();
+            double du = space.dist(u);
+            if (u == target) break;
+            for(int i=0; i<cg.outDegree(u); i++) {
+                int eid = cg.outEdge(u, i);
+                int v = cg.edgeTarget(eid);
+                double dv = du + weight(cg, eid);
+                if (dv > radius || space.isSettled(v) || dv >= space.dist(v)) continue;
+                double h = landmarks.lowerBound(v, target);
+                if (h == INF) continue;             // cannot reach target
+                space.label(v, dv, eid, dv + h);
+            }
+        }
+        if (!space.isSettled(target)) return null;
+
+        int hops = 0;
+        for(int v=target; space.pred(v) != -1; v=cg.edgeSource(space.pred(v))) hops++;
+        int[] path = new int[hops];
+        for(int v=target; space.pred(v) != -1; v=cg.edgeSource(space.pred(v))) {
+            path[--hops] = space.pred(v);
+        }
+        return new PointToPointShortestPath(path, space.dist(target),
+            space.getSettledCount());
+    }
+
+    private static double weight(CompactGraph cg, int eid) throws Exception {
+        double w = cg.edgeWeight(eid);
+        if (w < 0) {
+            throw new Exception("negative edge weight: " + cg.getEdge(eid).getKey());
+        }
+        return w;
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import org.json.*;
+
+/*
+ * directed reachability ("is there a path from u to v?") by GRAIL
+ *  interval labels over the condensation of the graph (its strongly
+ *  connected components, which are acyclic between themselves).
+ *
+ * each of LABELS randomized depth-first traversals of the condensation
+ *  ranks its components; a component is labelled [lo, hi], the least &
+ *  greatest rank it can reach.  if u reaches v, every label of u contains
+ *  the same label of v, so a label that does not rules the path out in
+ *  O(LABELS); otherwise a depth-first search from u, pruned to the
+ *  components whose labels contain v's, settles it exactly.  most
+ *  negative answers never search, & the searches that do stay small.
+ *
+ * kept current as the graph is mutated (see DynamicConnectivity): a new
+ *  vertex is a new component with ranks of its own; a new edge between
+ *  components becomes an arc, & the labels of the components that can
+ *  now reach further are widened to contain the target's.  an edge that
+ *  closes a cycle merges components, & a deletion may split them or make
+ *  labels needlessly wide: both only mark the index stale, & the next
+ *  query rebuilds it from the CompactGraph of the version it sees.
+*/
+public class ReachabilityIndex {
+    final private static int LABELS = Integer.parseInt(
+        System.getProperty("graphd.reach.labels", "3"));
+
+    /* by vertex id */
+    private int[] component = new int[0];
+    private JSONVertex[] vertices = new JSONVertex[0];
+
+    /* by component: the condensation (its arcs both ways) & labels */
+    private int components = 0;
+    private int[][] succ = new int[0][];
+    private int[] succSize = new int[0];
+    private int[][] pred = new int[0][];
+    private int[] predSize = new int[0];
+    private int[] lo = new int[0];              // component * LABELS + label
+    private int[] hi = new int[0];
+    private int nextRank = 0;
+
+    /* search state: components marked with the current search's stamp */
+    private int[] mark = new int[0];
+    private int stamp = 0;
+    private int[] stack = new int[0];
+
+    private boolean stale = true;
+    private long buildEpoch = -1;
+    private long arcs = 0;
+    private long queries = 0;
+    private long searches = 0;
+    private long rebuilds = 0;
+
+    /*
+     * mutations (vertex ids as assigned by VersionedAdjacency); ignored
+     *  while stale, as the rebuild will see them
+    */
+
+    public synchronized void addVertex(JSONVertex jv) {
+        if (stale) return;
+        int v = jv.vid;
+        if (v < vertices.length && vertices[v] == jv) return;
+        ensureVertexCapacity(v + 1);
+        int c = newComponent();
+        for(int i=0; i<LABELS; i++) {
+            lo[c * LABELS + i] = hi[c * LABELS + i] = nextRank;
+        }
+        nextRank++;
+        vertices[v] = jv;
+        component[v] = c;
+    }
+
+    public synchronized void addEdge(JSONEdge je) {
+        if (stale) return;
+        if (!contains(je.getSource()) || !contains(je.getTarget())) return;
+        int a = component[je.getSource().vid];
+        int b = component[je.getTarget().vid];
+        if (a == b || reaches(a, b)) return;
+        if (reaches(b, a)) {
+            stale = true;                       // a cycle: a & b merge
+            return;
+        }
+        addArc(a, b);
+
+        // everything that reaches a now reaches whatever b reaches
+        int top = 0;
+        stack = ensure(stack, components);
+        stack[top++] = a;
+        while (top > 0) {
+            int c = stack[--top];
+            if (!widen(c, b)) continue;
+            for(int j=0; j<predSize[c]; j++) {
+                stack = ensure(stack, top + 1);
+                stack[top++] = pred[c][j];
+            }
+        }
+    }
+
+    public synchronized void removeEdge(JSONEdge je) {
+        if (je.getSource() != je.getTarget()) stale = true;
+    }
+
+    /*
+     * isolated: the vertex had no edges when it was removed
+    */
+    public synchronized void removeVertex(JSONVertex jv, boolean isolated) {
+        if (!contains(jv)) return;
+        vertices[jv.vid] = null;
+        if (!isolated) stale = true;
+    }
+
+    /*
+     * queries
+    */
+
+    public synchronized boolean isStale() {
+        return stale;
+    }
+
+    /*
+     * reset to the condensation of <cg>, a version of the graph that
+     *  includes every mutation made so far
+    */
+    public synchronized void rebuild(CompactGraph cg) {
+        StronglyConnectedComponents scc = new StronglyConnectedComponents(cg);
+        int n = cg.getVertexCapacity();
+        component = new int[n];
+        vertices = new JSONVertex[n];
+        for(int v=0; v<n; v++) {
+            component[v] = scc.getComponent(v);
+            if (component[v] != -1) vertices[v] = cg.getVertex(v);
+        }
+        components = 0;
+        int count = scc.getComponentCount();
+        succ = new int[count][];
+        succSize = new int[count];
+        pred = new int[count][];
+        predSize = new int[count];
+        lo = new int[count * LABELS];
+        hi = new int[count * LABELS];
+        mark = new int[count];
+        stamp = 0;
+        arcs = 0;
+        for(int c=0; c<count; c++) {
+            newComponent();
+        }
+
+        // arcs between components, each once
+        int[] last = new int[count];
+        Arrays.fill(last, -1);
+        int[] members = new int[n];
+        int[] offset = new int[count + 1];
+        for(int v=0; v<n; v++) {
+            if (component[v] != -1) offset[component[v] + 1]++;
+        }
+        for(int c=0; c<count; c++) {
+            offset[c + 1] += offset[c];
+        }
+        int[] fill = Arrays.copyOf(offset, count);
+        for(int v=0; v<n; v++) {
+            if (component[v] != -1) members[fill[component[v]]++] = v;
+        }
+        for(int c=0; c<count; c++) {
+            for(int m=offset[c]; m<offset[c + 1]; m++) {
+                int v = members[m];
+                for(int e=cg.outOffset[v]; e<cg.outOffset[v + 1]; e++) {
+                    int d = component[cg.edgeTarget[e]];
+                    if (d == c || last[d] == c) continue;
+                    last[d] = c;
+                    addArc(c, d);
+                }
+            }
+        }
+        label();
+        nextRank = count;
+        buildEpoch = cg.getEpoch();
+        stale = false;
+        rebuilds++;
+    }
+
+    /*
+     * both in the graph this indexes, & a path from <from> to <to>
+    */
+    public synchronized boolean reaches(JSONVertex from, JSONVertex to) {
+        queries++;
+        if (!contains(from) || !contains(to)) return false;
+        return reaches(component[from.vid], component[to.vid]);
+    }
+
+    /*
+     * the version of the graph last rebuilt from; the index may have been
+     *  kept current past it since
+    */
+    public synchronized long getBuildEpoch() {
+        return buildEpoch;
+    }
+
+    public synchronized JSONObject getStatus() throws Exception {
+        JSONObject status = new JSONObject();
+        status.put("components", components);
+        status.put("arcs", arcs);
+        status.put("labels", LABELS);
+        status.put("stale", stale);
+        status.put("queries", queries);
+        status.put("searches", searches);
+        status.put("rebuilds", rebuilds);
+        return status;
+    }
+
+    /*
+     * component-level reachability: the labels first, then a pruned
+     *  depth-first search
+    */
+    private boolean reaches(int a, int b) {
+        if (a == b) return true;
+        if (!contains(a, b)) return false;
+        searches++;
+        if (++stamp == 0) {
+            Arrays.fill(mark, 0);
+            stamp = 1;
+        }
+        int top = 0;
+        stack = ensure(stack, components);
+        stack[top++] = a;
+        mark[a] = stamp;
+        while (top > 0) {
+            int c = stack[--top];
+            for(int j=0; j<succSize[c]; j++) {
+                int d = succ[c][j];
+                if (d == b) return true;
+                if (mark[d] == stamp || !contains(d, b)) continue;
+                mark[d] = stamp;
+                stack[top++] = d;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * every label of <a> contains that of <b>
+    */
+    private boolean contains(int a, int b) {
+        int ia = a * LABELS;
+        int ib = b * LABELS;
+        for(int i=0; i<LABELS; i++) {
+            if (lo[ia + i] > lo[ib + i] || hi[ib + i] > hi[ia + i]) return false;
+        }
+        return true;
+    }
+
+    /*
+     * extend the labels of <a> to contain those of <b>; false if they did
+    */
+    private boolean widen(int a, int b) {
+        int ia = a * LABELS;
+        int ib = b * LABELS;
+        boolean changed = false;
+        for(int i=0; i<LABELS; i++) {
+            if (lo[ib + i] < lo[ia + i]) {
+                lo[ia + i] = lo[ib + i];
+                changed = true;
+            }
+            if (hi[ib + i] > hi[ia + i]) {
+                hi[ia + i] = hi[ib + i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /*
+     * rank the components by the post-order of a traversal from the roots
+     *  in random order, following arcs from a random starting point, then
+     *  take the least & greatest rank reachable from each.  tarjan numbers
+     *  components sinks first, so that is one pass in id order.
+    */
+    private void label() {
+        Random random = new Random(components);
+        int[] order = new int[components];
+        int[] rank = new int[components];
+        int[] start = new int[components];
+        int[] next = new int[components];
+        int[] call = new int[components];
+        for(int c=0; c<components; c++) {
+            order[c] = c;
+        }
+        for(int i=0; i<LABELS; i++) {
+            for(int c=components - 1; c>0; c--) {
+                int r = random.nextInt(c + 1);
+                int swap = order[c]; order[c] = order[r]; order[r] = swap;
+            }
+            int counter = 0;
+            for(int k=0; k<components; k++) {
+                int root = order[k];
+                if (mark[root] == -1) continue;
+                int depth = 0;
+                call[depth++] = root;
+                mark[root] = -1;                // on the path or done
+                start[root] = (succSize[root] == 0) ? 0 : random.nextInt(succSize[root]);
+                next[root] = 0;
+                while (depth > 0) {
+                    int c = call[depth - 1];
+                    if (next[c] < succSize[c]) {
+                        int d = succ[c][(start[c] + next[c]++) % succSize[c]];
+                        if (mark[d] != -1) {
+                            mark[d] = -1;
+                            start[d] = (succSize[d] == 0) ? 0 : random.nextInt(succSize[d]);
+                            next[d] = 0;
+                            call[depth++] = d;
+                        }
+                        continue;
+                    }
+                    depth--;
+                    rank[c] = counter++;
+                }
+            }
+            Arrays.fill(mark, 0);
+            for(int c=0; c<components; c++) {
+                int low = rank[c];
+                int high = rank[c];
+                for(int j=0; j<succSize[c]; j++) {
+                    int d = succ[c][j];
+                    low = Math.min(low, lo[d * LABELS + i]);
+                    high = Math.max(high, hi[d * LABELS + i]);
+                }
+                lo[c * LABELS + i] = low;
+                hi[c * LABELS + i] = high;
+            }
+        }
+    }
+
+    private boolean contains(JSONVertex jv) {
+        return jv.vid >= 0 && jv.vid < vertices.length && vertices[jv.vid] == jv;
+    }
+
+    private int newComponent() {
+        int c = components++;
+        if (c == succ.length) {
+            int length = Math.max(16, c * 2);
+            succ = Arrays.copyOf(succ, length);
+            succSize = Arrays.copyOf(succSize, length);
+            pred = Arrays.copyOf(pred, length);
+            predSize = Arrays.copyOf(predSize, length);
+            lo = Arrays.copyOf(lo, length * LABELS);
+            hi = Arrays.copyOf(hi, length * LABELS);
+            mark = Arrays.copyOf(mark, length);
+        }
+        succ[c] = new int[2];
+        succSize[c] = 0;
+        pred[c] = new int[2];
+        predSize[c] = 0;
+        return c;
+    }
+
+    private void addArc(int a, int b) {
+        succ[a] = ensure(succ[a], succSize[a] + 1);
+        succ[a][succSize[a]++] = b;
+        pred[b] = ensure(pred[b], predSize[b] + 1);
+        pred[b][predSize[b]++] = a;
+        arcs++;
+    }
+
+    private void ensureVertexCapacity(int n) {
+        if (n <= vertices.length) return;
+        int length = Math.max(n, vertices.length * 2);
+        component = Arrays.copyOf(component, length);
+        vertices = Arrays.copyOf(vertices, length);
+    }
+
+    private static int[] ensure(int[] a, int n) {
+        return (n <= a.length) ? a : Arrays.copyOf(a, Math.max(n, a.length * 2));
+    }
+}
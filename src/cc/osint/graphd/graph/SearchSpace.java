@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * labels & priority queue of one dijkstra-style search over vertex ids,
+ *  reused from search to search: labels are valid only if stamped with
+ *  the current search, so reset() does not clear anything
+*/
+class SearchSpace {
+    final private static double INF = Double.POSITIVE_INFINITY;
+
+    private int current = 0;
+    private int[] stamp = new int[0];
+    private double[] dist = new double[0];
+    private double[] key = new double[0];
+    private int[] pred = new int[0];
+    private int[] pos = new int[0];         // heap index; -1 settled
+    private int[] heap = new int[16];
+    private int heapSize = 0;
+    private int settledCount = 0;
+
+    /*
+     * start a new search over vertex ids [0, capacity)
+    */
+    void reset(int capacity) {
+        if (stamp.length < capacity) {
+            int length = Math.max(capacity, stamp.length * 2);
+            stamp = new int[length];
+            dist = new double[length];
+            key = new double[length];
+            pred = new int[length];
+            pos = new int[length];
+            current = 0;
+        }
+        if (++current == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            current = 1;
+        }
+        heapSize = 0;
+        settledCount = 0;
+    }
+
+    double dist(int v) {
+        return stamp[v] == current ? dist[v] : INF;
+    }
+
+    /*
+     * id of the edge the label of <v> came from; -1 for the origin
+    */
+    int pred(int v) {
+        return pred[v];
+    }
+
+    boolean isSettled(int v) {
+        return stamp[v] == current && pos[v] == -1;
+    }
+
+    int getSettledCount() {
+        return settledCount;
+    }
+
+    boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /*
+     * smallest priority queued; infinite if none
+    */
+    double minKey() {
+        return heapSize == 0 ? INF : key[heap[0]];
+    }
+
+    /*
+     * label <v> with distance <d> via edge <eid>, queued at priority <k>;
+     *  the caller has checked that d < dist(v) & v is not settled
+    */
+    void label(int v, double d, int eid, double k) {
+        if (stamp[v] != current) {
+            stamp[v] = current;
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize * 2);
+            }
+            heap[heapSize] = v;
+            pos[v] = heapSize++;
+        }
+        dist[v] = d;
+        key[v] = k;
+        pred[v] = eid;
+        siftUp(pos[v]);
+    }
+
+    /*
+     * settle & return the vertex of least priority
+    */
+    int pop() {
+        int v = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            pos[heap[0]] = 0;
+            siftDown(0);
+        }
+        pos[v] = -1;
+        settledCount++;
+        return v;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (key[heap[parent]] <= key[v]) break;
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && key[heap[child + 1]] < key[heap[child]]) {
+                child++;
+            }
+            if (key[heap[child]] >= key[v]) break;
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+}
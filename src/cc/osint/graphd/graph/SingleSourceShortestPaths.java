@@ -0,0 +1,485 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.json.*;
+
+/*
+ * shortest paths from one vertex to every vertex reachable from it, over
+ *  the int ids of a CompactGraph
+ *
+ *   dijkstra        binary-heap dijkstra (non-negative weights)
+ *   delta-stepping  parallel bucketed relaxation for graphs of at least
+ *                    -Dgraphd.sssp.parallel.vertices vertices
+ *   bellman-ford    rounds of relaxation from the vertices improved in
+ *                    the previous round; used with a hop limit (exact:
+ *                    the shortest path of at most <maxHops> edges) & for
+ *                    negative weights
+ *
+ * targets further than <radius> are not reached.
+*/
+public class SingleSourceShortestPaths {
+
+    final public static String DIJKSTRA = "dijkstra";
+    final public static String DELTA_STEPPING = "delta-stepping";
+    final public static String BELLMAN_FORD = "bellman-ford";
+
+    final private static int THREADS = Integer.parseInt(
+        System.getProperty("graphd.sssp.threads",
+            "" + Runtime.getRuntime().availableProcessors()));
+    final private static int PARALLEL_VERTICES = Integer.parseInt(
+        System.getProperty("graphd.sssp.parallel.vertices", "50000"));
+
+    /* smallest bucket that is split across threads */
+    final private static int PARALLEL_BUCKET = 512;
+
+    final private static ExecutorService ssspExecutorService;
+    static {
+        ssspExecutorService = Executors.newFixedThreadPool(THREADS);
+    }
+
+    /*
+     * receives each path as it is produced (see Graph.getAllShortestPathsFrom)
+    */
+    public interface PathListener {
+        public void path(JSONObject path) throws Exception;
+    }
+
+    final private CompactGraph cg;
+    final private int source;
+    final private double radius;
+    final private int maxHops;
+    final private int n;
+
+    private String algorithm;
+    final private double[] dist;
+    final private int[] predEdge;
+    final private int[] hops;
+    private int[] reached;          // reached vertex ids, nearest first
+    private int reachedCount = 0;
+
+    /* bellman-ford: every improvement as (vertex, edge, improvement of the
+       edge's source it was made from), & each vertex's last improvement;
+       a hop-limited path is not in general a path in the predEdge tree */
+    private IntList updateEdge = null;
+    private IntList updateParent = null;
+    private int[] lastUpdate = null;
+
+    public SingleSourceShortestPaths(CompactGraph cg, int source,
+                                     double radius, int maxHops) {
+        this.cg = cg;
+        this.source = source;
+        this.radius = radius;
+        this.maxHops = maxHops;
+        n = cg.getVertexCapacity();
+        dist = new double[n];
+        predEdge = new int[n];
+        hops = new int[n];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        Arrays.fill(predEdge, -1);
+        dist[source] = 0;
+    }
+
+    public SingleSourceShortestPaths run() throws Exception {
+        boolean negative = false;
+        double weightTotal = 0;
+        int weightCount = 0;
+        for(int eid=0; eid<cg.numEdges(); eid++) {
+            double w = cg.edgeWeight(eid);
+            if (w < 0) negative = true;
+            weightTotal += w;
+            weightCount++;
+        }
+        if (maxHops >= 0 || negative) {
+            algorithm = BELLMAN_FORD;
+            bellmanFord(maxHops >= 0 ? maxHops : cg.numVertices(), maxHops < 0);
+            sortReached();
+        } else if (THREADS > 1 && cg.numVertices() >= PARALLEL_VERTICES) {
+            algorithm = DELTA_STEPPING;
+            double delta = weightCount == 0 ? 1 : weightTotal / weightCount;
+            deltaStepping(delta > 0 ? delta : 1);
+            sortReached();
+        } else {
+            algorithm = DIJKSTRA;
+            dijkstra();
+        }
+        return this;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getReachedCount() {
+        return reachedCount;
+    }
+
+    /*
+     * the i'th nearest reached vertex (0: the source)
+    */
+    public int getReached(int i) {
+        return reached[i];
+    }
+
+    public double getDistance(int vid) {
+        return dist[vid];
+    }
+
+    public int getHops(int vid) {
+        return hops[vid];
+    }
+
+    /*
+     * edge ids of the path to <vid>, from the source
+    */
+    public int[] getPathEdges(int vid) {
+        int[] path = new int[hops[vid]];
+        if (null != lastUpdate) {
+            int u = lastUpdate[vid];
+            for(int i=path.length-1; i>=0; i--) {
+                path[i] = updateEdge.values[u];
+                u = updateParent.values[u];
+            }
+        } else {
+            for(int i=path.length-1; i>=0; i--) {
+                path[i] = predEdge[vid];
+                vid = cg.edgeSource(predEdge[vid]);
+            }
+        }
+        return path;
+    }
+
+    /*
+     * dijkstra: indexed binary heap keyed on dist[]; vertices are
+     *  reached (settled) in order of distance
+    */
+    private void dijkstra() {
+        int[] heap = new int[16];
+        int heapSize = 0;
+        int[] pos = new int[n];
+        Arrays.fill(pos, -1);
+        reached = new int[16];
+
+        heap[heapSize] = source;
+        pos[source] = heapSize++;
+        while (heapSize > 0) {
+            int u = heap[0];
+            pos[u] = -2;                            // settled
+            heapSize--;
+            if (heapSize > 0) {
+                heap[0] = heap[heapSize];
+                pos[heap[0]] = 0;
+                siftDown(heap, heapSize, pos, 0);
+            }
+            addReached(u);
+            double du = dist[u];
+            for(int i=0; i<cg.outDegree(u); i++) {
+                int eid = cg.outEdge(u, i);
+                int v = cg.edgeTarget(eid);
+                if (pos[v] == -2) continue;
+                double dv = du + cg.edgeWeight(eid);
+                if (dv >= dist[v] || dv > radius) continue;
+                dist[v] = dv;
+                predEdge[v] = eid;
+                hops[v] = hops[u] + 1;
+                if (pos[v] == -1) {
+                    if (heapSize == heap.length) {
+                        heap = Arrays.copyOf(heap, heapSize * 2);
+                    }
+                    heap[heapSize] = v;
+                    pos[v] = heapSize++;
+                }
+                siftUp(heap, pos, pos[v]);
+            }
+        }
+    }
+
+    private void siftUp(int[] heap, int[] pos, int i) {
+        int v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (dist[heap[parent]] <= dist[v]) break;
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    private void siftDown(int[] heap, int heapSize, int[] pos, int i) {
+        int v = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && dist[heap[child + 1]] < dist[heap[child]]) {
+                child++;
+            }
+            if (dist[heap[child]] >= dist[v]) break;
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    /*
+     * bellman-ford: round k relaxes the out-edges of the vertices improved
+     *  in round k-1, using their distances as of the start of the round;
+     *  after k rounds dist[v] is the shortest path of at most k edges.
+     *  with <detectCycles>, improvement after n rounds is a negative cycle.
+    */
+    private void bellmanFord(int rounds, boolean detectCycles) throws Exception {
+        int[] frontier = new int[] { source };
+        int frontierSize = 1;
+        double[] frontierDist = new double[] { 0 };
+        int[] frontierHops = new int[] { 0 };
+        int[] frontierUpdate = new int[] { -1 };
+        int[] mark = new int[n];                    // round last queued in
+        updateEdge = new IntList();
+        updateParent = new IntList();
+        lastUpdate = new int[n];
+        lastUpdate[source] = -1;
+        int round = 0;
+        while (frontierSize > 0 && round < rounds) {
+            round++;
+            int[] next = new int[16];
+            int nextSize = 0;
+            for(int f=0; f<frontierSize; f++) {
+                int u = frontier[f];
+                for(int i=0; i<cg.outDegree(u); i++) {
+                    int eid = cg.outEdge(u, i);
+                    int v = cg.edgeTarget(eid);
+                    double dv = frontierDist[f] + cg.edgeWeight(eid);
+                    if (dv >= dist[v] || dv > radius) continue;
+                    dist[v] = dv;
+                    predEdge[v] = eid;
+                    hops[v] = frontierHops[f] + 1;
+                    lastUpdate[v] = updateEdge.size;
+                    updateEdge.add(eid);
+                    updateParent.add(frontierUpdate[f]);
+                    if (mark[v] != round) {
+                        mark[v] = round;
+                        if (nextSize == next.length) {
+                            next = Arrays.copyOf(next, nextSize * 2);
+                        }
+                        next[nextSize++] = v;
+                    }
+                }
+            }
+            frontier = next;
+            frontierSize = nextSize;
+            frontierDist = new double[frontierSize];
+            frontierHops = new int[frontierSize];
+            frontierUpdate = new int[frontierSize];
+            for(int f=0; f<frontierSize; f++) {
+                frontierDist[f] = dist[frontier[f]];
+                frontierHops[f] = hops[frontier[f]];
+                frontierUpdate[f] = lastUpdate[frontier[f]];
+            }
+        }
+        if (detectCycles && frontierSize > 0) {
+            throw new Exception("negative cycle reachable from " +
+                cg.getVertex(source).getKey());
+        }
+        if (dist[source] < 0) {
+            throw new Exception("negative cycle through " +
+                cg.getVertex(source).getKey());
+        }
+    }
+
+    /*
+     * delta-stepping (meyer & sanders): vertices are kept in buckets of
+     *  width <delta> by tentative distance; the lowest non-empty bucket
+     *  is settled by relaxing light edges (weight <= delta) until it stays
+     *  empty, then the heavy edges of everything removed from it.  the
+     *  relaxation requests of a large bucket are generated in parallel &
+     *  applied in one thread.  buckets are lazy: a vertex may remain in a
+     *  bucket it has moved out of & is skipped there.
+    */
+    private void deltaStepping(final double delta) throws Exception {
+        TreeMap<Long, IntList> buckets = new TreeMap<Long, IntList>();
+        bucket(buckets, 0).add(source);
+        int[] phase = new int[n];                   // bucket phase last settled in
+        int phaseCount = 0;
+        while (!buckets.isEmpty()) {
+            long b = buckets.firstKey();
+            phaseCount++;
+            IntList settled = new IntList();
+            while (buckets.containsKey(b)) {
+                IntList current = buckets.remove(b);
+                IntList live = new IntList();
+                for(int i=0; i<current.size; i++) {
+                    int v = current.values[i];
+                    if ((long) (dist[v] / delta) != b) continue;
+                    if (phase[v] != phaseCount) {
+                        phase[v] = phaseCount;
+                        settled.add(v);
+                    }
+                    live.add(v);
+                }
+                applyRequests(buckets, delta, requests(live, delta, true));
+            }
+            applyRequests(buckets, delta, requests(settled, delta, false));
+        }
+        reached = new int[16];
+        for(int v=0; v<n; v++) {
+            if (dist[v] != Double.POSITIVE_INFINITY) {
+                addReached(v);
+            }
+        }
+    }
+
+    /*
+     * relaxation requests for the light (or heavy) out-edges of <vertices>
+    */
+    private List<Requests> requests(final IntList vertices, final double delta,
+                                    final boolean light) throws Exception {
+        List<Requests> requests = new ArrayList<Requests>();
+        if (vertices.size < PARALLEL_BUCKET) {
+            requests.add(requests(vertices, 0, vertices.size, delta, light));
+            return requests;
+        }
+        List<Callable<Requests>> tasks = new ArrayList<Callable<Requests>>();
+        int chunk = (vertices.size + THREADS - 1) / THREADS;
+        for(int start=0; start<vertices.size; start+=chunk) {
+            final int from = start;
+            final int to = Math.min(vertices.size, start + chunk);
+            tasks.add(new Callable<Requests>() {
+                public Requests call() {
+                    return requests(vertices, from, to, delta, light);
+                }
+            });
+        }
+        for(Future<Requests> future: ssspExecutorService.invokeAll(tasks)) {
+            requests.add(future.get());
+        }
+        return requests;
+    }
+
+    private Requests requests(IntList vertices, int from, int to,
+                              double delta, boolean light) {
+        Requests requests = new Requests();
+        for(int i=from; i<to; i++) {
+            int u = vertices.values[i];
+            double du = dist[u];
+            for(int j=0; j<cg.outDegree(u); j++) {
+                int eid = cg.outEdge(u, j);
+                double w = cg.edgeWeight(eid);
+                if ((w <= delta) != light) continue;
+                double dv = du + w;
+                if (dv > radius) continue;
+                requests.add(cg.edgeTarget(eid), dv, eid, hops[u] + 1);
+            }
+        }
+        return requests;
+    }
+
+    private void applyRequests(TreeMap<Long, IntList> buckets, double delta,
+                               List<Requests> requests) {
+        for(Requests r: requests) {
+            for(int i=0; i<r.size; i++) {
+                int v = r.target[i];
+                if (r.dist[i] >= dist[v]) continue;
+                dist[v] = r.dist[i];
+                predEdge[v] = r.edge[i];
+                hops[v] = r.hops[i];
+                bucket(buckets, (long) (dist[v] / delta)).add(v);
+            }
+        }
+    }
+
+    private static IntList bucket(TreeMap<Long, IntList> buckets, long b) {
+        IntList bucket = buckets.get(b);
+        if (null == bucket) {
+            bucket = new IntList();
+            buckets.put(b, bucket);
+        }
+        return bucket;
+    }
+
+    private void addReached(int v) {
+        if (reachedCount == reached.length) {
+            reached = Arrays.copyOf(reached, reachedCount * 2);
+        }
+        reached[reachedCount++] = v;
+    }
+
+    /*
+     * order reached vertices by distance (bellman-ford & delta-stepping)
+    */
+    private void sortReached() {
+        if (null == reached) {
+            reached = new int[16];
+            for(int v=0; v<n; v++) {
+                if (dist[v] != Double.POSITIVE_INFINITY) {
+                    addReached(v);
+                }
+            }
+        }
+        Integer[] order = new Integer[reachedCount];
+        for(int i=0; i<reachedCount; i++) {
+            order[i] = reached[i];
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = Double.compare(dist[a], dist[b]);
+                return c != 0 ? c : hops[a] - hops[b];
+            }
+        });
+        for(int i=0; i<reachedCount; i++) {
+            reached[i] = order[i];
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[8];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static class Requests {
+        int[] target = new int[16];
+        double[] dist = new double[16];
+        int[] edge = new int[16];
+        int[] hops = new int[16];
+        int size = 0;
+
+        void add(int v, double d, int eid, int h) {
+            if (size == target.length) {
+                target = Arrays.copyOf(target, size * 2);
+                dist = Arrays.copyOf(dist, size * 2);
+                edge = Arrays.copyOf(edge, size * 2);
+                hops = Arrays.copyOf(hops, size * 2);
+            }
+            target[size] = v;
+            dist[size] = d;
+            edge[size] = eid;
+            hops[size] = h;
+            size++;
+        }
+    }
+}
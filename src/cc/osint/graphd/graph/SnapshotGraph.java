@@ -0,0 +1,290 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import org.jgrapht.*;
+import org.jgrapht.graph.AbstractGraph;
+
+/*
+ * read-only jgrapht DirectedGraph over an AdjacencySnapshot, so that the
+ *  jgrapht algorithms used by Graph can run against a pinned version
+ *  of the graph
+*/
+public class SnapshotGraph
+    extends AbstractGraph<JSONVertex, JSONEdge>
+    implements DirectedGraph<JSONVertex, JSONEdge>,
+               WeightedGraph<JSONVertex, JSONEdge> {
+
+    final private AdjacencySnapshot snapshot;
+
+    SnapshotGraph(AdjacencySnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public AdjacencySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /*
+     * vertices
+    */
+
+    public Set<JSONVertex> vertexSet() {
+        return new AbstractSet<JSONVertex>() {
+            public int size() {
+                return snapshot.numVertices();
+            }
+            public boolean contains(Object o) {
+                return (o instanceof JSONVertex) &&
+                       snapshot.getVertexId((JSONVertex) o) != -1;
+            }
+            public Iterator<JSONVertex> iterator() {
+                return new Iterator<JSONVertex>() {
+                    int vid = advance(0);
+                    private int advance(int i) {
+                        while (i < snapshot.getVertexCapacity() &&
+                               null == snapshot.getVertex(i)) i++;
+                        return i;
+                    }
+                    public boolean hasNext() {
+                        return vid < snapshot.getVertexCapacity();
+                    }
+                    public JSONVertex next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        JSONVertex jv = snapshot.getVertex(vid);
+                        vid = advance(vid + 1);
+                        return jv;
+                    }
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    public boolean containsVertex(JSONVertex v) {
+        return snapshot.getVertexId(v) != -1;
+    }
+
+    public int inDegreeOf(JSONVertex v) {
+        return snapshot.inDegree(vertexId(v));
+    }
+
+    public int outDegreeOf(JSONVertex v) {
+        return snapshot.outDegree(vertexId(v));
+    }
+
+    public Set<JSONEdge> incomingEdgesOf(JSONVertex v) {
+        return new AdjacentEdgeSet(vertexId(v), false);
+    }
+
+    public Set<JSONEdge> outgoingEdgesOf(JSONVertex v) {
+        return new AdjacentEdgeSet(vertexId(v), true);
+    }
+
+    /*
+     * incoming + outgoing; a self-loop appears once
+    */
+    public Set<JSONEdge> edgesOf(JSONVertex v) {
+        int vid = vertexId(v);
+        Set<JSONEdge> edges = new LinkedHashSet<JSONEdge>();
+        for(int i=0; i<snapshot.inDegree(vid); i++) {
+            edges.add(snapshot.getEdge(snapshot.inEdge(vid, i)));
+        }
+        for(int i=0; i<snapshot.outDegree(vid); i++) {
+            edges.add(snapshot.getEdge(snapshot.outEdge(vid, i)));
+        }
+        return Collections.unmodifiableSet(edges);
+    }
+
+    /*
+     * edges
+    */
+
+    public Set<JSONEdge> edgeSet() {
+        return new AbstractSet<JSONEdge>() {
+            public int size() {
+                return snapshot.numEdges();
+            }
+            public boolean contains(Object o) {
+                return (o instanceof JSONEdge) &&
+                       snapshot.getEdgeId((JSONEdge) o) != -1;
+            }
+            public Iterator<JSONEdge> iterator() {
+                return new Iterator<JSONEdge>() {
+                    int eid = advance(0);
+                    private int advance(int i) {
+                        while (i < snapshot.getEdgeCapacity() &&
+                               null == snapshot.getEdge(i)) i++;
+                        return i;
+                    }
+                    public boolean hasNext() {
+                        return eid < snapshot.getEdgeCapacity();
+                    }
+                    public JSONEdge next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        JSONEdge je = snapshot.getEdge(eid);
+                        eid = advance(eid + 1);
+                        return je;
+                    }
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    public boolean containsEdge(JSONEdge e) {
+        return snapshot.getEdgeId(e) != -1;
+    }
+
+    public JSONEdge getEdge(JSONVertex sourceVertex, JSONVertex targetVertex) {
+        int source = snapshot.getVertexId(sourceVertex);
+        int target = snapshot.getVertexId(targetVertex);
+        if (source == -1 || target == -1) return null;
+        for(int i=0; i<snapshot.outDegree(source); i++) {
+            int eid = snapshot.outEdge(source, i);
+            if (snapshot.edgeTarget(eid) == target) {
+                return snapshot.getEdge(eid);
+            }
+        }
+        return null;
+    }
+
+    public Set<JSONEdge> getAllEdges(JSONVertex sourceVertex, JSONVertex targetVertex) {
+        int source = snapshot.getVertexId(sourceVertex);
+        int target = snapshot.getVertexId(targetVertex);
+        if (source == -1 || target == -1) return null;
+        Set<JSONEdge> edges = new LinkedHashSet<JSONEdge>();
+        for(int i=0; i<snapshot.outDegree(source); i++) {
+            int eid = snapshot.outEdge(source, i);
+            if (snapshot.edgeTarget(eid) == target) {
+                edges.add(snapshot.getEdge(eid));
+            }
+        }
+        return edges;
+    }
+
+    public JSONVertex getEdgeSource(JSONEdge e) {
+        return e.getSource();
+    }
+
+    public JSONVertex getEdgeTarget(JSONEdge e) {
+        return e.getTarget();
+    }
+
+    public double getEdgeWeight(JSONEdge e) {
+        int eid = snapshot.getEdgeId(e);
+        if (eid == -1) {
+            throw new IllegalArgumentException("no such edge in snapshot: " + e);
+        }
+        return snapshot.edgeWeight(eid);
+    }
+
+    /*
+     * read-only
+    */
+
+    public EdgeFactory<JSONVertex, JSONEdge> getEdgeFactory() {
+        return new EdgeFactory<JSONVertex, JSONEdge>() {
+            public JSONEdge createEdge(JSONVertex sourceVertex, JSONVertex targetVertex) {
+                throw new UnsupportedOperationException("snapshot is read-only");
+            }
+        };
+    }
+
+    public JSONEdge addEdge(JSONVertex sourceVertex, JSONVertex targetVertex) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    public boolean addEdge(JSONVertex sourceVertex, JSONVertex targetVertex, JSONEdge e) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    public boolean addVertex(JSONVertex v) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    public JSONEdge removeEdge(JSONVertex sourceVertex, JSONVertex targetVertex) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    public boolean removeEdge(JSONEdge e) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    public boolean removeVertex(JSONVertex v) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    public void setEdgeWeight(JSONEdge e, double weight) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    private int vertexId(JSONVertex v) {
+        int vid = snapshot.getVertexId(v);
+        if (vid == -1) {
+            throw new IllegalArgumentException("no such vertex in snapshot: " + v);
+        }
+        return vid;
+    }
+
+    /*
+     * the outgoing or incoming edges of one vertex
+    */
+    private class AdjacentEdgeSet extends AbstractSet<JSONEdge> {
+        final private int vid;
+        final private boolean outgoing;
+
+        AdjacentEdgeSet(int vid, boolean outgoing) {
+            this.vid = vid;
+            this.outgoing = outgoing;
+        }
+
+        public int size() {
+            return outgoing ? snapshot.outDegree(vid) : snapshot.inDegree(vid);
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof JSONEdge)) return false;
+            int eid = snapshot.getEdgeId((JSONEdge) o);
+            if (eid == -1) return false;
+            return (outgoing ? snapshot.edgeSource(eid) : snapshot.edgeTarget(eid)) == vid;
+        }
+
+        public Iterator<JSONEdge> iterator() {
+            return new Iterator<JSONEdge>() {
+                int i = 0;
+                public boolean hasNext() {
+                    return i < size();
+                }
+                public JSONEdge next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    int eid = outgoing ? snapshot.outEdge(vid, i) : snapshot.inEdge(vid, i);
+                    i++;
+                    return snapshot.getEdge(eid);
+                }
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
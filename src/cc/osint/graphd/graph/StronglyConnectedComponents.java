@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+
+/*
+ * strongly connected components of a CompactGraph: tarjan's algorithm,
+ *  with an explicit stack so that long paths cannot overflow the call
+ *  stack.
+ *
+ * components are numbered in the order tarjan completes them (reverse
+ *  topological order of the condensation); unused vertex ids get -1.
+ *  given a relationship, only the edges of that relationship count.
+*/
+public class StronglyConnectedComponents implements Components {
+    final private CompactGraph cg;
+    final private int[] component;
+    final private int[] size;
+    final private int count;
+
+    public StronglyConnectedComponents(CompactGraph cg) {
+        this(cg, -1);
+    }
+
+    /*
+     * rel: a relationship id of <cg>, or -1 for every edge
+    */
+    public StronglyConnectedComponents(CompactGraph cg, int rel) {
+        this.cg = cg;
+        int n = cg.getVertexCapacity();
+        component = new int[n];
+        Arrays.fill(component, -1);
+        int[] index = new int[n];               // discovery order + 1; 0 unvisited
+        int[] low = new int[n];
+        int[] next = new int[n];                // next out edge to follow
+        int[] stack = new int[n];               // tarjan's stack
+        int[] call = new int[n];                // dfs path
+        int[] sizes = new int[16];
+        int stackSize = 0;
+        int counter = 0;
+        int components = 0;
+        for(int root=0; root<n; root++) {
+            if (null == cg.getVertex(root) || index[root] != 0) continue;
+            int depth = 0;
+            call[depth++] = root;
+            index[root] = low[root] = ++counter;
+            next[root] = cg.outOffset[root];
+            stack[stackSize++] = root;
+            while (depth > 0) {
+                int u = call[depth - 1];
+                if (next[u] < cg.outOffset[u + 1]) {
+                    int e = next[u]++;
+                    if (rel != -1 && cg.edgeRel[e] != rel) continue;
+                    int v = cg.edgeTarget[e];
+                    if (index[v] == 0) {
+                        index[v] = low[v] = ++counter;
+                        next[v] = cg.outOffset[v];
+                        stack[stackSize++] = v;
+                        call[depth++] = v;
+                    } else if (component[v] == -1 && index[v] < low[u]) {
+                        low[u] = index[v];          // v is on the stack
+                    }
+                    continue;
+                }
+                depth--;
+                if (low[u] == index[u]) {
+                    int members = 0;
+                    int v;
+                    do {
+                        v = stack[--stackSize];
+                        component[v] = components;
+                        members++;
+                    } while (v != u);
+                    if (components == sizes.length) {
+                        sizes = Arrays.copyOf(sizes, components * 2);
+                    }
+                    sizes[components++] = members;
+                }
+                if (depth > 0) {
+                    int parent = call[depth - 1];
+                    if (low[u] < low[parent]) low[parent] = low[u];
+                }
+            }
+        }
+        size = Arrays.copyOf(sizes, components);
+        count = components;
+    }
+
+    public int getComponentCount() {
+        return count;
+    }
+
+    /*
+     * -1 for an unused vertex id
+    */
+    public int getComponent(int v) {
+        return component[v];
+    }
+
+    public int getComponentSize(int c) {
+        return size[c];
+    }
+
+    /*
+     * is <v> on a cycle: in a component of more than one vertex, or with
+     *  an edge to itself
+    */
+    public boolean isOnCycle(int v) {
+        if (size[component[v]] > 1) return true;
+        for(int e=cg.outOffset[v]; e<cg.outOffset[v + 1]; e++) {
+            if (cg.edgeTarget[e] == v) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import org.json.*;
+import org.jgrapht.*;
+
+/*
+ * the transitive closure of one relationship (e.g. "has-parent"): for
+ *  each vertex, the sorted vertex ids it reaches by edges of that
+ *  relationship (its ancestors) & the sorted ids that reach it (its
+ *  descendants).  a vertex is its own ancestor only on a cycle.
+ *
+ * built over the condensation of the relationship's edges, sinks first,
+ *  each component's set the union of those of the components it points
+ *  to; the members of a component share their arrays, which are never
+ *  written once published, so readers need only the monitor to fetch one.
+ *
+ * kept current as edges of the relationship come & go (see
+ *  Graph.addEdgeObject & Graph.removeEdge):
+ *
+ *  - a new edge a -> b, unless a already reaches b, adds b & the
+ *     ancestors of b to a & each of its descendants, & symmetrically.
+ *  - a deleted edge a -> b can only remove pairs (x, y) with x one of a
+ *     & its descendants, y one of b & its ancestors.  the ancestors of
+ *     each such x are found again by a search that stops at the first
+ *     vertex outside that set, whose ancestors cannot have changed; the
+ *     descendants of each such y likewise.  deleting a vertex is the
+ *     same, with its descendants & ancestors.
+*/
+public class TransitiveClosure {
+    final private static int[] EMPTY = new int[0];
+
+    final private String rel;
+    private JSONVertex[] vertices;
+    private int[][] ancestors;
+    private int[][] descendants;
+    private long pairs = 0;
+    private long updates = 0;
+    private long repaired = 0;                  // sets searched again after deletions
+
+    /*
+     * the closure of <rel> in <cg>, the current version of the graph
+    */
+    public TransitiveClosure(CompactGraph cg, String rel) {
+        this.rel = rel;
+        int n = cg.getVertexCapacity();
+        vertices = new JSONVertex[n];
+        ancestors = new int[n][];
+        descendants = new int[n][];
+        for(int v=0; v<n; v++) {
+            vertices[v] = cg.getVertex(v);
+            ancestors[v] = descendants[v] = EMPTY;
+        }
+        int r = cg.getRelId(rel);
+        if (r == -1) return;
+
+        StronglyConnectedComponents scc = new StronglyConnectedComponents(cg, r);
+        int count = scc.getComponentCount();
+        int[] offset = new int[count + 1];
+        for(int v=0; v<n; v++) {
+            if (scc.getComponent(v) != -1) offset[scc.getComponent(v) + 1]++;
+        }
+        for(int c=0; c<count; c++) {
+            offset[c + 1] += offset[c];
+        }
+        int[] members = new int[offset[count]];
+        int[] fill = Arrays.copyOf(offset, count);
+        for(int v=0; v<n; v++) {
+            if (scc.getComponent(v) != -1) members[fill[scc.getComponent(v)]++] = v;
+        }
+
+        int[][] up = new int[count][];
+        int[][] down = new int[count][];
+        int[] last = new int[count];
+        IntBuffer buffer = new IntBuffer();
+
+        // ancestors: the components an edge leads to are numbered lower
+        Arrays.fill(last, -1);
+        for(int c=0; c<count; c++) {
+            buffer.clear();
+            for(int m=offset[c]; m<offset[c + 1]; m++) {
+                int v = members[m];
+                for(int e=cg.outOffset[v]; e<cg.outOffset[v + 1]; e++) {
+                    if (cg.edgeRel[e] != r) continue;
+                    int d = scc.getComponent(cg.edgeTarget[e]);
+                    if (last[d] == c) continue;
+                    last[d] = c;
+                    buffer.add(members, offset[d], offset[d + 1]);
+                    if (d != c) buffer.add(up[d], 0, up[d].length);
+                }
+            }
+            up[c] = buffer.toSortedSet();
+        }
+
+        // descendants: the components an edge comes from are numbered higher
+        Arrays.fill(last, -1);
+        for(int c=count - 1; c>=0; c--) {
+            buffer.clear();
+            for(int m=offset[c]; m<offset[c + 1]; m++) {
+                int v = members[m];
+                for(int i=0; i<cg.inDegree(v); i++) {
+                    int e = cg.inEdge(v, i);
+                    if (cg.edgeRel[e] != r) continue;
+                    int d = scc.getComponent(cg.edgeSource[e]);
+                    if (last[d] == c) continue;
+                    last[d] = c;
+                    buffer.add(members, offset[d], offset[d + 1]);
+                    if (d != c) buffer.add(down[d], 0, down[d].length);
+                }
+            }
+            down[c] = buffer.toSortedSet();
+        }
+
+        for(int v=0; v<n; v++) {
+            int c = scc.getComponent(v);
+            if (c == -1) continue;
+            ancestors[v] = up[c];
+            descendants[v] = down[c];
+            pairs += up[c].length;
+        }
+    }
+
+    public String getRelationship() {
+        return rel;
+    }
+
+    /*
+     * mutations (vertex ids as assigned by VersionedAdjacency); the edges
+     *  are of this closure's relationship
+    */
+
+    public synchronized void addVertex(JSONVertex jv) {
+        int v = jv.vid;
+        if (v >= vertices.length) {
+            int length = Math.max(v + 1, vertices.length * 2);
+            vertices = Arrays.copyOf(vertices, length);
+            ancestors = Arrays.copyOf(ancestors, length);
+            descendants = Arrays.copyOf(descendants, length);
+        }
+        vertices[v] = jv;
+        ancestors[v] = descendants[v] = EMPTY;
+    }
+
+    public synchronized void addEdge(JSONEdge je) {
+        int a = je.getSource().vid;
+        int b = je.getTarget().vid;
+        if (!contains(je.getSource()) || !contains(je.getTarget())) return;
+        if (Arrays.binarySearch(ancestors[a], b) >= 0) return;
+        int[] up = insert(ancestors[b], b);
+        int[] down = insert(descendants[a], a);
+        for(int x: down) {
+            int[] set = union(ancestors[x], up);
+            pairs += set.length - ancestors[x].length;
+            ancestors[x] = set;
+        }
+        for(int y: up) {
+            descendants[y] = union(descendants[y], down);
+        }
+        updates++;
+    }
+
+    /*
+     * <gr> no longer has <je>
+    */
+    public synchronized void removeEdge(DirectedGraph<JSONVertex, JSONEdge> gr,
+                                        JSONEdge je) throws Exception {
+        if (!contains(je.getSource()) || !contains(je.getTarget())) return;
+        int a = je.getSource().vid;
+        int b = je.getTarget().vid;
+        if (Arrays.binarySearch(ancestors[a], b) < 0) return;
+        repair(gr, insert(descendants[a], a), insert(ancestors[b], b));
+        updates++;
+    }
+
+    /*
+     * <gr> no longer has <jv>, nor its edges
+    */
+    public synchronized void removeVertex(DirectedGraph<JSONVertex, JSONEdge> gr,
+                                          JSONVertex jv) throws Exception {
+        if (!contains(jv)) return;
+        int v = jv.vid;
+        int[] down = remove(descendants[v], v);
+        int[] up = remove(ancestors[v], v);
+        pairs -= ancestors[v].length;
+        vertices[v] = null;
+        ancestors[v] = descendants[v] = EMPTY;
+        repair(gr, down, up);
+        updates++;
+    }
+
+    /*
+     * queries: sorted vertex ids, null if <jv> is not in the graph
+    */
+
+    public synchronized int[] getAncestors(JSONVertex jv) {
+        return contains(jv) ? ancestors[jv.vid] : null;
+    }
+
+    public synchronized int[] getDescendants(JSONVertex jv) {
+        return contains(jv) ? descendants[jv.vid] : null;
+    }
+
+    public synchronized JSONVertex getVertex(int v) {
+        return vertices[v];
+    }
+
+    public synchronized JSONObject getStatus() throws Exception {
+        JSONObject status = new JSONObject();
+        status.put("relationship", rel);
+        status.put("pairs", pairs);
+        status.put("updates", updates);
+        status.put("repaired", repaired);
+        return status;
+    }
+
+    /*
+     * search again for the ancestors of <down> & the descendants of <up>,
+     *  the only sets a deletion can have changed
+    */
+    private void repair(DirectedGraph<JSONVertex, JSONEdge> gr,
+                        int[] down, int[] up) throws Exception {
+        int[][] found = new int[down.length][];
+        for(int i=0; i<down.length; i++) {
+            found[i] = search(gr, down[i], down, true);
+        }
+        for(int i=0; i<up.length; i++) {
+            descendants[up[i]] = search(gr, up[i], up, false);
+        }
+        for(int i=0; i<down.length; i++) {
+            pairs += found[i].length - ancestors[down[i]].length;
+            ancestors[down[i]] = found[i];
+        }
+        repaired += down.length + up.length;
+    }
+
+    /*
+     * the vertices <x> reaches by edges of the relationship (forward), or
+     *  that reach it (!forward).  only vertices in <within> are expanded;
+     *  any other contributes itself & the set already recorded for it.
+    */
+    private int[] search(DirectedGraph<JSONVertex, JSONEdge> gr, int x,
+                         int[] within, boolean forward) throws Exception {
+        IntBuffer buffer = new IntBuffer();
+        Set<Integer> expanded = new HashSet<Integer>();
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        expanded.add(x);
+        queue.add(x);
+        while (!queue.isEmpty()) {
+            JSONVertex jv = vertices[queue.removeFirst()];
+            Set<JSONEdge> edges = forward ? gr.outgoingEdgesOf(jv) : gr.incomingEdgesOf(jv);
+            for(JSONEdge je: edges) {
+                if (!rel.equals(je.toString())) continue;
+                int p = (forward ? je.getTarget() : je.getSource()).vid;
+                buffer.add(p);
+                if (Arrays.binarySearch(within, p) >= 0) {
+                    if (expanded.add(p)) queue.add(p);
+                } else {
+                    int[] set = forward ? ancestors[p] : descendants[p];
+                    buffer.add(set, 0, set.length);
+                }
+            }
+        }
+        return buffer.toSortedSet();
+    }
+
+    private boolean contains(JSONVertex jv) {
+        return jv.vid >= 0 && jv.vid < vertices.length && vertices[jv.vid] == jv;
+    }
+
+    /*
+     * sorted int sets
+    */
+
+    private static int[] union(int[] a, int[] b) {
+        int[] c = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                c[k++] = a[i++];
+            } else if (a[i] > b[j]) {
+                c[k++] = b[j++];
+            } else {
+                c[k++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) c[k++] = a[i++];
+        while (j < b.length) c[k++] = b[j++];
+        return (k == a.length) ? a : Arrays.copyOf(c, k);
+    }
+
+    private static int[] insert(int[] a, int v) {
+        return union(a, new int[] { v });
+    }
+
+    private static int[] remove(int[] a, int v) {
+        int i = Arrays.binarySearch(a, v);
+        if (i < 0) return a;
+        int[] b = new int[a.length - 1];
+        System.arraycopy(a, 0, b, 0, i);
+        System.arraycopy(a, i + 1, b, i, a.length - i - 1);
+        return b;
+    }
+
+    private static class IntBuffer {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        void add(int[] a, int from, int to) {
+            int n = to - from;
+            if (size + n > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + n, values.length * 2));
+            }
+            System.arraycopy(a, from, values, size, n);
+            size += n;
+        }
+
+        int[] toSortedSet() {
+            if (size == 0) return EMPTY;
+            Arrays.sort(values, 0, size);
+            int k = 1;
+            for(int i=1; i<size; i++) {
+                if (values[i] != values[k - 1]) values[k++] = values[i];
+            }
+            return Arrays.copyOf(values, k);
+        }
+    }
+}
@@ -0,0 +1,693 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * a short closed tour through some vertices (stops) of a view of a
+ *  CompactGraph, edges taken as undirected: the traveling salesman
+ *  problem over the metric closure of the stops (their shortest path
+ *  distances), so stops need not be adjacent.
+ *
+ *  - the closure: a dijkstra search from each stop until every stop is
+ *     settled, the searches split between the threads of
+ *     MatrixIteration's pool.
+ *  - restart 0 starts from christofides' tour: a minimum spanning tree
+ *     & a matching of its odd-degree stops (greedy, shortest pair
+ *     first, rather than of minimum weight), their euler circuit
+ *     shortcut past stops already visited.  the others start from
+ *     nearest neighbour tours from random stops.
+ *  - each tour is improved by 2-opt & or-opt (a segment of up to three
+ *     stops moved elsewhere, either way round) to a local optimum.  the
+ *     moves of a stop are tried against its nearest stops only, & a stop
+ *     none of whose moves improved the tour is not tried again until one
+ *     of its tour edges changes (don't-look bits).
+ *  - restarts run in parallel on MatrixIteration's pool until all have,
+ *     or <timeout> ms have passed; the best tour found is kept.
+ *  - each leg of that tour is then the shortest path between its stops,
+ *     found again (the closure keeps distances only).
+*/
+public class TravelingSalesman {
+    final private static int MAX_STOPS = Integer.parseInt(
+        System.getProperty("graphd.tour.max.stops", "2000"));   // the closure is k x k
+    final private static double EPSILON = 1e-9;
+    final private static int NEIGHBOURS = 10;   // nearest stops moves are tried against
+    final private static int SEGMENT = 3;       // longest or-opt segment
+    final private static int CLOCK_INTERVAL = 256;      // moves between looks at the clock
+
+    final private static ThreadLocal<SearchSpace> searchSpaces =
+        new ThreadLocal<SearchSpace>() {
+            protected SearchSpace initialValue() {
+                return new SearchSpace();
+            }
+        };
+
+    final private GraphView view;
+    final private CompactGraph cg;
+    final private int[] stop;                   // vertex ids
+    final private int[] index;                  // stop index, by vertex id; -1 if none
+    final private int k;
+    final private double[][] d;                 // the metric closure
+    private int[][] near;                       // nearest stops, nearest first
+    private boolean connected = true;
+
+    final private int restarts;
+    final private long deadline;
+    final private long seed;
+    private volatile boolean timedOut = false;
+    private int completed = 0;
+    private int[] best = null;                  // stop indexes in tour order
+    private double bestCost = Double.POSITIVE_INFINITY;
+    private double initialCost = Double.NaN;    // christofides' tour, unimproved
+    private int[][] legEdges;
+    private double[] legDistance;
+
+    /*
+     * stops: distinct vertex ids of <view>; restarts: >= 1; timeout: <= 0
+     *  for none
+    */
+    public TravelingSalesman(GraphView view, int[] stops, int restarts,
+                             long timeout) throws Exception {
+        this.view = view.asDirected(false);
+        this.cg = view.getCompactGraph();
+        this.stop = stops;
+        this.k = stops.length;
+        this.restarts = Math.max(1, restarts);
+        this.deadline = (timeout > 0) ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        this.seed = System.nanoTime();
+        if (k > MAX_STOPS) {
+            throw new Exception("too many stops: " + k + " (graphd.tour.max.stops is " +
+                MAX_STOPS + ")");
+        }
+        for(int e=0; e<cg.numEdges(); e++) {
+            if (cg.edgeWeight[e] < 0 && this.view.containsEdge(e)) {
+                throw new Exception("invalid distance (must be non-negative): " +
+                    cg.getEdge(e).getKey());
+            }
+        }
+        index = new int[cg.getVertexCapacity()];
+        Arrays.fill(index, -1);
+        for(int i=0; i<k; i++) {
+            index[stop[i]] = i;
+        }
+        d = new double[k][];
+        MatrixIteration.pool.invoke(new Closure(0, k));
+        for(int i=0; i<k && connected; i++) {
+            for(int j=0; j<i; j++) {
+                if (Double.isInfinite(d[i][j]) || Double.isInfinite(d[j][i])) {
+                    connected = false;
+                    break;
+                }
+                // each way round the same path; keep them equal
+                d[i][j] = d[j][i] = Math.min(d[i][j], d[j][i]);
+            }
+        }
+    }
+
+    /*
+     * does every stop reach every other
+    */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public TravelingSalesman run() throws Exception {
+        if (!connected) throw new Exception("stops are not connected");
+        near = new int[k][];
+        for(int i=0; i<k; i++) {
+            near[i] = nearest(i);
+        }
+        MatrixIteration.pool.invoke(new Restarts(0, restarts));
+        int legs = (k > 1) ? k : 0;
+        legEdges = new int[legs][];
+        legDistance = new double[legs];
+        MatrixIteration.pool.invoke(new Legs(0, legs));
+        return this;
+    }
+
+    /*
+     * the closure: row i of d, by a search from stop i
+    */
+    private class Closure extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private int lo;
+        final private int hi;
+
+        Closure(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= 1) {
+                for(int i=lo; i<hi; i++) {
+                    d[i] = search(i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Closure(lo, mid), new Closure(mid, hi));
+        }
+    }
+
+    private double[] search(int i) {
+        SearchSpace space = searchSpaces.get();
+        space.reset(cg.getVertexCapacity());
+        space.label(stop[i], 0, -1, 0);
+        int settled = 0;
+        while (!space.isEmpty() && settled < k) {
+            int v = space.pop();
+            if (index[v] != -1) settled++;
+            relax(space, v);
+        }
+        double[] row = new double[k];
+        for(int j=0; j<k; j++) {
+            row[j] = space.dist(stop[j]);
+        }
+        return row;
+    }
+
+    private void relax(SearchSpace space, int v) {
+        double dv = space.dist(v);
+        for(int a=0; a<view.arcCount(v); a++) {
+            int e = view.arc(v, a);
+            if (e == -1) continue;
+            int w = view.opposite(e, v);
+            double dw = dv + cg.edgeWeight[e];
+            if (!space.isSettled(w) && dw < space.dist(w)) {
+                space.label(w, dw, e, dw);
+            }
+        }
+    }
+
+    /*
+     * the (at most) NEIGHBOURS stops nearest stop <i>, nearest first
+    */
+    private int[] nearest(int i) {
+        int size = Math.min(NEIGHBOURS, k - 1);
+        int[] result = new int[size];
+        int count = 0;
+        for(int j=0; j<k; j++) {
+            if (j == i) continue;
+            if (count == size && d[i][j] >= d[i][result[count - 1]]) continue;
+            int at = (count < size) ? count++ : count - 1;
+            while (at > 0 && d[i][result[at - 1]] > d[i][j]) {
+                result[at] = result[at - 1];
+                at--;
+            }
+            result[at] = j;
+        }
+        return result;
+    }
+
+    private class Restarts extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private int lo;
+        final private int hi;
+
+        Restarts(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= 1) {
+                for(int r=lo; r<hi; r++) {
+                    if (r > 0 && System.currentTimeMillis() > deadline) {
+                        timedOut = true;
+                        return;
+                    }
+                    restart(r);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Restarts(lo, mid), new Restarts(mid, hi));
+        }
+    }
+
+    private void restart(int r) {
+        int[] order;
+        if (r == 0) {
+            order = christofides();
+            synchronized(this) {
+                initialCost = cost(order);
+            }
+        } else {
+            order = nearestNeighbour(new Random(seed + r));
+        }
+        if (k >= 4) {
+            new LocalSearch(order).run();
+        }
+        double cost = cost(order);
+        synchronized(this) {
+            completed++;
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = order;
+            }
+        }
+    }
+
+    private double cost(int[] order) {
+        double cost = 0;
+        for(int i=0; i<k; i++) {
+            cost += d[order[i]][order[(i + 1) % k]];
+        }
+        return cost;
+    }
+
+    /*
+     * initial tours
+    */
+
+    private int[] nearestNeighbour(Random random) {
+        int[] order = new int[k];
+        boolean[] visited = new boolean[k];
+        order[0] = random.nextInt(k);
+        visited[order[0]] = true;
+        for(int i=1; i<k; i++) {
+            double[] row = d[order[i - 1]];
+            int next = -1;
+            for(int j=0; j<k; j++) {
+                if (!visited[j] && (next == -1 || row[j] < row[next])) next = j;
+            }
+            order[i] = next;
+            visited[next] = true;
+        }
+        return order;
+    }
+
+    private int[] christofides() {
+        // prim: minimum spanning tree of the closure
+        int[] parent = new int[k];
+        double[] key = new double[k];
+        boolean[] inTree = new boolean[k];
+        Arrays.fill(key, Double.POSITIVE_INFINITY);
+        key[0] = 0;
+        parent[0] = -1;
+        int[] degree = new int[k];
+        for(int step=0; step<k; step++) {
+            int u = -1;
+            for(int v=0; v<k; v++) {
+                if (!inTree[v] && (u == -1 || key[v] < key[u])) u = v;
+            }
+            inTree[u] = true;
+            if (parent[u] != -1) {
+                degree[u]++;
+                degree[parent[u]]++;
+            }
+            for(int v=0; v<k; v++) {
+                if (!inTree[v] && d[u][v] < key[v]) {
+                    key[v] = d[u][v];
+                    parent[v] = u;
+                }
+            }
+        }
+
+        // greedy matching of the stops of odd degree, shortest pair first:
+        //  (float distance, pair) packed in a long sorts by distance
+        int odd = 0;
+        int[] oddStop = new int[k];
+        for(int v=0; v<k; v++) {
+            if (degree[v] % 2 == 1) oddStop[odd++] = v;
+        }
+        long[] pairs = new long[odd * (odd - 1) / 2];
+        int p = 0;
+        for(int i=0; i<odd; i++) {
+            for(int j=i + 1; j<odd; j++) {
+                long bits = Float.floatToIntBits((float) d[oddStop[i]][oddStop[j]]);
+                pairs[p++] = (bits << 32) | (long) (i * odd + j);
+            }
+        }
+        Arrays.sort(pairs);
+        int[] mate = new int[k];
+        Arrays.fill(mate, -1);
+        for(long pair: pairs) {
+            int packed = (int) pair;
+            int a = oddStop[packed / odd];
+            int b = oddStop[packed % odd];
+            if (mate[a] == -1 && mate[b] == -1) {
+                mate[a] = b;
+                mate[b] = a;
+            }
+        }
+
+        // euler circuit of tree & matching (hierholzer), shortcut
+        int m = 0;
+        int[] from = new int[2 * k];
+        int[] to = new int[2 * k];
+        for(int v=0; v<k; v++) {
+            if (parent[v] != -1) {
+                from[m] = v;
+                to[m++] = parent[v];
+            }
+            if (mate[v] > v) {
+                from[m] = v;
+                to[m++] = mate[v];
+            }
+        }
+        int[] offset = new int[k + 1];
+        for(int e=0; e<m; e++) {
+            offset[from[e] + 1]++;
+            offset[to[e] + 1]++;
+        }
+        for(int v=0; v<k; v++) {
+            offset[v + 1] += offset[v];
+        }
+        int[] incident = new int[2 * m];
+        int[] fill = Arrays.copyOf(offset, k);
+        for(int e=0; e<m; e++) {
+            incident[fill[from[e]]++] = e;
+            incident[fill[to[e]]++] = e;
+        }
+        boolean[] used = new boolean[m];
+        int[] next = Arrays.copyOf(offset, k);
+        int[] stack = new int[m + 1];
+        int depth = 0;
+        stack[depth++] = 0;
+        int[] order = new int[k];
+        boolean[] visited = new boolean[k];
+        int size = 0;
+        while (depth > 0) {
+            int v = stack[depth - 1];
+            while (next[v] < offset[v + 1] && used[incident[next[v]]]) next[v]++;
+            if (next[v] < offset[v + 1]) {
+                int e = incident[next[v]++];
+                used[e] = true;
+                stack[depth++] = (from[e] == v) ? to[e] : from[e];
+            } else {
+                depth--;
+                if (!visited[v]) {
+                    visited[v] = true;
+                    order[size++] = v;
+                }
+            }
+        }
+        return order;
+    }
+
+    /*
+     * 2-opt & or-opt to a local optimum (or the deadline), in place
+    */
+    private class LocalSearch {
+        final private int[] order;
+        final private int[] pos;
+        final private int[] scratch;
+        final private int[] queue;              // stops to try, circular
+        final private boolean[] queued;
+        private int head = 0;
+        private int size = 0;
+
+        LocalSearch(int[] order) {
+            this.order = order;
+            pos = new int[k];
+            scratch = new int[k];
+            queue = new int[k];
+            queued = new boolean[k];
+            for(int i=0; i<k; i++) {
+                pos[order[i]] = i;
+                activate(order[i]);
+            }
+        }
+
+        void run() {
+            int steps = 0;
+            while (size > 0) {
+                if (++steps % CLOCK_INTERVAL == 0 && System.currentTimeMillis() > deadline) {
+                    timedOut = true;
+                    return;
+                }
+                int a = queue[head];
+                head = (head + 1) % k;
+                size--;
+                queued[a] = false;
+                if (twoOpt(a) || orOpt(a)) activate(a);
+            }
+        }
+
+        private void activate(int a) {
+            if (queued[a]) return;
+            queued[a] = true;
+            queue[(head + size) % k] = a;
+            size++;
+        }
+
+        private int next(int a) {
+            return order[(pos[a] + 1) % k];
+        }
+
+        private int prev(int a) {
+            return order[(pos[a] + k - 1) % k];
+        }
+
+        /*
+         * replace tour edges (a, b) & (c, e) by (a, c) & (b, e), b & e
+         *  following a & c (or both preceding them)
+        */
+        private boolean twoOpt(int a) {
+            for(int forward=1; forward>=0; forward--) {
+                int b = (forward == 1) ? next(a) : prev(a);
+                double ab = d[a][b];
+                for(int c: near[a]) {
+                    double gain = ab - d[a][c];
+                    if (gain <= EPSILON) break;
+                    int e = (forward == 1) ? next(c) : prev(c);
+                    if (c == b || e == a) continue;
+                    if (gain + d[c][e] - d[b][e] > EPSILON) {
+                        if (forward == 1) {
+                            reverse(b, c);
+                        } else {
+                            reverse(a, e);
+                        }
+                        activate(b);
+                        activate(c);
+                        activate(e);
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /*
+         * reverse the path from <x> forward to <y>, or the rest of the
+         *  tour if that is shorter (the same tour, the other way round)
+        */
+        private void reverse(int x, int y) {
+            int i = pos[x];
+            int j = pos[y];
+            int length = (j - i + k) % k + 1;
+            if (2 * length > k) {
+                int from = (j + 1) % k;
+                j = (i + k - 1) % k;
+                i = from;
+                length = k - length;
+            }
+            for(int s=0; s<length / 2; s++) {
+                int u = order[i];
+                int v = order[j];
+                order[i] = v;
+                pos[v] = i;
+                order[j] = u;
+                pos[u] = j;
+                i = (i + 1) % k;
+                j = (j + k - 1) % k;
+            }
+        }
+
+        /*
+         * move the segment of up to SEGMENT stops from <a> forward to
+         *  between two adjacent stops near either of its ends
+        */
+        private boolean orOpt(int a) {
+            int last = a;
+            for(int length=1; length<=SEGMENT && length + 3 <= k; length++) {
+                if (length > 1) last = next(last);
+                int before = prev(a);
+                int after = next(last);
+                double gain = d[before][a] + d[last][after] - d[before][after];
+                if (gain <= EPSILON) continue;
+                for(int end=0; end<2; end++) {
+                    int s = (end == 0) ? a : last;
+                    for(int c: near[s]) {
+                        if (d[s][c] >= gain) break;
+                        if (inSegment(c, a, length)) continue;
+                        for(int side=0; side<2; side++) {
+                            int x = (side == 0) ? c : prev(c);
+                            int y = (side == 0) ? next(c) : c;
+                            if (inSegment(x, a, length) || inSegment(y, a, length)) continue;
+                            double ahead = d[x][a] + d[last][y];
+                            double reversed = d[x][last] + d[a][y];
+                            double added = Math.min(ahead, reversed) - d[x][y];
+                            if (gain - added > EPSILON) {
+                                move(a, last, before, after, x, y, reversed < ahead);
+                                activate(before);
+                                activate(after);
+                                activate(x);
+                                activate(y);
+                                activate(last);
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean inSegment(int c, int a, int length) {
+            return (pos[c] - pos[a] + k) % k < length;
+        }
+
+        /*
+         * the tour after <first>..<last> is taken out from between
+         *  <before> & <after> & put between <x> & <y>
+        */
+        private void move(int first, int last, int before, int after,
+                          int x, int y, boolean reversed) {
+            int n = 0;
+            for(int v=after; ; v=next(v)) {
+                scratch[n++] = v;
+                if (v == x) break;
+            }
+            if (reversed) {
+                for(int v=last; ; v=prev(v)) {
+                    scratch[n++] = v;
+                    if (v == first) break;
+                }
+            } else {
+                for(int v=first; ; v=next(v)) {
+                    scratch[n++] = v;
+                    if (v == last) break;
+                }
+            }
+            for(int v=y; ; v=next(v)) {
+                scratch[n++] = v;
+                if (v == before) break;
+            }
+            for(int i=0; i<k; i++) {
+                order[i] = scratch[i];
+                pos[order[i]] = i;
+            }
+        }
+    }
+
+    /*
+     * the shortest path of each leg of the best tour
+    */
+    private class Legs extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private int lo;
+        final private int hi;
+
+        Legs(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= 4) {
+                for(int i=lo; i<hi; i++) {
+                    leg(i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Legs(lo, mid), new Legs(mid, hi));
+        }
+    }
+
+    private void leg(int i) {
+        int source = stop[best[i]];
+        int target = stop[best[(i + 1) % k]];
+        SearchSpace space = searchSpaces.get();
+        space.reset(cg.getVertexCapacity());
+        space.label(source, 0, -1, 0);
+        while (!space.isEmpty()) {
+            int v = space.pop();
+            if (v == target) break;
+            relax(space, v);
+        }
+        int hops = 0;
+        for(int v=target; v!=source; v=view.opposite(space.pred(v), v)) {
+            hops++;
+        }
+        int[] edges = new int[hops];
+        for(int v=target; v!=source; v=view.opposite(space.pred(v), v)) {
+            edges[--hops] = space.pred(v);
+        }
+        legEdges[i] = edges;
+        legDistance[i] = space.dist(target);
+    }
+
+    /*
+     * results
+    */
+
+    public int getStopCount() {
+        return k;
+    }
+
+    /*
+     * vertex ids, in tour order; the tour returns to the first
+    */
+    public int[] getTour() {
+        int[] tour = new int[k];
+        for(int i=0; i<k; i++) {
+            tour[i] = stop[best[i]];
+        }
+        return tour;
+    }
+
+    public double getCost() {
+        return bestCost;
+    }
+
+    /*
+     * the cost of christofides' tour, before improvement
+    */
+    public double getInitialCost() {
+        return initialCost;
+    }
+
+    /*
+     * legs: from the i-th stop of the tour to the next (the last back to
+     *  the first); edge ids
+    */
+    public int getLegCount() {
+        return legEdges.length;
+    }
+
+    public int[] getLegEdges(int i) {
+        return legEdges[i];
+    }
+
+    public double getLegDistance(int i) {
+        return legDistance[i];
+    }
+
+    public synchronized int getRestartsCompleted() {
+        return completed;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
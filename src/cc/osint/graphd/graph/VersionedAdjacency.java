@@ -0,0 +1,359 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import org.json.*;
+
+/*
+ * copy-on-write adjacency maintained alongside the jgrapht graph so that
+ *  analytics can run against a consistent, pinned version of it while
+ *  mutations continue.
+ *
+ * vertices & edges get int ids (kept in JSONVertex.vid & JSONEdge.eid;
+ *  ids of removed objects are reused).  both tables are paged; a
+ *  vertex record holds the ids of its outgoing & incoming edges, an
+ *  edge page holds source, target & weight per edge id.
+ *
+ * snapshot() freezes the current generation & hands out the current
+ *  page tables; afterwards, the first mutation of a page (or vertex
+ *  record) in the new generation copies it.  memory held by a snapshot
+ *  is therefore proportional to what changed while it was pinned, and
+ *  is released with it.  mutations of pages & records that have not
+ *  been frozen are made in place.
+*/
+public class VersionedAdjacency {
+
+    final static int PAGE_BITS = 10;
+    final static int PAGE_SIZE = 1 << PAGE_BITS;
+    final static int PAGE_MASK = PAGE_SIZE - 1;
+
+    final static class VertexRecord {
+        int generation;
+        JSONVertex vertex;
+        int[] out;
+        int outCount;
+        int[] in;
+        int inCount;
+
+        VertexRecord(int generation, JSONVertex vertex) {
+            this.generation = generation;
+            this.vertex = vertex;
+            out = new int[4];
+            in = new int[4];
+        }
+
+        VertexRecord(int generation, VertexRecord record) {
+            this.generation = generation;
+            vertex = record.vertex;
+            out = record.out.clone();
+            outCount = record.outCount;
+            in = record.in.clone();
+            inCount = record.inCount;
+        }
+    }
+
+    final static class VertexPage {
+        int generation;
+        VertexRecord[] records;
+
+        VertexPage(int generation) {
+            this.generation = generation;
+            records = new VertexRecord[PAGE_SIZE];
+        }
+
+        VertexPage(int generation, VertexPage page) {
+            this.generation = generation;
+            records = page.records.clone();
+        }
+    }
+
+    final static class EdgePage {
+        int generation;
+        JSONEdge[] edges;
+        int[] source;
+        int[] target;
+        double[] weight;
+
+        EdgePage(int generation) {
+            this.generation = generation;
+            edges = new JSONEdge[PAGE_SIZE];
+            source = new int[PAGE_SIZE];
+            target = new int[PAGE_SIZE];
+            weight = new double[PAGE_SIZE];
+        }
+
+        EdgePage(int generation, EdgePage page) {
+            this.generation = generation;
+            edges = page.edges.clone();
+            source = page.source.clone();
+            target = page.target.clone();
+            weight = page.weight.clone();
+        }
+    }
+
+    private int generation = 0;
+    private boolean dirty = true;       // mutated since the last snapshot
+    private long epoch = 0;             // mutation counter
+    private long edgeEpoch = 0;         // edge add / remove / reweight counter
+
+    private VertexPage[] vertexPages = new VertexPage[16];
+    private int vertexCapacity = 0;     // highest vertex id + 1
+    private int vertexCount = 0;
+    private int[] freeVertexIds = new int[16];
+    private int freeVertexCount = 0;
+
+    private EdgePage[] edgePages = new EdgePage[16];
+    private int edgeCapacity = 0;       // highest edge id + 1
+    private int edgeCount = 0;
+    private int[] freeEdgeIds = new int[16];
+    private int freeEdgeCount = 0;
+
+    private int pinnedSnapshots = 0;
+    private long pagesCopied = 0;
+    private long recordsCopied = 0;
+
+    /*
+     * mutations
+    */
+
+    public synchronized void addVertex(JSONVertex jv) {
+        int vid = allocateVertexId();
+        VertexPage page = writableVertexPage(vid >>> PAGE_BITS);
+        page.records[vid & PAGE_MASK] = new VertexRecord(generation, jv);
+        jv.vid = vid;
+        vertexCount++;
+        mutated();
+    }
+
+    /*
+     * removes the vertex & every edge incident to it
+    */
+    public synchronized void removeVertex(JSONVertex jv) {
+        int vid = jv.vid;
+        VertexRecord record = getRecord(vertexPages, vid);
+        if (null == record || record.vertex != jv) return;
+        while (record.outCount > 0) {
+            removeEdge(getEdgeObject(edgePages, record.out[0]));
+            record = getRecord(vertexPages, vid);
+        }
+        while (record.inCount > 0) {
+            removeEdge(getEdgeObject(edgePages, record.in[0]));
+            record = getRecord(vertexPages, vid);
+        }
+        VertexPage page = writableVertexPage(vid >>> PAGE_BITS);
+        page.records[vid & PAGE_MASK] = null;
+        freeVertexId(vid);
+        vertexCount--;
+        mutated();
+    }
+
+    public synchronized void addEdge(JSONEdge je, double weight) {
+        int source = je.getSource().vid;
+        int target = je.getTarget().vid;
+        int eid = allocateEdgeId();
+        EdgePage page = writableEdgePage(eid >>> PAGE_BITS);
+        int i = eid & PAGE_MASK;
+        page.edges[i] = je;
+        page.source[i] = source;
+        page.target[i] = target;
+        page.weight[i] = weight;
+        je.eid = eid;
+
+        VertexRecord sourceRecord = writableRecord(source);
+        if (sourceRecord.outCount == sourceRecord.out.length) {
+            sourceRecord.out = Arrays.copyOf(sourceRecord.out, sourceRecord.outCount * 2);
+        }
+        sourceRecord.out[sourceRecord.outCount++] = eid;
+        VertexRecord targetRecord = writableRecord(target);
+        if (targetRecord.inCount == targetRecord.in.length) {
+            targetRecord.in = Arrays.copyOf(targetRecord.in, targetRecord.inCount * 2);
+        }
+        targetRecord.in[targetRecord.inCount++] = eid;
+        edgeCount++;
+        edgeEpoch++;
+        mutated();
+    }
+
+    public synchronized void removeEdge(JSONEdge je) {
+        int eid = je.eid;
+        if (getEdgeObject(edgePages, eid) != je) return;
+        EdgePage page = writableEdgePage(eid >>> PAGE_BITS);
+        int i = eid & PAGE_MASK;
+
+        VertexRecord sourceRecord = writableRecord(page.source[i]);
+        sourceRecord.outCount = removeId(sourceRecord.out, sourceRecord.outCount, eid);
+        VertexRecord targetRecord = writableRecord(page.target[i]);
+        targetRecord.inCount = removeId(targetRecord.in, targetRecord.inCount, eid);
+
+        page.edges[i] = null;
+        freeEdgeId(eid);
+        edgeCount--;
+        edgeEpoch++;
+        mutated();
+    }
+
+    public synchronized void setEdgeWeight(JSONEdge je, double weight) {
+        int eid = je.eid;
+        if (getEdgeObject(edgePages, eid) != je) return;
+        EdgePage page = writableEdgePage(eid >>> PAGE_BITS);
+        page.weight[eid & PAGE_MASK] = weight;
+        edgeEpoch++;
+        mutated();
+    }
+
+    /*
+     * snapshots
+    */
+
+    /*
+     * pin the current version; the caller must release() it
+    */
+    public synchronized AdjacencySnapshot snapshot() {
+        // nothing has been written in the current generation since the
+        //  last snapshot: its pages can be shared as they are
+        if (dirty) {
+            generation++;
+            dirty = false;
+        }
+        pinnedSnapshots++;
+        return new AdjacencySnapshot(this, epoch, edgeEpoch,
+            vertexPages.clone(), vertexCapacity, vertexCount,
+            edgePages.clone(), edgeCapacity, edgeCount);
+    }
+
+    synchronized void released() {
+        pinnedSnapshots--;
+    }
+
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized JSONObject getStatus() throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("epoch", epoch);
+        result.put("pinned_snapshots", pinnedSnapshots);
+        result.put("pages_copied", pagesCopied);
+        result.put("records_copied", recordsCopied);
+        return result;
+    }
+
+    /*
+     * internals
+    */
+
+    private void mutated() {
+        epoch++;
+        dirty = true;
+    }
+
+    private VertexPage writableVertexPage(int p) {
+        if (p >= vertexPages.length) {
+            vertexPages = Arrays.copyOf(vertexPages, Math.max(p + 1, vertexPages.length * 2));
+        }
+        VertexPage page = vertexPages[p];
+        if (null == page) {
+            page = new VertexPage(generation);
+            vertexPages[p] = page;
+        } else if (page.generation != generation) {
+            page = new VertexPage(generation, page);
+            vertexPages[p] = page;
+            pagesCopied++;
+        }
+        return page;
+    }
+
+    private VertexRecord writableRecord(int vid) {
+        VertexPage page = writableVertexPage(vid >>> PAGE_BITS);
+        VertexRecord record = page.records[vid & PAGE_MASK];
+        if (record.generation != generation) {
+            record = new VertexRecord(generation, record);
+            page.records[vid & PAGE_MASK] = record;
+            recordsCopied++;
+        }
+        return record;
+    }
+
+    private EdgePage writableEdgePage(int p) {
+        if (p >= edgePages.length) {
+            edgePages = Arrays.copyOf(edgePages, Math.max(p + 1, edgePages.length * 2));
+        }
+        EdgePage page = edgePages[p];
+        if (null == page) {
+            page = new EdgePage(generation);
+            edgePages[p] = page;
+        } else if (page.generation != generation) {
+            page = new EdgePage(generation, page);
+            edgePages[p] = page;
+            pagesCopied++;
+        }
+        return page;
+    }
+
+    private int allocateVertexId() {
+        if (freeVertexCount > 0) {
+            return freeVertexIds[--freeVertexCount];
+        }
+        return vertexCapacity++;
+    }
+
+    private void freeVertexId(int vid) {
+        if (freeVertexCount == freeVertexIds.length) {
+            freeVertexIds = Arrays.copyOf(freeVertexIds, freeVertexCount * 2);
+        }
+        freeVertexIds[freeVertexCount++] = vid;
+    }
+
+    private int allocateEdgeId() {
+        if (freeEdgeCount > 0) {
+            return freeEdgeIds[--freeEdgeCount];
+        }
+        return edgeCapacity++;
+    }
+
+    private void freeEdgeId(int eid) {
+        if (freeEdgeCount == freeEdgeIds.length) {
+            freeEdgeIds = Arrays.copyOf(freeEdgeIds, freeEdgeCount * 2);
+        }
+        freeEdgeIds[freeEdgeCount++] = eid;
+    }
+
+    private static int removeId(int[] ids, int count, int id) {
+        for(int i=0; i<count; i++) {
+            if (ids[i] == id) {
+                ids[i] = ids[count-1];
+                return count-1;
+            }
+        }
+        return count;
+    }
+
+    static VertexRecord getRecord(VertexPage[] pages, int vid) {
+        if (vid < 0 || (vid >>> PAGE_BITS) >= pages.length) return null;
+        VertexPage page = pages[vid >>> PAGE_BITS];
+        if (null == page) return null;
+        return page.records[vid & PAGE_MASK];
+    }
+
+    static JSONEdge getEdgeObject(EdgePage[] pages, int eid) {
+        if (eid < 0 || (eid >>> PAGE_BITS) >= pages.length) return null;
+        EdgePage page = pages[eid >>> PAGE_BITS];
+        if (null == page) return null;
+        return page.edges[eid & PAGE_MASK];
+    }
+}
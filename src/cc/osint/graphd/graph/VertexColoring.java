@@ -0,0 +1,335 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * a proper vertex coloring of a view of a CompactGraph, edges taken as
+ *  undirected (self-loops ignored): no two adjacent vertices share a
+ *  color.  colors are 0, 1, ...
+ *
+ *   greedy           vertices in order of decreasing degree, each given
+ *                     the least color none of its neighbours has (see
+ *                     CompactGraphAlgorithms.greedyColoring; what cn
+ *                     counts)
+ *   dsatur           brelaz: next, the vertex whose neighbours have the
+ *                     most distinct colors (then the most neighbours),
+ *                     from a heap updated as each vertex is colored
+ *   jones-plassmann  in rounds: every uncolored vertex that outranks
+ *                     its uncolored neighbours (by degree, then a random
+ *                     priority) is colored in parallel, with the least
+ *                     color none of its colored neighbours has.  those
+ *                     vertices are independent, so no two of a round
+ *                     clash.  the rounds split the uncolored vertices
+ *                     between the threads of MatrixIteration's pool.
+ *
+ * priorities are drawn with the graph's epoch as seed, so the same
+ *  version gets the same coloring.
+*/
+public class VertexColoring {
+    final public static String GREEDY = "greedy";
+    final public static String DSATUR = "dsatur";
+    final public static String JONES_PLASSMANN = "jones-plassmann";
+    final private static int GRAIN = 1024;      // vertices per fork/join leaf
+
+    final private GraphView view;
+    final private CompactGraph cg;
+    final private String method;
+    private int[] offset;                       // neighbours, as undirectedNeighbours
+    private int[] neighbours;
+    private int[] color;
+    private int colors = 0;
+    private int rounds = 0;
+    private long elapsed = 0;
+
+    /* jones-plassmann */
+    private int[] priority;
+    private int[] colorRound;                   // the round each vertex was colored in; -1 not yet
+    private int[] remaining;                    // uncolored vertices
+    private int round = 0;
+    final private ThreadLocal<int[]> scratch = new ThreadLocal<int[]>();
+
+    public VertexColoring(GraphView view, String method) throws Exception {
+        if (!method.equals(GREEDY) && !method.equals(DSATUR) &&
+            !method.equals(JONES_PLASSMANN)) {
+            throw new Exception("unknown coloring: " + method);
+        }
+        this.view = view.asDirected(false);
+        this.cg = view.getCompactGraph();
+        this.method = method.equals(GREEDY) ? GREEDY :
+            (method.equals(DSATUR) ? DSATUR : JONES_PLASSMANN);
+    }
+
+    public VertexColoring run() throws Exception {
+        long t0 = System.currentTimeMillis();
+        if (method == GREEDY) {
+            color = CompactGraphAlgorithms.greedyColoring(view);
+        } else {
+            int[][] adjacency = CompactGraphAlgorithms.undirectedNeighbours(view);
+            offset = adjacency[0];
+            neighbours = adjacency[1];
+            if (method == DSATUR) {
+                dsatur();
+            } else {
+                jonesPlassmann();
+            }
+        }
+        for(int c: color) {
+            colors = Math.max(colors, c + 1);
+        }
+        elapsed = System.currentTimeMillis() - t0;
+        return this;
+    }
+
+    private int degree(int v) {
+        return offset[v + 1] - offset[v];
+    }
+
+    /*
+     * dsatur
+    */
+
+    private void dsatur() {
+        int n = cg.getVertexCapacity();
+        color = new int[n];
+        Arrays.fill(color, -1);
+        int[] saturation = new int[n];
+        long[][] seen = new long[n][];          // neighbours' colors, a bitset per vertex
+        int[] heap = new int[view.numVertices()];
+        int[] pos = new int[n];                 // heap index; -1 colored or not in the view
+        Arrays.fill(pos, -1);
+        int size = 0;
+        for(int v=0; v<n; v++) {
+            if (!view.containsVertex(v)) continue;
+            heap[size] = v;
+            pos[v] = size++;
+            siftUp(heap, pos, saturation, pos[v]);
+        }
+        int[] taken = new int[n + 1];           // taken[c] == v + 1: c is a neighbour's of v
+        while (size > 0) {
+            int v = heap[0];
+            pos[v] = -1;
+            if (--size > 0) {
+                heap[0] = heap[size];
+                pos[heap[0]] = 0;
+                siftDown(heap, pos, saturation, size);
+            }
+            for(int i=offset[v]; i<offset[v + 1]; i++) {
+                int c = color[neighbours[i]];
+                if (c >= 0) taken[c] = v + 1;
+            }
+            int c = 0;
+            while (taken[c] == v + 1) c++;
+            color[v] = c;
+            for(int i=offset[v]; i<offset[v + 1]; i++) {
+                int w = neighbours[i];
+                if (pos[w] == -1) continue;
+                long[] bits = seen[w];
+                if (null == bits || (c >>> 6) >= bits.length) {
+                    bits = seen[w] = (null == bits) ? new long[(c >>> 6) + 1] :
+                        Arrays.copyOf(bits, Math.max((c >>> 6) + 1, bits.length * 2));
+                }
+                if ((bits[c >>> 6] & (1L << c)) == 0) {
+                    bits[c >>> 6] |= 1L << c;
+                    saturation[w]++;
+                    siftUp(heap, pos, saturation, pos[w]);
+                }
+            }
+            seen[v] = null;
+        }
+    }
+
+    /*
+     * does <v> come before <w>: more saturated, then of higher degree,
+     *  then of lower id
+    */
+    private boolean before(int[] saturation, int v, int w) {
+        if (saturation[v] != saturation[w]) return saturation[v] > saturation[w];
+        if (degree(v) != degree(w)) return degree(v) > degree(w);
+        return v < w;
+    }
+
+    private void siftUp(int[] heap, int[] pos, int[] saturation, int i) {
+        int v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(saturation, v, heap[parent])) break;
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    private void siftDown(int[] heap, int[] pos, int[] saturation, int size) {
+        int i = 0;
+        int v = heap[0];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && before(saturation, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(saturation, heap[child], v)) break;
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    /*
+     * jones-plassmann
+    */
+
+    private void jonesPlassmann() {
+        int n = cg.getVertexCapacity();
+        color = new int[n];
+        Arrays.fill(color, -1);
+        colorRound = new int[n];
+        Arrays.fill(colorRound, -1);
+        priority = new int[n];
+        Random random = new Random(cg.getEpoch());
+        remaining = new int[view.numVertices()];
+        int count = 0;
+        for(int v=0; v<n; v++) {
+            if (!view.containsVertex(v)) continue;
+            priority[v] = random.nextInt();
+            remaining[count++] = v;
+        }
+        while (count > 0) {
+            MatrixIteration.pool.invoke(new Round(0, count));
+            // keep those not colored this round
+            int left = 0;
+            for(int i=0; i<count; i++) {
+                if (colorRound[remaining[i]] == -1) remaining[left++] = remaining[i];
+            }
+            count = left;
+            round++;
+        }
+        rounds = round;
+    }
+
+    private class Round extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private int lo;
+        final private int hi;
+
+        Round(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= GRAIN) {
+                for(int i=lo; i<hi; i++) {
+                    int v = remaining[i];
+                    if (isLocalMaximum(v)) assign(v);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Round(lo, mid), new Round(mid, hi));
+        }
+    }
+
+    /*
+     * does <v> outrank its neighbours uncolored when this round began
+     *  (one colored this round outranks v, so v is not colored this round
+     *  whichever way its color is read)
+    */
+    private boolean isLocalMaximum(int v) {
+        for(int i=offset[v]; i<offset[v + 1]; i++) {
+            int w = neighbours[i];
+            int r = colorRound[w];
+            if (r != -1 && r != round) continue;
+            if (degree(w) > degree(v)) return false;
+            if (degree(w) == degree(v) &&
+                (priority[w] > priority[v] || (priority[w] == priority[v] && w > v))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * the least color none of <v>'s neighbours has: those colored in
+     *  earlier rounds, as none are colored in this one
+    */
+    private void assign(int v) {
+        int[] taken = scratch.get();
+        if (null == taken || taken.length < degree(v) + 1) {
+            taken = new int[Math.max(degree(v) + 1, 64)];
+            scratch.set(taken);
+        }
+        int limit = degree(v) + 1;              // v needs no color above its degree
+        Arrays.fill(taken, 0, limit, 0);
+        for(int i=offset[v]; i<offset[v + 1]; i++) {
+            int c = color[neighbours[i]];
+            if (c >= 0 && c < limit) taken[c] = 1;
+        }
+        int c = 0;
+        while (taken[c] == 1) c++;
+        color[v] = c;
+        colorRound[v] = round;
+    }
+
+    /*
+     * results
+    */
+
+    public String getMethod() {
+        return method;
+    }
+
+    /*
+     * by vertex id; -1 for vertices not in the view
+    */
+    public int[] getColors() {
+        return color;
+    }
+
+    public int getColorCount() {
+        return colors;
+    }
+
+    /*
+     * the number of vertices of each color
+    */
+    public int[] getClassSizes() {
+        int[] sizes = new int[colors];
+        for(int c: color) {
+            if (c >= 0) sizes[c]++;
+        }
+        return sizes;
+    }
+
+    /*
+     * jones-plassmann rounds; 0 for the others
+    */
+    public int getRounds() {
+        return rounds;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+}
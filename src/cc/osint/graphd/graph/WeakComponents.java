@@ -0,0 +1,172 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.graph;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+ * weakly connected components of a CompactGraph (edges taken as
+ *  undirected), by concurrent union-find.
+ *
+ * the edge range is split between the threads of MatrixIteration's pool;
+ *  each unites the ends of its edges in a shared forest.  a root is only
+ *  ever linked, by compare-and-set, under a root of lower id, so the
+ *  forest stays acyclic however the threads interleave, & finds halve
+ *  the paths they walk.  components are then numbered in order of their
+ *  lowest vertex id; unused vertex ids get -1.
+*/
+public class WeakComponents implements Components {
+    final private static int GRAIN = 16384;     // edges (or vertices) per fork/join leaf
+
+    final private CompactGraph cg;
+    final private int[] component;
+    final private int[] size;
+    final private int count;
+
+    public WeakComponents(CompactGraph cg) {
+        this.cg = cg;
+        int n = cg.getVertexCapacity();
+        AtomicIntegerArray parent = new AtomicIntegerArray(n);
+        for(int v=0; v<n; v++) {
+            parent.set(v, v);
+        }
+        MatrixIteration.pool.invoke(new Unite(cg, parent, 0, cg.numEdges()));
+        component = new int[n];
+        MatrixIteration.pool.invoke(new Find(cg, parent, component, 0, n));
+
+        // roots are the lowest ids of their components
+        int[] label = new int[n];
+        int components = 0;
+        for(int v=0; v<n; v++) {
+            if (component[v] == v) label[v] = components++;
+        }
+        size = new int[components];
+        for(int v=0; v<n; v++) {
+            if (component[v] == -1) continue;
+            component[v] = label[component[v]];
+            size[component[v]]++;
+        }
+        count = components;
+    }
+
+    private static int find(AtomicIntegerArray parent, int v) {
+        while (true) {
+            int p = parent.get(v);
+            if (p == v) return v;
+            int grandparent = parent.get(p);
+            if (p != grandparent) {
+                parent.compareAndSet(v, p, grandparent);    // path halving
+            }
+            v = grandparent;
+        }
+    }
+
+    private static void unite(AtomicIntegerArray parent, int a, int b) {
+        while (true) {
+            a = find(parent, a);
+            b = find(parent, b);
+            if (a == b) return;
+            int high = Math.max(a, b);
+            int low = Math.min(a, b);
+            if (parent.compareAndSet(high, high, low)) return;
+        }
+    }
+
+    private static class Unite extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private CompactGraph cg;
+        final private AtomicIntegerArray parent;
+        final private int lo;
+        final private int hi;
+
+        Unite(CompactGraph cg, AtomicIntegerArray parent, int lo, int hi) {
+            this.cg = cg;
+            this.parent = parent;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= GRAIN) {
+                for(int e=lo; e<hi; e++) {
+                    unite(parent, cg.edgeSource[e], cg.edgeTarget[e]);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Unite(cg, parent, lo, mid),
+                      new Unite(cg, parent, mid, hi));
+        }
+    }
+
+    /*
+     * component[v] = root of v, or -1 for unused ids
+    */
+    private static class Find extends RecursiveAction {
+        final private static long serialVersionUID = 1L;
+        final private CompactGraph cg;
+        final private AtomicIntegerArray parent;
+        final private int[] component;
+        final private int lo;
+        final private int hi;
+
+        Find(CompactGraph cg, AtomicIntegerArray parent, int[] component, int lo, int hi) {
+            this.cg = cg;
+            this.parent = parent;
+            this.component = component;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= GRAIN) {
+                for(int v=lo; v<hi; v++) {
+                    component[v] = (null == cg.getVertex(v)) ? -1 : find(parent, v);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Find(cg, parent, component, lo, mid),
+                      new Find(cg, parent, component, mid, hi));
+        }
+    }
+
+    /*
+     * the version this was computed for
+    */
+    public long getEpoch() {
+        return cg.getEpoch();
+    }
+
+    public int getComponentCount() {
+        return count;
+    }
+
+    public int getComponent(int v) {
+        return component[v];
+    }
+
+    public int getComponentSize(int c) {
+        return size[c];
+    }
+
+    public boolean isConnected(int v, int w) {
+        return component[v] != -1 && component[v] == component[w];
+    }
+}
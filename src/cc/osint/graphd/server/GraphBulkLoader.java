@@ -0,0 +1,245 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.*;
+import cc.osint.graphd.graph.*;
+
+/*
+ * executes a list of requests against one graph as a unit: runs of
+ *  cvert/cedge requests are parsed in parallel & handed to
+ *  Graph.bulkLoad; anything else is executed in order through the
+ *  normal GraphCommandExecutor path with its response discarded
+ *  (errors are collected).  mutations that were applied are appended
+ *  to the executor's journal, if any, as they are executed
+*/
+public class GraphBulkLoader {
+    private static final Logger log = Logger.getLogger(
+        GraphBulkLoader.class.getName());
+
+    final private static int PARSE_CHUNK_SIZE = 1024;
+    final private static int MAX_REPORTED_ERRORS = 10;
+
+    final private static ExecutorService parseExecutorService;
+    static {
+        parseExecutorService = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    public static JSONObject load(Graph gr,
+                                  GraphCommandExecutor executor,
+                                  GraphCommand bulkCommand) throws Exception {
+        long t0 = System.currentTimeMillis();
+        List<String> requests = bulkCommand.bulkRequests;
+        int vertexCount = 0;
+        int edgeCount = 0;
+        int errorCount = 0;
+        JSONArray errors = new JSONArray();
+        GraphJournal journal = executor.getJournal();
+
+        int i = 0;
+        while (i < requests.size()) {
+            int j = i;
+            while (j < requests.size() && isBulkRequest(requests.get(j))) {
+                j++;
+            }
+            if (j > i) {
+                List<BulkLoadObject> objects = new ArrayList<BulkLoadObject>(j-i);
+                List<String> objectRequests = new ArrayList<String>(j-i);
+                List<Object> parsedRequests = parse(requests.subList(i, j));
+                for(int k=0; k<parsedRequests.size(); k++) {
+                    Object parsed = parsedRequests.get(k);
+                    if (parsed instanceof BulkLoadObject) {
+                        objects.add((BulkLoadObject) parsed);
+                        objectRequests.add(requests.get(i + k));
+                    } else {
+                        errorCount++;
+                        if (errors.length() < MAX_REPORTED_ERRORS) {
+                            errors.put(getPosition(bulkCommand, i + k) + ": " + parsed);
+                        }
+                    }
+                }
+                JSONObject result = gr.bulkLoad(objects, false);
+                vertexCount += result.getInt("vertices");
+                edgeCount += result.getInt("edges");
+                JSONArray loadErrors = result.getJSONArray("errors");
+                for(int k=0; k<loadErrors.length(); k++) {
+                    errorCount++;
+                    if (errors.length() < MAX_REPORTED_ERRORS) errors.put(loadErrors.get(k));
+                }
+                if (null != journal) {
+                    for(int k=0; k<objects.size(); k++) {
+                        if (objects.get(k).isApplied()) {
+                            journal.append(objectRequests.get(k));
+                        }
+                    }
+                }
+                i = j;
+            } else {
+                String request = requests.get(i);
+                String cmd = getCommand(request);
+                String response;
+                try {
+                    response = executor.execute(bulkCommand.responseChannel,
+                                                bulkCommand.clientId,
+                                                bulkCommand.clientState,
+                                                bulkCommand.inboundChannelProcess,
+                                                request,
+                                                cmd,
+                                                getArgs(request));
+                } catch (Exception ex) {
+                    response = GraphServerProtocol.R_ERR + GraphServerProtocol.SPACE + ex.getMessage();
+                }
+                response = executor.journal(cmd, request, response);
+                if (response.startsWith(GraphServerProtocol.R_ERR) ||
+                    response.startsWith(GraphServerProtocol.R_UNK)) {
+                    errorCount++;
+                    if (errors.length() < MAX_REPORTED_ERRORS) {
+                        // -unk echoes the command, i.e. the start of the line
+                        errors.put(getPosition(bulkCommand, i) + ": " + 
+                            (response.startsWith(GraphServerProtocol.R_UNK) ?
+                                GraphServerProtocol.R_UNK : response.trim()));
+                    }
+                }
+                i++;
+            }
+        }
+        if (bulkCommand.bulkCommit) {
+            gr.flushGraphIndex();
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("requests", requests.size());
+        result.put("vertices", vertexCount);
+        result.put("edges", edgeCount);
+        result.put("error_count", errorCount);
+        result.put("errors", errors);
+        result.put("elapsed_ms", System.currentTimeMillis() - t0);
+        return result;
+    }
+
+    /*
+     * where a request is, for its errors: the line of an exec'd file, or
+     *  its position in the list.  (the request itself is not repeated:
+     *  it may be anything the file contains)
+    */
+    private static String getPosition(GraphCommand bulkCommand, int i) {
+        if (null != bulkCommand.bulkLines) {
+            return "line " + bulkCommand.bulkLines.get(i);
+        }
+        return "request " + (i + 1);
+    }
+
+    private static boolean isBulkRequest(String request) {
+        String cmd = getCommand(request);
+        return (cmd.equals(GraphServerProtocol.CMD_CVERT) ||
+                cmd.equals(GraphServerProtocol.CMD_CEDGE)) &&
+               request.indexOf("<<") == -1;
+    }
+
+    /*
+     * parse requests in parallel, PARSE_CHUNK_SIZE at a time; results are
+     *  returned in request order, either a BulkLoadObject or an error
+     *  message
+    */
+    private static List<Object> parse(final List<String> requests) throws Exception {
+        List<Future<List<Object>>> futures = new ArrayList<Future<List<Object>>>();
+        for(int i=0; i<requests.size(); i += PARSE_CHUNK_SIZE) {
+            final List<String> chunk =
+                requests.subList(i, Math.min(i + PARSE_CHUNK_SIZE, requests.size()));
+            futures.add(parseExecutorService.submit(new Callable<List<Object>>() {
+                public List<Object> call() {
+                    List<Object> parsed = new ArrayList<Object>(chunk.size());
+                    for(String request: chunk) {
+                        try {
+                            parsed.add(parse(request));
+                        } catch (Exception ex) {
+                            parsed.add("" + ex.getMessage());
+                        }
+                    }
+                    return parsed;
+                }
+            }));
+        }
+        List<Object> results = new ArrayList<Object>(requests.size());
+        for(Future<List<Object>> future: futures) {
+            results.addAll(future.get());
+        }
+        return results;
+    }
+
+    /*
+     * same request syntax as GraphCommandExecutor's cvert & cedge
+    */
+    private static BulkLoadObject parse(String request) throws Exception {
+        String cmd = getCommand(request);
+        String[] args = getArgs(request);
+
+        // cvert <key> <json>
+        if (cmd.equals(GraphServerProtocol.CMD_CVERT)) {
+            String key = args[0];
+            String json = request.substring(request.indexOf(GraphServerProtocol.SPACE + key) +
+                (key.length()+1)).trim(); // remainder of line
+            return BulkLoadObject.vertex(key, new JSONObject(json));
+
+        // cedge <key> <vFromKey> <vToKey> <rel> [<weight>] <json>
+        } else {
+            String key = args[0];
+            String vFromKey = args[1];
+            String vToKey = args[2];
+            String rel = args[3];
+            double weight = 1.0;
+            String json;
+            if (args[4].charAt(0) == '{') {
+                json = request.substring(request.indexOf(GraphServerProtocol.SPACE + rel) +
+                    (rel.length()+1)).trim(); // remainder of line
+            } else {
+                weight = Double.parseDouble(args[4]);
+                json = request.substring(request.indexOf(GraphServerProtocol.SPACE + args[4]) +
+                    (args[4].length()+1)).trim(); // remainder of line
+            }
+            JSONObject jo = new JSONObject(json);
+            jo.put(Graph.EDGE_SOURCE_FIELD, vFromKey);
+            jo.put(Graph.EDGE_TARGET_FIELD, vToKey);
+            jo.put(Graph.WEIGHT_FIELD, weight);
+            jo.put(Graph.RELATION_FIELD, rel);
+            return BulkLoadObject.edge(key, jo, vFromKey, vToKey, rel, weight);
+        }
+    }
+
+    protected static String getCommand(String request) {
+        if (request.indexOf(GraphServerProtocol.SPACE) != -1) {
+            return request.substring(0,
+                request.indexOf(GraphServerProtocol.SPACE)).trim().toLowerCase();
+        } else {
+            return request.trim().toLowerCase();
+        }
+    }
+
+    protected static String[] getArgs(String request) {
+        if (request.indexOf(GraphServerProtocol.SPACE) != -1) {
+            return request.substring(
+                request.indexOf(GraphServerProtocol.SPACE)).trim().split(GraphServerProtocol.SPACE);
+        } else {
+            return new String[0];
+        }
+    }
+}
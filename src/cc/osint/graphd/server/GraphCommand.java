@@ -21,6 +21,7 @@ import java.lang.ref.*;
 import java.util.*;
 import java.util.concurrent.*;
 import org.jboss.netty.channel.Channel;
+import org.json.JSONObject;
 import cc.osint.graphd.processes.*;
 
 public class GraphCommand {
@@ -35,6 +36,19 @@ public class GraphCommand {
     protected String cmd = null;
     protected String[] args = null;
     
+    // bulk execution (see GraphBulkLoader): the requests are executed
+    //  as one unit & the result is handed back instead of written out
+    
+    protected List<String> bulkRequests = null;
+    protected List<Integer> bulkLines = null;       // line numbers of the requests (exec)
+    protected boolean bulkCommit = false;
+    protected JSONObject bulkResult = null;
+    protected CountDownLatch bulkDone = null;
+    
+    // a read whose response waits on a journal commit (sync mode)
+    
+    protected GraphCommandExecutor.HeldResponse heldResponse = null;
+    
     // system use only:
     
     protected boolean poisonPill = false;
@@ -16,10 +16,13 @@
 
 package cc.osint.graphd.server;
 
+import java.io.File;
 import java.lang.*;
 import java.lang.ref.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.json.*;
@@ -36,11 +39,136 @@ public class GraphCommandExecutor implements Runnable {
     final private WeakReference<Graph> graphRef;
     final LinkedBlockingQueue<GraphCommand> graphCommandQueue;
     
+    /* journal of mutating commands (null: off); in sync mode responses
+       are held until the group of commands they belong to is on disk,
+       & so are those of reads sent after a held response */
+    
+    final private static int MAX_COMMIT_GROUP = 1024;
+    private volatile GraphJournal journal = null;
+    final private List<HeldResponse> heldResponses = new ArrayList<HeldResponse>();
+    private boolean writesJournaled = false;    // by the command executing (under graphLock)
+    
+    /* read lane: read-only commands run in parallel on a bounded pool,
+       one lane per client so that each client's responses stay in order.
+       mutations are barriers: they run on this executor's thread once
+       every read dispatched before them has finished, under graphLock
+       (which also covers the "&" path) */
+    
+    final private static int READ_THREADS = Integer.parseInt(
+        System.getProperty("graphd.read.threads", 
+            "" + Math.max(4, Runtime.getRuntime().availableProcessors())));
+    final private static ExecutorService readExecutorService;
+    static {
+        readExecutorService = Executors.newFixedThreadPool(READ_THREADS);
+    }
+    final private static Set<String> analysisCommands;
+    static {
+        analysisCommands = new HashSet<String>();
+        analysisCommands.add(GraphServerProtocol.CMD_SPATH);
+        analysisCommands.add(GraphServerProtocol.CMD_KSPATH);
+        analysisCommands.add(GraphServerProtocol.CMD_HC);
+        analysisCommands.add(GraphServerProtocol.CMD_EC);
+        analysisCommands.add(GraphServerProtocol.CMD_EKMF);
+        analysisCommands.add(GraphServerProtocol.CMD_MINCUT);
+        analysisCommands.add(GraphServerProtocol.CMD_CN);
+        analysisCommands.add(GraphServerProtocol.CMD_KMST);
+        analysisCommands.add(GraphServerProtocol.CMD_VCG);
+        analysisCommands.add(GraphServerProtocol.CMD_VC2A);
+        analysisCommands.add(GraphServerProtocol.CMD_CSETV);
+        analysisCommands.add(GraphServerProtocol.CMD_CSETS);
+        analysisCommands.add(GraphServerProtocol.CMD_ISCON);
+        analysisCommands.add(GraphServerProtocol.CMD_UPATHEX);
+        analysisCommands.add(GraphServerProtocol.CMD_REACH);
+        analysisCommands.add(GraphServerProtocol.CMD_SCCS);
+        analysisCommands.add(GraphServerProtocol.CMD_SCCV);
+        analysisCommands.add(GraphServerProtocol.CMD_FAMC);
+        analysisCommands.add(GraphServerProtocol.CMD_FBMC);
+        analysisCommands.add(GraphServerProtocol.CMD_ASPV);
+        analysisCommands.add(GraphServerProtocol.CMD_GCYC);
+        analysisCommands.add(GraphServerProtocol.CMD_VCYC);
+    }
+    /* commands that take a <<query>> as an argument, rather than being
+       run once per vertex it matches: the seeds of ppr & co., the
+       closure lookups, the stops of hc & the views of the undirected
+       analytics */
+    
+    final private static Set<String> selectorCommands;
+    static {
+        selectorCommands = new HashSet<String>();
+        selectorCommands.add(GraphServerProtocol.CMD_PPR);
+        selectorCommands.add(GraphServerProtocol.CMD_HITSP);
+        selectorCommands.add(GraphServerProtocol.CMD_KSTEP);
+        selectorCommands.add(GraphServerProtocol.CMD_ANCESTORS);
+        selectorCommands.add(GraphServerProtocol.CMD_DESCENDANTS);
+        selectorCommands.add(GraphServerProtocol.CMD_HC);
+        selectorCommands.add(GraphServerProtocol.CMD_EC);
+        selectorCommands.add(GraphServerProtocol.CMD_CN);
+        selectorCommands.add(GraphServerProtocol.CMD_KMST);
+        selectorCommands.add(GraphServerProtocol.CMD_VCG);
+        selectorCommands.add(GraphServerProtocol.CMD_VC2A);
+        selectorCommands.add(GraphServerProtocol.CMD_FAMC);
+        selectorCommands.add(GraphServerProtocol.CMD_FBMC);
+        selectorCommands.add(GraphServerProtocol.CMD_COLOR);
+    }
+    final private static Set<String> readCommands;
+    static {
+        readCommands = new HashSet<String>(analysisCommands);
+        readCommands.add(GraphServerProtocol.CMD_Q);
+        readCommands.add(GraphServerProtocol.CMD_QP);
+        readCommands.add(GraphServerProtocol.CMD_QSIM);
+        readCommands.add(GraphServerProtocol.CMD_EXISTS);
+        readCommands.add(GraphServerProtocol.CMD_GET);
+        readCommands.add(GraphServerProtocol.CMD_SPY);
+        readCommands.add(GraphServerProtocol.CMD_JOB);
+        readCommands.add(GraphServerProtocol.CMD_ANCESTORS);
+        readCommands.add(GraphServerProtocol.CMD_DESCENDANTS);
+    }
+    final private ReentrantReadWriteLock graphLock = new ReentrantReadWriteLock();
+    final private HashMap<String, ReadLane> readLanes = new HashMap<String, ReadLane>();
+    private int readsOutstanding = 0;
+    
+    /* background analytics (job): each runs against the snapshot pinned
+       when it was submitted & publishes its result to a channel */
+    
+    final private static int JOB_THREADS = Integer.parseInt(
+        System.getProperty("graphd.job.threads", "2"));
+    final private static ExecutorService jobExecutorService;
+    static {
+        jobExecutorService = Executors.newFixedThreadPool(JOB_THREADS);
+    }
+    final private static AtomicLong jobIds = new AtomicLong(0);
+    
+    /* betweenness & closeness publish progress to a channel this often */
+    
+    final private static long CENTRALITY_PROGRESS_INTERVAL = Long.parseLong(
+        System.getProperty("graphd.centrality.progress.ms", "1000"));
+    
     public GraphCommandExecutor(String graphName,
                                 WeakReference<Graph> graphRef) {
         this.graphName = graphName;
         this.graphRef = graphRef;
         graphCommandQueue = new LinkedBlockingQueue<GraphCommand>();
+        
+        // analytics write-backs are journaled as vset records of the
+        //  values written, not as the commands that computed them
+        Graph gr = graphRef.get();
+        if (null != gr) {
+            gr.setVertexPropertyListener(new Graph.VertexPropertyListener() {
+                public void vertexPropertyWritten(String property, JSONObject values) 
+                    throws Exception {
+                    GraphJournal journal = GraphCommandExecutor.this.journal;
+                    if (null == journal) return;
+                    long sequence = journal.append(GraphServerProtocol.CMD_VSET + 
+                        GraphServerProtocol.SPACE + property + 
+                        GraphServerProtocol.SPACE + values.toString());
+                    Graph gr = GraphCommandExecutor.this.graphRef.get();
+                    if (null != gr) {
+                        gr.setJournalSequence(sequence);
+                    }
+                    writesJournaled = true;
+                }
+            });
+        }
         log.info("start: GraphCommandExecutor(" + this.graphName + ")");
     }
     
@@ -52,13 +180,118 @@ public class GraphCommandExecutor implements Runnable {
         while (true) {
             GraphCommand graphCommand = null;
             String response;
+            boolean journaled = false;
             try {
                 graphCommand = graphCommandQueue.take();
                 if (graphCommand.poisonPill) {
                     log.info(graphName + ": detected poison pill: terminator processor");
+                    commitGroup();
                     return;
                 }
+                if (isReadCommand(graphCommand)) {
+                    // executed now, but answered after its client's held
+                    //  responses (journal)
+                    if (isHeld(graphCommand.responseChannel)) {
+                        graphCommand.heldResponse = 
+                            new HeldResponse(graphCommand.responseChannel, null);
+                        heldResponses.add(graphCommand.heldResponse);
+                    }
+                    dispatchRead(graphCommand);
+                    if (graphCommandQueue.isEmpty()) {
+                        commitGroup();
+                    }
+                    continue;
+                }
+                awaitReads();
+                if (null != graphCommand.bulkRequests) {
+                    commitGroup();
+                    executeBulk(graphCommand);
+                    continue;
+                }
                 long requestTimeStart = System.currentTimeMillis();
+                graphLock.writeLock().lock();
+                try {
+                    writesJournaled = false;
+                    response = 
+                        execute(graphCommand.responseChannel,
+                                graphCommand.clientId,
+                                graphCommand.clientState,
+                                graphCommand.inboundChannelProcess,
+                                graphCommand.request,
+                                graphCommand.cmd,
+                                graphCommand.args);
+                    response = journal(graphCommand.cmd, graphCommand.request, response);
+                } finally {
+                    journaled = writesJournaled;
+                    graphLock.writeLock().unlock();
+                }
+                long requestTimeElapsed = System.currentTimeMillis() - requestTimeStart;
+                if (requestTimeElapsed > 100) {
+                    log.info("[" + requestTimeElapsed + "ms]: " + graphCommand.request);
+                }
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                response = GraphServerProtocol.R_ERR + GraphServerProtocol.SPACE + ex.getMessage();
+            }
+            
+            // once a journaled command is held, everything after it is held
+            //  too so that no client sees its responses out of order
+            GraphJournal journal = this.journal;
+            if (null != journal && journal.isSyncMode() &&
+                (journaled || heldResponses.size() > 0)) {
+                heldResponses.add(new HeldResponse(graphCommand.responseChannel, response));
+            } else {
+                (graphCommand.responseChannel).write(response.trim() + GraphServerProtocol.NL);
+            }
+            if (graphCommandQueue.isEmpty() ||
+                heldResponses.size() >= MAX_COMMIT_GROUP) {
+                commitGroup();
+            }
+        }
+    }
+    
+    /*
+     * read lane
+    */
+    
+    private boolean isReadCommand(GraphCommand graphCommand) {
+        return null == graphCommand.bulkRequests &&
+               null != graphCommand.cmd &&
+               readCommands.contains(graphCommand.cmd) &&
+               (graphCommand.request.indexOf("<<") == -1 ||
+                selectorCommands.contains(graphCommand.cmd));
+    }
+    
+    private void dispatchRead(GraphCommand graphCommand) {
+        synchronized(readLanes) {
+            readsOutstanding++;
+            ReadLane lane = readLanes.get(graphCommand.clientId);
+            if (null == lane) {
+                lane = new ReadLane(graphCommand.clientId);
+                readLanes.put(graphCommand.clientId, lane);
+            }
+            lane.pending.add(graphCommand);
+            if (!lane.running) {
+                lane.running = true;
+                readExecutorService.execute(lane);
+            }
+        }
+    }
+    
+    private void awaitReads() throws InterruptedException {
+        synchronized(readLanes) {
+            while (readsOutstanding > 0) {
+                readLanes.wait();
+            }
+        }
+    }
+    
+    private void executeRead(GraphCommand graphCommand) {
+        String response;
+        try {
+            long requestTimeStart = System.currentTimeMillis();
+            graphLock.readLock().lock();
+            try {
                 response = 
                     execute(graphCommand.responseChannel,
                             graphCommand.clientId,
@@ -67,15 +300,430 @@ public class GraphCommandExecutor implements Runnable {
                             graphCommand.request,
                             graphCommand.cmd,
                             graphCommand.args);
-                long requestTimeElapsed = System.currentTimeMillis() - requestTimeStart;
-                if (requestTimeElapsed > 100) {
-                    log.info("[" + requestTimeElapsed + "ms]: " + graphCommand.request);
+            } finally {
+                graphLock.readLock().unlock();
+            }
+            long requestTimeElapsed = System.currentTimeMillis() - requestTimeStart;
+            if (requestTimeElapsed > 100) {
+                log.info("[" + requestTimeElapsed + "ms]: " + graphCommand.request);
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            response = GraphServerProtocol.R_ERR + GraphServerProtocol.SPACE + ex.getMessage();
+        }
+        if (null != graphCommand.heldResponse) {
+            graphCommand.heldResponse.complete(response);
+        } else {
+            (graphCommand.responseChannel).write(response.trim() + GraphServerProtocol.NL);
+        }
+    }
+    
+    /*
+     * a client's read-only commands, executed in order on readExecutorService;
+     *  the lane is discarded when it runs dry
+    */
+    private class ReadLane implements Runnable {
+        final private String clientId;
+        final private LinkedList<GraphCommand> pending = new LinkedList<GraphCommand>();
+        private boolean running = false;
+        
+        ReadLane(String clientId) {
+            this.clientId = clientId;
+        }
+        
+        public void run() {
+            while (true) {
+                GraphCommand graphCommand;
+                synchronized(readLanes) {
+                    graphCommand = pending.poll();
+                    if (null == graphCommand) {
+                        running = false;
+                        readLanes.remove(clientId);
+                        return;
+                    }
+                }
+                try {
+                    executeRead(graphCommand);
+                } finally {
+                    synchronized(readLanes) {
+                        readsOutstanding--;
+                        if (readsOutstanding == 0) {
+                            readLanes.notifyAll();
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /*
+     * aspv, csets, sccs, famc & gcyc: result lines are written to the
+     *  client in batches as they are produced; with no client (a job) they
+     *  are collected in the response
+    */
+    private static class LineWriter implements SingleSourceShortestPaths.PathListener,
+                                               Components.Listener,
+                                               MaximalCliques.Listener,
+                                               ElementaryCycles.Listener {
+        final private static int BATCH_SIZE = 65536;
+        final private Channel responseChannel;
+        final private StringBuffer rsb;
+        
+        LineWriter(Channel responseChannel, StringBuffer rsb) {
+            this.responseChannel = responseChannel;
+            this.rsb = (null == responseChannel) ? rsb : new StringBuffer();
+        }
+        
+        public void path(JSONObject path) throws Exception {
+            write(path);
+        }
+        
+        public void component(JSONObject component) throws Exception {
+            write(component);
+        }
+        
+        public void clique(JSONObject clique) throws Exception {
+            write(clique);
+        }
+        
+        public void cycle(JSONObject cycle) throws Exception {
+            write(cycle);
+        }
+        
+        private void write(JSONObject line) {
+            rsb.append(line.toString());
+            rsb.append(GraphServerProtocol.NL);
+            if (null != responseChannel && rsb.length() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+        
+        void flush() {
+            if (null != responseChannel && rsb.length() > 0) {
+                responseChannel.write(rsb.toString());
+                rsb.setLength(0);
+            }
+        }
+    }
+    
+    /*
+     * job: run an analysis command against a pinned snapshot on
+     *  jobExecutorService, publish the result to <channel> & release
+     *  the snapshot
+    */
+    private void submitJob(final long jobId,
+                           final Graph gr,
+                           final AdjacencySnapshot snapshot,
+                           final String channel,
+                           final String clientId,
+                           final ConcurrentHashMap<String, String> clientState,
+                           final InboundChannelProcess inboundChannelProcess,
+                           final String jobRequest) {
+        jobExecutorService.execute(new Runnable() {
+            public void run() {
+                long t0 = System.currentTimeMillis();
+                String response;
+                try {
+                    response = gr.runAgainstSnapshot(snapshot, new Callable<String>() {
+                        public String call() throws Exception {
+                            return execute(null,
+                                           clientId,
+                                           clientState,
+                                           inboundChannelProcess,
+                                           jobRequest,
+                                           GraphBulkLoader.getCommand(jobRequest),
+                                           GraphBulkLoader.getArgs(jobRequest));
+                        }
+                    });
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    response = GraphServerProtocol.R_ERR + GraphServerProtocol.SPACE + ex.getMessage();
+                } finally {
+                    snapshot.release();
+                }
+                try {
+                    // <result>\n-ok, or a single status line
+                    response = response.trim();
+                    String status = response;
+                    String body = null;
+                    if (response.indexOf(GraphServerProtocol.NL) != -1) {
+                        status = response.substring(response.lastIndexOf(GraphServerProtocol.NL)+1);
+                        body = response.substring(0, response.lastIndexOf(GraphServerProtocol.NL)).trim();
+                    }
+                    JSONObject msg = new JSONObject();
+                    msg.put("job", jobId);
+                    msg.put("epoch", snapshot.getEpoch());
+                    msg.put("request", jobRequest);
+                    msg.put("status", status);
+                    if (null != body) {
+                        // one object per line (e.g. aspv) -> array
+                        String[] lines = body.split(GraphServerProtocol.NL);
+                        if (lines.length == 1) {
+                            msg.put("result", lines[0].startsWith("{") ? new JSONObject(lines[0]) : lines[0]);
+                        } else {
+                            JSONArray result = new JSONArray();
+                            for(String line: lines) {
+                                result.put(line.startsWith("{") ? new JSONObject(line) : line);
+                            }
+                            msg.put("result", result);
+                        }
+                    }
+                    msg.put("elapsed_ms", System.currentTimeMillis() - t0);
+                    gr.publishToEndpointByName(channel, msg);
+                } catch (Exception ex) {
+                    log.log(Level.SEVERE, graphName + ": job " + jobId + ": could not publish result", ex);
                 }
+            }
+        });
+    }
+    
+    /*
+     * journal a successfully executed mutation, under the write lock it
+     *  was executed under so that the journal's order is the order the
+     *  mutations were applied in (& a save sees either both or neither).
+     *  writesJournaled is set if anything was appended (& needs a
+     *  commit); the write-backs of analytics are appended as they
+     *  happen, by the VertexPropertyListener.  returns the response, or
+     *  a JOURNAL_FAILED error in its place.
+    */
+    protected String journal(String cmd, String request, String response) {
+        GraphJournal journal = this.journal;
+        if (null == journal ||
+            null == request ||
+            !GraphJournal.isMutation(cmd)) {
+            return response;
+        }
+        String status = response.trim();
+        if (status.indexOf(GraphServerProtocol.NL) != -1) {
+            status = status.substring(status.lastIndexOf(GraphServerProtocol.NL)+1);
+        }
+        if (!status.equals(GraphServerProtocol.R_OK) &&
+            !status.equals(GraphServerProtocol.R_BATCH_OK)) {
+            return response;
+        }
+        try {
+            long sequence = journal.append(request);
+            Graph gr = graphRef.get();
+            if (null != gr) {
+                gr.setJournalSequence(sequence);
+            }
+            writesJournaled = true;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return GraphServerProtocol.R_ERR + " JOURNAL_FAILED " + ex.getMessage();
+        }
+        return response;
+    }
+    
+    /*
+     * a response waiting on a journal commit.  a read's response is
+     *  filled in by its read lane & may not be ready when the group is
+     *  committed: whichever of complete & release comes second writes it.
+     *  (only reads can be outstanding at a commit: everything else waits
+     *  for them, so the client's responses are still written in order)
+    */
+    static class HeldResponse {
+        final private Channel channel;
+        private String response;
+        private String error = null;
+        private boolean released = false;
+        
+        HeldResponse(Channel channel, String response) {
+            this.channel = channel;
+            this.response = response;
+        }
+        
+        synchronized void complete(String response) {
+            this.response = response;
+            if (released) write();
+        }
+        
+        synchronized void release(String error) {
+            this.error = error;
+            released = true;
+            if (null != response) write();
+        }
+        
+        private void write() {
+            String r = (null == error) ? response : error;
+            channel.write(r.trim() + GraphServerProtocol.NL);
+        }
+    }
+    
+    private boolean isHeld(Channel channel) {
+        for(HeldResponse heldResponse: heldResponses) {
+            if (heldResponse.channel == channel) return true;
+        }
+        return false;
+    }
+    
+    /*
+     * end of a group of commands: commit the journal, then release any
+     *  responses that were waiting on it
+    */
+    private void commitGroup() {
+        String error = null;
+        GraphJournal journal = this.journal;
+        if (null != journal) {
+            try {
+                journal.commit();
             } catch (Exception ex) {
-                ex.printStackTrace();
-                response = GraphServerProtocol.R_ERR + GraphServerProtocol.SPACE + ex.getMessage();
+                log.log(Level.SEVERE, graphName + ": journal commit failed", ex);
+                error = GraphServerProtocol.R_ERR + " JOURNAL_FAILED " + ex.getMessage();
             }
-            (graphCommand.responseChannel).write(response.trim() + GraphServerProtocol.NL);
+        }
+        for(HeldResponse heldResponse: heldResponses) {
+            heldResponse.release(error);
+        }
+        heldResponses.clear();
+    }
+    
+    /*
+     * execute a request outside of the queue (the "&" prefix); a journaled
+     *  mutation is committed before returning
+    */
+    public String executeImmediate(Channel responseChannel,
+                                   String clientId, 
+                                   ConcurrentHashMap<String, String> clientState,
+                                   InboundChannelProcess inboundChannelProcess,
+                                   String request, 
+                                   String cmd, 
+                                   String[] args) throws Exception {
+        boolean isRead = readCommands.contains(cmd) && 
+            (request.indexOf("<<") == -1 || selectorCommands.contains(cmd));
+        Lock lock = isRead ? graphLock.readLock() : graphLock.writeLock();
+        String response;
+        boolean journaled = false;
+        lock.lock();
+        try {
+            if (!isRead) writesJournaled = false;
+            response = execute(responseChannel, clientId, clientState,
+                               inboundChannelProcess, request, cmd, args);
+            if (!isRead) {
+                response = journal(cmd, request, response);
+            }
+        } finally {
+            if (!isRead) journaled = writesJournaled;
+            lock.unlock();
+        }
+        GraphJournal journal = this.journal;
+        if (journaled && null != journal) {
+            journal.commit();
+        }
+        return response;
+    }
+    
+    /*
+     * journal management
+    */
+    
+    public GraphJournal getJournal() {
+        return journal;
+    }
+    
+    /*
+     * start journaling at <sequence> (appending to any existing journal),
+     *  change the mode of the current journal or, for "off", stop
+     *  journaling & delete the journal
+    */
+    protected void setJournalMode(String mode, long sequence) throws Exception {
+        File file = new File(GraphServerHandler.getJournalFile(graphName));
+        GraphJournal newJournal = GraphJournal.open(file, mode, sequence);
+        GraphJournal oldJournal = journal;
+        journal = newJournal;
+        if (null != oldJournal) {
+            oldJournal.close();
+        }
+        if (null == newJournal && file.exists()) {
+            file.delete();
+        }
+    }
+    
+    /*
+     * journal command: enabling the journal on a graph writes a snapshot
+     *  first so that snapshot + journal always covers the whole graph
+    */
+    private JSONObject setJournalMode(Graph gr, String mode) throws Exception {
+        if (null == journal && !mode.equals(GraphJournal.MODE_OFF)) {
+            File file = new File(GraphServerHandler.getJournalFile(graphName));
+            if (file.exists()) {
+                file.delete();
+            }
+            gr.save(GraphServerHandler.getSnapshotFile(graphName));
+            setJournalMode(mode, gr.getJournalSequence());
+        } else if (null != journal) {
+            commitGroup();
+            setJournalMode(mode, journal.getSequence());
+        }
+        return getJournalStatus();
+    }
+    
+    public JSONObject getJournalStatus() throws Exception {
+        GraphJournal journal = this.journal;
+        if (null == journal) {
+            JSONObject result = new JSONObject();
+            result.put("journal_mode", GraphJournal.MODE_OFF);
+            return result;
+        }
+        return journal.getStatus();
+    }
+    
+    /*
+     * apply the journal (after the graph's journal sequence) via the bulk
+     *  path, then continue journaling in <mode>; used at startup
+    */
+    protected JSONObject replayJournal(String mode) throws Exception {
+        Graph gr = graphRef.get();
+        File file = new File(GraphServerHandler.getJournalFile(graphName));
+        long[] lastSequence = new long[1];
+        long[] validLength = new long[1];
+        List<String> requests = GraphJournal.read(file, gr.getJournalSequence(), 
+                                                  lastSequence, validLength);
+        GraphJournal.trim(file, validLength[0]);
+        
+        GraphCommand replayCommand = new GraphCommand();
+        replayCommand.clientId = "journal";
+        replayCommand.clientState = new ConcurrentHashMap<String, String>();
+        replayCommand.clientState.put(GraphServerHandler.ST_DB, graphName);
+        replayCommand.bulkRequests = requests;
+        replayCommand.bulkCommit = true;
+        replayCommand.bulkDone = new CountDownLatch(1);
+        queue(replayCommand);
+        replayCommand.bulkDone.await();
+        
+        gr.setJournalSequence(lastSequence[0]);
+        setJournalMode(mode, lastSequence[0]);
+        JSONObject result = replayCommand.bulkResult;
+        result.put("graph", graphName);
+        result.put("journal_sequence", lastSequence[0]);
+        return result;
+    }
+    
+    protected void executeBulk(GraphCommand bulkCommand) {
+        graphLock.writeLock().lock();
+        try {
+            Graph gr = graphRef.get();
+            if (null == gr) {
+                throw new Exception("GRAPH_NO_LONGER_EXISTS");
+            }
+            // the loader journals the requests in order, between the
+            //  write-backs of any analytics among them
+            bulkCommand.bulkResult = 
+                GraphBulkLoader.load(gr, this, bulkCommand);
+            GraphJournal journal = this.journal;
+            if (null != journal) {
+                gr.setJournalSequence(journal.getSequence());
+                journal.commit();
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            try {
+                bulkCommand.bulkResult = new JSONObject();
+                bulkCommand.bulkResult.put("error", "" + ex.getMessage());
+            } catch (Exception jsonEx) { }
+        } finally {
+            graphLock.writeLock().unlock();
+            bulkCommand.bulkDone.countDown();
         }
     }
     
@@ -89,6 +737,34 @@ public class GraphCommandExecutor implements Runnable {
         
         StringBuffer rsb = new StringBuffer();
         
+        // SAVE GRAPH SNAPSHOT: save <graphName>
+        //  (names its graph explicitly; does not require CMD_USE)
+        if (cmd.equals(GraphServerProtocol.CMD_SAVE)) {
+            Graph gr = graphRef.get();
+            if (null == gr) {
+                return GraphServerProtocol.R_ERR + " GRAPH_NO_LONGER_EXISTS";
+            }
+            
+            // always the graph's own snapshot file, in the data directory
+            if (args.length > 1) {
+                return GraphServerProtocol.R_ERR + " FILE_NOT_ALLOWED";
+            }
+            commitGroup();
+            JSONObject result = gr.save(GraphServerHandler.getSnapshotFile(graphName));
+            
+            // the snapshot is the journal's base: everything journaled so
+            //  far is in it
+            GraphJournal journal = this.journal;
+            if (null != journal) {
+                journal.truncate();
+                result.put("journal_truncated", true);
+            }
+            rsb.append(result.toString());
+            rsb.append(GraphServerProtocol.NL);
+            rsb.append(GraphServerProtocol.R_OK);
+            return rsb.toString();
+        }
+        
         // all operations require a db to be selected (via GraphServerProtocol.CMD_USE)
         
         if (null == clientState.get(GraphServerHandler.ST_DB)) {
@@ -117,7 +793,10 @@ public class GraphCommandExecutor implements Runnable {
          *
         */
         if (request.indexOf("<<") != -1 &&
-            request.indexOf(">>") != -1) {
+            request.indexOf(">>") != -1 &&
+            !selectorCommands.contains(cmd) &&
+            !(cmd.equals(GraphServerProtocol.CMD_JOB) && args.length > 1 &&
+              selectorCommands.contains(args[1].toLowerCase()))) {
             String query = request.substring(request.indexOf("<<")+2,
                                              request.indexOf(">>"));
             String prefix = request.substring(0, request.indexOf("<<")).trim();
@@ -232,11 +911,10 @@ public class GraphCommandExecutor implements Runnable {
         // DELETE OBJECT: del <key>
         } else if (cmd.equals(GraphServerProtocol.CMD_DEL)) {
             String key = args[0];
-            JSONObject obj = gr.getGraphObject(key);
-            if (null == obj) {
+            String _type = gr.getGraphObjectType(key);
+            if (null == _type) {
                 rsb.append(GraphServerProtocol.R_NOT_FOUND);
             } else {
-                String _type = obj.getString(Graph.TYPE_FIELD);
                 if (_type.equals(Graph.VERTEX_TYPE)) {
                     JSONVertex jv = gr.getVertex(key);
                     gr.removeVertex(jv);
@@ -310,15 +988,146 @@ public class GraphCommandExecutor implements Runnable {
             rsb.append(GraphServerProtocol.R_OK);
             */
         
-        // DIJKSTRA SHORTEST PATH: spath <from> <to> <radius>
+        // ALT LANDMARKS FOR SPATH: landmarks [<count>]
+        } else if (cmd.equals(GraphServerProtocol.CMD_LANDMARKS)) {
+            JSONObject result;
+            if (args.length == 0) {
+                result = gr.getLandmarkStatus();
+            } else {
+                result = gr.buildLandmarks(Integer.parseInt(args[0]));
+            }
+            if (null == result) {
+                rsb.append(GraphServerProtocol.R_NOT_EXIST);
+            } else {
+                rsb.append(result.toString());
+                rsb.append(GraphServerProtocol.NL);
+                rsb.append(GraphServerProtocol.R_OK);
+            }
+        
+        // CONTRACTION HIERARCHY FOR SPATH: chbuild [status|drop]
+        } else if (cmd.equals(GraphServerProtocol.CMD_CHBUILD)) {
+            JSONObject result = null;
+            if (args.length == 0) {
+                result = gr.buildContractionHierarchy();
+            } else if (args[0].equals("status")) {
+                result = gr.getContractionHierarchyStatus();
+            } else if (args[0].equals("drop")) {
+                gr.dropContractionHierarchy();
+                rsb.append(GraphServerProtocol.R_OK);
+                return rsb.toString();
+            }
+            if (null == result) {
+                rsb.append(GraphServerProtocol.R_NOT_EXIST);
+            } else {
+                rsb.append(result.toString());
+                rsb.append(GraphServerProtocol.NL);
+                rsb.append(GraphServerProtocol.R_OK);
+            }
+        
+        // MATERIALIZED TRANSITIVE CLOSURE: closure_build <rel> [status|drop]
+        } else if (cmd.equals(GraphServerProtocol.CMD_CLOSURE_BUILD)) {
+            if (args.length == 0) {
+                rsb.append(GraphServerProtocol.R_ERR);
+                rsb.append(" CLOSURE_BUILD_REQUIRES_RELATIONSHIP");
+                return rsb.toString();
+            }
+            JSONObject result = null;
+            if (args.length == 1) {
+                result = gr.buildClosure(args[0]);
+            } else if (args[1].equals("status")) {
+                result = gr.getClosureStatus(args[0]);
+            } else if (args[1].equals("drop")) {
+                rsb.append(gr.dropClosure(args[0]) ? 
+                    GraphServerProtocol.R_OK : GraphServerProtocol.R_NOT_EXIST);
+                return rsb.toString();
+            }
+            if (null == result) {
+                rsb.append(GraphServerProtocol.R_NOT_EXIST);
+            } else {
+                rsb.append(result.toString());
+                rsb.append(GraphServerProtocol.NL);
+                rsb.append(GraphServerProtocol.R_OK);
+            }
+        
+        // CLOSURE LOOKUPS: ancestors <key> [<rel>] [<<query>>]
+        //                  descendants <key> [<rel>] [<<query>>]
+        } else if (cmd.equals(GraphServerProtocol.CMD_ANCESTORS) ||
+                   cmd.equals(GraphServerProtocol.CMD_DESCENDANTS)) {
+            JSONVertex jv = (args.length == 0) ? null : gr.getVertex(args[0]);
+            if (null == jv) {
+                rsb.append(GraphServerProtocol.R_NOT_FOUND);
+                return rsb.toString();
+            }
+            String rel = null;
+            String query = null;
+            if (args.length > 1 && !args[1].startsWith("<<")) {
+                rel = args[1];
+            }
+            if (request.indexOf("<<") != -1 &&
+                request.indexOf(">>") != -1) {
+                query = request.substring(request.indexOf("<<")+2,
+                                          request.indexOf(">>"));
+            }
+            JSONObject result = gr.getClosureSet(jv, rel, 
+                cmd.equals(GraphServerProtocol.CMD_ANCESTORS), query);
+            if (null == result) {
+                rsb.append(GraphServerProtocol.R_NOT_EXIST);
+            } else {
+                rsb.append(result.toString());
+                rsb.append(GraphServerProtocol.NL);
+                rsb.append(GraphServerProtocol.R_OK);
+            }
+        
+        // BACKGROUND ANALYTIC: job <channel> <analysis command>
+        } else if (cmd.equals(GraphServerProtocol.CMD_JOB)) {
+            if (args.length < 2) {
+                rsb.append(GraphServerProtocol.R_ERR);
+                rsb.append(" JOB_REQUIRES_CHANNEL_AND_COMMAND");
+                return rsb.toString();
+            }
+            String channel = args[0];
+            String jobRequest = request.substring(request.indexOf(GraphServerProtocol.SPACE + channel) +
+                (channel.length()+1)).trim(); // remainder of line
+            String jobCmd = GraphBulkLoader.getCommand(jobRequest);
+            if (!analysisCommands.contains(jobCmd)) {
+                rsb.append(GraphServerProtocol.R_ERR);
+                rsb.append(" JOB_REQUIRES_ANALYSIS_COMMAND");
+            } else if (null == gr.getEndpointChannelProcess(channel)) {
+                rsb.append(GraphServerProtocol.R_ERR);
+                rsb.append(" CHANNEL_NOT_EXIST");
+            } else {
+                // pinned here, in order with this client's other commands
+                AdjacencySnapshot snapshot = gr.pinSnapshot();
+                long jobId = jobIds.incrementAndGet();
+                submitJob(jobId, gr, snapshot, channel, 
+                          clientId, clientState, inboundChannelProcess, jobRequest);
+                JSONObject result = new JSONObject();
+                result.put("job", jobId);
+                result.put("channel", channel);
+                result.put("epoch", snapshot.getEpoch());
+                result.put("request", jobRequest);
+                rsb.append(result.toString());
+                rsb.append(GraphServerProtocol.NL);
+                rsb.append(GraphServerProtocol.R_OK);
+            }
+        
+        // SHORTEST PATH: spath <from> <to> [<radius>] [dijkstra|bidir|alt|ch]
         } else if (cmd.equals(GraphServerProtocol.CMD_SPATH)) {
             String vFromKey = args[0];
             String vToKey = args[1];
             double radius = Double.POSITIVE_INFINITY;
-            if (args.length == 3) {
-                radius = Double.parseDouble(args[2]);
+            String mode = null;
+            for(int i=2; i<args.length; i++) {
+                if (args[i].equals(Graph.SPATH_DIJKSTRA) ||
+                    args[i].equals(PointToPointShortestPath.BIDIRECTIONAL) ||
+                    args[i].equals(PointToPointShortestPath.ALT) ||
+                    args[i].equals(PointToPointShortestPath.CONTRACTION_HIERARCHY)) {
+                    mode = args[i];
+                } else {
+                    radius = Double.parseDouble(args[i]);
+                }
             }
-            JSONObject result = gr.getShortestPath(vFromKey, vToKey, radius);
+            JSONObject result = gr.getShortestPath(vFromKey, vToKey, radius, mode);
             if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
@@ -346,11 +1155,10 @@ public class GraphCommandExecutor implements Runnable {
                 rsb.append(GraphServerProtocol.R_ERR);
                 rsb.append(" CANNOT_SET_RESERVED_PROPERTY");
             } else {                    
-                JSONObject obj = gr.getGraphObject(key);
-                if (null == obj) {
+                String _type = gr.getGraphObjectType(key);
+                if (null == _type) {
                     rsb.append(GraphServerProtocol.R_NOT_FOUND);
                 } else {
-                    String _type = obj.getString(Graph.TYPE_FIELD);
                     if (_type.equals(Graph.VERTEX_TYPE)) {
                         
                         JSONVertex jv = gr.getVertex(key);
@@ -383,6 +1191,24 @@ public class GraphCommandExecutor implements Runnable {
                 }
             }
             
+        // SET A PROPERTY OF MANY VERTICES: vset <attr> {"<key>": "<value>" | null, ...}
+        //  (the journal record of an analytics write-back)
+        } else if (cmd.equals(GraphServerProtocol.CMD_VSET)) {
+            String attr = args[0];
+            JSONObject values = new JSONObject(request.substring(
+                request.indexOf(GraphServerProtocol.SPACE + attr) + attr.length() + 1).trim());
+            if (attr.startsWith("_")) {
+                rsb.append(GraphServerProtocol.R_ERR);
+                rsb.append(" CANNOT_SET_RESERVED_PROPERTY");
+            } else {
+                JSONObject result = new JSONObject();
+                result.put("property", attr);
+                result.put("updated", gr.setVertexProperty(attr, values));
+                rsb.append(result);
+                rsb.append(GraphServerProtocol.NL);
+                rsb.append(GraphServerProtocol.R_OK);
+            }
+            
         // INCREASE EDGE WEIGHT: incw <edge_key> <amount>
         } else if (cmd.equals(GraphServerProtocol.CMD_INCW)) {
             String key = args[0];
@@ -399,15 +1225,33 @@ public class GraphCommandExecutor implements Runnable {
                 rsb.append(GraphServerProtocol.R_OK);
             }
 
+        // JOURNAL: journal [sync | interval:<ms> | none | off]
+        } else if (cmd.equals(GraphServerProtocol.CMD_JOURNAL)) {
+            if (args.length > 0) {
+                rsb.append(setJournalMode(gr, args[0]));
+            } else {
+                rsb.append(getJournalStatus());
+            }
+            rsb.append(GraphServerProtocol.NL);
+            rsb.append(GraphServerProtocol.R_OK);
+
+        // INDEX REFRESH POLICY: irefresh [sync | count:<n> | time:<ms> | read]
+        } else if (cmd.equals(GraphServerProtocol.CMD_IREFRESH)) {
+            if (args.length > 0) {
+                gr.setIndexRefreshPolicy(args[0]);
+            }
+            rsb.append(gr.getIndexRefreshStatus());
+            rsb.append(GraphServerProtocol.NL);
+            rsb.append(GraphServerProtocol.R_OK);
+
         // DUMP INTERNAL REPRESENTATION OF VERTEX/EDGE: spy <key>
         } else if (cmd.equals(GraphServerProtocol.CMD_SPY)) {
             String key = args[0];
             
-            JSONObject obj = gr.getGraphObject(key);
-            if (null == obj) {
+            String _type = gr.getGraphObjectType(key);
+            if (null == _type) {
                 rsb.append(GraphServerProtocol.R_NOT_FOUND);
             } else {
-                String _type = obj.getString(Graph.TYPE_FIELD);
                 if (_type.equals(Graph.EDGE_TYPE)) {
                     JSONEdge je = gr.getEdge(key);
                     if (null == je) {
@@ -444,45 +1288,67 @@ public class GraphCommandExecutor implements Runnable {
             rsb.append(GraphServerProtocol.NL);
             rsb.append(GraphServerProtocol.R_OK);
         
-        // HAMILTONIAN CYCLE: hc
+        // TRAVELING SALESMAN TOUR: hc [rel:<rel>] [<<query>> | <key> ...]
+        //                            [restarts:<n>] [timeout:<ms>]
         } else if (cmd.equals(GraphServerProtocol.CMD_HC)) {
-            List<JSONVertex> results = gr.getHamiltonianCycle();
-            if (null == results) {
+            List<String> rest = new ArrayList<String>();
+            String[] view = getViewArgs(request, args, rest);
+            List<JSONVertex> stops = new ArrayList<JSONVertex>();
+            int restarts = 8;
+            long timeout = 0;
+            boolean missing = false;
+            if (null != view[1]) {
+                for(JSONObject jo: gr.queryGraphIndex(view[1])) {
+                    JSONVertex jv = gr.getVertex(jo.getString(Graph.KEY_FIELD));
+                    if (null != jv) stops.add(jv);
+                }
+                missing = stops.size() == 0;
+            }
+            for(String arg: rest) {
+                if (arg.startsWith(GraphServerProtocol.HC_RESTARTS)) {
+                    restarts = Integer.parseInt(
+                        arg.substring(GraphServerProtocol.HC_RESTARTS.length()));
+                } else if (arg.startsWith(GraphServerProtocol.HC_TIMEOUT)) {
+                    timeout = Long.parseLong(
+                        arg.substring(GraphServerProtocol.HC_TIMEOUT.length()));
+                } else {
+                    JSONVertex jv = gr.getVertex(arg);
+                    if (null == jv) {
+                        missing = true;
+                    } else {
+                        stops.add(jv);
+                    }
+                }
+            }
+            JSONObject result = missing ? null :
+                gr.getTour(view[0], stops, restarts, timeout);
+            if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
-                JSONObject res = new JSONObject();
-                JSONArray cycle = new JSONArray();
-                for(JSONVertex jo: results) {
-                    cycle.put(jo);
-                }
-                res.put("cycle", cycle);
-                rsb.append(res);
+                rsb.append(result);
                 rsb.append(GraphServerProtocol.NL);
                 rsb.append(GraphServerProtocol.R_OK);
             }
         
-        // EULERIAN CIRCUIT: ec
+        // EULERIAN CIRCUIT: ec [rel:<rel>] [<<query>>] [directed]
         } else if (cmd.equals(GraphServerProtocol.CMD_EC)) {
-            List<JSONVertex> results = gr.getEulerianCircuit();
-            if (null == results) {
+            List<String> rest = new ArrayList<String>();
+            GraphView view = getView(gr, request, args, rest);
+            JSONObject result = gr.getEulerianCircuit(
+                view.asDirected(rest.contains("directed")));
+            if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
-                JSONObject res = new JSONObject();
-                JSONArray circuit = new JSONArray();
-                for(JSONVertex jo: results) {
-                    circuit.put(jo);
-                }
-                res.put("circuit", circuit);
-                rsb.append(res);
+                rsb.append(result);
                 rsb.append(GraphServerProtocol.NL);
                 rsb.append(GraphServerProtocol.R_OK);
             }
         
-        // EDWARDS KARP MAXIMUM FLOW: ekmf <from> <to>
+        // MAXIMUM FLOW (push-relabel): ekmf <from> <to>
         } else if (cmd.equals(GraphServerProtocol.CMD_EKMF)) {
             String vSourceKey = args[0];
             String vSinkKey = args[1];
-            JSONObject flowResult = gr.getEKMF(vSourceKey, vSinkKey);
+            JSONObject flowResult = gr.getMaximumFlow(vSourceKey, vSinkKey);
             if (null == flowResult) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
@@ -491,17 +1357,32 @@ public class GraphCommandExecutor implements Runnable {
                 rsb.append(GraphServerProtocol.R_OK);
             }
         
-        // CHROMATIC NUMBER: cn
+        // MINIMUM CUT: mincut <from> <to>
+        } else if (cmd.equals(GraphServerProtocol.CMD_MINCUT)) {
+            String vSourceKey = args[0];
+            String vSinkKey = args[1];
+            JSONObject cutResult = gr.getMinimumCut(vSourceKey, vSinkKey);
+            if (null == cutResult) {
+                rsb.append(GraphServerProtocol.R_NOT_EXIST);
+            } else {
+                rsb.append(cutResult.toString());
+                rsb.append(GraphServerProtocol.NL);
+                rsb.append(GraphServerProtocol.R_OK);
+            }
+        
+        // CHROMATIC NUMBER: cn [rel:<rel>] [<<query>>]
         } else if (cmd.equals(GraphServerProtocol.CMD_CN)) {
             JSONObject result = new JSONObject();
-            result.put("chromatic_number", gr.getChromaticNumber());
+            result.put("chromatic_number", gr.getChromaticNumber(
+                getView(gr, request, args, new ArrayList<String>())));
             rsb.append(result.toString());
             rsb.append(GraphServerProtocol.NL);
             rsb.append(GraphServerProtocol.R_OK);
         
-        // KRUSKAL'S MINIMUM SPANNING TREE: kmst
+        // KRUSKAL'S MINIMUM SPANNING TREE: kmst [rel:<rel>] [<<query>>]
         } else if (cmd.equals(GraphServerProtocol.CMD_KMST)) {
-            JSONObject result = gr.getKMST();
+            JSONObject result = gr.getKMST(
+                getView(gr, request, args, new ArrayList<String>()));
             if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
@@ -510,9 +1391,10 @@ public class GraphCommandExecutor implements Runnable {
                 rsb.append(GraphServerProtocol.R_OK);
             }
         
-        // VERTEX COVER: GREEDY: vcg
+        // VERTEX COVER: GREEDY: vcg [rel:<rel>] [<<query>>]
         } else if (cmd.equals(GraphServerProtocol.CMD_VCG)) {
-            JSONObject result = gr.getGreedyVertexCover();
+            JSONObject result = gr.getGreedyVertexCover(
+                getView(gr, request, args, new ArrayList<String>()));
             if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
@@ -521,9 +1403,10 @@ public class GraphCommandExecutor implements Runnable {
                 rsb.append(GraphServerProtocol.R_OK);
             }
         
-        // VERTEX COVER: 2-APPROXIMATION: vc2a
+        // VERTEX COVER: 2-APPROXIMATION: vc2a [rel:<rel>] [<<query>>]
         } else if (cmd.equals(GraphServerProtocol.CMD_VC2A)) {
-            JSONObject result = gr.get2ApproximationVertexCover();
+            JSONObject result = gr.get2ApproximationVertexCover(
+                getView(gr, request, args, new ArrayList<String>()));
             if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
@@ -533,28 +1416,45 @@ public class GraphCommandExecutor implements Runnable {
             }
         
         // MAXIMALLY CONNECTED SET BY VERTEX: csetv <key>
-        } else if (cmd.equals(GraphServerProtocol.CMD_CSETV)) {
+        // STRONGLY CONNECTED SET BY VERTEX: sccv <key>
+        } else if (cmd.equals(GraphServerProtocol.CMD_CSETV) ||
+                   cmd.equals(GraphServerProtocol.CMD_SCCV)) {
             String key = args[0];
             JSONVertex v = gr.getVertex(key);
-            if (null == v) {
+            JSONObject result = null;
+            if (null != v) {
+                result = cmd.equals(GraphServerProtocol.CMD_CSETV) ?
+                    gr.getConnectedSetByVertex(v) : gr.getStronglyConnectedSetByVertex(v);
+            }
+            if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_FOUND);
             } else {
-                JSONObject result = gr.getConnectedSetByVertex(v);
                 rsb.append(result.toString());
                 rsb.append(GraphServerProtocol.NL);
                 rsb.append(GraphServerProtocol.R_OK);
             }
         
-        // ALL MAXIMALLY CONNECTED SETS: csets
-        } else if (cmd.equals(GraphServerProtocol.CMD_CSETS)) {
-            JSONObject result = gr.getConnectedSets();
-            if (null == result) {
-                rsb.append(GraphServerProtocol.R_NOT_EXIST);
-            } else {
-                rsb.append(result.toString());
-                rsb.append(GraphServerProtocol.NL);
-                rsb.append(GraphServerProtocol.R_OK);
+        // ALL MAXIMALLY CONNECTED SETS: csets [<min_size>] [members]
+        // ALL STRONGLY CONNECTED SETS: sccs [<min_size>] [members]
+        } else if (cmd.equals(GraphServerProtocol.CMD_CSETS) ||
+                   cmd.equals(GraphServerProtocol.CMD_SCCS)) {
+            int minSize = 1;
+            boolean members = false;
+            for(String arg: args) {
+                if (arg.equals("members")) {
+                    members = true;
+                } else {
+                    minSize = Integer.parseInt(arg);
+                }
             }
+            LineWriter componentWriter = new LineWriter(responseChannel, rsb);
+            JSONObject result = cmd.equals(GraphServerProtocol.CMD_CSETS) ?
+                gr.getConnectedSets(minSize, members, componentWriter) :
+                gr.getStronglyConnectedSets(minSize, members, componentWriter);
+            componentWriter.flush();
+            rsb.append(result.toString());
+            rsb.append(GraphServerProtocol.NL);
+            rsb.append(GraphServerProtocol.R_OK);
         
         // CONNECTEDNESS TEST: iscon
         } else if (cmd.equals(GraphServerProtocol.CMD_ISCON)) {
@@ -575,20 +1475,65 @@ public class GraphCommandExecutor implements Runnable {
                 rsb.append(GraphServerProtocol.R_OK);
             }
         
-        // FIND ALL MAXIMAL CLIQUES: Bron Kerosch Clique Finder
-        } else if (cmd.equals(GraphServerProtocol.CMD_FAMC)) {
-            JSONObject result = gr.getAllMaximalCliques();
-            if (null == result) {
-                rsb.append(GraphServerProtocol.R_NOT_EXIST);
+        // DIRECTED PATH EXISTS
+        } else if (cmd.equals(GraphServerProtocol.CMD_REACH)) {
+            JSONVertex vFrom = gr.getVertex(args[0]);
+            JSONVertex vTo = gr.getVertex(args[1]);
+            if (null == vFrom ||
+                null == vTo) {
+                rsb.append(GraphServerProtocol.R_NOT_FOUND);
             } else {
-                rsb.append(result.toString());
+                rsb.append("" + gr.reaches(vFrom, vTo));
                 rsb.append(GraphServerProtocol.NL);
                 rsb.append(GraphServerProtocol.R_OK);
             }
+        
+        // MAXIMAL CLIQUES: famc [<min_size> [<limit> [<timeout_ms>]]] [rel:<rel>] [<<query>>]
+        //  one clique per line, streamed to the client as they are found
+        // BIGGEST MAXIMAL CLIQUES: fbmc [<min_size> [<limit> [<timeout_ms>]]] [rel:<rel>] [<<query>>]
+        } else if (cmd.equals(GraphServerProtocol.CMD_FAMC) ||
+                   cmd.equals(GraphServerProtocol.CMD_FBMC)) {
+            List<String> cliqueArgs = new ArrayList<String>();
+            GraphView view = getView(gr, request, args, cliqueArgs);
+            int minSize = 1;
+            long limit = 0;
+            long timeout = 0;
+            if (cliqueArgs.size() > 0) {
+                minSize = Integer.parseInt(cliqueArgs.get(0));
+            }
+            if (cliqueArgs.size() > 1) {
+                limit = Long.parseLong(cliqueArgs.get(1));
+            }
+            if (cliqueArgs.size() > 2) {
+                timeout = Long.parseLong(cliqueArgs.get(2));
+            }
+            LineWriter cliqueWriter = new LineWriter(responseChannel, rsb);
+            JSONObject result = gr.getMaximalCliques(view,
+                cmd.equals(GraphServerProtocol.CMD_FBMC), minSize, limit, timeout, 
+                cliqueWriter);
+            cliqueWriter.flush();
+            rsb.append(result.toString());
+            rsb.append(GraphServerProtocol.NL);
+            rsb.append(GraphServerProtocol.R_OK);
             
-        // FIND BIGGEST MAXIMAL CLIQUES: Bron Kerosch Clique Finder
-        } else if (cmd.equals(GraphServerProtocol.CMD_FBMC)) {
-            JSONObject result = gr.getBiggestMaximalCliques();
+        // ALL SHORTEST PATHS FROM VERTEX: aspv <key> [<radius> [<max_hops>]]
+        //  one path per line, streamed to the client as they are found
+        } else if (cmd.equals(GraphServerProtocol.CMD_ASPV)) {
+            JSONVertex vFrom = gr.getVertex(args[0]);
+            double radius = Double.POSITIVE_INFINITY;
+            int maxHops = -1;
+            if (args.length > 1) {
+                radius = Double.parseDouble(args[1]);
+            }
+            if (args.length > 2) {
+                maxHops = Integer.parseInt(args[2]);
+            }
+            JSONObject result = null;
+            if (null != vFrom) {
+                LineWriter pathWriter = new LineWriter(responseChannel, rsb);
+                result = gr.getAllShortestPathsFrom(vFrom, radius, maxHops, pathWriter);
+                pathWriter.flush();
+            }
             if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
@@ -596,10 +1541,37 @@ public class GraphCommandExecutor implements Runnable {
                 rsb.append(GraphServerProtocol.NL);
                 rsb.append(GraphServerProtocol.R_OK);
             }
-            
-        } else if (cmd.equals(GraphServerProtocol.CMD_ASPV)) {
-            JSONObject result = gr.getAllShortestPathsFrom(
-                gr.getVertex(args[0]));
+        
+        // CYCLES: gcyc [<max_length> [<limit> [<timeout_ms>]]]
+        // CYCLES THROUGH VERTEX: vcyc <key> [<max_length> [<limit> [<timeout_ms>]]]
+        //  one cycle per line, streamed to the client as they are found
+        } else if (cmd.equals(GraphServerProtocol.CMD_GCYC) ||
+                   cmd.equals(GraphServerProtocol.CMD_VCYC)) {
+            JSONVertex vThrough = null;
+            String[] cycleArgs = args;
+            if (cmd.equals(GraphServerProtocol.CMD_VCYC)) {
+                vThrough = gr.getVertex(args[0]);
+                cycleArgs = Arrays.copyOfRange(args, 1, args.length);
+            }
+            int maxLength = 0;
+            long limit = 0;
+            long timeout = 0;
+            if (cycleArgs.length > 0) {
+                maxLength = Integer.parseInt(cycleArgs[0]);
+            }
+            if (cycleArgs.length > 1) {
+                limit = Long.parseLong(cycleArgs[1]);
+            }
+            if (cycleArgs.length > 2) {
+                timeout = Long.parseLong(cycleArgs[2]);
+            }
+            JSONObject result = null;
+            if (null != vThrough || cmd.equals(GraphServerProtocol.CMD_GCYC)) {
+                LineWriter cycleWriter = new LineWriter(responseChannel, rsb);
+                result = gr.getElementaryCycles(vThrough, maxLength, limit, timeout,
+                    cycleWriter);
+                cycleWriter.flush();
+            }
             if (null == result) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
@@ -608,26 +1580,178 @@ public class GraphCommandExecutor implements Runnable {
                 rsb.append(GraphServerProtocol.R_OK);
             }
         
-        } else if (cmd.equals(GraphServerProtocol.CMD_GCYC)) {
-            JSONObject result = gr.getGraphCycles();
-            if (null == result) {
+        // PAGERANK: pagerank [<iterations> [<damping> [<tolerance> [<top_k>]]]]
+        // PERSONALIZED PAGERANK: ppr <key|<<query>>> [<iterations> [<damping> [<tolerance> [<top_k>]]]]
+        } else if (cmd.equals(GraphServerProtocol.CMD_PAGERANK) ||
+                   cmd.equals(GraphServerProtocol.CMD_PPR)) {
+            List<JSONVertex> seeds = null;
+            String[] rankArgs = args;
+            if (cmd.equals(GraphServerProtocol.CMD_PPR)) {
+                seeds = new ArrayList<JSONVertex>();
+                rankArgs = getSeedVertices(gr, request, args, seeds);
+            }
+            int maxIterations = 100;
+            double damping = 0.85;
+            double tolerance = 1e-6;
+            int topK = 10;
+            if (rankArgs.length > 0) {
+                maxIterations = Integer.parseInt(rankArgs[0]);
+            }
+            if (rankArgs.length > 1) {
+                damping = Double.parseDouble(rankArgs[1]);
+            }
+            if (rankArgs.length > 2) {
+                tolerance = Double.parseDouble(rankArgs[2]);
+            }
+            if (rankArgs.length > 3) {
+                topK = Integer.parseInt(rankArgs[3]);
+            }
+            if (null != seeds && seeds.size() == 0) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
-                rsb.append(result.toString());
-                rsb.append(GraphServerProtocol.NL);
-                rsb.append(GraphServerProtocol.R_OK);
+                List<JSONObject> top = new ArrayList<JSONObject>();
+                JSONObject result = gr.getPageRank(
+                    (null == seeds) ? Graph.PAGERANK_FIELD : Graph.PPR_FIELD,
+                    seeds, maxIterations, damping, tolerance, topK, top);
+                appendScores(rsb, top, result);
             }
-
-        } else if (cmd.equals(GraphServerProtocol.CMD_VCYC)) {
-            JSONObject result = gr.getGraphCyclesContainingVertex(
-                gr.getVertex(args[0]));
-            if (null == result) {
+        
+        // HUBS & AUTHORITIES: hits [<iterations> [<tolerance> [<top_k>]]]
+        //                     hitsp <key|<<query>>> [<iterations> [<alpha> [<tolerance> [<top_k>]]]]
+        } else if (cmd.equals(GraphServerProtocol.CMD_HITS) ||
+                   cmd.equals(GraphServerProtocol.CMD_HITSP)) {
+            List<JSONVertex> seeds = null;
+            String[] rankArgs = args;
+            int maxIterations = 100;
+            double alpha = 0.15;
+            double tolerance = 1e-6;
+            int topK = 10;
+            if (cmd.equals(GraphServerProtocol.CMD_HITSP)) {
+                seeds = new ArrayList<JSONVertex>();
+                rankArgs = getSeedVertices(gr, request, args, seeds);
+                if (rankArgs.length > 0) {
+                    maxIterations = Integer.parseInt(rankArgs[0]);
+                }
+                if (rankArgs.length > 1) {
+                    alpha = Double.parseDouble(rankArgs[1]);
+                }
+                if (rankArgs.length > 2) {
+                    tolerance = Double.parseDouble(rankArgs[2]);
+                }
+                if (rankArgs.length > 3) {
+                    topK = Integer.parseInt(rankArgs[3]);
+                }
+            } else {
+                if (rankArgs.length > 0) {
+                    maxIterations = Integer.parseInt(rankArgs[0]);
+                }
+                if (rankArgs.length > 1) {
+                    tolerance = Double.parseDouble(rankArgs[1]);
+                }
+                if (rankArgs.length > 2) {
+                    topK = Integer.parseInt(rankArgs[2]);
+                }
+            }
+            if (null != seeds && seeds.size() == 0) {
                 rsb.append(GraphServerProtocol.R_NOT_EXIST);
             } else {
-                rsb.append(result.toString());
-                rsb.append(GraphServerProtocol.NL);
-                rsb.append(GraphServerProtocol.R_OK);
+                List<JSONObject> top = new ArrayList<JSONObject>();
+                JSONObject result = gr.getHITS(seeds, alpha, maxIterations, tolerance,
+                    topK, top);
+                appendScores(rsb, top, result);
+            }
+        
+        // EIGENVECTOR CENTRALITY: eigenvector [<iterations> [<tolerance> [<top_k>]]]
+        } else if (cmd.equals(GraphServerProtocol.CMD_EIGENVECTOR)) {
+            int maxIterations = 100;
+            double tolerance = 1e-6;
+            int topK = 10;
+            if (args.length > 0) {
+                maxIterations = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                tolerance = Double.parseDouble(args[1]);
+            }
+            if (args.length > 2) {
+                topK = Integer.parseInt(args[2]);
+            }
+            List<JSONObject> top = new ArrayList<JSONObject>();
+            JSONObject result = gr.getEigenvectorCentrality(maxIterations, tolerance,
+                topK, top);
+            appendScores(rsb, top, result);
+        
+        // K-STEP MARKOV: kstep <key|<<query>>> [<steps> [<top_k>]]
+        } else if (cmd.equals(GraphServerProtocol.CMD_KSTEP)) {
+            List<JSONVertex> seeds = new ArrayList<JSONVertex>();
+            String[] rankArgs = getSeedVertices(gr, request, args, seeds);
+            int steps = 3;
+            int topK = 10;
+            if (rankArgs.length > 0) {
+                steps = Integer.parseInt(rankArgs[0]);
+            }
+            if (rankArgs.length > 1) {
+                topK = Integer.parseInt(rankArgs[1]);
+            }
+            if (seeds.size() == 0) {
+                rsb.append(GraphServerProtocol.R_NOT_EXIST);
+            } else {
+                List<JSONObject> top = new ArrayList<JSONObject>();
+                JSONObject result = gr.getKStepMarkov(seeds, steps, topK, top);
+                appendScores(rsb, top, result);
+            }
+        
+        // CENTRALITY: betweenness|closeness [<pivots> [<top_k>]] [weighted] [progress:<channel>]
+        } else if (cmd.equals(GraphServerProtocol.CMD_BETWEENNESS) ||
+                   cmd.equals(GraphServerProtocol.CMD_CLOSENESS)) {
+            boolean weighted = false;
+            String progressChannel = null;
+            List<Integer> params = new ArrayList<Integer>();
+            for(String arg: args) {
+                if (arg.equals("weighted")) {
+                    weighted = true;
+                } else if (arg.startsWith("progress:")) {
+                    progressChannel = arg.substring("progress:".length());
+                } else {
+                    params.add(Integer.parseInt(arg));
+                }
             }
+            int pivots = (params.size() > 0) ? params.get(0) : 0;
+            int topK = (params.size() > 1) ? params.get(1) : 10;
+            Centrality.ProgressListener progress = null;
+            if (null != progressChannel) {
+                if (null == gr.getEndpointChannelProcess(progressChannel)) {
+                    rsb.append(GraphServerProtocol.R_ERR);
+                    rsb.append(" CHANNEL_NOT_EXIST");
+                    return rsb.toString();
+                }
+                // published like a job's result, to the channel's subscribers
+                final Graph progressGraph = gr;
+                final String channel = progressChannel;
+                final String progressRequest = request;
+                progress = new Centrality.ProgressListener() {
+                    public void progress(int sourcesDone, int sources, long elapsed) throws Exception {
+                        JSONObject msg = new JSONObject();
+                        msg.put("request", progressRequest);
+                        msg.put("sources_done", sourcesDone);
+                        msg.put("sources", sources);
+                        msg.put("elapsed_ms", elapsed);
+                        progressGraph.publishToEndpointByName(channel, msg);
+                    }
+                };
+            }
+            List<JSONObject> top = new ArrayList<JSONObject>();
+            JSONObject result = gr.getCentrality(cmd, weighted, pivots, topK, top,
+                progress, CENTRALITY_PROGRESS_INTERVAL);
+            appendScores(rsb, top, result);
+        
+        // VERTEX COLORING: color [dsatur|greedy|jones-plassmann] [rel:<rel>] [<<query>>]
+        } else if (cmd.equals(GraphServerProtocol.CMD_COLOR)) {
+            List<String> rest = new ArrayList<String>();
+            GraphView view = getView(gr, request, args, rest);
+            String method = (rest.size() > 0) ? rest.get(0) : VertexColoring.DSATUR;
+            rsb.append(gr.getColoring(view, method));
+            rsb.append(GraphServerProtocol.NL);
+            rsb.append(GraphServerProtocol.R_OK);
         
         /*
          * TRAVERSAL
@@ -830,4 +1954,84 @@ public class GraphCommandExecutor implements Runnable {
         
         return rsb.toString();
     }
+    
+    /*
+     * the seed vertices of ppr & co.: every vertex matching a <<query>>
+     *  in <request>, or the vertex keyed by the first argument; added to
+     *  <seeds>.  returns the arguments that follow.
+    */
+    private String[] getSeedVertices(Graph gr, String request, String[] args,
+                                     List<JSONVertex> seeds) throws Exception {
+        if (request.indexOf("<<") != -1 &&
+            request.indexOf(">>") != -1) {
+            String query = request.substring(request.indexOf("<<")+2,
+                                             request.indexOf(">>"));
+            for(JSONObject jo: gr.queryGraphIndex(query)) {
+                JSONVertex jv = gr.getVertex(jo.getString(Graph.KEY_FIELD));
+                if (null != jv) seeds.add(jv);
+            }
+            String suffix = request.substring(request.indexOf(">>")+2).trim();
+            return suffix.length() == 0 ? new String[0] :
+                suffix.split(GraphServerProtocol.SPACE);
+        } else if (args.length > 0) {
+            JSONVertex jv = gr.getVertex(args[0]);
+            if (null != jv) seeds.add(jv);
+            return Arrays.copyOfRange(args, 1, args.length);
+        }
+        return args;
+    }
+    
+    /*
+     * the view the undirected analytics (ec, cn, kmst, vcg, vc2a, famc,
+     *  fbmc & color) run over: the edges of one relationship (rel:<rel>), between
+     *  the vertices matching a <<query>>, either anywhere in <request>;
+     *  the other arguments are added to <rest>.  see GraphView.
+    */
+    private GraphView getView(Graph gr, String request, String[] args,
+                              List<String> rest) throws Exception {
+        String[] view = getViewArgs(request, args, rest);
+        return gr.getView(view[0], view[1], false);
+    }
+    
+    /*
+     * { rel, <<query>> } of <request> (either null if absent), the other
+     *  arguments added to <rest>
+    */
+    private String[] getViewArgs(String request, String[] args,
+                                 List<String> rest) {
+        String rel = null;
+        String query = null;
+        if (request.indexOf("<<") != -1 &&
+            request.indexOf(">>") != -1) {
+            query = request.substring(request.indexOf("<<")+2,
+                                      request.indexOf(">>"));
+        }
+        boolean inQuery = false;
+        for(String arg: args) {
+            if (arg.startsWith("<<")) inQuery = true;
+            if (inQuery) {
+                if (arg.indexOf(">>") != -1) inQuery = false;
+            } else if (arg.startsWith(GraphServerProtocol.VIEW_REL)) {
+                rel = arg.substring(GraphServerProtocol.VIEW_REL.length());
+            } else if (arg.length() > 0) {
+                rest.add(arg);
+            }
+        }
+        return new String[] { rel, query };
+    }
+    
+    /*
+     * the response of the ranking analytics: the top vertices, one per
+     *  line, then the summary
+    */
+    private void appendScores(StringBuffer rsb, List<JSONObject> top, 
+                              JSONObject result) {
+        for(JSONObject jo: top) {
+            rsb.append(jo.toString());
+            rsb.append(GraphServerProtocol.NL);
+        }
+        rsb.append(result.toString());
+        rsb.append(GraphServerProtocol.NL);
+        rsb.append(GraphServerProtocol.R_OK);
+    }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2011 John Muellerleile
+ *
+ * This file is licensed to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package cc.osint.graphd.server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.*;
+
+/*
+ * append-only journal of the mutating commands executed against one graph
+ *
+ *   one request per line, prefixed with its sequence number:
+ *
+ *     <seq> <request>
+ *
+ * the owning GraphCommandExecutor appends each successful mutation &
+ *  calls commit() once per group of commands (whenever its queue drains),
+ *  so that many queued commands share one flush.  durability modes:
+ *
+ *     sync            commit() fsyncs; responses are held until it returns
+ *     interval:<ms>   commit() writes to the OS; fsync every <ms>
+ *     none            commit() writes to the OS; never fsync
+ *     off             no journal
+ *
+ * sequence numbers continue across save (which truncates the journal);
+ *  the snapshot records the last sequence it contains so that replay can
+ *  skip anything already in it.
+*/
+public class GraphJournal {
+    private static final Logger log = Logger.getLogger(
+        GraphJournal.class.getName());
+
+    final public static String MODE_SYNC = "sync";
+    final public static String MODE_INTERVAL = "interval";
+    final public static String MODE_NONE = "none";
+    final public static String MODE_OFF = "off";
+
+    final public static String DEFAULT_MODE =
+        System.getProperty("graphd.journal", MODE_OFF);
+
+    final public static String JOURNAL_SUFFIX = ".journal";
+
+    final private static int BUFFER_SIZE = 65536;
+
+    /* fsync timer for interval mode */
+    final private static ScheduledExecutorService syncExecutorService;
+    static {
+        syncExecutorService = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    final private File file;
+    final private String mode;
+    final private long syncInterval;
+    private FileOutputStream fos;
+    private Writer out;
+    private ScheduledFuture<?> syncFuture = null;
+
+    private long sequence;
+    private int unsynced = 0;       // appended since last fsync
+    private int uncommitted = 0;    // appended since last commit
+    private long appendCount = 0;
+    private long commitCount = 0;
+    private long syncCount = 0;
+    private long syncTimeTotal = 0;
+
+    private GraphJournal(File file, String mode, long syncInterval, long sequence) throws Exception {
+        this.file = file;
+        this.mode = mode;
+        this.syncInterval = syncInterval;
+        this.sequence = sequence;
+        fos = new FileOutputStream(file, true);
+        out = new BufferedWriter(new OutputStreamWriter(fos, "UTF-8"), BUFFER_SIZE);
+        if (mode.equals(MODE_INTERVAL)) {
+            syncFuture = syncExecutorService.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        sync();
+                    } catch (Exception ex) {
+                        log.log(Level.SEVERE, "journal sync: " + GraphJournal.this.file, ex);
+                    }
+                }
+            }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+        log.info("open: " + file + " (" + getMode() + ") at sequence " + sequence);
+    }
+
+    /*
+     * open (append to) a journal; returns null for mode "off".  the mode
+     *  is validated here: sync | interval:<ms> | none | off
+    */
+    public static GraphJournal open(File file, String modeSpec, long sequence) throws Exception {
+        String mode = modeSpec;
+        long interval = 0;
+        if (modeSpec.indexOf(":") != -1) {
+            mode = modeSpec.substring(0, modeSpec.indexOf(":"));
+            try {
+                interval = Long.parseLong(modeSpec.substring(modeSpec.indexOf(":")+1));
+            } catch (NumberFormatException ex) {
+                interval = -1;
+            }
+        }
+        if (mode.equals(MODE_OFF)) {
+            return null;
+        } else if (mode.equals(MODE_SYNC) || mode.equals(MODE_NONE)) {
+            if (modeSpec.indexOf(":") != -1) {
+                throw new Exception("journal mode " + mode + " takes no parameter");
+            }
+        } else if (mode.equals(MODE_INTERVAL)) {
+            if (interval <= 0) {
+                throw new Exception("journal mode " + mode + " requires a positive parameter (ms)");
+            }
+        } else {
+            throw new Exception("unknown journal mode: " + modeSpec);
+        }
+        return new GraphJournal(file, mode, interval, sequence);
+    }
+
+    /*
+     * true if responses must be held until commit() (see GraphCommandExecutor)
+    */
+    public boolean isSyncMode() {
+        return mode.equals(MODE_SYNC);
+    }
+
+    public String getMode() {
+        if (mode.equals(MODE_INTERVAL)) {
+            return mode + ":" + syncInterval;
+        }
+        return mode;
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public synchronized int getUncommitted() {
+        return uncommitted;
+    }
+
+    public synchronized long append(String request) throws Exception {
+        sequence++;
+        out.write(Long.toString(sequence));
+        out.write(' ');
+        out.write(request);
+        out.write('\n');
+        unsynced++;
+        uncommitted++;
+        appendCount++;
+        return sequence;
+    }
+
+    /*
+     * end of a group of appends
+    */
+    public synchronized void commit() throws Exception {
+        if (uncommitted == 0) return;
+        out.flush();
+        uncommitted = 0;
+        commitCount++;
+        if (mode.equals(MODE_SYNC)) {
+            sync();
+        }
+    }
+
+    public synchronized void sync() throws Exception {
+        if (null == out) return;
+        out.flush();
+        if (unsynced == 0) return;
+        long t0 = System.nanoTime();
+        fos.getFD().sync();
+        syncTimeTotal += System.nanoTime() - t0;
+        syncCount++;
+        unsynced = 0;
+    }
+
+    /*
+     * discard everything journaled so far (after a snapshot that contains
+     *  it has been written); the sequence continues
+    */
+    public synchronized void truncate() throws Exception {
+        out.flush();
+        fos.getChannel().truncate(0);
+        fos.getFD().sync();
+        unsynced = 0;
+        uncommitted = 0;
+        log.info("truncate: " + file + " at sequence " + sequence);
+    }
+
+    public synchronized void close() throws Exception {
+        if (null != syncFuture) {
+            syncFuture.cancel(false);
+        }
+        if (null != out) {
+            sync();
+            out.close();
+            out = null;
+        }
+        log.info("close: " + file + " at sequence " + sequence);
+    }
+
+    public synchronized JSONObject getStatus() throws Exception {
+        JSONObject result = new JSONObject();
+        result.put("journal_mode", getMode());
+        result.put("file", file.getPath());
+        result.put("bytes", file.length());
+        result.put("sequence", sequence);
+        result.put("appends", appendCount);
+        result.put("commits", commitCount);
+        result.put("syncs", syncCount);
+        result.put("avg_sync_us", syncCount == 0 ? 0 : (syncTimeTotal / syncCount) / 1000);
+        result.put("avg_commands_per_sync", syncCount == 0 ? 0 : appendCount / syncCount);
+        return result;
+    }
+
+    /*
+     * read the requests journaled after <afterSequence>; a torn final line
+     *  (no newline: the process died mid-write) is ignored, as is (with a
+     *  warning) any line that does not parse.  the last sequence read is
+     *  returned in lastSequence[0] & the length of the journal up to its
+     *  last complete line in validLength[0] (see trim).
+    */
+    public static List<String> read(File file, long afterSequence, long[] lastSequence,
+                                    long[] validLength) throws Exception {
+        List<String> requests = new ArrayList<String>();
+        lastSequence[0] = afterSequence;
+        validLength[0] = 0;
+        if (!file.exists()) {
+            return requests;
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long offset = 0;
+            int c;
+            while ((c = in.read()) != -1) {
+                offset++;
+                if (c != '\n') {
+                    line.write(c);
+                    continue;
+                }
+                validLength[0] = offset;
+                String entry = line.toString("UTF-8");
+                line.reset();
+                int sp = entry.indexOf(" ");
+                long seq;
+                try {
+                    seq = Long.parseLong(entry.substring(0, sp));
+                } catch (Exception ex) {
+                    log.warning(file + ": skipping unreadable entry ending at byte " + 
+                        offset + ": " + ex.getMessage());
+                    continue;
+                }
+                if (seq > afterSequence) {
+                    requests.add(entry.substring(sp+1));
+                }
+                if (seq > lastSequence[0]) {
+                    lastSequence[0] = seq;
+                }
+            }
+            if (line.size() > 0) {
+                log.warning(file + ": ignoring incomplete last entry (" +
+                    line.size() + " bytes)");
+            }
+        } finally {
+            in.close();
+        }
+        return requests;
+    }
+
+    /*
+     * cut a torn final line off the journal before it is opened for
+     *  append, so that the next entry does not run into it
+    */
+    public static void trim(File file, long validLength) throws Exception {
+        if (!file.exists() || file.length() <= validLength) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.getChannel().truncate(validLength);
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        log.info("trim: " + file + " to " + validLength + " bytes");
+    }
+
+    /*
+     * is this command journaled?  (analytics are not: their write-backs
+     *  are, as vset records)
+    */
+    public static boolean isMutation(String cmd) {
+        return cmd.equals(GraphServerProtocol.CMD_CVERT) ||
+               cmd.equals(GraphServerProtocol.CMD_CEDGE) ||
+               cmd.equals(GraphServerProtocol.CMD_SET) ||
+               cmd.equals(GraphServerProtocol.CMD_VSET) ||
+               cmd.equals(GraphServerProtocol.CMD_DEL) ||
+               cmd.equals(GraphServerProtocol.CMD_INCW) ||
+               cmd.equals(GraphServerProtocol.CMD_DEFINE_UDF);
+    }
+}
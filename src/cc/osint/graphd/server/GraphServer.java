@@ -36,6 +36,7 @@ public class GraphServer {
                         Executors.newCachedThreadPool()));
 
         GraphServerHandler handler = new GraphServerHandler();
+        GraphServerHandler.recoverGraphs();
         bootstrap.setPipelineFactory(new GraphServerPipelineFactory(handler));
 
         // Bind and start to accept incoming connections.
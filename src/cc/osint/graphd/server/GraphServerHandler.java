@@ -16,6 +16,7 @@
 
 package cc.osint.graphd.server;
 
+import java.io.*;
 import java.lang.ref.*;
 import java.net.InetAddress;
 import java.util.*;
@@ -87,6 +88,12 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
             ConcurrentHashMap<String, String>>();
     }
 
+    /* client id -> requests received while an exec is running */
+    final private static ConcurrentHashMap<String, List<String>> execDeferredMap;
+    static {
+        execDeferredMap = new ConcurrentHashMap<String, List<String>>();
+    }
+
     /* client id -> netty channel registry */
     final private static ConcurrentHashMap<String, Channel> clientIdChannelMap;
     static {
@@ -100,6 +107,10 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
     /* defaults */
     
     final protected static String DEFAULT_CONNECTION_NAME = "client";   // default connection name
+    final protected static int EXEC_SEGMENT_SIZE = 50000;               // max requests per exec bulk segment
+    final protected static String DATA_DIR = 
+        System.getProperty("graphd.data.dir", ".");                     // snapshot directory
+    final protected static String SNAPSHOT_SUFFIX = ".snapshot";        // snapshot file suffix
     
     /* netty handlers */
     
@@ -118,6 +129,7 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
                 
                 clientStateMap.remove(clientId);
                 clientIdChannelMap.remove(clientId);
+                execDeferredMap.remove(clientId);
                 InboundChannelProcess inboundChannelProcess = 
                     inboundChannelMap.get(clientId).get();
                 if (null != inboundChannelProcess) {
@@ -189,13 +201,31 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
         String clientId = "" + e.getChannel().getId();
         String request = (String) e.getMessage();
-        String response;
-        boolean close = false;
         ConcurrentHashMap<String, String> clientState = 
             clientStateMap.get(clientId);
         
         //log.info(clientId + ": " + request);
         
+        // held until the client's exec has finished (see drainDeferred)
+        List<String> deferred = execDeferredMap.get(clientId);
+        if (null != deferred) {
+            synchronized(deferred) {
+                if (deferred == execDeferredMap.get(clientId)) {
+                    deferred.add(request);
+                    return;
+                }
+            }
+        }
+        respond(e.getChannel(), clientId, clientState, request);
+    }
+    
+    private void respond(Channel channel,
+                         String clientId,
+                         ConcurrentHashMap<String, String> clientState,
+                         String request) {
+        String response;
+        boolean close = false;
+        
         if (request.length() == 0) {
             response = GraphServerProtocol.R_OK;
         } else if (request.toLowerCase().equals(GraphServerProtocol.CMD_GOODBYE)) {
@@ -203,7 +233,7 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
             close = true;
         } else {
             try {
-                response = executeRequest(e.getChannel(), clientId, clientState, request);
+                response = executeRequest(channel, clientId, clientState, request);
                 if (null == response) return;
             } catch (Exception ex) {
                 ex.printStackTrace();
@@ -211,7 +241,7 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
             }
         }
         
-        ChannelFuture future = e.getChannel().write(response.trim() + GraphServerProtocol.NL);
+        ChannelFuture future = channel.write(response.trim() + GraphServerProtocol.NL);
         if (close) {
             future.addListener(ChannelFutureListener.CLOSE);
         }
@@ -250,16 +280,20 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
                 rsb.append(GraphServerProtocol.R_ERR);
                 rsb.append(" DB_ALREADY_EXISTS");
             } else {
-                Graph newGraph = new Graph(args[0]);
-                nameGraphMap.put(args[0], newGraph);
-                WeakReference<Graph> graphRef = 
-                    new WeakReference<Graph>(newGraph);
-                GraphCommandExecutor graphCommandExecutor = 
-                    new GraphCommandExecutor(args[0], graphRef);
-                graphCommandExecutorService.execute(graphCommandExecutor);
-                graphCommandExecutorMap.put(args[0], graphCommandExecutor);
-                
-                rsb.append(GraphServerProtocol.R_OK);
+                if (registerGraph(args[0], new Graph(args[0]))) {
+                    if (!GraphJournal.DEFAULT_MODE.equals(GraphJournal.MODE_OFF)) {
+                        File journalFile = new File(getJournalFile(args[0]));
+                        if (journalFile.exists()) {
+                            journalFile.delete();
+                        }
+                        graphCommandExecutorMap.get(args[0]).setJournalMode(
+                            GraphJournal.DEFAULT_MODE, 0);
+                    }
+                    rsb.append(GraphServerProtocol.R_OK);
+                } else {
+                    rsb.append(GraphServerProtocol.R_ERR);
+                    rsb.append(" DB_ALREADY_EXISTS");
+                }
             }
         
         // DROP GRAPH: drop <graphName>
@@ -269,7 +303,10 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
                 rsb.append(" DB_NOT_EXIST");
             } else {
                 nameGraphMap.remove(args[0]);
-                graphCommandExecutorMap.remove(args[0]);
+                GraphCommandExecutor graphCommandExecutor = 
+                    graphCommandExecutorMap.remove(args[0]);
+                // a dropped graph is not recovered at startup
+                graphCommandExecutor.setJournalMode(GraphJournal.MODE_OFF, 0);
                 // TODO: DROP <KEY>
                 // TODO: KILL graphCommandExecutor (via poisonPill message)
                 rsb.append(GraphServerProtocol.R_OK);
@@ -303,10 +340,107 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
             names.put("EDGE_TYPE", Graph.EDGE_TYPE);
             result.put("names", names);
             
+            JSONObject graphs = new JSONObject();
+            for(String name: nameGraphMap.keySet()) {
+                graphs.put(name, nameGraphMap.get(name).getIndexRefreshStatus());
+            }
+            result.put("graphs", graphs);
+            
             rsb.append(result.toString());
             rsb.append(GraphServerProtocol.NL);
             rsb.append(GraphServerProtocol.R_OK);
         
+        // EXECUTE A FILE OF COMMANDS: exec <file>
+        } else if (cmd.equals(GraphServerProtocol.CMD_EXEC)) {
+            final Channel execResponseChannel = responseChannel;
+            final String execClientId = clientId;
+            final ConcurrentHashMap<String, String> execClientState = clientState;
+            final String fn = request.substring(request.indexOf(GraphServerProtocol.SPACE)).trim();
+            
+            // an exec held behind another one is run in place by drainDeferred
+            if (null != execDeferredMap.get(clientId)) {
+                executeExec(responseChannel, clientId, clientState, fn);
+                return null;
+            }
+            
+            // the client's requests are held from here until the file is done
+            final List<String> deferred = new LinkedList<String>();
+            execDeferredMap.put(clientId, deferred);
+            graphCommandExecutorService.execute(new Runnable() {
+                public void run() {
+                    executeExec(execResponseChannel, execClientId, execClientState, fn);
+                    drainDeferred(execResponseChannel, execClientId, execClientState, deferred);
+                }
+            });
+            
+            // the response is written when the file has been executed
+            return null;
+            
+        // SAVE GRAPH SNAPSHOT: save <graphName>
+        } else if (cmd.equals(GraphServerProtocol.CMD_SAVE)) {
+            GraphCommandExecutor graphCommandExecutor = 
+                graphCommandExecutorMap.get(args[0]);
+            if (null == graphCommandExecutor) {
+                rsb.append(GraphServerProtocol.R_NOT_EXIST);
+            } else {
+                WeakReference<InboundChannelProcess> inboundChannelProcessRef =
+                    inboundChannelMap.get(clientId);
+                GraphCommand graphCommand = new GraphCommand();
+                graphCommand.responseChannel = responseChannel;
+                graphCommand.clientId = clientId;
+                graphCommand.clientState = clientState;
+                graphCommand.inboundChannelProcess = 
+                    inboundChannelProcessRef.get();
+                graphCommand.request = request;
+                graphCommand.cmd = cmd;
+                graphCommand.args = args;
+                graphCommand.poisonPill = false;
+                
+                // queued behind any pending commands for this graph
+                graphCommandExecutor.queue(graphCommand);
+                return null;
+            }
+        
+        // RESTORE GRAPH SNAPSHOT: restore <graphName> [<file in data dir>]
+        } else if (cmd.equals(GraphServerProtocol.CMD_RESTORE)) {
+            if (null != nameGraphMap.get(args[0])) {
+                rsb.append(GraphServerProtocol.R_ERR);
+                rsb.append(" DB_ALREADY_EXISTS");
+            } else {
+                final Channel restoreResponseChannel = responseChannel;
+                final String graphName = args[0];
+                final String fn = args.length > 1 ? 
+                    getDataFile(args[1]).getPath() : getSnapshotFile(graphName);
+                graphCommandExecutorService.execute(new Runnable() {
+                    public void run() {
+                        String response;
+                        try {
+                            long t0 = System.currentTimeMillis();
+                            Graph restoredGraph = Graph.restore(graphName, fn);
+                            if (registerGraph(graphName, restoredGraph)) {
+                                JSONObject result = new JSONObject();
+                                result.put("graph", graphName);
+                                result.put("file", fn);
+                                result.put("vertices", restoredGraph.numVertices());
+                                result.put("edges", restoredGraph.numEdges());
+                                result.put("elapsed_ms", System.currentTimeMillis() - t0);
+                                response = result.toString() + 
+                                    GraphServerProtocol.NL + GraphServerProtocol.R_OK;
+                            } else {
+                                response = GraphServerProtocol.R_ERR + " DB_ALREADY_EXISTS";
+                            }
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                            response = GraphServerProtocol.R_ERR + GraphServerProtocol.SPACE + ex.getMessage();
+                        }
+                        restoreResponseChannel.write(response.trim() + GraphServerProtocol.NL);
+                    }
+                });
+                
+                // the response is written when the snapshot has been loaded
+                return null;
+            }
+            
         // LIST NAMED GRAPHS
         } else if (cmd.equals(GraphServerProtocol.CMD_LISTG)) {
             for(String name: nameGraphMap.keySet()) {
@@ -324,6 +458,9 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
                 JSONObject result = new JSONObject();
                 result.put("vertex_count", gr0.numVertices());
                 result.put("edge_count", gr0.numEdges());
+                result.put("snapshots", gr0.getSnapshotStatus());
+                result.put("connectivity", gr0.getConnectivityStatus());
+                result.put("reachability", gr0.getReachabilityStatus());
                 rsb.append(result.toString());
                 rsb.append(GraphServerProtocol.NL);
                 rsb.append(GraphServerProtocol.R_OK);
@@ -347,7 +484,7 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
                 request = request.substring(1);
                 responseChannel.write(
                   graphCommandExecutorMap.get(
-                    clientState.get(GraphServerHandler.ST_DB)).execute(
+                    clientState.get(GraphServerHandler.ST_DB)).executeImmediate(
                         responseChannel,
                         clientId,
                         clientState,
@@ -394,4 +531,275 @@ public class GraphServerHandler extends SimpleChannelUpstreamHandler {
         return rsb.toString();
     }
     
+    /*
+     * make a graph available by name & start its GraphCommandExecutor;
+     *  returns false if a graph by that name already exists
+    */
+    private static synchronized boolean registerGraph(String graphName, Graph graph) {
+        if (null != nameGraphMap.putIfAbsent(graphName, graph)) {
+            return false;
+        }
+        WeakReference<Graph> graphRef = 
+            new WeakReference<Graph>(graph);
+        GraphCommandExecutor graphCommandExecutor = 
+            new GraphCommandExecutor(graphName, graphRef);
+        graphCommandExecutorService.execute(graphCommandExecutor);
+        graphCommandExecutorMap.put(graphName, graphCommandExecutor);
+        return true;
+    }
+    
+    /*
+     * default snapshot file for a graph: <graphd.data.dir>/<graphName>.snapshot
+    */
+    protected static String getSnapshotFile(String graphName) {
+        return new File(getDataDir(), graphName + SNAPSHOT_SUFFIX).getPath();
+    }
+    
+    /*
+     * default journal file for a graph: <graphd.data.dir>/<graphName>.journal
+    */
+    protected static String getJournalFile(String graphName) {
+        return new File(getDataDir(), graphName + GraphJournal.JOURNAL_SUFFIX).getPath();
+    }
+    
+    /*
+     * a file named by a client (exec, restore): relative names are resolved against
+     *  the data directory, & the result must be inside it
+    */
+    protected static File getDataFile(String fn) throws Exception {
+        File dataDir = getDataDir().getCanonicalFile();
+        File file = new File(fn);
+        if (!file.isAbsolute()) {
+            file = new File(dataDir, fn);
+        }
+        file = file.getCanonicalFile();
+        if (!file.getPath().startsWith(dataDir.getPath() + File.separator)) {
+            throw new Exception("FILE_NOT_IN_DATA_DIR");
+        }
+        return file;
+    }
+    
+    private static File getDataDir() {
+        File dataDir = new File(DATA_DIR);
+        if (!dataDir.exists()) {
+            dataDir.mkdirs();
+        }
+        return dataDir;
+    }
+    
+    /*
+     * startup: every graph with a journal in the data directory is
+     *  restored from its snapshot (if any) & the journal replayed on top
+     *  of it; journaling continues in the default mode (sync if off)
+    */
+    public static void recoverGraphs() throws Exception {
+        File[] journalFiles = getDataDir().listFiles();
+        if (null == journalFiles) return;
+        String mode = GraphJournal.DEFAULT_MODE.equals(GraphJournal.MODE_OFF) ?
+            GraphJournal.MODE_SYNC : GraphJournal.DEFAULT_MODE;
+        for(File journalFile: journalFiles) {
+            String name = journalFile.getName();
+            if (!name.endsWith(GraphJournal.JOURNAL_SUFFIX)) continue;
+            String graphName = name.substring(0, 
+                name.length() - GraphJournal.JOURNAL_SUFFIX.length());
+            long t0 = System.currentTimeMillis();
+            File snapshotFile = new File(getSnapshotFile(graphName));
+            Graph graph = snapshotFile.exists() ?
+                Graph.restore(graphName, snapshotFile.getPath()) :
+                new Graph(graphName);
+            registerGraph(graphName, graph);
+            JSONObject result = 
+                graphCommandExecutorMap.get(graphName).replayJournal(mode);
+            result.put("snapshot", snapshotFile.exists());
+            result.put("elapsed_ms", System.currentTimeMillis() - t0);
+            log.info("recovered: " + result.toString());
+        }
+    }
+    
+    /*
+     * runs an exec & writes its response.  the file is executed against a
+     *  copy of the client's state: use/create lines in it select graphs for
+     *  the file only, not for the client's later requests
+    */
+    private void executeExec(Channel responseChannel,
+                             String clientId,
+                             ConcurrentHashMap<String, String> clientState,
+                             String fn) {
+        String response;
+        try {
+            response = executeFile(responseChannel, 
+                                   clientId, 
+                                   new ConcurrentHashMap<String, String>(clientState), 
+                                   fn).toString() +
+                GraphServerProtocol.NL + GraphServerProtocol.R_OK;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            response = GraphServerProtocol.R_ERR + GraphServerProtocol.SPACE + ex.getMessage();
+        }
+        responseChannel.write(response.trim() + GraphServerProtocol.NL);
+    }
+    
+    /*
+     * after an exec: the requests the client sent while it ran are executed
+     *  in the order received (more may arrive meanwhile); once none are
+     *  left the client's requests are handled directly again
+    */
+    private void drainDeferred(Channel channel,
+                               String clientId,
+                               ConcurrentHashMap<String, String> clientState,
+                               List<String> deferred) {
+        while (true) {
+            String request;
+            synchronized(deferred) {
+                if (deferred.isEmpty()) {
+                    execDeferredMap.remove(clientId, deferred);
+                    return;
+                }
+                request = deferred.remove(0);
+            }
+            respond(channel, clientId, clientState, request);
+        }
+    }
+    
+    /*
+     * exec: server commands (create, use, ...) are executed as they are
+     *  read; runs of graph commands are handed to the selected graph's
+     *  GraphCommandExecutor as bulk segments (see GraphBulkLoader) &
+     *  executed in order.  per-request responses are not sent; a
+     *  summary of the whole file is returned instead, with errors
+     *  reported by line number.  the file must be in the data directory.
+    */
+    private JSONObject executeFile(Channel responseChannel,
+                                   String clientId,
+                                   ConcurrentHashMap<String, String> clientState,
+                                   String fn) throws Exception {
+        long t0 = System.currentTimeMillis();
+        JSONObject result = new JSONObject();
+        result.put("file", fn);
+        result.put("requests", 0);
+        result.put("vertices", 0);
+        result.put("edges", 0);
+        result.put("error_count", 0);
+        result.put("errors", new JSONArray());
+        
+        BufferedReader reader = new BufferedReader(new FileReader(getDataFile(fn)));
+        try {
+            List<String> segment = new ArrayList<String>();
+            List<Integer> segmentLines = new ArrayList<Integer>();
+            boolean uncommitted = false;
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.length() == 0) continue;
+                String lineCmd = GraphBulkLoader.getCommand(line);
+                if (isServerCommand(lineCmd)) {
+                    if (uncommitted || segment.size() > 0) {
+                        executeSegment(responseChannel, clientId, clientState, 
+                                       segment, segmentLines, true, result);
+                        segment = new ArrayList<String>();
+                        segmentLines = new ArrayList<Integer>();
+                        uncommitted = false;
+                    }
+                    result.put("requests", result.getInt("requests") + 1);
+                    String response = executeRequest(responseChannel, clientId, clientState, line);
+                    if (null != response &&
+                        response.startsWith(GraphServerProtocol.R_ERR)) {
+                        addExecError(result, "line " + lineNumber + ": " + response.trim());
+                    }
+                } else {
+                    segment.add(line);
+                    segmentLines.add(lineNumber);
+                    if (segment.size() >= EXEC_SEGMENT_SIZE) {
+                        executeSegment(responseChannel, clientId, clientState, 
+                                       segment, segmentLines, false, result);
+                        segment = new ArrayList<String>();
+                        segmentLines = new ArrayList<Integer>();
+                        uncommitted = true;
+                    }
+                }
+            }
+            if (uncommitted || segment.size() > 0) {
+                executeSegment(responseChannel, clientId, clientState, 
+                               segment, segmentLines, true, result);
+            }
+        } finally {
+            reader.close();
+        }
+        
+        long elapsed = System.currentTimeMillis() - t0;
+        result.put("elapsed_ms", elapsed);
+        result.put("objects_per_sec", 
+            (long) ((result.getInt("vertices") + result.getInt("edges")) * 1000.0 /
+                    Math.max(elapsed, 1)));
+        log.info("exec " + fn + ": " + result.toString());
+        return result;
+    }
+    
+    private void executeSegment(Channel responseChannel,
+                                String clientId,
+                                ConcurrentHashMap<String, String> clientState,
+                                List<String> requests,
+                                List<Integer> lines,
+                                boolean commit,
+                                JSONObject result) throws Exception {
+        if (null == clientState.get(ST_DB)) {
+            throw new Exception("REQUIRE_USE_DB");
+        }
+        GraphCommandExecutor graphCommandExecutor = 
+            graphCommandExecutorMap.get(clientState.get(ST_DB));
+        if (null == graphCommandExecutor) {
+            throw new Exception("DB_NOT_EXIST " + clientState.get(ST_DB));
+        }
+        WeakReference<InboundChannelProcess> inboundChannelProcessRef =
+            inboundChannelMap.get(clientId);
+        
+        GraphCommand graphCommand = new GraphCommand();
+        graphCommand.responseChannel = responseChannel;
+        graphCommand.clientId = clientId;
+        graphCommand.clientState = clientState;
+        graphCommand.inboundChannelProcess = inboundChannelProcessRef.get();
+        graphCommand.bulkRequests = requests;
+        graphCommand.bulkLines = lines;
+        graphCommand.bulkCommit = commit;
+        graphCommand.bulkDone = new CountDownLatch(1);
+        graphCommandExecutor.queue(graphCommand);
+        graphCommand.bulkDone.await();
+        
+        JSONObject segmentResult = graphCommand.bulkResult;
+        if (segmentResult.has("error")) {
+            throw new Exception(segmentResult.getString("error"));
+        }
+        result.put("requests", result.getInt("requests") + segmentResult.getInt("requests"));
+        result.put("vertices", result.getInt("vertices") + segmentResult.getInt("vertices"));
+        result.put("edges", result.getInt("edges") + segmentResult.getInt("edges"));
+        result.put("error_count", result.getInt("error_count") + 
+            segmentResult.getInt("error_count"));
+        JSONArray errors = result.getJSONArray("errors");
+        JSONArray segmentErrors = segmentResult.getJSONArray("errors");
+        for(int i=0; i<segmentErrors.length() && errors.length() < 10; i++) {
+            errors.put(segmentErrors.get(i));
+        }
+    }
+    
+    private void addExecError(JSONObject result, String error) throws Exception {
+        result.put("error_count", result.getInt("error_count") + 1);
+        JSONArray errors = result.getJSONArray("errors");
+        if (errors.length() < 10) {
+            errors.put(error);
+        }
+    }
+    
+    private static boolean isServerCommand(String cmd) {
+        return cmd.equals(GraphServerProtocol.CMD_USE) ||
+               cmd.equals(GraphServerProtocol.CMD_CREATE) ||
+               cmd.equals(GraphServerProtocol.CMD_DROP) ||
+               cmd.equals(GraphServerProtocol.CMD_NAMECON) ||
+               cmd.equals(GraphServerProtocol.CMD_CLSTATE) ||
+               cmd.equals(GraphServerProtocol.CMD_SSTAT) ||
+               cmd.equals(GraphServerProtocol.CMD_LISTG) ||
+               cmd.equals(GraphServerProtocol.CMD_GSTAT);
+    }
+    
 }
@@ -30,6 +30,8 @@ public class GraphServerProtocol {
     final public    static String CMD_GSTAT = "gstat";        // dump graph status (debug)
     final public    static String CMD_LISTG = "listg";        // list names of graphs
     final public    static String CMD_EXEC = "exec";          // execute a file of commands
+    final public    static String CMD_SAVE = "save";          // write a graph snapshot to disk
+    final public    static String CMD_RESTORE = "restore";    // load a graph from a snapshot
     
     /* vertex, edge management, querying, attributes */
     
@@ -39,18 +41,24 @@ public class GraphServerProtocol {
     final public    static String CMD_CVERT = "cvert";        // create vertex
     final public    static String CMD_CEDGE = "cedge";        // create edge
     final public    static String CMD_SET = "set";            // set a property on an edge or vertex
+    final public    static String CMD_VSET = "vset";          // set one property of many vertices (journal record of write-backs)
     final public    static String CMD_DEL = "del";            // delete object (vertex or edge)
     final public    static String CMD_GET = "get";            // get object (vertex or edge)
     final public    static String CMD_SPY = "spy";            // dump JSONVertex or JSONEdge explicitly
     final public    static String CMD_INCW = "incw";          // increment edge weight
+    final public    static String CMD_IREFRESH = "irefresh";  // get/set graph index refresh policy
+    final public    static String CMD_JOURNAL = "journal";    // get/set graph journal mode
     
     /* analysis */
     
     final public    static String CMD_SPATH = "spath";        // shortest path between two vertices
+    final public    static String CMD_LANDMARKS = "landmarks";  // build/get the ALT landmarks used by spath
+    final public    static String CMD_CHBUILD = "chbuild";    // build/get/drop the contraction hierarchy used by spath
     final public    static String CMD_KSPATH = "kspath";      // k-shortest paths between two vertices (w/ opt. maxHops)
-    final public    static String CMD_HC = "hc";              // hamiltonian cycle "traveling salesman problem"
+    final public    static String CMD_HC = "hc";              // traveling salesman tour through a set of vertices
     final public    static String CMD_EC = "ec";              // eulerian circuit
-    final public    static String CMD_EKMF = "ekmf";          // edmonds karp maximum flow
+    final public    static String CMD_EKMF = "ekmf";          // maximum flow (push-relabel; named for edmonds karp)
+    final public    static String CMD_MINCUT = "mincut";      // minimum s-t cut
     final public    static String CMD_CN = "cn";              // chromatic number "graph coloring"
     final public    static String CMD_KMST = "kmst";          // compute (kruskal's) minimum spanning tree
     final public    static String CMD_VCG = "vcg";            // vertex cover (greedy)
@@ -59,11 +67,27 @@ public class GraphServerProtocol {
     final public    static String CMD_CSETS = "csets";        // all maximally connected sets
     final public    static String CMD_ISCON = "iscon";        // is graph connected?
     final public    static String CMD_UPATHEX = "upathex";    // does any UNDIRECTED path exist from v0 -> v1?
+    final public    static String CMD_REACH = "reach";        // does any DIRECTED path exist from v0 -> v1?
+    final public    static String CMD_SCCS = "sccs";          // all strongly connected sets
+    final public    static String CMD_SCCV = "sccv";          // strongly connected set of V
     final public    static String CMD_FAMC = "famc";          // Bron Kerosch Clique Finder: find all maximal cliques
     final public    static String CMD_FBMC = "fbmc";          // Bron Kerosch Clique Finder: find biggest maximal cliques
     final public    static String CMD_ASPV = "aspv";          // all shortest paths from V (via Floyd-Warshall)
-    final public    static String CMD_GCYC = "gcyc";          // get vertex set for the subgraph of all cycles
-    final public    static String CMD_VCYC = "vcyc";          // get vertex set for the subgraph of all cycles that contain V
+    final public    static String CMD_GCYC = "gcyc";          // elementary cycles (johnson), streamed
+    final public    static String CMD_VCYC = "vcyc";          // elementary cycles through V (johnson), streamed
+    final public    static String CMD_PAGERANK = "pagerank";  // pagerank of every vertex, written to its "pagerank" property
+    final public    static String CMD_PPR = "ppr";            // personalized pagerank from seed vertices, written to "ppr"
+    final public    static String CMD_HITS = "hits";          // hubs & authorities, written to "hub" & "authority"
+    final public    static String CMD_HITSP = "hitsp";        // hubs & authorities with priors, written to "hub_prior" & "authority_prior"
+    final public    static String CMD_EIGENVECTOR = "eigenvector";  // eigenvector centrality, written to "eigenvector"
+    final public    static String CMD_KSTEP = "kstep";        // k-step markov scores from seed vertices, written to "kstep"
+    final public    static String CMD_BETWEENNESS = "betweenness";  // betweenness centrality of every vertex, written to "betweenness"
+    final public    static String CMD_CLOSENESS = "closeness";      // closeness centrality of every vertex, written to "closeness"
+    final public    static String CMD_COLOR = "color";        // vertex coloring (dsatur, greedy, jones-plassmann), written to "color"
+    final public    static String CMD_CLOSURE_BUILD = "closure_build";  // build/get/drop the transitive closure of a relationship
+    final public    static String CMD_ANCESTORS = "ancestors";      // vertices reached from V by a closure's relationship
+    final public    static String CMD_DESCENDANTS = "descendants";  // vertices that reach V by a closure's relationship
+    final public    static String CMD_JOB = "job";            // run an analysis command in the background against a snapshot
     
     /* traversal */
     final public    static String CMD_TRAV = "trav";          // traverse a graph
@@ -108,5 +132,8 @@ public class GraphServerProtocol {
     
     final public    static String NL = "\n";
     final public    static String SPACE = " ";
+    final public    static String VIEW_REL = "rel:";                    // rel:<name> - view: the edges of one relationship
+    final public    static String HC_RESTARTS = "restarts:";            // restarts:<n> - hc: tours improved in parallel
+    final public    static String HC_TIMEOUT = "timeout:";              // timeout:<ms> - hc: time budget of the restarts
 
 }